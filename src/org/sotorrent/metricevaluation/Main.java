@@ -1,6 +1,19 @@
 package org.sotorrent.metricevaluation;
 
+import org.sotorrent.metricevaluation.evaluation.CombinedMetricSearch;
+import org.sotorrent.metricevaluation.evaluation.EvaluationMetrics;
+import org.sotorrent.metricevaluation.evaluation.EvaluationPlan;
+import org.sotorrent.metricevaluation.evaluation.EvaluationServer;
+import org.sotorrent.metricevaluation.evaluation.EvaluationTrace;
+import org.sotorrent.metricevaluation.evaluation.EventJournal;
 import org.sotorrent.metricevaluation.evaluation.MetricEvaluationManager;
+import org.sotorrent.metricevaluation.evaluation.MetricRace;
+import org.sotorrent.metricevaluation.evaluation.MetricResultEvent;
+import org.sotorrent.metricevaluation.evaluation.ParetoFrontFile;
+import org.sotorrent.metricevaluation.evaluation.ResultEventFile;
+import org.sotorrent.metricevaluation.evaluation.SimilarityMetric;
+import org.sotorrent.metricevaluation.evaluation.ThresholdSearch;
+import org.sotorrent.metricevaluation.evaluation.WorkQueue;
 import org.apache.commons.cli.*;
 
 import org.sotorrent.util.FileUtils;
@@ -12,6 +25,7 @@ import java.nio.file.Paths;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.SubmissionPublisher;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
@@ -57,6 +71,146 @@ class Main {
         combinedMetricsOption.setRequired(false);
         options.addOption(combinedMetricsOption);
 
+        Option metricsPortOption = new Option("mp", "metrics-port", true, "if present, live evaluation metrics are served in Prometheus text format on http://localhost:<port>/metrics");
+        metricsPortOption.setRequired(false);
+        options.addOption(metricsPortOption);
+
+        Option traceFileOption = new Option("tf", "trace-file", true, "if present, a timeline of the run is written to this file (Chrome trace-event JSON)");
+        traceFileOption.setRequired(false);
+        options.addOption(traceFileOption);
+
+        Option journalFileOption = new Option("jf", "journal-file", true, "if present, progress and diagnostic events are written to this binary event journal (see EventJournalReader)");
+        journalFileOption.setRequired(false);
+        options.addOption(journalFileOption);
+
+        Option comparisonLatenciesOption = new Option("cl", "comparison-latencies", false, "if present, latency histograms of individual block comparisons are written for each sample (<sample>_comparison_latencies.csv)");
+        comparisonLatenciesOption.setRequired(false);
+        options.addOption(comparisonLatenciesOption);
+
+        Option timingOnlyRepetitionsOption = new Option("to", "timing-only-repetitions", false, "if present, only the first repetition computes and validates the results, later repetitions only measure the runtime");
+        timingOnlyRepetitionsOption.setRequired(false);
+        options.addOption(timingOnlyRepetitionsOption);
+
+        Option randomSeedOption = new Option("rs", "random-seed", true, "if present, the randomized evaluation order of metrics and posts is reproducible (seed of each sample)");
+        randomSeedOption.setRequired(false);
+        options.addOption(randomSeedOption);
+
+        Option evaluationOrderOption = new Option("eo", "evaluation-order", true, "metric-major (default) or post-major (evaluate all metrics on a batch of posts before moving on)");
+        evaluationOrderOption.setRequired(false);
+        options.addOption(evaluationOrderOption);
+
+        Option postBatchSizeOption = new Option("pb", "post-batch-size", true, "number of posts per batch in post-major order (default: 1)");
+        postBatchSizeOption.setRequired(false);
+        options.addOption(postBatchSizeOption);
+
+        Option postThreadCountOption = new Option("pt", "post-thread-count", true, "number of threads evaluating post batches of one sample in parallel in post-major order, runtimes are not reliable with more than one thread (default: 1)");
+        postThreadCountOption.setRequired(false);
+        options.addOption(postThreadCountOption);
+
+        Option thresholdSearchOption = new Option("ts", "threshold-search", true, "if present, the thresholds of the selected metrics are searched adaptively instead of evaluating the fixed grid (objective: matthews-correlation, informedness, markedness, or f-score)");
+        thresholdSearchOption.setRequired(false);
+        options.addOption(thresholdSearchOption);
+
+        Option thresholdSearchPrecisionOption = new Option("tsp", "threshold-search-precision", true, "precision of the threshold search (default: 0.01)");
+        thresholdSearchPrecisionOption.setRequired(false);
+        options.addOption(thresholdSearchPrecisionOption);
+
+        Option raceOption = new Option("ra", "race", true, "if present, all metrics are raced on growing random subsets of posts and only the survivors are evaluated (objective: matthews-correlation or f-score)");
+        raceOption.setRequired(false);
+        options.addOption(raceOption);
+
+        Option raceInitialPostsOption = new Option("rip", "race-initial-posts", true, "number of posts in the first round of the race (default: 50)");
+        raceInitialPostsOption.setRequired(false);
+        options.addOption(raceInitialPostsOption);
+
+        Option raceMarginOption = new Option("rmg", "race-margin", true, "margin (in standard errors) a metric must be below the cutoff to be pruned in the race (default: 2.0)");
+        raceMarginOption.setRequired(false);
+        options.addOption(raceMarginOption);
+
+        Option combinedSearchOption = new Option("cs", "combined-search", true, "if present (together with test-combined-metrics), only the best combined metrics found by a branch-and-bound search are tested (objective: matthews-correlation, informedness, markedness, or f-score)");
+        combinedSearchOption.setRequired(false);
+        options.addOption(combinedSearchOption);
+
+        Option combinedSearchTopKOption = new Option("csk", "combined-search-top-k", true, "number of combined metrics returned by the combined search (default: 10)");
+        combinedSearchTopKOption.setRequired(false);
+        options.addOption(combinedSearchTopKOption);
+
+        Option paretoFrontOption = new Option("pf", "pareto-front", false, "if present, the Pareto fronts of accuracy (MCC, F-score) versus runtime are maintained during the run and written to pareto_front.csv");
+        paretoFrontOption.setRequired(false);
+        options.addOption(paretoFrontOption);
+
+        Option paretoFrontStableOption = new Option("pfs", "pareto-front-stable", true, "if present (together with pareto-front), the remaining metrics of a sample are skipped once this number of consecutive metrics did not change its Pareto fronts (metric-major order only)");
+        paretoFrontStableOption.setRequired(false);
+        options.addOption(paretoFrontStableOption);
+
+        Option shardOption = new Option("sh", "shard", true, "if present, only the (sample, metric) pairs of this shard are evaluated and partial results are written (<index>/<count>, e.g., 0/4)");
+        shardOption.setRequired(false);
+        options.addOption(shardOption);
+
+        Option mergeOption = new Option("mg", "merge-partial-results", true, "if present, the partial results of all shards in this directory are merged instead of evaluating the metrics");
+        mergeOption.setRequired(false);
+        options.addOption(mergeOption);
+
+        Option workQueueOption = new Option("wq", "work-queue", true, "if present, processes started with the same options claim work items (chunks of this number of metrics of one sample) from a queue in the output directory; the first process finding all items done merges the results");
+        workQueueOption.setRequired(false);
+        options.addOption(workQueueOption);
+
+        Option workQueueLeaseOption = new Option("wql", "work-queue-lease", true, "seconds after which a work item of a crashed process is claimed by another process (default: 600)");
+        workQueueLeaseOption.setRequired(false);
+        options.addOption(workQueueLeaseOption);
+
+        Option checkpointOption = new Option("ck", "checkpoint", false, "if present, the results of each completed metric are appended to a checkpoint for each sample (<sample>_checkpoint.csv)");
+        checkpointOption.setRequired(false);
+        options.addOption(checkpointOption);
+
+        Option resumeOption = new Option("re", "resume", false, "if present, the metrics completed in the checkpoints of a previous run with the same options are not evaluated again (implies checkpoint)");
+        resumeOption.setRequired(false);
+        options.addOption(resumeOption);
+
+        Option resultsCacheOption = new Option("rc", "results-cache", true, "if present, results of (sample, metric) pairs are cached in this directory and only metrics or samples that are new or changed since a previous run are evaluated");
+        resultsCacheOption.setRequired(false);
+        options.addOption(resultsCacheOption);
+
+        Option predictedConnectionsOption = new Option("pcs", "predicted-connections", false, "if present, the connections predicted by each metric are stored for each sample (<sample>_predicted_connections.bin), so that the results can be re-scored against a revised ground truth");
+        predictedConnectionsOption.setRequired(false);
+        options.addOption(predictedConnectionsOption);
+
+        Option rescoreOption = new Option("rsc", "rescore", true, "if present, the results are computed from the predicted connections stored in this directory against the current ground truth instead of evaluating the metrics");
+        rescoreOption.setRequired(false);
+        options.addOption(rescoreOption);
+
+        Option serverOption = new Option("srv", "server", true, "if present, the samples are loaded once and metric specs submitted to a local HTTP/JSON API on this port (POST /evaluate) are evaluated until POST /shutdown");
+        serverOption.setRequired(false);
+        options.addOption(serverOption);
+
+        Option postTimeBudgetOption = new Option("ptb", "post-time-budget", true, "if present, the evaluation of a metric on a post is aborted after this number of seconds; timed out posts are written to <sample>_timeouts.csv instead of the regular output files");
+        postTimeBudgetOption.setRequired(false);
+        options.addOption(postTimeBudgetOption);
+
+        Option metricTimeBudgetOption = new Option("mtb", "metric-time-budget", true, "if present, the evaluation of a metric on a sample (all posts and repetitions) is aborted after this number of seconds");
+        metricTimeBudgetOption.setRequired(false);
+        options.addOption(metricTimeBudgetOption);
+
+        Option skipAfterTimeoutOption = new Option("sat", "skip-after-timeout", false, "if present (together with post-time-budget), the remaining posts of a metric are skipped after its first timeout");
+        skipAfterTimeoutOption.setRequired(false);
+        options.addOption(skipAfterTimeoutOption);
+
+        Option longestFirstOption = new Option("lpt", "longest-first", false, "if present (together with evaluation-order post-major), posts are evaluated in descending order of their predicted cost; predicted and actual runtimes are written to <sample>_cost_model.csv");
+        longestFirstOption.setRequired(false);
+        options.addOption(longestFirstOption);
+
+        Option planOption = new Option("pl", "plan", false, "if present, the comparisons, runtime, and peak heap of the configured evaluation are estimated and written to plan.csv instead of evaluating the samples");
+        planOption.setRequired(false);
+        options.addOption(planOption);
+
+        Option planCalibrationPostsOption = new Option("plc", "plan-calibration-posts", true, "number of posts evaluated per metric family to calibrate the runtime estimate of the plan (default: 3)");
+        planCalibrationPostsOption.setRequired(false);
+        options.addOption(planCalibrationPostsOption);
+
+        Option resultEventsOption = new Option("ev", "result-events", true, "if present, the results of each version, post, and sample are written to this CSV file while the samples are evaluated (see ResultEventFile)");
+        resultEventsOption.setRequired(false);
+        options.addOption(resultEventsOption);
+
         CommandLineParser commandLineParser = new DefaultParser();
         HelpFormatter commandLineFormatter = new HelpFormatter();
         CommandLine commandLine;
@@ -77,6 +231,64 @@ class Main {
         boolean testDefaultMetric = commandLine.hasOption("test-default-metric");
         boolean testCombinedMetrics = commandLine.hasOption("test-combined-metrics");
         boolean addAllMetricsAndThresholds = !testSelectedMetrics && !testDefaultMetric && !testCombinedMetrics;
+        boolean recordComparisonLatencies = commandLine.hasOption("comparison-latencies");
+        boolean timingOnlyRepetitions = commandLine.hasOption("timing-only-repetitions");
+        Long randomSeed = commandLine.hasOption("random-seed") ? Long.parseLong(commandLine.getOptionValue("random-seed")) : null;
+        MetricEvaluationManager.EvaluationOrder evaluationOrder = MetricEvaluationManager.EvaluationOrder.valueOf(
+                commandLine.getOptionValue("evaluation-order", "metric-major").toUpperCase().replace('-', '_'));
+        int postBatchSize = Integer.parseInt(commandLine.getOptionValue("post-batch-size", "1"));
+        int postThreadCount = Integer.parseInt(commandLine.getOptionValue("post-thread-count", "1"));
+        ThresholdSearch.Objective thresholdSearchObjective = commandLine.hasOption("threshold-search")
+                ? ThresholdSearch.Objective.valueOf(commandLine.getOptionValue("threshold-search").toUpperCase().replace('-', '_'))
+                : null;
+        double thresholdSearchPrecision = Double.parseDouble(commandLine.getOptionValue("threshold-search-precision", "0.01"));
+        ThresholdSearch.Objective raceObjective = commandLine.hasOption("race")
+                ? ThresholdSearch.Objective.valueOf(commandLine.getOptionValue("race").toUpperCase().replace('-', '_'))
+                : null;
+        int raceInitialPostCount = Integer.parseInt(commandLine.getOptionValue("race-initial-posts", "50"));
+        double raceMargin = Double.parseDouble(commandLine.getOptionValue("race-margin", "2.0"));
+        ThresholdSearch.Objective combinedSearchObjective = commandLine.hasOption("combined-search")
+                ? ThresholdSearch.Objective.valueOf(commandLine.getOptionValue("combined-search").toUpperCase().replace('-', '_'))
+                : null;
+        int combinedSearchTopK = Integer.parseInt(commandLine.getOptionValue("combined-search-top-k", "10"));
+        int shardIndex = 0;
+        int shardCount = 1;
+        if (commandLine.hasOption("shard")) {
+            String[] shard = commandLine.getOptionValue("shard").split("/");
+            if (shard.length != 2) {
+                throw new IllegalArgumentException("Shard must be configured as <index>/<count>.");
+            }
+            shardIndex = Integer.parseInt(shard[0]);
+            shardCount = Integer.parseInt(shard[1]);
+        }
+        Path partialResultsDir = commandLine.hasOption("merge-partial-results")
+                ? Paths.get(commandLine.getOptionValue("merge-partial-results"))
+                : null;
+        WorkQueue workQueue = commandLine.hasOption("work-queue")
+                ? new WorkQueue(outputDir, Integer.parseInt(commandLine.getOptionValue("work-queue")),
+                        TimeUnit.SECONDS.toMillis(Long.parseLong(commandLine.getOptionValue("work-queue-lease", "600"))))
+                : null;
+        boolean writeCheckpoint = commandLine.hasOption("checkpoint");
+        boolean resume = commandLine.hasOption("resume");
+        Path resultsCacheDir = commandLine.hasOption("results-cache")
+                ? Paths.get(commandLine.getOptionValue("results-cache"))
+                : null;
+        boolean recordPredictedConnections = commandLine.hasOption("predicted-connections");
+        Path predictedConnectionsDir = commandLine.hasOption("rescore")
+                ? Paths.get(commandLine.getOptionValue("rescore"))
+                : null;
+        Integer serverPort = commandLine.hasOption("server")
+                ? Integer.parseInt(commandLine.getOptionValue("server"))
+                : null;
+        long postTimeBudget = TimeUnit.SECONDS.toMillis(Long.parseLong(commandLine.getOptionValue("post-time-budget", "0")));
+        long metricTimeBudget = TimeUnit.SECONDS.toMillis(Long.parseLong(commandLine.getOptionValue("metric-time-budget", "0")));
+        boolean skipAfterTimeout = commandLine.hasOption("skip-after-timeout");
+        boolean longestFirst = commandLine.hasOption("longest-first");
+        boolean plan = commandLine.hasOption("plan");
+        int planCalibrationPostCount = Integer.parseInt(commandLine.getOptionValue("plan-calibration-posts", "3"));
+        Path resultEventsFile = commandLine.hasOption("result-events")
+                ? Paths.get(commandLine.getOptionValue("result-events"))
+                : null;
         Path selectedMetricsDir = null;
 
         if (testSelectedMetrics) {
@@ -86,26 +298,246 @@ class Main {
             selectedMetricsDir = Paths.get(commandLine.getOptionValue("selected-metrics-dir"));
         }
 
+        if (thresholdSearchObjective != null && !testSelectedMetrics) {
+            throw new IllegalArgumentException("Threshold search requires selected-metrics-dir.");
+        }
+
+        if (raceObjective != null && !addAllMetricsAndThresholds) {
+            throw new IllegalArgumentException("Race can only be configured if all metrics are tested.");
+        }
+
+        if (combinedSearchObjective != null && !testCombinedMetrics) {
+            throw new IllegalArgumentException("Combined search requires test-combined-metrics.");
+        }
+
+        if (commandLine.hasOption("shard") || partialResultsDir != null || workQueue != null) {
+            if ((commandLine.hasOption("shard") ? 1 : 0) + (partialResultsDir != null ? 1 : 0) + (workQueue != null ? 1 : 0) > 1) {
+                throw new IllegalArgumentException("Either shard OR merge-partial-results OR work-queue can be configured.");
+            }
+            // all shards, work queue processes, and the merge must configure exactly the same metrics
+            if (thresholdSearchObjective != null || raceObjective != null || combinedSearchObjective != null
+                    || commandLine.hasOption("pareto-front")) {
+                throw new IllegalArgumentException("Shards and work queue cannot be combined with threshold-search, race, combined-search, or pareto-front.");
+            }
+        }
+
+        if ((writeCheckpoint || resume) && workQueue != null) {
+            throw new IllegalArgumentException("Work queue cannot be combined with checkpoint or resume (work items of crashed processes are evaluated again).");
+        }
+
+        if (resultsCacheDir != null && (recordComparisonLatencies || recordPredictedConnections)) {
+            // only counters and runtimes are cached
+            throw new IllegalArgumentException("Results cache cannot be combined with comparison-latencies or predicted-connections.");
+        }
+
+        if (recordPredictedConnections && commandLine.hasOption("pareto-front-stable")) {
+            throw new IllegalArgumentException("Predicted connections cannot be stored if metrics are skipped (pareto-front-stable).");
+        }
+
+        if (predictedConnectionsDir != null) {
+            // re-scoring must configure exactly the same metrics as the run that stored the predicted connections
+            if (commandLine.hasOption("shard") || partialResultsDir != null || workQueue != null
+                    || thresholdSearchObjective != null || raceObjective != null || combinedSearchObjective != null
+                    || commandLine.hasOption("pareto-front") || writeCheckpoint || resume) {
+                throw new IllegalArgumentException("Rescore cannot be combined with shard, merge-partial-results, work-queue, threshold-search, race, combined-search, pareto-front, checkpoint, or resume.");
+            }
+        }
+
+        if (serverPort != null) {
+            // the server only evaluates submitted metrics and writes no output files
+            if (commandLine.hasOption("shard") || partialResultsDir != null || workQueue != null
+                    || predictedConnectionsDir != null || thresholdSearchObjective != null || raceObjective != null
+                    || combinedSearchObjective != null || commandLine.hasOption("pareto-front")
+                    || writeCheckpoint || resume || resultsCacheDir != null || recordPredictedConnections) {
+                throw new IllegalArgumentException("Server can only be combined with the options that select the samples and the evaluation (e.g., samples-dir, random-seed).");
+            }
+        }
+
+        if (postTimeBudget > 0 || metricTimeBudget > 0) {
+            // merged results require all metrics of all shards and work items, re-scoring requires all posts
+            if (commandLine.hasOption("shard") || partialResultsDir != null || workQueue != null
+                    || recordPredictedConnections) {
+                throw new IllegalArgumentException("Time budgets cannot be combined with shard, merge-partial-results, work-queue, or predicted-connections.");
+            }
+        } else if (skipAfterTimeout) {
+            throw new IllegalArgumentException("skip-after-timeout requires post-time-budget or metric-time-budget.");
+        }
+
+        if (longestFirst && evaluationOrder != MetricEvaluationManager.EvaluationOrder.POST_MAJOR) {
+            // metrics are evaluated one after another in metric-major order, the order of posts does not affect the makespan
+            throw new IllegalArgumentException("longest-first requires evaluation-order post-major.");
+        }
+
+        if (plan) {
+            // the plan only covers the configured metrics (searches and races select them by evaluating)
+            if (commandLine.hasOption("shard") || partialResultsDir != null || workQueue != null
+                    || predictedConnectionsDir != null || serverPort != null || thresholdSearchObjective != null
+                    || raceObjective != null || combinedSearchObjective != null || resume) {
+                throw new IllegalArgumentException("Plan cannot be combined with shard, merge-partial-results, work-queue, rescore, server, threshold-search, race, combined-search, or resume.");
+            }
+        }
+
+        if (resultEventsFile != null) {
+            // results are only published by managers evaluating the metrics
+            if (partialResultsDir != null || predictedConnectionsDir != null || serverPort != null
+                    || thresholdSearchObjective != null || plan) {
+                throw new IllegalArgumentException("Result events cannot be combined with merge-partial-results, rescore, server, threshold-search, or plan.");
+            }
+        }
+
         if (testCombinedMetrics) {
             if (testDefaultMetric) {
                 throw new IllegalArgumentException("Either selected-metrics-dir OR test-default-metric OR test-combined-metrics can be configured.");
             }
         }
 
+        if (commandLine.hasOption("metrics-port")) {
+            int metricsPort;
+            try {
+                metricsPort = Integer.parseInt(commandLine.getOptionValue("metrics-port"));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Metrics port must be a number, but was " + commandLine.getOptionValue("metrics-port") + ".");
+            }
+            try {
+                EvaluationMetrics.startEndpoint(metricsPort);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        Path traceFile = null;
+        if (commandLine.hasOption("trace-file")) {
+            traceFile = Paths.get(commandLine.getOptionValue("trace-file"));
+            EvaluationTrace.enable();
+        }
+
+        if (commandLine.hasOption("journal-file")) {
+            try {
+                EventJournal.open(Paths.get(commandLine.getOptionValue("journal-file")));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        ParetoFrontFile paretoFrontFile = null;
+        if (commandLine.hasOption("pareto-front")) {
+            int paretoFrontStableEvaluations = Integer.parseInt(commandLine.getOptionValue("pareto-front-stable", "0"));
+            paretoFrontFile = new ParetoFrontFile(Paths.get(outputDir.toString(), "pareto_front.csv"), paretoFrontStableEvaluations);
+        } else if (commandLine.hasOption("pareto-front-stable")) {
+            throw new IllegalArgumentException("pareto-front-stable requires pareto-front.");
+        }
+
         logger.info("Creating thread pool with at most " + threadCount + " threads...");
         // it is recommended to process only one sample at a time to prevent a bias in the runtime measurements
         ExecutorService threadPool = Executors.newFixedThreadPool(threadCount);
 
+        // the subscriber is added once the output directory has been emptied (see below)
+        SubmissionPublisher<MetricResultEvent> resultPublisher = resultEventsFile != null ? new SubmissionPublisher<>() : null;
+
+        MetricEvaluationManager template = MetricEvaluationManager.DEFAULT
+                .withTimingOnlyRepetitions(timingOnlyRepetitions)
+                .withComparisonLatencies(recordComparisonLatencies)
+                .withRandomSeed(randomSeed)
+                .withEvaluationOrder(evaluationOrder)
+                .withPostBatchSize(postBatchSize)
+                .withThreadCount(postThreadCount)
+                .withShard(shardIndex, shardCount)
+                .withCheckpoint(writeCheckpoint, resume)
+                .withResultsCache(resultsCacheDir)
+                .withPredictedConnections(recordPredictedConnections)
+                .withTimeBudget(postTimeBudget, metricTimeBudget, skipAfterTimeout)
+                .withLongestFirst(longestFirst)
+                .withParetoFront(paretoFrontFile)
+                .withResultPublisher(resultPublisher);
+
+        // shards and work queue processes share the output directory, thus it is only emptied for a complete run
+        // the checkpoints of the previous run are kept when resuming, the stored predicted connections when re-scoring,
+        // and the results of the previous run when planning
+        boolean emptyOutputDir = shardCount == 1 && partialResultsDir == null && workQueue == null && !resume
+                && predictedConnectionsDir == null && serverPort == null && !plan;
         List<MetricEvaluationManager> managers = MetricEvaluationManager.createManagersFromSampleDirectories(
-                samplesDir, outputDir, addAllMetricsAndThresholds
+                samplesDir, outputDir, addAllMetricsAndThresholds && raceObjective == null && serverPort == null,
+                null, template, emptyOutputDir
         );
 
+        ResultEventFile resultEventFile = null;
+        if (resultPublisher != null) {
+            try {
+                resultEventFile = new ResultEventFile(resultEventsFile);
+                resultPublisher.subscribe(resultEventFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (serverPort != null) {
+            threadPool.shutdown();
+            EvaluationServer server = new EvaluationServer(managers);
+            try {
+                server.start(serverPort);
+                server.awaitStop();
+                logger.info("Evaluation server stopped.");
+
+                if (traceFile != null) {
+                    EvaluationTrace.writeToFile(traceFile);
+                }
+            } catch (IOException | InterruptedException e) {
+                e.printStackTrace();
+            } finally {
+                server.stop();
+                // the metrics endpoint would keep the JVM alive after the server stopped
+                EvaluationMetrics.stopEndpoint();
+                EventJournal.close();
+            }
+            return;
+        }
+
+        if (thresholdSearchObjective != null) {
+            threadPool.shutdown();
+            try {
+                logger.info("Searching thresholds of selected metrics...");
+                ThresholdSearch thresholdSearch = new ThresholdSearch(managers, thresholdSearchObjective, thresholdSearchPrecision);
+                List<SimilarityMetric> bestSimilarityMetrics = thresholdSearch.searchAndWriteToCSV(
+                        MetricEvaluationManager.readSelectedSimilarityMetrics(selectedMetricsDir),
+                        Paths.get(outputDir.toString(), "threshold_search.csv").toFile()
+                );
+                logger.info("Best thresholds (objective " + thresholdSearchObjective + "): " + bestSimilarityMetrics);
+
+                if (traceFile != null) {
+                    EvaluationTrace.writeToFile(traceFile);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                EvaluationMetrics.stopEndpoint();
+                EventJournal.close();
+            }
+            return;
+        }
+
+        List<SimilarityMetric> raceSurvivors = null;
+        if (raceObjective != null) {
+            logger.info("Racing all metrics...");
+            MetricRace race = new MetricRace(managers, raceObjective, raceInitialPostCount, raceMargin, randomSeed);
+            raceSurvivors = race.raceAndWriteToCSV(
+                    MetricEvaluationManager.getAllSimilarityMetrics(),
+                    Paths.get(outputDir.toString(), "race_trace.csv").toFile()
+            );
+        }
+
         if (testSelectedMetrics) {
             logger.info("Creating selected metrics...");
             MetricEvaluationManager.createSelectedSimilarityMetrics(selectedMetricsDir);
         }
 
-        if (testCombinedMetrics) {
+        List<SimilarityMetric> combinedSearchResults = null;
+        if (combinedSearchObjective != null) {
+            logger.info("Searching combined metrics...");
+            CombinedMetricSearch combinedSearch = new CombinedMetricSearch(managers, combinedSearchObjective, combinedSearchTopK);
+            combinedSearchResults = combinedSearch.searchAndWriteToCSV(
+                    Paths.get(outputDir.toString(), "combined_search.csv").toFile()
+            );
+        } else if (testCombinedMetrics) {
             logger.info("Creating combined metrics...");
             MetricEvaluationManager.createCombinedSimilarityMetrics();
         }
@@ -118,37 +550,140 @@ class Main {
                 manager.addSelectedSimilarityMetrics();
             }
 
-            if (testCombinedMetrics) {
+            if (combinedSearchResults != null) {
+                logger.info("Adding " + combinedSearchResults.size() + " searched combined metrics to manager for sample " + manager.getSampleName() + "...");
+                for (SimilarityMetric combinedMetric : combinedSearchResults) {
+                    manager.addSimilarityMetric(combinedMetric);
+                }
+            } else if (testCombinedMetrics) {
                 logger.info("Adding combined metrics to manager for sample " + manager.getSampleName() + "...");
                 manager.addCombinedSimilarityMetrics();
             }
 
+            if (raceSurvivors != null) {
+                logger.info("Adding " + raceSurvivors.size() + " race survivors to manager for sample " + manager.getSampleName() + "...");
+                for (SimilarityMetric survivor : raceSurvivors) {
+                    manager.addSimilarityMetric(survivor);
+                }
+            }
+
             if (testDefaultMetric) {
                 logger.info("Adding default metric to manager for sample " + manager.getSampleName() + "...");
                 manager.addDefaultSimilarityMetric();
             }
 
+            if (plan) {
+                // the samples are only planned after all managers have been configured
+                continue;
+            }
+
+            if (partialResultsDir != null) {
+                // merging is cheap compared to the evaluation, thus the samples are merged sequentially
+                logger.info("Merging partial results for sample " + manager.getSampleName() + "...");
+                manager.mergePartialResults(partialResultsDir);
+                continue;
+            }
+
+            if (predictedConnectionsDir != null) {
+                logger.info("Re-scoring predicted connections for sample " + manager.getSampleName() + "...");
+                manager.rescore(predictedConnectionsDir);
+                continue;
+            }
+
+            if (workQueue != null) {
+                // work items are claimed from the queue after all managers have been configured
+                continue;
+            }
+
             threadPool.execute(new Thread(manager));
         }
 
+        if (plan) {
+            threadPool.shutdown();
+            logger.info("Planning evaluation of " + managers.size() + " samples...");
+            EvaluationPlan evaluationPlan = new EvaluationPlan(managers, planCalibrationPostCount);
+            evaluationPlan.planAndWriteToCSV(Paths.get(outputDir.toString(), "plan.csv").toFile());
+            EvaluationMetrics.stopEndpoint();
+            EventJournal.close();
+            return;
+        }
+
         logger.info("Waiting for termination of thread pool...");
         threadPool.shutdown();
         try {
             threadPool.awaitTermination(1, TimeUnit.DAYS);
             logger.info("Thread pool terminated, all samples evaluated.");
-            logger.info("Saving aggregated results over all samples...");
 
-            // output file aggregated over all samples
-            Path outputFileAggregated= Paths.get(outputDir.toString(), "MetricComparison_aggregated.csv");
-            FileUtils.deleteFileIfExists(outputFileAggregated);
+            if (workQueue != null) {
+                logger.info("Processing work queue...");
+                boolean merged = workQueue.process(managers, () -> {
+                    for (MetricEvaluationManager manager : managers) {
+                        logger.info("Merging partial results for sample " + manager.getSampleName() + "...");
+                        manager.mergePartialResults(outputDir);
+                    }
+                    // part of the merge, thus a crash before the aggregated results are written repeats the merge
+                    try {
+                        writeAggregatedResults(managers, outputDir);
+                    } catch (IOException e) {
+                        String msg = "Writing aggregated results failed: " + e;
+                        logger.warning(msg);
+                        throw new IllegalStateException(msg, e);
+                    }
+                });
+                if (!merged) {
+                    logger.info("Work queue processed, results were merged by another process.");
+                }
+                if (traceFile != null) {
+                    EvaluationTrace.writeToFile(traceFile);
+                }
+                return;
+            }
+
+            if (shardCount > 1) {
+                // aggregated results are written when the partial results of all shards are merged
+                logger.info("Partial results of shard " + shardIndex + "/" + shardCount + " saved.");
+                if (traceFile != null) {
+                    EvaluationTrace.writeToFile(traceFile);
+                }
+                return;
+            }
+
+            writeAggregatedResults(managers, outputDir);
 
-            MetricEvaluationManager.aggregateAndWriteSampleResults(managers, outputFileAggregated.toFile());
+            if (traceFile != null) {
+                EvaluationTrace.writeToFile(traceFile);
+            }
 
         } catch (InterruptedException e) {
             threadPool.shutdownNow();
             e.printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            if (resultPublisher != null) {
+                // all events have been submitted, wait until they have been written
+                resultPublisher.close();
+                if (resultEventFile != null) {
+                    try {
+                        resultEventFile.awaitClose();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        e.printStackTrace();
+                    }
+                }
+            }
+            EvaluationMetrics.stopEndpoint();
+            EventJournal.close();
         }
     }
+
+    private static void writeAggregatedResults(List<MetricEvaluationManager> managers, Path outputDir) throws IOException {
+        logger.info("Saving aggregated results over all samples...");
+
+        // output file aggregated over all samples
+        Path outputFileAggregated= Paths.get(outputDir.toString(), "MetricComparison_aggregated.csv");
+        FileUtils.deleteFileIfExists(outputFileAggregated);
+
+        MetricEvaluationManager.aggregateAndWriteSampleResults(managers, outputFileAggregated.toFile());
+    }
 }
@@ -0,0 +1,311 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.QuoteMode;
+import org.sotorrent.util.LogUtils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Branch-and-bound search for the best combined metrics (see MetricEvaluationManager.createCombinedCandidates()).
+ * Text and code blocks are evaluated independently, thus the best (metric, backup metric) pairs are searched separately
+ * for text and code, evaluating one text pair and one code pair at a time.
+ * Each primary metric is first evaluated without backup metric. A backup metric is only used for blocks for which the
+ * primary metric did not find a predecessor, thus it can at most turn the false negatives of the primary metric into
+ * true positives (without changing the false positives). This yields an upper bound for the objective of all pairs with
+ * this primary metric. Primary metrics are explored in the order of their bounds, and a branch is pruned as soon as its
+ * bound does not exceed the k-th best objective found so far.
+ */
+public class CombinedMetricSearch {
+    private enum Phase {PRIMARY, COMBINATION, PRUNED, TOP}
+
+    private static Logger logger;
+    private static final CSVFormat csvFormatCombinedSearch;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(CombinedMetricSearch.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // configure CSV format for combined metric search (per evaluated or pruned combination)
+        csvFormatCombinedSearch = CSVFormat.DEFAULT
+                .withHeader("BlockType", "Phase", "MetricType", "Metric", "Threshold", "MetricTypeBackup", "MetricBackup", "ThresholdBackup", "Objective", "Value", "Bound", "PrunedCombinations", "Rank")
+                .withDelimiter(';')
+                .withQuote('"')
+                .withQuoteMode(QuoteMode.MINIMAL)
+                .withEscape('\\')
+                .withNullString("null");
+    }
+
+    private final List<MetricEvaluationManager> managers;
+    private final ThresholdSearch.Objective objective;
+    private final int topK;
+
+    private CSVPrinter csvPrinter;
+
+    public CombinedMetricSearch(List<MetricEvaluationManager> managers, ThresholdSearch.Objective objective, int topK) {
+        if (topK < 1) {
+            String msg = "Number of combined metrics to return must be at least 1, but was " + topK;
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        this.managers = managers;
+        this.objective = objective;
+        this.topK = topK;
+    }
+
+    /**
+     * Searches the best combinations of the configured candidates and writes every evaluated and pruned combination
+     * to the output file. Returns (at most) k combined metrics, the i-th metric combines the i-th best text pair with
+     * the i-th best code pair.
+     */
+    public List<SimilarityMetric> searchAndWriteToCSV(File outputFile) {
+        MetricEvaluationManager.createCombinedCandidates();
+
+        BlockTypeSearch searchText = new BlockTypeSearch(MetricResultStore.TEXT,
+                MetricEvaluationManager.getCombinedCandidatesText(),
+                MetricEvaluationManager.getCombinedCandidatesTextBackup());
+        BlockTypeSearch searchCode = new BlockTypeSearch(MetricResultStore.CODE,
+                MetricEvaluationManager.getCombinedCandidatesCode(),
+                MetricEvaluationManager.getCombinedCandidatesCodeBackup());
+
+        List<SimilarityMetric> bestSimilarityMetrics = new LinkedList<>();
+
+        try (CSVPrinter csvPrinter = new CSVPrinter(new FileWriter(outputFile), csvFormatCombinedSearch)) {
+            this.csvPrinter = csvPrinter;
+
+            int evaluations = 0;
+            Combination nextText = searchText.next();
+            Combination nextCode = searchCode.next();
+            while (nextText != null || nextCode != null) {
+                // one evaluation yields the results for a text pair and a code pair
+                Combination combinationText = nextText != null ? nextText : searchText.getAnyCombination();
+                Combination combinationCode = nextCode != null ? nextCode : searchCode.getAnyCombination();
+                SimilarityMetric similarityMetric = MetricEvaluationManager.createCombinedSimilarityMetric(
+                        combinationText.metric, combinationText.backupMetric,
+                        combinationCode.metric, combinationCode.backupMetric
+                );
+
+                MetricResult[] results = evaluateOnSamples(similarityMetric);
+                evaluations++;
+
+                if (nextText != null) {
+                    searchText.addResult(nextText, results[MetricResultStore.TEXT]);
+                }
+                if (nextCode != null) {
+                    searchCode.addResult(nextCode, results[MetricResultStore.CODE]);
+                }
+                csvPrinter.flush();
+
+                nextText = searchText.next();
+                nextCode = searchCode.next();
+            }
+
+            List<Combination> bestText = searchText.writeTopCombinations();
+            List<Combination> bestCode = searchCode.writeTopCombinations();
+            for (int i = 0; i < Math.min(bestText.size(), bestCode.size()); i++) {
+                bestSimilarityMetrics.add(MetricEvaluationManager.createCombinedSimilarityMetric(
+                        bestText.get(i).metric, bestText.get(i).backupMetric,
+                        bestCode.get(i).metric, bestCode.get(i).backupMetric
+                ));
+            }
+
+            logger.info("Combined metric search finished after " + evaluations + " evaluations ("
+                    + searchText.getCombinationCount() + " text and " + searchCode.getCombinationCount()
+                    + " code combinations, " + searchText.prunedCombinations + " text and "
+                    + searchCode.prunedCombinations + " code combinations pruned).");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return bestSimilarityMetrics;
+    }
+
+    /*
+     * Returns the results of the given metric (text, code) aggregated over all samples.
+     */
+    MetricResult[] evaluateOnSamples(SimilarityMetric similarityMetric) {
+        MetricResult resultText = new MetricResult(similarityMetric);
+        MetricResult resultCode = new MetricResult(similarityMetric);
+        for (MetricEvaluationManager manager : managers) {
+            MetricEvaluationPerSample evaluationPerSample = manager.evaluateSimilarityMetric(similarityMetric);
+            resultText.add(evaluationPerSample.getResultAggregatedBySampleText());
+            resultCode.add(evaluationPerSample.getResultAggregatedBySampleCode());
+        }
+
+        MetricResult[] results = new MetricResult[2];
+        results[MetricResultStore.TEXT] = resultText;
+        results[MetricResultStore.CODE] = resultCode;
+        return results;
+    }
+
+    private void writeToCSV(int type, Phase phase, Combination combination, Double bound,
+                            Integer prunedCombinations, Integer rank) throws IOException {
+        SimilarityMetric metric = combination.metric;
+        SimilarityMetric backupMetric = combination.backupMetric;
+        boolean text = type == MetricResultStore.TEXT;
+
+        // "BlockType", "Phase", "MetricType", "Metric", "Threshold",
+        // "MetricTypeBackup", "MetricBackup", "ThresholdBackup",
+        // "Objective", "Value", "Bound", "PrunedCombinations", "Rank"
+        csvPrinter.printRecord(
+                text ? "TEXT" : "CODE",
+                phase,
+                text ? metric.getTypeText() : metric.getTypeCode(),
+                text ? metric.getNameText() : metric.getNameCode(),
+                text ? metric.getConfig().getTextSimilarityThreshold() : metric.getConfig().getCodeSimilarityThreshold(),
+                backupMetric == null ? null : (text ? backupMetric.getTypeText() : backupMetric.getTypeCode()),
+                backupMetric == null ? null : (text ? backupMetric.getNameText() : backupMetric.getNameCode()),
+                backupMetric == null ? null : (text ? backupMetric.getConfig().getTextSimilarityThreshold() : backupMetric.getConfig().getCodeSimilarityThreshold()),
+                objective,
+                combination.result == null ? null : ThresholdSearch.getObjective(objective, combination.result),
+                bound,
+                prunedCombinations,
+                rank
+        );
+    }
+
+    private static class Combination {
+        private final SimilarityMetric metric;
+        private final SimilarityMetric backupMetric; // null -> primary metric only
+        private MetricResult result;
+
+        private Combination(SimilarityMetric metric, SimilarityMetric backupMetric) {
+            this.metric = metric;
+            this.backupMetric = backupMetric;
+        }
+    }
+
+    /*
+     * State of the search for one block type (text or code).
+     */
+    private class BlockTypeSearch {
+        private final int type;
+        private final List<SimilarityMetric> metrics;
+        private final List<SimilarityMetric> backupMetrics;
+
+        private final Combination[] primaryCombinations; // primary metrics without backup metric
+        private final double[] bounds; // primary metric -> upper bound of objective of its combinations
+        private Integer[] branchOrder; // primary metrics ordered by bound (descending), null before all bounds are known
+        private int nextPrimary; // next primary metric to evaluate without backup metric
+        private int branch; // position in branchOrder
+        private int nextBackup; // next backup metric in current branch
+
+        // k best combinations, worst first
+        private final PriorityQueue<Combination> topCombinations;
+        private int prunedCombinations;
+
+        private BlockTypeSearch(int type, List<SimilarityMetric> metrics, List<SimilarityMetric> backupMetrics) {
+            this.type = type;
+            this.metrics = new ArrayList<>(metrics);
+            this.backupMetrics = new ArrayList<>(backupMetrics);
+            this.primaryCombinations = new Combination[metrics.size()];
+            this.bounds = new double[metrics.size()];
+            this.topCombinations = new PriorityQueue<>(Comparator.comparingDouble(this::getObjective));
+        }
+
+        int getCombinationCount() {
+            return metrics.size() * backupMetrics.size();
+        }
+
+        /*
+         * Combination to evaluate next, null if the search is finished.
+         */
+        Combination next() throws IOException {
+            // first phase: primary metrics without backup metric
+            if (nextPrimary < metrics.size()) {
+                return new Combination(metrics.get(nextPrimary), null);
+            }
+
+            if (branchOrder == null) {
+                branchOrder = new Integer[metrics.size()];
+                for (int i = 0; i < branchOrder.length; i++) {
+                    branchOrder[i] = i;
+                }
+                Arrays.sort(branchOrder, (i, j) -> Double.compare(bounds[j], bounds[i]));
+            }
+
+            // second phase: branches with backup metrics
+            while (branch < branchOrder.length) {
+                int primary = branchOrder[branch];
+                if (topCombinations.size() == topK && bounds[primary] <= getObjective(topCombinations.peek())) {
+                    // branches are ordered by bound, thus all remaining branches can be pruned
+                    for (int position = branch; position < branchOrder.length; position++) {
+                        int remainingPrimary = branchOrder[position];
+                        int remainingCombinations = backupMetrics.size() - (position == branch ? nextBackup : 0);
+                        prunedCombinations += remainingCombinations;
+                        writeToCSV(type, Phase.PRUNED, primaryCombinations[remainingPrimary], bounds[remainingPrimary],
+                                remainingCombinations, null);
+                    }
+                    branch = branchOrder.length;
+                    return null;
+                }
+                if (nextBackup < backupMetrics.size()) {
+                    return new Combination(metrics.get(primary), backupMetrics.get(nextBackup));
+                }
+                branch++;
+                nextBackup = 0;
+            }
+            return null;
+        }
+
+        void addResult(Combination combination, MetricResult result) throws IOException {
+            combination.result = result;
+            if (combination.backupMetric == null) {
+                primaryCombinations[nextPrimary] = combination;
+                bounds[nextPrimary] = getBound(result);
+                writeToCSV(type, Phase.PRIMARY, combination, bounds[nextPrimary], null, null);
+                nextPrimary++;
+            } else {
+                writeToCSV(type, Phase.COMBINATION, combination, bounds[branchOrder[branch]], null, null);
+                nextBackup++;
+            }
+
+            // primary metrics without backup metric are valid combinations as well
+            topCombinations.add(combination);
+            if (topCombinations.size() > topK) {
+                topCombinations.poll();
+            }
+        }
+
+        /*
+         * Any already evaluated combination, used if the other block type still needs evaluations.
+         */
+        Combination getAnyCombination() {
+            return primaryCombinations[0] != null ? primaryCombinations[0] : new Combination(metrics.get(0), null);
+        }
+
+        List<Combination> writeTopCombinations() throws IOException {
+            List<Combination> bestCombinations = new ArrayList<>(topCombinations);
+            bestCombinations.sort(Comparator.comparingDouble(this::getObjective).reversed());
+            for (int rank = 0; rank < bestCombinations.size(); rank++) {
+                Combination combination = bestCombinations.get(rank);
+                writeToCSV(type, Phase.TOP, combination, null, null, rank + 1);
+            }
+            return bestCombinations;
+        }
+
+        private double getObjective(Combination combination) {
+            return ThresholdSearch.getObjective(objective, combination.result);
+        }
+
+        /*
+         * Objective if the backup metric would turn all false negatives into true positives.
+         */
+        private double getBound(MetricResult result) {
+            MetricResult bound = new MetricResult(result.getSimilarityMetric());
+            bound.add(result);
+            bound.setTruePositives(result.getTruePositives() + result.getFalseNegatives());
+            bound.setFalseNegatives(0);
+            return ThresholdSearch.getObjective(objective, bound);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.csv.CSVPrinter;
+import org.sotorrent.posthistoryextractor.Config;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Latency histograms of individual block comparisons of one similarity metric, bucketed by the combined length of the
+ * two compared blocks. The histograms are filled by wrapping the similarity functions of the metric's config.
+ */
+class ComparisonLatencies {
+    enum Comparison {TEXT, TEXT_BACKUP, CODE, CODE_BACKUP}
+
+    // bucket i contains combined lengths in [2^(i+MIN_BUCKET_EXPONENT-1), 2^(i+MIN_BUCKET_EXPONENT)),
+    // the first bucket starts at 0, the last bucket is unbounded
+    private static final int MIN_BUCKET_EXPONENT = 6; // 64 characters
+    private static final int BUCKET_COUNT = 12; // last bucket starts at 2^16 characters
+    private static final long HIGHEST_TRACKABLE_LATENCY = TimeUnit.MINUTES.toNanos(10);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final SimilarityMetric similarityMetric;
+    private final Histogram[][] histograms; // comparison -> length bucket -> latencies in nanoseconds
+
+    ComparisonLatencies(SimilarityMetric similarityMetric) {
+        this.similarityMetric = similarityMetric;
+        this.histograms = new Histogram[Comparison.values().length][BUCKET_COUNT];
+        for (Comparison comparison : Comparison.values()) {
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                // posts of one sample may be evaluated concurrently
+                histograms[comparison.ordinal()][bucket] = new ConcurrentHistogram(HIGHEST_TRACKABLE_LATENCY, SIGNIFICANT_DIGITS);
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the given config in which all configured similarity functions record their latency.
+     */
+    Config instrument(Config config) {
+        Config instrumentedConfig = config
+                .withTextSimilarityMetric(instrument(config.getTextSimilarityMetric(), Comparison.TEXT))
+                .withCodeSimilarityMetric(instrument(config.getCodeSimilarityMetric(), Comparison.CODE));
+        // backup metrics are optional
+        if (config.getTextBackupSimilarityMetric() != null) {
+            instrumentedConfig = instrumentedConfig.withTextBackupSimilarityMetric(
+                    instrument(config.getTextBackupSimilarityMetric(), Comparison.TEXT_BACKUP));
+        }
+        if (config.getCodeBackupSimilarityMetric() != null) {
+            instrumentedConfig = instrumentedConfig.withCodeBackupSimilarityMetric(
+                    instrument(config.getCodeBackupSimilarityMetric(), Comparison.CODE_BACKUP));
+        }
+        return instrumentedConfig;
+    }
+
+    private BiFunction<String, String, Double> instrument(BiFunction<String, String, Double> metric, Comparison comparison) {
+        if (metric == null) {
+            return null;
+        }
+        Histogram[] histogramsPerBucket = histograms[comparison.ordinal()];
+        return (str1, str2) -> {
+            long startTime = System.nanoTime();
+            try {
+                return metric.apply(str1, str2);
+            } finally {
+                long latency = System.nanoTime() - startTime;
+                int combinedLength = (str1 == null ? 0 : str1.length()) + (str2 == null ? 0 : str2.length());
+                histogramsPerBucket[getBucket(combinedLength)].recordValue(Math.min(latency, HIGHEST_TRACKABLE_LATENCY));
+            }
+        };
+    }
+
+    static int getBucket(int combinedLength) {
+        int exponent = 32 - Integer.numberOfLeadingZeros(combinedLength); // combinedLength < 2^exponent
+        return Math.min(Math.max(exponent - MIN_BUCKET_EXPONENT, 0), BUCKET_COUNT - 1);
+    }
+
+    static int getBucketMinLength(int bucket) {
+        return bucket == 0 ? 0 : 1 << (bucket + MIN_BUCKET_EXPONENT - 1);
+    }
+
+    static Integer getBucketMaxLength(int bucket) {
+        // null -> unbounded
+        return bucket == BUCKET_COUNT - 1 ? null : (1 << (bucket + MIN_BUCKET_EXPONENT)) - 1;
+    }
+
+    /**
+     * Estimated memory footprint of the histograms of one metric in bytes.
+     */
+    static long getEstimatedFootprint() {
+        return (long) Comparison.values().length * BUCKET_COUNT
+                * new ConcurrentHistogram(HIGHEST_TRACKABLE_LATENCY, SIGNIFICANT_DIGITS).getEstimatedFootprintInBytes();
+    }
+
+    void writeToCSV(CSVPrinter csvPrinterLatencies) throws IOException {
+        for (Comparison comparison : Comparison.values()) {
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                Histogram histogram = histograms[comparison.ordinal()][bucket].copy();
+                if (histogram.getTotalCount() == 0) {
+                    continue;
+                }
+
+                // "MetricTypeText", "MetricText", "ThresholdText",
+                // "MetricTypeTextBackup", "MetricTextBackup", "ThresholdTextBackup",
+                // "MetricTypeCode", "MetricCode", "ThresholdCode",
+                // "MetricTypeCodeBackup", "MetricCodeBackup", "ThresholdCodeBackup",
+                // "Comparison", "CombinedLengthMin", "CombinedLengthMax",
+                // "Count", "Mean", "P50", "P90", "P99", "P999", "Max"
+                csvPrinterLatencies.printRecord(
+                        similarityMetric.getTypeText(),
+                        similarityMetric.getNameText(),
+                        similarityMetric.getConfig().getTextSimilarityThreshold(),
+
+                        similarityMetric.getBackupTypeText(),
+                        similarityMetric.getBackupNameText(),
+                        similarityMetric.getConfig().getTextBackupSimilarityThreshold(),
+
+                        similarityMetric.getTypeCode(),
+                        similarityMetric.getNameCode(),
+                        similarityMetric.getConfig().getCodeSimilarityThreshold(),
+
+                        similarityMetric.getBackupTypeCode(),
+                        similarityMetric.getBackupNameCode(),
+                        similarityMetric.getConfig().getCodeBackupSimilarityThreshold(),
+
+                        comparison,
+                        getBucketMinLength(bucket),
+                        getBucketMaxLength(bucket),
+
+                        histogram.getTotalCount(),
+                        Math.round(histogram.getMean()),
+                        histogram.getValueAtPercentile(50.0),
+                        histogram.getValueAtPercentile(90.0),
+                        histogram.getValueAtPercentile(99.0),
+                        histogram.getValueAtPercentile(99.9),
+                        histogram.getMaxValue()
+                );
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.apache.commons.csv.CSVPrinter;
+import org.sotorrent.posthistoryextractor.blocks.CodeBlockVersion;
+import org.sotorrent.posthistoryextractor.blocks.PostBlockVersion;
+import org.sotorrent.posthistoryextractor.blocks.TextBlockVersion;
+import org.sotorrent.posthistoryextractor.version.PostVersion;
+import org.sotorrent.posthistoryextractor.version.PostVersionList;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Predicts the runtime of the evaluation of a metric on a post from the block-length statistics of the post. The
+ * feature of a post is the number of possible comparisons weighted by the mean block length of each version (squared
+ * for edit-based metrics), separately for text and code. For each metric family (names of the text and code metrics
+ * and their backups, i.e., the metric independent of its thresholds), the runtime per feature unit is fitted by least
+ * squares (through the origin) from the observed runtimes of all samples evaluated in this process.
+ * An instance holds the predicted and observed runtimes of the (metric, post) evaluations of one sample and provides
+ * the longest-processing-time-first order of the posts (see MetricEvaluationManager.withLongestFirst()).
+ */
+class CostModel {
+    // sums of the fitted families (family -> {sum of x * y, sum of x * x})
+    private static final Map<String, double[]> families = new HashMap<>();
+    private static final double[] pooled = new double[2];
+
+    // feature indices
+    private static final int TEXT_LINEAR = 0;
+    private static final int TEXT_QUADRATIC = 1;
+    private static final int CODE_LINEAR = 2;
+    private static final int CODE_QUADRATIC = 3;
+
+    private final int postCount;
+    private final double[][] postFeatures; // postIndex -> features
+    private final int[] postIdsByIndex;
+    private final Map<Integer, double[]> predictedRuntimes; // metricIndex -> predicted runtime per postIndex (before the first repetition)
+    private final Map<Integer, long[]> repetitionRuntimes; // metricIndex -> runtime per postIndex in the current repetition
+    private final Map<Integer, long[]> totalRuntimes; // metricIndex -> runtime per postIndex summed over all repetitions
+    private int observedRepetitions;
+
+    CostModel(List<MetricEvaluationPerSample> evaluationsPerSample, Map<Integer, PostVersionList> postVersionLists) {
+        this(getPostIds(evaluationsPerSample.get(0)), getPostFeatures(evaluationsPerSample.get(0), postVersionLists),
+                evaluationsPerSample);
+    }
+
+    /**
+     * Cost model for the posts with the given ids and features (in the order of the post indices).
+     */
+    CostModel(int[] postIdsByIndex, double[][] postFeatures, List<MetricEvaluationPerSample> evaluationsPerSample) {
+        this.postCount = postIdsByIndex.length;
+        this.postFeatures = postFeatures;
+        this.postIdsByIndex = postIdsByIndex;
+
+        // arrays are created up front, thus post batches evaluated in parallel only write distinct elements
+        this.predictedRuntimes = new HashMap<>();
+        this.repetitionRuntimes = new HashMap<>();
+        this.totalRuntimes = new HashMap<>();
+        for (MetricEvaluationPerSample evaluationPerSample : evaluationsPerSample) {
+            repetitionRuntimes.put(evaluationPerSample.getMetricIndex(), new long[postCount]);
+            totalRuntimes.put(evaluationPerSample.getMetricIndex(), new long[postCount]);
+        }
+        this.observedRepetitions = 0;
+    }
+
+    /**
+     * Returns the post indices in descending order of the predicted runtime of all given metrics. The predictions
+     * made before the first repetition are kept for the comparison with the observed runtimes (see writeToCSV()).
+     */
+    int[] getPostOrder(MetricEvaluationPerSample[] evaluationsPerSample) {
+        double[] postCosts = new double[postCount];
+        for (MetricEvaluationPerSample evaluationPerSample : evaluationsPerSample) {
+            double[] predictions = new double[postCount];
+            for (int postIndex = 0; postIndex < postCount; postIndex++) {
+                predictions[postIndex] = predict(evaluationPerSample.getSimilarityMetric(), postFeatures[postIndex]);
+                postCosts[postIndex] += predictions[postIndex];
+            }
+            predictedRuntimes.putIfAbsent(evaluationPerSample.getMetricIndex(), predictions);
+        }
+
+        // ties keep the order of the PostIds
+        Integer[] postOrder = new Integer[postCount];
+        for (int postIndex = 0; postIndex < postCount; postIndex++) {
+            postOrder[postIndex] = postIndex;
+        }
+        Arrays.sort(postOrder, (index1, index2) -> Double.compare(postCosts[index2], postCosts[index1]));
+
+        int[] order = new int[postCount];
+        for (int position = 0; position < postCount; position++) {
+            order[position] = postOrder[position];
+        }
+        return order;
+    }
+
+    void recordRuntime(MetricEvaluationPerSample evaluationPerSample, int postIndex, long runtime) {
+        repetitionRuntimes.get(evaluationPerSample.getMetricIndex())[postIndex] = runtime;
+    }
+
+    /**
+     * Fits the model to the runtimes observed in the current repetition. Metrics with timed out posts are not used,
+     * because aborted and skipped evaluations do not reflect the cost of the post.
+     */
+    void repetitionFinished(MetricEvaluationPerSample[] evaluationsPerSample) {
+        for (MetricEvaluationPerSample evaluationPerSample : evaluationsPerSample) {
+            long[] runtimes = repetitionRuntimes.get(evaluationPerSample.getMetricIndex());
+            long[] total = totalRuntimes.get(evaluationPerSample.getMetricIndex());
+            if (!evaluationPerSample.isTimedOut()) {
+                for (int postIndex = 0; postIndex < postCount; postIndex++) {
+                    observe(evaluationPerSample.getSimilarityMetric(), postFeatures[postIndex], runtimes[postIndex]);
+                }
+            }
+            for (int postIndex = 0; postIndex < postCount; postIndex++) {
+                total[postIndex] += runtimes[postIndex];
+                runtimes[postIndex] = 0;
+            }
+        }
+        observedRepetitions++;
+    }
+
+    void writeToCSV(CSVPrinter csvPrinterCostModel, List<MetricEvaluationPerSample> evaluationsPerSample) throws IOException {
+        for (MetricEvaluationPerSample evaluationPerSample : evaluationsPerSample) {
+            double[] predictions = predictedRuntimes.get(evaluationPerSample.getMetricIndex());
+            long[] total = totalRuntimes.get(evaluationPerSample.getMetricIndex());
+            if (predictions == null || total == null) {
+                // restored or cancelled metrics have not been evaluated
+                continue;
+            }
+            SimilarityMetric similarityMetric = evaluationPerSample.getSimilarityMetric();
+            for (int postIndex = 0; postIndex < postCount; postIndex++) {
+                // "MetricTypeText", "MetricText", "ThresholdText",
+                // "MetricTypeTextBackup", "MetricTextBackup", "ThresholdTextBackup",
+                // "MetricTypeCode", "MetricCode", "ThresholdCode",
+                // "MetricTypeCodeBackup", "MetricCodeBackup", "ThresholdCodeBackup",
+                // "PostId", "Family", "Feature", "PredictedRuntime", "ActualRuntime"
+                csvPrinterCostModel.printRecord(
+                        similarityMetric.getTypeText(),
+                        similarityMetric.getNameText(),
+                        similarityMetric.getConfig().getTextSimilarityThreshold(),
+
+                        similarityMetric.getBackupTypeText(),
+                        similarityMetric.getBackupNameText(),
+                        similarityMetric.getConfig().getTextBackupSimilarityThreshold(),
+
+                        similarityMetric.getTypeCode(),
+                        similarityMetric.getNameCode(),
+                        similarityMetric.getConfig().getCodeSimilarityThreshold(),
+
+                        similarityMetric.getBackupTypeCode(),
+                        similarityMetric.getBackupNameCode(),
+                        similarityMetric.getConfig().getCodeBackupSimilarityThreshold(),
+
+                        postIdsByIndex[postIndex],
+                        getFamily(similarityMetric),
+                        getFeature(similarityMetric, postFeatures[postIndex]),
+                        Math.round(predictions[postIndex]),
+                        observedRepetitions == 0 ? null : Math.round(((double) total[postIndex]) / observedRepetitions)
+                );
+            }
+        }
+    }
+
+    private static int[] getPostIds(MetricEvaluationPerSample evaluationPerSample) {
+        int[] postIds = new int[evaluationPerSample.size()];
+        for (int postIndex = 0; postIndex < postIds.length; postIndex++) {
+            postIds[postIndex] = evaluationPerSample.getByPostIndex(postIndex).getPostId();
+        }
+        return postIds;
+    }
+
+    private static double[][] getPostFeatures(MetricEvaluationPerSample evaluationPerSample,
+                                              Map<Integer, PostVersionList> postVersionLists) {
+        double[][] postFeatures = new double[evaluationPerSample.size()][];
+        for (int postIndex = 0; postIndex < postFeatures.length; postIndex++) {
+            int postId = evaluationPerSample.getByPostIndex(postIndex).getPostId();
+            postFeatures[postIndex] = getPostFeatures(postVersionLists.get(postId));
+        }
+        return postFeatures;
+    }
+
+    /**
+     * Returns the features of a post (see TEXT_LINEAR etc.), computed from the blocks of each version.
+     */
+    static double[] getPostFeatures(PostVersionList postVersionList) {
+        double[] features = new double[4];
+        for (PostVersion postVersion : postVersionList) {
+            addVersionFeatures(postVersion, TextBlockVersion.getPostBlockTypeIdFilter(), features, TEXT_LINEAR, TEXT_QUADRATIC);
+            addVersionFeatures(postVersion, CodeBlockVersion.getPostBlockTypeIdFilter(), features, CODE_LINEAR, CODE_QUADRATIC);
+        }
+        return features;
+    }
+
+    private static void addVersionFeatures(PostVersion postVersion, Set<Byte> postBlockTypeFilter, double[] features,
+                                           int linearIndex, int quadraticIndex) {
+        List<PostBlockVersion> postBlocks = postVersion.getPostBlocks(postBlockTypeFilter);
+        if (postBlocks.isEmpty()) {
+            return;
+        }
+        long length = 0;
+        for (PostBlockVersion postBlock : postBlocks) {
+            length += postBlock.getContent().length();
+        }
+        double meanLength = ((double) length) / postBlocks.size();
+        int possibleComparisons = postVersion.getPossibleComparisons(postBlockTypeFilter);
+        features[linearIndex] += possibleComparisons * meanLength;
+        features[quadraticIndex] += possibleComparisons * meanLength * meanLength;
+    }
+
+    /**
+     * Returns the feature of a post for the given metric, i.e., the feature the runtime is assumed to be proportional to.
+     */
+    static double getFeature(SimilarityMetric similarityMetric, double[] postFeatures) {
+        return getFeature(similarityMetric.getTypeText(), postFeatures[TEXT_LINEAR], postFeatures[TEXT_QUADRATIC])
+                + getFeature(similarityMetric.getTypeCode(), postFeatures[CODE_LINEAR], postFeatures[CODE_QUADRATIC]);
+    }
+
+    private static double getFeature(SimilarityMetric.MetricType type, double linear, double quadratic) {
+        switch (type) {
+            case NONE:
+                return 0;
+            case EDIT:
+                // edit distances compare all pairs of characters
+                return quadratic;
+            default:
+                return linear;
+        }
+    }
+
+    /**
+     * Returns the family of a metric: metrics that only differ in their thresholds have the same runtime per feature
+     * unit, metrics of the same type may not (e.g., different n-gram sizes).
+     */
+    static String getFamily(SimilarityMetric similarityMetric) {
+        return getFamily(similarityMetric.getNameText(), similarityMetric.getBackupTypeText(), similarityMetric.getBackupNameText())
+                + "/" + getFamily(similarityMetric.getNameCode(), similarityMetric.getBackupTypeCode(), similarityMetric.getBackupNameCode());
+    }
+
+    private static String getFamily(String name, SimilarityMetric.MetricType backupType, String backupName) {
+        return backupType == SimilarityMetric.MetricType.NONE ? name : name + "+" + backupName;
+    }
+
+    /**
+     * Predicted runtime in nanoseconds. Families without observations use the coefficient fitted from all
+     * observations, before the first observation the feature itself is used (only the order of posts is meaningful).
+     */
+    static synchronized double predict(SimilarityMetric similarityMetric, double[] postFeatures) {
+        return getCoefficient(getFamily(similarityMetric)) * getFeature(similarityMetric, postFeatures);
+    }
+
+    static synchronized void observe(SimilarityMetric similarityMetric, double[] postFeatures, long runtime) {
+        double feature = getFeature(similarityMetric, postFeatures);
+        double[] sums = families.computeIfAbsent(getFamily(similarityMetric), family -> new double[2]);
+        sums[0] += feature * runtime;
+        sums[1] += feature * feature;
+        pooled[0] += feature * runtime;
+        pooled[1] += feature * feature;
+    }
+
+    private static double getCoefficient(String family) {
+        double[] sums = families.get(family);
+        if (sums != null && sums[1] > 0) {
+            return sums[0] / sums[1];
+        }
+        if (pooled[1] > 0) {
+            return pooled[0] / pooled[1];
+        }
+        return 1.0;
+    }
+}
@@ -0,0 +1,168 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import com.sun.net.httpserver.HttpServer;
+import org.sotorrent.util.LogUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Live counters for long evaluation runs, exposed in Prometheus text format by an optional local HTTP endpoint.
+ * The counters are fed from the evaluation loop in MetricEvaluationManager.run().
+ */
+public class EvaluationMetrics {
+    private static Logger logger;
+
+    private static final LongAdder plannedEvaluations = new LongAdder(); // (metric, post, repetition) triples
+    private static final LongAdder completedEvaluations = new LongAdder();
+    private static final LongAdder completedComparisons = new LongAdder();
+    private static final LongAdder runningManagers = new LongAdder();
+    private static final Map<String, LongAdder> busyTimePerThread = new ConcurrentHashMap<>(); // thread -> nanoseconds
+    private static final AtomicLong startTime = new AtomicLong(0);
+
+    private static HttpServer server = null;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(EvaluationMetrics.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private EvaluationMetrics() {}
+
+    public static synchronized void startEndpoint(int port) throws IOException {
+        if (port < 1 || port > 65535) {
+            String msg = "Metrics port must be in range [1, 65535], but was " + port + ".";
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        if (server != null) {
+            return;
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] response = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(response);
+            }
+        });
+        server.start();
+        logger.info("Metrics endpoint listening on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/metrics");
+    }
+
+    public static synchronized void stopEndpoint() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    static void managerStarted(int plannedEvaluationCount) {
+        startTime.compareAndSet(0, System.nanoTime());
+        plannedEvaluations.add(plannedEvaluationCount);
+        runningManagers.increment();
+    }
+
+    static void managerFinished() {
+        runningManagers.decrement();
+    }
+
+    static void evaluationCompleted(String threadName, int postCount, int possibleComparisons, long busyTime) {
+        completedEvaluations.add(postCount);
+        completedComparisons.add(possibleComparisons);
+        busyTimePerThread.computeIfAbsent(threadName, name -> new LongAdder()).add(busyTime);
+    }
+
+    /**
+     * Scraping does not change any state, thus concurrent scrapers do not interfere. Rates are computed by Prometheus
+     * from the counters, e.g., rate(metric_evaluation_comparisons_total[1m]).
+     */
+    static String scrape() {
+        long now = System.nanoTime();
+        long start = startTime.get();
+        double elapsedSeconds = start == 0 ? 0.0 : toSeconds(now - start);
+
+        long planned = plannedEvaluations.sum();
+        long completed = completedEvaluations.sum();
+        long pending = Math.max(0, planned - completed);
+        long comparisons = completedComparisons.sum();
+
+        // projected ETA based on the average throughput since the start of the run
+        double etaSeconds = Double.NaN;
+        if (completed > 0) {
+            etaSeconds = pending * (elapsedSeconds / completed);
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        long heapUsed = runtime.totalMemory() - runtime.freeMemory();
+
+        StringBuilder builder = new StringBuilder();
+        appendMetric(builder, "metric_evaluation_planned_total", "counter",
+                "Planned (metric, post) evaluations, including repetitions.", planned);
+        appendMetric(builder, "metric_evaluation_completed_total", "counter",
+                "Completed (metric, post) evaluations, including repetitions.", completed);
+        appendMetric(builder, "metric_evaluation_pending", "gauge",
+                "Pending (metric, post) evaluations.", pending);
+        appendMetric(builder, "metric_evaluation_comparisons_total", "counter",
+                "Possible block comparisons of all completed evaluations.", comparisons);
+        appendMetric(builder, "metric_evaluation_running_managers", "gauge",
+                "Number of running MetricEvaluationManagers (samples).", runningManagers.sum());
+        appendMetric(builder, "metric_evaluation_elapsed_seconds", "gauge",
+                "Seconds since the first manager started.", elapsedSeconds);
+        appendMetric(builder, "metric_evaluation_eta_seconds", "gauge",
+                "Projected seconds until all planned evaluations are completed.", etaSeconds);
+        appendMetric(builder, "metric_evaluation_heap_used_bytes", "gauge",
+                "Used heap memory.", heapUsed);
+        appendMetric(builder, "metric_evaluation_heap_max_bytes", "gauge",
+                "Maximum heap memory.", runtime.maxMemory());
+
+        builder.append("# HELP metric_evaluation_thread_busy_seconds_total Time spent evaluating metrics per thread.\n");
+        builder.append("# TYPE metric_evaluation_thread_busy_seconds_total counter\n");
+        for (Map.Entry<String, LongAdder> entry : busyTimePerThread.entrySet()) {
+            builder.append("metric_evaluation_thread_busy_seconds_total{thread=\"")
+                    .append(escapeLabelValue(entry.getKey()))
+                    .append("\"} ")
+                    .append(formatValue(toSeconds(entry.getValue().sum())))
+                    .append('\n');
+        }
+
+        return builder.toString();
+    }
+
+    private static void appendMetric(StringBuilder builder, String name, String type, String help, double value) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        builder.append(name).append(' ').append(formatValue(value)).append('\n');
+    }
+
+    private static String formatValue(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        // Locale.ROOT -> force '.' as decimal separator
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static double toSeconds(long nanoseconds) {
+        return ((double) nanoseconds) / TimeUnit.SECONDS.toNanos(1);
+    }
+}
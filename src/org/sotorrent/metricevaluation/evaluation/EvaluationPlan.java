@@ -0,0 +1,295 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.QuoteMode;
+import org.sotorrent.posthistoryextractor.blocks.CodeBlockVersion;
+import org.sotorrent.posthistoryextractor.blocks.PostBlockVersion;
+import org.sotorrent.posthistoryextractor.blocks.TextBlockVersion;
+import org.sotorrent.posthistoryextractor.version.PostVersion;
+import org.sotorrent.posthistoryextractor.version.PostVersionList;
+import org.sotorrent.util.LogUtils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Dry run that estimates the cost of evaluating the configured metrics on all samples without evaluating them.
+ * The number of comparisons is derived from the possible comparisons of each post, the runtime from the cost model
+ * (see CostModel), which is calibrated by evaluating one metric of each metric family on a few posts of the first
+ * sample that contains the family. The peak heap is estimated from the loaded samples and the results of all samples
+ * (both are kept until the end of the run), including the optional comparison latencies and predicted connections.
+ * Estimates are written per sample and metric family to the output file, the totals are logged.
+ * All estimates are rough upper bounds: early stops (pareto-front-stable, time budgets) are not considered.
+ */
+public class EvaluationPlan {
+    // rough memory footprint of the loaded samples and the results (bytes)
+    private static final long BYTES_PER_BLOCK = 256; // block objects, line lists, and history references
+    private static final long BYTES_PER_CHARACTER = 2; // content and its normalized copy
+    private static final long BYTES_PER_POST_EVALUATION = 128; // MetricEvaluationPerPost
+    private static final long BYTES_PER_VERSION_RESULT = 64; // counters and runtime in MetricResultStore
+    private static final long BYTES_PER_RECORDED_CONNECTION = 8; // packed connection
+    private static final long BYTES_PER_RECORDED_VERSION = 2 * 16; // connection arrays of text and code blocks
+
+    private static Logger logger;
+    private static final CSVFormat csvFormatPlan;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(EvaluationPlan.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // configure CSV format for the plan (per sample and metric family)
+        csvFormatPlan = CSVFormat.DEFAULT
+                .withHeader("Sample", "Family", "MetricCount", "Repetitions", "PostCount", "PostVersionCount",
+                        "PossibleComparisons", "Comparisons", "CalibrationPosts", "RuntimePerFeatureUnit",
+                        "EstimatedRuntime")
+                .withDelimiter(';')
+                .withQuote('"')
+                .withQuoteMode(QuoteMode.MINIMAL)
+                .withEscape('\\')
+                .withNullString("null");
+    }
+
+    private final List<MetricEvaluationManager> managers;
+    private final int calibrationPostCount; // number of posts evaluated per metric family
+
+    private final Map<String, Integer> calibrationPosts; // family -> number of posts evaluated for the calibration
+
+    public EvaluationPlan(List<MetricEvaluationManager> managers, int calibrationPostCount) {
+        if (calibrationPostCount < 1) {
+            String msg = "Calibration post count of plan must be at least 1, but was " + calibrationPostCount;
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        this.managers = managers;
+        this.calibrationPostCount = calibrationPostCount;
+        this.calibrationPosts = new HashMap<>();
+    }
+
+    /**
+     * Calibrates the cost model, writes the estimates per sample and metric family to the output file, and logs the
+     * totals.
+     */
+    public void planAndWriteToCSV(File outputFile) {
+        long comparisons = 0;
+        double runtime = 0; // nanoseconds, all samples evaluated one after another
+        double elapsedTime = 0; // nanoseconds, considering the post threads of each sample
+        List<long[]> memoryPerSample = new ArrayList<>();
+
+        try (CSVPrinter csvPrinter = new CSVPrinter(new FileWriter(outputFile), csvFormatPlan)) {
+            for (MetricEvaluationManager manager : managers) {
+                Map<Integer, double[]> postFeatures = new HashMap<>();
+                for (int postId : manager.getPostIds()) {
+                    postFeatures.put(postId, CostModel.getPostFeatures(manager.getPostVersionLists().get(postId)));
+                }
+
+                // metrics of the sample grouped by family (in the order of the metrics)
+                Map<String, List<SimilarityMetric>> families = new LinkedHashMap<>();
+                for (SimilarityMetric similarityMetric : manager.getSimilarityMetrics()) {
+                    families.computeIfAbsent(CostModel.getFamily(similarityMetric), family -> new LinkedList<>())
+                            .add(similarityMetric);
+                }
+
+                double sampleRuntime = 0;
+                for (Map.Entry<String, List<SimilarityMetric>> family : families.entrySet()) {
+                    if (!calibrationPosts.containsKey(family.getKey())) {
+                        calibrate(manager, family.getValue().get(0), postFeatures);
+                    }
+                    sampleRuntime += writeToCSV(csvPrinter, manager, family.getKey(), family.getValue(), postFeatures);
+                }
+                csvPrinter.flush();
+
+                long possibleComparisons = 0;
+                for (PostVersionList postVersionList : manager.getPostVersionLists().values()) {
+                    possibleComparisons += postVersionList.getPossibleComparisons();
+                }
+                comparisons += possibleComparisons * manager.getSimilarityMetrics().size() * manager.getNumberOfRepetitions();
+                runtime += sampleRuntime;
+                elapsedTime += sampleRuntime / manager.getPostThreadCount();
+
+                long[] memory = estimateMemory(manager);
+                memoryPerSample.add(memory);
+
+                // Locale.ROOT -> force '.' as decimal separator
+                logger.info(String.format(Locale.ROOT,
+                        "Sample %s: %d metrics, %d posts, %d comparisons, estimated runtime %.1f h, "
+                                + "estimated memory %.1f MB (sample) + %.1f MB (results).",
+                        manager.getSampleName(), manager.getSimilarityMetrics().size(), manager.getPostIds().size(),
+                        possibleComparisons * manager.getSimilarityMetrics().size() * manager.getNumberOfRepetitions(),
+                        toHours(sampleRuntime), toMegabytes(memory[0]), toMegabytes(memory[1])));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        long peakMemory = estimatePeakMemory(memoryPerSample);
+
+        logger.info("Plan saved to " + outputFile + ".");
+        logger.info(String.format(Locale.ROOT,
+                "Plan: %d samples, %d comparisons, estimated runtime %.1f h (%.1f h of evaluation), "
+                        + "estimated peak heap %.1f MB (maximum heap %.1f MB).",
+                managers.size(), comparisons, toHours(elapsedTime), toHours(runtime),
+                toMegabytes(peakMemory), toMegabytes(Runtime.getRuntime().maxMemory())));
+        if (peakMemory > Runtime.getRuntime().maxMemory()) {
+            logger.warning("Estimated peak heap exceeds the maximum heap, consider increasing -Xmx or evaluating fewer samples per run.");
+        }
+    }
+
+    /**
+     * Evaluates the given metric on calibrationPostCount posts of the sample and adds the runtimes to the cost model.
+     * The posts are evenly spaced quantiles of the feature (the largest posts are avoided to keep the calibration
+     * quick), the first evaluation warms up the metric and is not used. The observed runtime is the runtime measured
+     * by the evaluation itself (processing the version history, i.e., the block comparisons), as in the regular
+     * evaluation, thus preparing the evaluation and validating its results are not included.
+     */
+    private void calibrate(MetricEvaluationManager manager, SimilarityMetric similarityMetric,
+                           Map<Integer, double[]> postFeatures) {
+        List<Integer> postIds = new ArrayList<>();
+        for (int postId : manager.getPostIds()) {
+            if (CostModel.getFeature(similarityMetric, postFeatures.get(postId)) > 0) {
+                postIds.add(postId);
+            }
+        }
+        if (postIds.isEmpty()) {
+            calibrationPosts.put(CostModel.getFamily(similarityMetric), 0);
+            return;
+        }
+        postIds.sort(Comparator.comparingDouble(postId -> CostModel.getFeature(similarityMetric, postFeatures.get(postId))));
+
+        logger.info("Calibrating cost of metric family " + CostModel.getFamily(similarityMetric) + " using metric "
+                + similarityMetric + " on sample " + manager.getSampleName() + " ...");
+        manager.evaluateSimilarityMetric(similarityMetric, Collections.singleton(postIds.get(0)));
+
+        int postCount = Math.min(calibrationPostCount, postIds.size());
+        for (int i = 0; i < postCount; i++) {
+            int postId = postIds.get((int) ((long) (i + 1) * postIds.size() / (postCount + 1)));
+            MetricEvaluationPerSample evaluationPerSample = manager.evaluateSimilarityMetric(
+                    similarityMetric, Collections.singleton(postId));
+            // all versions of the post store the runtime of the post
+            CostModel.observe(similarityMetric, postFeatures.get(postId), evaluationPerSample.getResults().getRuntime(0));
+        }
+        calibrationPosts.put(CostModel.getFamily(similarityMetric), postCount);
+    }
+
+    /**
+     * Writes the estimates of the given metrics of one family and returns their estimated runtime (nanoseconds).
+     */
+    private double writeToCSV(CSVPrinter csvPrinter, MetricEvaluationManager manager, String family,
+                              List<SimilarityMetric> similarityMetrics, Map<Integer, double[]> postFeatures) throws IOException {
+        int repetitions = manager.getNumberOfRepetitions();
+        int postVersionCount = 0;
+        long possibleComparisons = 0;
+        for (PostVersionList postVersionList : manager.getPostVersionLists().values()) {
+            postVersionCount += postVersionList.size();
+            possibleComparisons += postVersionList.getPossibleComparisons();
+        }
+
+        double runtime = 0;
+        double feature = 0;
+        for (SimilarityMetric similarityMetric : similarityMetrics) {
+            for (double[] features : postFeatures.values()) {
+                runtime += CostModel.predict(similarityMetric, features);
+                feature += CostModel.getFeature(similarityMetric, features);
+            }
+        }
+        runtime *= repetitions;
+
+        // "Sample", "Family", "MetricCount", "Repetitions", "PostCount", "PostVersionCount",
+        // "PossibleComparisons", "Comparisons", "CalibrationPosts", "RuntimePerFeatureUnit", "EstimatedRuntime"
+        csvPrinter.printRecord(
+                manager.getSampleName(),
+                family,
+                similarityMetrics.size(),
+                repetitions,
+                manager.getPostIds().size(),
+                postVersionCount,
+                possibleComparisons,
+                possibleComparisons * similarityMetrics.size() * repetitions,
+                calibrationPosts.get(family),
+                feature > 0 ? runtime / repetitions / feature : null,
+                Math.round(runtime)
+        );
+        return runtime;
+    }
+
+    /**
+     * Returns the estimated memory of the loaded sample and of its results (bytes).
+     */
+    private long[] estimateMemory(MetricEvaluationManager manager) {
+        long blockCount = 0;
+        long characterCount = 0;
+        long versionCount = 0;
+        for (PostVersionList postVersionList : manager.getPostVersionLists().values()) {
+            versionCount += postVersionList.size();
+            for (PostVersion postVersion : postVersionList) {
+                for (Set<Byte> postBlockTypeFilter : Arrays.asList(
+                        TextBlockVersion.getPostBlockTypeIdFilter(), CodeBlockVersion.getPostBlockTypeIdFilter())) {
+                    for (PostBlockVersion postBlock : postVersion.getPostBlocks(postBlockTypeFilter)) {
+                        blockCount++;
+                        characterCount += postBlock.getContent().length();
+                    }
+                }
+            }
+        }
+        int metricCount = manager.getSimilarityMetrics().size();
+        // predicted connections are kept until the metric is complete, i.e., until the end of the sample in
+        // post-major order
+        int metricsInProgress = !manager.isRecordPredictedConnections() ? 0
+                : manager.getEvaluationOrder() == MetricEvaluationManager.EvaluationOrder.POST_MAJOR ? metricCount : 1;
+        return new long[] {
+                estimateSampleMemory(blockCount, characterCount),
+                estimateResultMemory(metricCount, manager.getPostIds().size(), versionCount, blockCount,
+                        manager.isRecordComparisonLatencies(), metricsInProgress)
+        };
+    }
+
+    static long estimateSampleMemory(long blockCount, long characterCount) {
+        return blockCount * BYTES_PER_BLOCK + characterCount * BYTES_PER_CHARACTER;
+    }
+
+    /**
+     * Returns the estimated memory of the results of one sample (bytes), metricsInProgress is the number of metrics
+     * whose predicted connections are in memory at the same time (0 if they are not recorded).
+     */
+    static long estimateResultMemory(int metricCount, int postCount, long versionCount, long blockCount,
+                                     boolean recordComparisonLatencies, int metricsInProgress) {
+        long resultMemory = metricCount * (postCount * BYTES_PER_POST_EVALUATION + versionCount * BYTES_PER_VERSION_RESULT);
+        if (recordComparisonLatencies) {
+            resultMemory += metricCount * ComparisonLatencies.getEstimatedFootprint();
+        }
+        // at most one connection per block
+        resultMemory += metricsInProgress * (blockCount * BYTES_PER_RECORDED_CONNECTION
+                + versionCount * BYTES_PER_RECORDED_VERSION);
+        return resultMemory;
+    }
+
+    /**
+     * Returns the estimated peak heap (bytes) given the memory of each sample ({sample, results}, see estimateMemory()).
+     * All samples are loaded up front and the managers keep their results until the results aggregated over all
+     * samples have been written (see MetricEvaluationManager.aggregateAndWriteSampleResults()), thus the results of
+     * all samples are in memory at the same time, independent of the number of samples evaluated concurrently.
+     */
+    static long estimatePeakMemory(List<long[]> memoryPerSample) {
+        long peakMemory = 0;
+        for (long[] memory : memoryPerSample) {
+            peakMemory += memory[0] + memory[1];
+        }
+        return peakMemory;
+    }
+
+    private static double toHours(double nanoseconds) {
+        return nanoseconds / TimeUnit.HOURS.toNanos(1);
+    }
+
+    private static double toMegabytes(long bytes) {
+        return ((double) bytes) / (1024 * 1024);
+    }
+}
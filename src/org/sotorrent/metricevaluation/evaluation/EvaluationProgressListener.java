@@ -0,0 +1,10 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+/**
+ * Receives the progress of an asynchronous run (see MetricEvaluationManager.runAsync()), called by the thread
+ * evaluating the sample after each metric (metric-major order) or post batch (post-major order).
+ */
+@FunctionalInterface
+public interface EvaluationProgressListener {
+    void progress(MetricEvaluationManager manager, int finished, int size, int currentRepetition, int numberOfRepetitions);
+}
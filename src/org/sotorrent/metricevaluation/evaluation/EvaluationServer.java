@@ -0,0 +1,442 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.sotorrent.util.LogUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local HTTP/JSON server that keeps the samples of the given managers loaded and evaluates submitted metric specs
+ * (once, like ThresholdSearch), so that trying a single metric does not pay the startup and the parsing of all samples.
+ * <p>
+ * POST /evaluate accepts a flat JSON object with the names and thresholds of the metrics, e.g.
+ * {"text": "fiveGramDice", "textThreshold": 0.04, "code": "winnowingFiveGramOptimalAlignment", "codeThreshold": 0.1}
+ * ("metric" and "threshold" set text and code at once, "textBackup", "codeBackup", and their thresholds are optional)
+ * and returns the results per sample and aggregated over all samples. Results are cached by spec (see
+ * ResultsCache.getMetricFingerprint()). POST /shutdown stops the server.
+ */
+public class EvaluationServer {
+    private static final int MAX_CACHED_SPECS = 10000;
+    private static final Set<String> SPEC_KEYS = new HashSet<>(Arrays.asList(
+            "metric", "threshold", "text", "textThreshold", "textBackup", "textBackupThreshold",
+            "code", "codeThreshold", "codeBackup", "codeBackupThreshold"));
+    private static final Pattern JSON_NUMBER = Pattern.compile("-?(?:0|[1-9][0-9]*)(?:\\.[0-9]+)?(?:[eE][+-]?[0-9]+)?");
+
+    private static Logger logger;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(EvaluationServer.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private final List<MetricEvaluationManager> managers;
+    private final Map<String, SimilarityMetric> baseMetrics; // name -> metric (with any threshold)
+    private final Map<String, MetricResult[][]> cachedResults; // fingerprint -> results per sample, then aggregated
+    private final CountDownLatch stopped;
+    private HttpServer server;
+
+    public EvaluationServer(List<MetricEvaluationManager> managers) {
+        this.managers = managers;
+        this.baseMetrics = new HashMap<>();
+        for (SimilarityMetric metric : MetricEvaluationManager.getAllSimilarityMetrics()) {
+            baseMetrics.putIfAbsent(metric.getNameText(), metric);
+        }
+        // least recently requested specs are removed first
+        this.cachedResults = new LinkedHashMap<String, MetricResult[][]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MetricResult[][]> eldest) {
+                return size() > MAX_CACHED_SPECS;
+            }
+        };
+        this.stopped = new CountDownLatch(1);
+    }
+
+    /**
+     * Loads all samples and starts the server on the loopback interface.
+     */
+    public synchronized void start(int port) throws IOException {
+        if (server != null) {
+            return;
+        }
+        for (MetricEvaluationManager manager : managers) {
+            logger.info("Loading sample " + manager.getSampleName() + "...");
+            manager.initialize();
+        }
+
+        // requests are handled one after another by the dispatcher thread (like the evaluation of one sample at a
+        // time, this prevents a bias in the runtime measurements)
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/evaluate", this::handleEvaluate);
+        server.createContext("/shutdown", exchange -> {
+            if (!checkMethod(exchange)) {
+                return;
+            }
+            sendResponse(exchange, 200, "{\"stopped\": true}");
+            // stop() waits for running exchanges to finish, which would block the dispatcher thread running this handler
+            Thread shutdownThread = new Thread(this::stop, "evaluation server shutdown");
+            shutdownThread.start();
+        });
+        server.start();
+        logger.info("Evaluation server listening on http://" + server.getAddress().getHostString() + ":"
+                + server.getAddress().getPort() + "/evaluate");
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            // the response to a running request is still sent
+            server.stop(1);
+            server = null;
+            stopped.countDown();
+        }
+    }
+
+    /**
+     * Blocks until the server is stopped (e.g., by POST /shutdown).
+     */
+    public void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    private void handleEvaluate(HttpExchange exchange) throws IOException {
+        if (!checkMethod(exchange)) {
+            return;
+        }
+        String response;
+        try {
+            SimilarityMetric similarityMetric = createSimilarityMetric(parseSpec(readBody(exchange)));
+            response = evaluate(similarityMetric);
+        } catch (IllegalArgumentException e) {
+            sendResponse(exchange, 400, "{\"error\": " + toJson(e.getMessage()) + "}");
+            return;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            sendResponse(exchange, 500, "{\"error\": " + toJson(e.toString()) + "}");
+            return;
+        }
+        sendResponse(exchange, 200, response);
+    }
+
+    private String evaluate(SimilarityMetric similarityMetric) {
+        String fingerprint = ResultsCache.getMetricFingerprint(similarityMetric);
+        MetricResult[][] results = cachedResults.get(fingerprint);
+        boolean cached = results != null;
+
+        if (!cached) {
+            logger.info("Evaluating metric " + similarityMetric + " on " + managers.size() + " samples...");
+            results = new MetricResult[managers.size() + 1][];
+            MetricResult aggregatedText = new MetricResult(similarityMetric);
+            MetricResult aggregatedCode = new MetricResult(similarityMetric);
+            for (int i = 0; i < managers.size(); i++) {
+                MetricEvaluationPerSample evaluationPerSample = managers.get(i).evaluateSimilarityMetric(similarityMetric);
+                results[i] = new MetricResult[2];
+                results[i][MetricResultStore.TEXT] = evaluationPerSample.getResultAggregatedBySampleText();
+                results[i][MetricResultStore.CODE] = evaluationPerSample.getResultAggregatedBySampleCode();
+                aggregatedText.add(results[i][MetricResultStore.TEXT]);
+                aggregatedCode.add(results[i][MetricResultStore.CODE]);
+            }
+            results[managers.size()] = new MetricResult[2];
+            results[managers.size()][MetricResultStore.TEXT] = aggregatedText;
+            results[managers.size()][MetricResultStore.CODE] = aggregatedCode;
+            cachedResults.put(fingerprint, results);
+        }
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"metric\": ").append(toJson(similarityMetric.toString()));
+        builder.append(", \"cached\": ").append(cached);
+        builder.append(", \"samples\": [");
+        for (int i = 0; i < managers.size(); i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append("{\"sample\": ").append(toJson(managers.get(i).getSampleName())).append(", ");
+            appendResults(builder, results[i]);
+            builder.append("}");
+        }
+        builder.append("], \"aggregated\": {");
+        appendResults(builder, results[managers.size()]);
+        builder.append("}}");
+        return builder.toString();
+    }
+
+    private static void appendResults(StringBuilder builder, MetricResult[] results) {
+        builder.append("\"text\": ");
+        appendResult(builder, results[MetricResultStore.TEXT]);
+        builder.append(", \"code\": ");
+        appendResult(builder, results[MetricResultStore.CODE]);
+    }
+
+    private static void appendResult(StringBuilder builder, MetricResult result) {
+        builder.append("{\"postCount\": ").append(result.getPostCount())
+                .append(", \"postVersionCount\": ").append(result.getPostVersionCount())
+                .append(", \"postBlockVersionCount\": ").append(result.getPostBlockVersionCount())
+                .append(", \"possibleComparisons\": ").append(result.getPossibleComparisons())
+                .append(", \"truePositives\": ").append(result.getTruePositives())
+                .append(", \"falsePositives\": ").append(result.getFalsePositives())
+                .append(", \"trueNegatives\": ").append(result.getTrueNegatives())
+                .append(", \"falseNegatives\": ").append(result.getFalseNegatives())
+                .append(", \"failedPredecessorComparisons\": ").append(result.getFailedPredecessorComparisons())
+                .append(", \"runtime\": ").append(result.getRuntime())
+                .append(", \"precision\": ").append(toJson(result.getPrecision()))
+                .append(", \"recall\": ").append(toJson(result.getRecall()))
+                .append(", \"fScore\": ").append(toJson(result.getFScore()))
+                .append(", \"matthewsCorrelation\": ").append(toJson(result.getMatthewsCorrelation()))
+                .append(", \"informedness\": ").append(toJson(result.getInformedness()))
+                .append(", \"markedness\": ").append(toJson(result.getMarkedness()))
+                .append("}");
+    }
+
+    /*
+     * Only flat objects with string, number, and null values are accepted (see SPEC_KEYS), following the JSON grammar
+     * (RFC 8259) for these values. Null values are ignored, duplicate keys are rejected.
+     */
+    static Map<String, String> parseSpec(String json) {
+        SpecParser parser = new SpecParser(json);
+        Map<String, String> spec = new HashMap<>();
+        Set<String> keys = new HashSet<>();
+
+        parser.expect('{');
+        if (!parser.consume('}')) {
+            do {
+                String key = parser.readString();
+                if (!SPEC_KEYS.contains(key)) {
+                    throw parser.error("Unknown key " + key + " in metric spec (allowed: " + SPEC_KEYS + ")");
+                }
+                if (!keys.add(key)) {
+                    throw parser.error("Duplicate key " + key + " in metric spec");
+                }
+                parser.expect(':');
+                String value = parser.readValue();
+                if (value != null) {
+                    spec.put(key, value);
+                }
+            } while (parser.consume(','));
+            parser.expect('}');
+        }
+        parser.expectEnd();
+        return spec;
+    }
+
+    /*
+     * Parser for the values of flat JSON objects, see parseSpec().
+     */
+    private static class SpecParser {
+        private final String json;
+        private int position;
+
+        private SpecParser(String json) {
+            this.json = json;
+            this.position = 0;
+        }
+
+        private void skipWhitespace() {
+            while (position < json.length() && " \t\n\r".indexOf(json.charAt(position)) >= 0) {
+                position++;
+            }
+        }
+
+        private boolean consume(char c) {
+            skipWhitespace();
+            if (position < json.length() && json.charAt(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!consume(c)) {
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        private void expectEnd() {
+            skipWhitespace();
+            if (position < json.length()) {
+                throw error("Unexpected content after metric spec");
+            }
+        }
+
+        /*
+         * Returns the value of a string or the text of a number, null for null.
+         */
+        private String readValue() {
+            skipWhitespace();
+            if (json.startsWith("null", position)) {
+                position += 4;
+                return null;
+            }
+            if (position < json.length() && json.charAt(position) == '"') {
+                return readString();
+            }
+            Matcher matcher = JSON_NUMBER.matcher(json);
+            if (!matcher.find(position) || matcher.start() != position) {
+                throw error("Expected string, number, or null");
+            }
+            position = matcher.end();
+            return matcher.group();
+        }
+
+        private String readString() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (position < json.length()) {
+                char c = json.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c < 0x20) {
+                    throw error("Unescaped control character in string");
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (position >= json.length()) {
+                    break;
+                }
+                char escaped = json.charAt(position++);
+                switch (escaped) {
+                    case '"': case '\\': case '/': value.append(escaped); break;
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        if (position + 4 > json.length() || !json.substring(position, position + 4).matches("[0-9a-fA-F]{4}")) {
+                            throw error("Invalid unicode escape");
+                        }
+                        value.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+                        position += 4;
+                        break;
+                    default:
+                        throw error("Invalid escape \\" + escaped);
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private IllegalArgumentException error(String message) {
+            String msg = message + " at position " + position + " of metric spec: " + json;
+            logger.warning(msg);
+            return new IllegalArgumentException(msg);
+        }
+    }
+
+    SimilarityMetric createSimilarityMetric(Map<String, String> spec) {
+        String metric = spec.get("metric");
+        String threshold = spec.get("threshold");
+        SimilarityMetric metricText = createSingleMetric(spec.getOrDefault("text", metric),
+                spec.getOrDefault("textThreshold", threshold), "text");
+        SimilarityMetric metricCode = createSingleMetric(spec.getOrDefault("code", metric),
+                spec.getOrDefault("codeThreshold", threshold), "code");
+        if (metricText == null || metricCode == null) {
+            String msg = "Metric spec must configure text and code metrics (or metric for both).";
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        SimilarityMetric metricTextBackup = createSingleMetric(spec.get("textBackup"),
+                spec.get("textBackupThreshold"), "textBackup");
+        SimilarityMetric metricCodeBackup = createSingleMetric(spec.get("codeBackup"),
+                spec.get("codeBackupThreshold"), "codeBackup");
+        return MetricEvaluationManager.createCombinedSimilarityMetric(metricText, metricTextBackup, metricCode, metricCodeBackup);
+    }
+
+    private SimilarityMetric createSingleMetric(String name, String threshold, String key) {
+        if (name == null) {
+            return null;
+        }
+        SimilarityMetric baseMetric = baseMetrics.get(name);
+        if (baseMetric == null) {
+            String msg = "No similarity metric with name " + name + " found (" + key + ").";
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        if (threshold == null) {
+            String msg = "No threshold configured for " + key + " metric " + name + ".";
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        double thresholdValue;
+        try {
+            thresholdValue = Double.parseDouble(threshold);
+        } catch (NumberFormatException e) {
+            thresholdValue = Double.NaN;
+        }
+        if (!(thresholdValue >= 0.0 && thresholdValue <= 1.0)) {
+            String msg = "Threshold of " + key + " metric must be in range [0.0, 1.0], but was " + threshold + ".";
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        return new SimilarityMetric(name, baseMetric.getConfig().getTextSimilarityMetric(), baseMetric.getTypeText(),
+                thresholdValue);
+    }
+
+    private static boolean checkMethod(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            sendResponse(exchange, 405, "{\"error\": \"Only POST is supported.\"}");
+            return false;
+        }
+        return true;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream inputStream = exchange.getRequestBody()) {
+            byte[] buffer = new byte[4096];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                body.write(buffer, 0, length);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void sendResponse(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] response = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(response);
+        }
+    }
+
+    private static String toJson(double value) {
+        // undefined values (e.g., no positives)
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value);
+    }
+
+    private static String toJson(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder builder = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+}
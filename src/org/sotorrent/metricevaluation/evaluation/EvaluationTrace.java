@@ -0,0 +1,225 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.sotorrent.util.LogUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Optional recorder for a timeline of an evaluation run. The recorded spans (loading, preparing, evaluating, validating,
+ * writing, and time spent blocked on contended monitors) are written as Chrome trace-event JSON, which can be opened in
+ * chrome://tracing or https://ui.perfetto.dev.
+ * At most MAX_SPANS spans are kept in memory (about two per (metric, post, repetition) evaluation), later spans are
+ * dropped and only counted.
+ */
+public class EvaluationTrace {
+    private static Logger logger;
+
+    static final String CATEGORY_LOAD = "load";
+    static final String CATEGORY_PREPARE = "prepare";
+    static final String CATEGORY_EVALUATE = "evaluate";
+    static final String CATEGORY_VALIDATE = "validate";
+    static final String CATEGORY_WRITE = "write";
+    static final String CATEGORY_BLOCKED = "blocked";
+
+    private static final int MAX_SPANS = 1_000_000;
+    // entering an uncontended monitor takes far less than a microsecond, shorter waits are not recorded
+    private static final long MIN_BLOCKED_TIME = TimeUnit.MICROSECONDS.toNanos(10);
+
+    private static volatile boolean enabled = false;
+    private static long originTime;
+    private static final AtomicInteger spanCount = new AtomicInteger(0);
+    private static final AtomicLong droppedSpanCount = new AtomicLong(0);
+
+    // each thread records into its own buffer, all buffers are registered here
+    private static final List<ThreadBuffer> buffers = new CopyOnWriteArrayList<>();
+    private static final ThreadLocal<ThreadBuffer> threadBuffer = ThreadLocal.withInitial(() -> {
+        ThreadBuffer buffer = new ThreadBuffer(Thread.currentThread());
+        buffers.add(buffer);
+        return buffer;
+    });
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(EvaluationTrace.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private EvaluationTrace() {}
+
+    public static void enable() {
+        originTime = System.nanoTime();
+        enabled = true;
+        logger.info("Recording of evaluation trace enabled.");
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the start time of a span, or 0 if tracing is disabled.
+     */
+    static long begin() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    static void end(long startTime, String name, String category) {
+        end(startTime, name, category, null, -1, 0);
+    }
+
+    static void end(long startTime, String name, String category, SimilarityMetric metric, int postId, int repetition) {
+        if (startTime == 0 || !enabled) {
+            return;
+        }
+        long endTime = System.nanoTime();
+        add(new Span(name, category, startTime, endTime, metric, postId, repetition));
+    }
+
+    private static void add(Span span) {
+        if (spanCount.incrementAndGet() > MAX_SPANS) {
+            spanCount.decrementAndGet();
+            if (droppedSpanCount.getAndIncrement() == 0) {
+                logger.warning("Evaluation trace contains " + MAX_SPANS + " spans, further spans are dropped.");
+            }
+            return;
+        }
+        threadBuffer.get().spans.add(span);
+    }
+
+    /**
+     * Record the time between startTime and now as time spent waiting for the given monitor, to be called as first
+     * statement inside the synchronized block. Only contended monitors are recorded (see MIN_BLOCKED_TIME).
+     */
+    static void blocked(long startTime, String monitor) {
+        if (startTime == 0 || !enabled) {
+            return;
+        }
+        long endTime = System.nanoTime();
+        if (endTime - startTime >= MIN_BLOCKED_TIME) {
+            add(new Span("blocked on " + monitor, CATEGORY_BLOCKED, startTime, endTime, null, -1, 0));
+        }
+    }
+
+    public static void writeToFile(Path outputFile) throws IOException {
+        if (!enabled) {
+            return;
+        }
+
+        logger.info("Writing evaluation trace to file " + outputFile + " ...");
+        try (BufferedWriter writer = Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8)) {
+            writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+            boolean first = true;
+            for (ThreadBuffer buffer : buffers) {
+                // metadata event naming the thread
+                first = writeSeparator(writer, first);
+                writer.write("{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":1,\"tid\":" + buffer.threadId
+                        + ",\"args\":{\"name\":" + quote(buffer.threadName) + "}}");
+
+                List<Span> spans;
+                synchronized (buffer.spans) {
+                    spans = new ArrayList<>(buffer.spans);
+                }
+                for (Span span : spans) {
+                    first = writeSeparator(writer, first);
+                    writer.write(span.toJson(buffer.threadId));
+                }
+            }
+            writer.write("\n]}\n");
+        }
+        if (droppedSpanCount.get() > 0) {
+            logger.warning(droppedSpanCount.get() + " spans were dropped from the evaluation trace.");
+        }
+        logger.info("Evaluation trace saved.");
+    }
+
+    private static boolean writeSeparator(BufferedWriter writer, boolean first) throws IOException {
+        if (!first) {
+            writer.write(",\n");
+        }
+        return false;
+    }
+
+    private static String quote(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"': builder.append("\\\""); break;
+                case '\\': builder.append("\\\\"); break;
+                case '\n': builder.append("\\n"); break;
+                case '\t': builder.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    private static class ThreadBuffer {
+        private final long threadId;
+        private final String threadName;
+        private final List<Span> spans = Collections.synchronizedList(new ArrayList<>());
+
+        private ThreadBuffer(Thread thread) {
+            this.threadId = thread.getId();
+            this.threadName = thread.getName();
+        }
+    }
+
+    private static class Span {
+        private final String name;
+        private final String category;
+        private final long startTime;
+        private final long endTime;
+        private final SimilarityMetric metric;
+        private final int postId;
+        private final int repetition;
+
+        private Span(String name, String category, long startTime, long endTime, SimilarityMetric metric, int postId, int repetition) {
+            this.name = name;
+            this.category = category;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.metric = metric;
+            this.postId = postId;
+            this.repetition = repetition;
+        }
+
+        private String toJson(long threadId) {
+            // timestamps and durations in microseconds
+            StringBuilder builder = new StringBuilder();
+            builder.append("{\"ph\":\"X\",\"pid\":1,\"tid\":").append(threadId)
+                    .append(",\"name\":").append(quote(name))
+                    .append(",\"cat\":").append(quote(category))
+                    .append(",\"ts\":").append(String.format(Locale.ROOT, "%.3f", (startTime - originTime) / 1000.0))
+                    .append(",\"dur\":").append(String.format(Locale.ROOT, "%.3f", (endTime - startTime) / 1000.0));
+            if (metric != null) {
+                builder.append(",\"args\":{\"metric\":").append(quote(metric.toString()));
+                if (postId >= 0) {
+                    builder.append(",\"postId\":").append(postId);
+                }
+                builder.append(",\"repetition\":").append(repetition).append('}');
+            }
+            return builder.append('}').toString();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.sotorrent.util.LogUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Low-overhead binary journal for progress and diagnostic events of an evaluation run.
+ * Evaluation threads write fixed-size records into a lock-free ring buffer, a background thread flushes them to a file.
+ * If the ring buffer is full, records are dropped (and counted) instead of blocking the evaluation.
+ * Strings (sample names, metrics) are written once to a dictionary and referenced by id.
+ * Use EventJournalReader to convert a journal file to text.
+ *
+ * File format: header (magic, version, start time in epoch milliseconds), followed by blocks.
+ * Each block starts with a kind byte: BLOCK_STRING (int id, int length, UTF-8 bytes) or BLOCK_EVENTS (int count, records).
+ * Record (RECORD_SIZE bytes): long time (ns since start), int type, int thread, int sample, int metric, int value1, int value2.
+ */
+public class EventJournal {
+    private static Logger logger;
+
+    static final int MAGIC = 0x534F454A; // "SOEJ"
+    static final int VERSION = 1;
+    static final byte BLOCK_STRING = 0;
+    static final byte BLOCK_EVENTS = 1;
+    static final int RECORD_SIZE = 32;
+
+    private static final int DEFAULT_CAPACITY = 1 << 16; // records, must be a power of two
+    private static final long FLUSH_INTERVAL_MILLIS = 200;
+
+    public enum EventType {
+        MANAGER_STARTED, // value1: metric count, value2: post count
+        ORDER_RANDOMIZED, // metric: -1 for order of metrics, otherwise order of posts; value1: repetition
+        EVALUATION_STARTED, // value1: evaluation index (1-based), value2: repetition
+        EVALUATION_FINISHED, // value1: evaluation index (1-based), value2: duration in milliseconds
+        RESULTS_SAVED, // value1: metric count
+        MANAGER_FINISHED; // value1: metric count, value2: post count
+
+        private static final EventType[] values = values();
+
+        static EventType valueOf(int ordinal) {
+            return ordinal >= 0 && ordinal < values.length ? values[ordinal] : null;
+        }
+    }
+
+    private static volatile EventJournal instance = null;
+
+    private final FileChannel channel;
+    private final long startTime;
+    private final int capacity;
+    private final int mask;
+    private final ByteBuffer ringBuffer;
+    private final AtomicLongArray published; // slot -> sequence number of record published in this slot
+    private final AtomicLong nextSequence;
+    private volatile long flushedSequence;
+    private final LongAdder droppedRecords;
+
+    private final Map<String, Integer> stringIds;
+    private final AtomicInteger stringIdCounter;
+    private final Queue<Map.Entry<Integer, String>> pendingStrings;
+
+    private final Thread flushThread;
+    private volatile boolean closed;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(EventJournal.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private EventJournal(Path outputFile, int capacity) throws IOException {
+        this.channel = FileChannel.open(outputFile,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.startTime = System.nanoTime();
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.ringBuffer = ByteBuffer.allocate(capacity * RECORD_SIZE);
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+        this.nextSequence = new AtomicLong(0);
+        this.flushedSequence = 0;
+        this.droppedRecords = new LongAdder();
+
+        this.stringIds = new ConcurrentHashMap<>();
+        this.stringIdCounter = new AtomicInteger(0);
+        this.pendingStrings = new ConcurrentLinkedQueue<>();
+
+        ByteBuffer header = ByteBuffer.allocate(16);
+        header.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis());
+        header.flip();
+        writeFully(header);
+
+        this.closed = false;
+        this.flushThread = new Thread(this::flushLoop, "EventJournal-flush");
+        this.flushThread.setDaemon(true);
+        this.flushThread.start();
+    }
+
+    public static synchronized void open(Path outputFile) throws IOException {
+        if (instance != null) {
+            return;
+        }
+        instance = new EventJournal(outputFile, DEFAULT_CAPACITY);
+        logger.info("Writing event journal to file " + outputFile + " ...");
+    }
+
+    public static synchronized void close() {
+        EventJournal journal = instance;
+        if (journal == null) {
+            return;
+        }
+        instance = null;
+        journal.closed = true;
+        LockSupport.unpark(journal.flushThread);
+        try {
+            journal.flushThread.join();
+            journal.channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        long dropped = journal.droppedRecords.sum();
+        logger.info("Event journal closed (" + journal.nextSequence.get() + " records"
+                + (dropped > 0 ? ", " + dropped + " records dropped because the ring buffer was full" : "") + ").");
+    }
+
+    static boolean isEnabled() {
+        return instance != null;
+    }
+
+    /**
+     * Returns the dictionary id of the given string, or -1 if the journal is disabled.
+     */
+    static int register(String string) {
+        EventJournal journal = instance;
+        if (journal == null) {
+            return -1;
+        }
+        return journal.stringIds.computeIfAbsent(string, s -> {
+            int id = journal.stringIdCounter.getAndIncrement();
+            // enqueued before any record referencing the id can be published
+            journal.pendingStrings.add(Map.entry(id, s));
+            return id;
+        });
+    }
+
+    static void record(EventType type, int thread, int sample, int metric, int value1, int value2) {
+        EventJournal journal = instance;
+        if (journal != null) {
+            journal.append(type, thread, sample, metric, value1, value2);
+        }
+    }
+
+    private void append(EventType type, int thread, int sample, int metric, int value1, int value2) {
+        // claim a slot, drop the record if the flush thread is a full ring behind
+        long sequence;
+        do {
+            sequence = nextSequence.get();
+            if (sequence - flushedSequence >= capacity) {
+                droppedRecords.increment();
+                return;
+            }
+        } while (!nextSequence.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) (sequence & mask);
+        int offset = slot * RECORD_SIZE;
+        ringBuffer.putLong(offset, System.nanoTime() - startTime);
+        ringBuffer.putInt(offset + 8, type.ordinal());
+        ringBuffer.putInt(offset + 12, thread);
+        ringBuffer.putInt(offset + 16, sample);
+        ringBuffer.putInt(offset + 20, metric);
+        ringBuffer.putInt(offset + 24, value1);
+        ringBuffer.putInt(offset + 28, value2);
+        published.set(slot, sequence); // volatile write publishes the record to the flush thread
+    }
+
+    private void flushLoop() {
+        ByteBuffer batch = ByteBuffer.allocate(5 + capacity * RECORD_SIZE);
+        try {
+            while (true) {
+                boolean closing = closed;
+                int count = collectRecords(batch);
+                // strings referenced by the collected records have been enqueued before the records were published
+                flushStrings();
+                if (count > 0) {
+                    writeFully(batch);
+                }
+                if (closing) {
+                    break;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MILLIS));
+            }
+        } catch (IOException e) {
+            logger.warning("Writing event journal failed: " + e.getMessage());
+        }
+    }
+
+    private void flushStrings() throws IOException {
+        Map.Entry<Integer, String> entry;
+        while ((entry = pendingStrings.poll()) != null) {
+            byte[] bytes = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            ByteBuffer block = ByteBuffer.allocate(1 + 4 + 4 + bytes.length);
+            block.put(BLOCK_STRING).putInt(entry.getKey()).putInt(bytes.length).put(bytes);
+            block.flip();
+            writeFully(block);
+        }
+    }
+
+    private int collectRecords(ByteBuffer batch) {
+        long sequence = flushedSequence;
+        int count = 0;
+        batch.clear();
+        batch.put(BLOCK_EVENTS).putInt(0); // count is set below
+        while (published.get((int) (sequence & mask)) == sequence) {
+            int offset = (int) (sequence & mask) * RECORD_SIZE;
+            for (int i = 0; i < RECORD_SIZE; i += 8) {
+                batch.putLong(ringBuffer.getLong(offset + i));
+            }
+            sequence++;
+            count++;
+        }
+        // slots may be reused by writers from now on
+        flushedSequence = sequence;
+        batch.putInt(1, count);
+        batch.flip();
+        return count;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts a binary event journal (see EventJournal) to semicolon-separated text.
+ *
+ * Usage: java -cp metric-evaluation-jar-with-dependencies.jar org.sotorrent.metricevaluation.evaluation.EventJournalReader journal.bin
+ */
+public class EventJournalReader {
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: EventJournalReader <journal file>");
+            System.exit(1);
+            return;
+        }
+
+        try {
+            read(Paths.get(args[0]), System.out);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    static void read(Path journalFile, PrintStream output) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+            if (input.readInt() != EventJournal.MAGIC) {
+                throw new IOException("File " + journalFile + " is not an event journal.");
+            }
+            int version = input.readInt();
+            if (version != EventJournal.VERSION) {
+                throw new IOException("Unsupported event journal version " + version + ".");
+            }
+            long startTime = input.readLong();
+
+            output.println("# journal started at " + Instant.ofEpochMilli(startTime));
+            output.println("Time;Type;Thread;Sample;Metric;Value1;Value2");
+
+            Map<Integer, String> strings = new HashMap<>();
+            while (true) {
+                byte blockType;
+                try {
+                    blockType = input.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                if (blockType == EventJournal.BLOCK_STRING) {
+                    int id = input.readInt();
+                    byte[] bytes = new byte[input.readInt()];
+                    input.readFully(bytes);
+                    strings.put(id, new String(bytes, StandardCharsets.UTF_8));
+                } else if (blockType == EventJournal.BLOCK_EVENTS) {
+                    int count = input.readInt();
+                    for (int i = 0; i < count; i++) {
+                        long time = input.readLong();
+                        EventJournal.EventType type = EventJournal.EventType.valueOf(input.readInt());
+                        int thread = input.readInt();
+                        int sample = input.readInt();
+                        int metric = input.readInt();
+                        int value1 = input.readInt();
+                        int value2 = input.readInt();
+
+                        // Locale.ROOT -> force '.' as decimal separator
+                        output.println(String.format(Locale.ROOT, "%.3f", ((double) time) / TimeUnit.MILLISECONDS.toNanos(1))
+                                + ";" + type
+                                + ";" + thread
+                                + ";" + strings.getOrDefault(sample, "")
+                                + ";" + strings.getOrDefault(metric, "")
+                                + ";" + value1
+                                + ";" + value2);
+                    }
+                } else {
+                    throw new IOException("Invalid block type " + blockType + " in event journal " + journalFile + ".");
+                }
+            }
+        }
+    }
+}
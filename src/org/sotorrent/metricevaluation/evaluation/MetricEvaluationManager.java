@@ -14,12 +14,31 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
 
 public class MetricEvaluationManager implements Runnable {
+    /**
+     * METRIC_MAJOR evaluates one metric on all posts before moving on to the next metric.
+     * POST_MAJOR evaluates all metrics on one batch of posts before moving on to the next batch, which keeps the data of
+     * the posts in the cache and allows to evaluate batches in parallel (see withThreadCount).
+     */
+    public enum EvaluationOrder {METRIC_MAJOR, POST_MAJOR}
+
     private static AtomicInteger threadIdCounter = new AtomicInteger(0);
 
     private static Logger logger = null;
@@ -28,10 +47,19 @@ public class MetricEvaluationManager implements Runnable {
     public static final CSVFormat csvFormatMetricEvaluationPerVersion;
     private static final CSVFormat csvFormatMetricEvaluationPerSample;
     private static final CSVFormat csvFormatSelectedMetrics;
+    private static final CSVFormat csvFormatComparisonLatencies;
+    private static final CSVFormat csvFormatTimeouts;
+    private static final CSVFormat csvFormatCostModel;
     private static final Path DEFAULT_OUTPUT_DIR = Paths.get("output");
+    private static final long PROGRESS_LOG_INTERVAL = TimeUnit.MINUTES.toNanos(1);
     private static final List<SimilarityMetric> allSimilarityMetrics = new LinkedList<>();
     private static final List<SimilarityMetric> selectedSimilarityMetrics = new LinkedList<>();
     private static final List<SimilarityMetric> combinedSimilarityMetrics = new LinkedList<>();
+    // candidates for the combined metrics (text, text backup, code, code backup)
+    private static final List<SimilarityMetric> combinedCandidatesText = new LinkedList<>();
+    private static final List<SimilarityMetric> combinedCandidatesTextBackup = new LinkedList<>();
+    private static final List<SimilarityMetric> combinedCandidatesCode = new LinkedList<>();
+    private static final List<SimilarityMetric> combinedCandidatesCodeBackup = new LinkedList<>();
     private static final SimilarityMetric defaultSimilarityMetric = new SimilarityMetric(
             "default", SimilarityMetric.MetricType.DEFAULT,
             "default", SimilarityMetric.MetricType.DEFAULT,
@@ -47,6 +75,28 @@ public class MetricEvaluationManager implements Runnable {
     private boolean validate;
     private int numberOfRepetitions;
     private int threadCount;
+    private boolean timingOnlyRepetitions; // if true, only the first repetition computes and validates the results
+    private boolean recordComparisonLatencies;
+    private Long randomSeed;
+    private Random random; // randomizes the order of metrics and provides the seeds for the order of posts
+    private EvaluationOrder evaluationOrder;
+    private int postBatchSize;
+    private int shardIndex;
+    private int shardCount; // shardCount > 1 -> only the metrics of shard shardIndex are evaluated, partial results are written
+    private int sampleIndex; // position of the sample in the order of the sample names (see createManagersFromSampleDirectories())
+    // range of metrics evaluated in the current run (see evaluateWorkItem()), all metrics by default
+    private int fromMetricIndex;
+    private int toMetricIndex;
+    private String partialResultsName; // null -> output files are written, otherwise partial results (shards, work items)
+    private boolean writeCheckpoint; // if true, the results of each completed metric are appended to the checkpoint
+    private boolean resume; // if true, the metrics completed in the checkpoint are restored instead of evaluated
+    private Path resultsCacheDir; // null -> no results cache
+    private String sampleFingerprint; // content of the input files, computed when the results cache is used first
+    private boolean recordPredictedConnections; // if true, predicted connections are stored for re-scoring
+    private SubmissionPublisher<MetricResultEvent> resultPublisher; // null -> results are not published
+    private TimeBudget timeBudget; // null -> evaluations are not aborted
+    private boolean longestFirst; // if true, posts are evaluated in descending order of their predicted cost (post-major order)
+    private ParetoFrontFile paretoFrontFile; // null -> no Pareto fronts
 
     private Path postIdPath;
     private Path postHistoryPath;
@@ -56,6 +106,7 @@ public class MetricEvaluationManager implements Runnable {
     private Set<Integer> postIds;
     private Map<Integer, PostGroundTruth> postGroundTruths; // postId -> PostGroundTruth
     private Map<Integer, PostVersionList> postVersionLists; // postId -> PostVersionList
+    private Map<Integer, PackedGroundTruth> packedGroundTruths; // postId -> PackedGroundTruth (shared by all metrics)
 
     private List<SimilarityMetric> similarityMetrics;
     private List<MetricEvaluationPerSample> metricEvaluationsPerSample;
@@ -64,6 +115,26 @@ public class MetricEvaluationManager implements Runnable {
     private boolean evaluationPrepared; // flag used to check if the metrics and samples have been added
     private boolean finished; // flag used to check if end of run method was reached
 
+    // state of the current run
+    private String threadName;
+    private int journalSampleId;
+    private long lastProgressLogTime;
+    private long evaluationTime; // time spent evaluating (excluding time waiting for other managers)
+    private CSVPrinter checkpointPrinter;
+    private PredictedConnectionStore predictedConnectionStore;
+    private CostModel costModel; // null if posts are not evaluated longest first
+    private ParetoFront paretoFront; // null if Pareto fronts are not maintained
+    private List<MetricEvaluationPerSample> restoredEvaluations;
+
+    // asynchronous runs (see runAsync())
+    private static final Queue<Runnable> waitingAsyncRuns = new ArrayDeque<>(); // runs waiting for the active run
+    private static boolean asyncRunActive = false; // guarded by waitingAsyncRuns
+    // futures of the active asynchronous run (null otherwise), they decide which metrics are cancelled
+    private volatile Map<Integer, CompletableFuture<MetricEvaluationPerSample>> metricFutures; // metric index -> future
+    private volatile CompletableFuture<MetricEvaluationManager> runFuture;
+    private volatile Map<Integer, CompletableFuture<MetricEvaluationPerSample>> lastMetricFutures = Collections.emptyMap(); // futures of the active or last asynchronous run
+    private volatile EvaluationProgressListener progressListener;
+
     static {
         // configure logger
         try {
@@ -116,6 +187,33 @@ public class MetricEvaluationManager implements Runnable {
                 .withEscape('\\')
                 .withNullString("null");
 
+        // configure CSV format for latencies of block comparisons (per metric, comparison, and combined block length)
+        csvFormatComparisonLatencies = CSVFormat.DEFAULT
+                .withHeader("MetricTypeText", "MetricText", "ThresholdText", "MetricTypeTextBackup", "MetricTextBackup", "ThresholdTextBackup", "MetricTypeCode", "MetricCode", "ThresholdCode", "MetricTypeCodeBackup", "MetricCodeBackup", "ThresholdCodeBackup", "Comparison", "CombinedLengthMin", "CombinedLengthMax", "Count", "Mean", "P50", "P90", "P99", "P999", "Max")
+                .withDelimiter(';')
+                .withQuote('"')
+                .withQuoteMode(QuoteMode.MINIMAL)
+                .withEscape('\\')
+                .withNullString("null");
+
+        // configure CSV format for evaluations that exceeded the time budget (per metric and post)
+        csvFormatTimeouts = CSVFormat.DEFAULT
+                .withHeader("MetricTypeText", "MetricText", "ThresholdText", "MetricTypeTextBackup", "MetricTextBackup", "ThresholdTextBackup", "MetricTypeCode", "MetricCode", "ThresholdCode", "MetricTypeCodeBackup", "MetricCodeBackup", "ThresholdCodeBackup", "PostId", "Repetition", "Budget", "EvaluationTime", "Overrun", "SkippedPostEvaluations")
+                .withDelimiter(';')
+                .withQuote('"')
+                .withQuoteMode(QuoteMode.MINIMAL)
+                .withEscape('\\')
+                .withNullString("null");
+
+        // configure CSV format for predicted and actual runtimes (per metric and post)
+        csvFormatCostModel = CSVFormat.DEFAULT
+                .withHeader("MetricTypeText", "MetricText", "ThresholdText", "MetricTypeTextBackup", "MetricTextBackup", "ThresholdTextBackup", "MetricTypeCode", "MetricCode", "ThresholdCode", "MetricTypeCodeBackup", "MetricCodeBackup", "ThresholdCodeBackup", "PostId", "Family", "Feature", "PredictedRuntime", "ActualRuntime")
+                .withDelimiter(';')
+                .withQuote('"')
+                .withQuoteMode(QuoteMode.MINIMAL)
+                .withEscape('\\')
+                .withNullString("null");
+
         // add default similarity metrics
         createAllSimilarityMetrics();
     }
@@ -123,7 +221,25 @@ public class MetricEvaluationManager implements Runnable {
     private MetricEvaluationManager(String sampleName, Path postIdPath,
                                     Path postHistoryPath, Path groundTruthPath, Path outputDirPath,
                                     boolean validate, boolean addAllSimilarityMetrics, boolean randomizeOrder,
-                                    int numberOfRepetitions, int threadCount) {
+                                    int numberOfRepetitions, int threadCount,
+                                    boolean timingOnlyRepetitions, boolean recordComparisonLatencies, Long randomSeed,
+                                    EvaluationOrder evaluationOrder, int postBatchSize,
+                                    int shardIndex, int shardCount, boolean writeCheckpoint, boolean resume,
+                                    Path resultsCacheDir, boolean recordPredictedConnections,
+                                    SubmissionPublisher<MetricResultEvent> resultPublisher, TimeBudget timeBudget,
+                                    boolean longestFirst, ParetoFrontFile paretoFrontFile) {
+
+        if (postBatchSize < 1) {
+            String msg = "Post batch size must be at least 1, but was " + postBatchSize + ".";
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
+
+        if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+            String msg = "Invalid shard " + shardIndex + " of " + shardCount + ".";
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
 
         this.sampleName = sampleName;
 
@@ -137,13 +253,36 @@ public class MetricEvaluationManager implements Runnable {
         this.randomizeOrder = randomizeOrder;
         this.numberOfRepetitions = numberOfRepetitions;
         this.threadCount = threadCount;
-
-        this.postIds = new HashSet<>();
+        this.timingOnlyRepetitions = timingOnlyRepetitions;
+        this.recordComparisonLatencies = recordComparisonLatencies;
+        this.randomSeed = randomSeed;
+        this.random = randomSeed == null ? new Random() : new Random(randomSeed);
+        this.evaluationOrder = evaluationOrder;
+        this.postBatchSize = postBatchSize;
+        this.shardIndex = shardIndex;
+        this.shardCount = shardCount;
+        this.writeCheckpoint = writeCheckpoint || resume;
+        this.resume = resume;
+        this.resultsCacheDir = resultsCacheDir;
+        this.sampleFingerprint = null;
+        this.recordPredictedConnections = recordPredictedConnections;
+        this.resultPublisher = resultPublisher;
+        this.timeBudget = timeBudget;
+        this.longestFirst = longestFirst;
+        this.paretoFrontFile = paretoFrontFile;
+        this.sampleIndex = 0;
+        this.fromMetricIndex = 0;
+        this.toMetricIndex = Integer.MAX_VALUE;
+        this.partialResultsName = shardCount > 1 ? shardIndex + "_of_" + shardCount : null;
+
+        // keep order of PostIds in CSV file (order of output files)
+        this.postIds = new LinkedHashSet<>();
         this.postGroundTruths = new HashMap<>();
         this.postVersionLists = new HashMap<>();
+        this.packedGroundTruths = new HashMap<>();
 
         this.similarityMetrics = new LinkedList<>();
-        this.metricEvaluationsPerSample = new LinkedList<>();
+        this.metricEvaluationsPerSample = new ArrayList<>();
 
         this.initialized = false;
         this.evaluationPrepared = false;
@@ -160,59 +299,279 @@ public class MetricEvaluationManager implements Runnable {
             true,
             true,
             4,
-            1
+            1,
+            false,
+            false,
+            null,
+            EvaluationOrder.METRIC_MAJOR,
+            1,
+            0,
+            1,
+            false,
+            false,
+            null,
+            false,
+            null,
+            null,
+            false,
+            null
     );
 
     public MetricEvaluationManager withName(String name) {
         return new MetricEvaluationManager(name, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
-                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
         );
     }
 
     public MetricEvaluationManager withInputPaths(Path postIdPath, Path postHistoryPath, Path groundTruthPath) {
         return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
-                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
         );
     }
 
     public MetricEvaluationManager withOutputDirPath(Path outputDirPath) {
         return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
-                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
         );
     }
 
     public MetricEvaluationManager withValidate(boolean validate) {
         return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
-                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
         );
     }
 
     public MetricEvaluationManager withAllSimilarityMetrics(boolean addAllSimilarityMetrics) {
         return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
-                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
         );
     }
 
     public MetricEvaluationManager withRandomizeOrder(boolean randomizeOrder) {
         return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
-                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
         );
     }
 
     public MetricEvaluationManager withNumberOfRepetitions(int numberOfRepetitions) {
         return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
-                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
         );
     }
 
+    /**
+     * Number of threads evaluating the post batches of this sample in parallel (only used for POST_MAJOR). The runtimes
+     * of evaluations running in parallel include the contention between the threads, use one thread to measure them.
+     */
     public MetricEvaluationManager withThreadCount(int threadCount) {
         return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
-                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
+        );
+    }
+
+    public MetricEvaluationManager withTimingOnlyRepetitions(boolean timingOnlyRepetitions) {
+        return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
+        );
+    }
+
+    public MetricEvaluationManager withComparisonLatencies(boolean recordComparisonLatencies) {
+        return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
+        );
+    }
+
+    /**
+     * Seed for the randomized evaluation order of metrics and posts, null for a different order in each run.
+     */
+    public MetricEvaluationManager withRandomSeed(Long randomSeed) {
+        return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
+        );
+    }
+
+    public MetricEvaluationManager withEvaluationOrder(EvaluationOrder evaluationOrder) {
+        return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
+        );
+    }
+
+    /**
+     * Number of posts evaluated with all metrics before moving on to the next posts (only used for POST_MAJOR).
+     */
+    public MetricEvaluationManager withPostBatchSize(int postBatchSize) {
+        return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
+        );
+    }
+
+    /**
+     * Evaluates only the (sample, metric) combinations with index % shardCount == shardIndex, where the index enumerates
+     * the metrics of all samples (in the order of the sample names). Partial results are written instead of the
+     * output files (see mergePartialResults()).
+     */
+    public MetricEvaluationManager withShard(int shardIndex, int shardCount) {
+        return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
+        );
+    }
+
+    /**
+     * If writeCheckpoint is true, the results of each metric are appended to <sample>_checkpoint.csv after each of its
+     * repetitions. If resume is true (implies writeCheckpoint), the metrics completed in an existing checkpoint are
+     * restored instead of evaluated again, the other metrics continue after their last repetition in the checkpoint.
+     */
+    public MetricEvaluationManager withCheckpoint(boolean writeCheckpoint, boolean resume) {
+        return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
+        );
+    }
+
+    /**
+     * Directory of the results cache (see ResultsCache): the results of metrics evaluated on the same sample content
+     * with the same options in a previous run are restored instead of evaluated, null to disable the cache.
+     * The cache only contains counters and runtimes, run() throws an IllegalStateException if comparison latencies or
+     * predicted connections are recorded as well.
+     */
+    public MetricEvaluationManager withResultsCache(Path resultsCacheDir) {
+        return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
+        );
+    }
+
+    /**
+     * If true, the connections predicted by each metric are written to <sample>_predicted_connections.bin, so that the
+     * results can be computed again for a revised ground truth without evaluating the metrics (see rescore()).
+     */
+    public MetricEvaluationManager withPredictedConnections(boolean recordPredictedConnections) {
+        return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
+        );
+    }
+
+    /**
+     * Publishes the results per version, post, and sample (see MetricResultEvent). The results of a post are published
+     * as soon as the post has been evaluated in the last repetition, the results of the sample once all posts have been
+     * evaluated. The publisher can be shared by several managers and is closed by the caller. Publishing blocks while
+     * a subscriber's buffer is full, i.e., slow subscribers throttle the evaluation (of all managers, as the posts are
+     * published by the evaluating thread).
+     */
+    public MetricEvaluationManager withResultPublisher(SubmissionPublisher<MetricResultEvent> resultPublisher) {
+        return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
+        );
+    }
+
+    /**
+     * Aborts the evaluation of a metric on a post after postBudgetMillis and all further evaluations of a metric once
+     * metricBudgetMillis have been spent on the sample (0 -> unlimited). If skipRemainingPosts is true, the remaining
+     * posts of a metric are skipped after its first timeout. Timed out and skipped posts are omitted from the regular
+     * output files (the sample results of a timed out metric aggregate its complete posts, see PostCount), the timeouts
+     * are written to <sample>_timeouts.csv. Timed out metrics are neither cached nor added to the Pareto front.
+     */
+    public MetricEvaluationManager withTimeBudget(long postBudgetMillis, long metricBudgetMillis, boolean skipRemainingPosts) {
+        if (postBudgetMillis < 0 || metricBudgetMillis < 0) {
+            String msg = "Time budgets must not be negative.";
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        TimeBudget timeBudget = postBudgetMillis == 0 && metricBudgetMillis == 0 ? null : new TimeBudget(
+                TimeUnit.MILLISECONDS.toNanos(postBudgetMillis), TimeUnit.MILLISECONDS.toNanos(metricBudgetMillis),
+                skipRemainingPosts);
+        return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
+        );
+    }
+
+    /**
+     * Evaluates the posts in descending order of their predicted cost (sum over all metrics, see CostModel) to
+     * minimize the makespan of parallel post batches in post-major order. The cost model is refitted after each
+     * repetition, predicted and actual runtimes are written to <sample>_cost_model.csv. Overrides the randomized order
+     * of posts (the order of metrics is still randomized).
+     */
+    public MetricEvaluationManager withLongestFirst(boolean longestFirst) {
+        return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
+        );
+    }
+
+    /**
+     * Maintains the Pareto fronts of accuracy versus runtime of this sample in the given file, which can be shared by
+     * several managers (see ParetoFrontFile). If the stop criterion is enabled, the remaining metrics are skipped once
+     * the fronts are stable (metric-major order only).
+     */
+    public MetricEvaluationManager withParetoFront(ParetoFrontFile paretoFrontFile) {
+        return new MetricEvaluationManager(sampleName, postIdPath, postHistoryPath, groundTruthPath, outputDirPath,
+                validate, addAllSimilarityMetrics, randomizeOrder, numberOfRepetitions, threadCount,
+                timingOnlyRepetitions, recordComparisonLatencies, randomSeed, evaluationOrder, postBatchSize,
+                shardIndex, shardCount, writeCheckpoint, resume, resultsCacheDir, recordPredictedConnections,
+                resultPublisher, timeBudget, longestFirst, paretoFrontFile
         );
     }
 
     public MetricEvaluationManager initialize() {
         this.threadId = threadIdCounter.incrementAndGet();
+        long traceStartTime = EvaluationTrace.begin();
 
         if (addAllSimilarityMetrics) {
             addAllSimilarityMetrics();
@@ -260,6 +619,7 @@ public class MetricEvaluationManager implements Runnable {
                 }
 
                 postGroundTruths.put(postId, newPostGroundTruth);
+                packedGroundTruths.put(postId, new PackedGroundTruth(newPostGroundTruth));
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -273,6 +633,8 @@ public class MetricEvaluationManager implements Runnable {
 
         initialized = true;
 
+        EvaluationTrace.end(traceStartTime, "load sample " + sampleName, EvaluationTrace.CATEGORY_LOAD);
+
         return this;
     }
 
@@ -305,24 +667,104 @@ public class MetricEvaluationManager implements Runnable {
     }
 
     private void prepareEvaluation() {
+        long traceStartTime = EvaluationTrace.begin();
         metricEvaluationsPerSample.clear();
+        int metricIndex = 0;
         for (SimilarityMetric similarityMetric : similarityMetrics) {
+            if (!isSelected(metricIndex)) {
+                metricIndex++;
+                continue;
+            }
             MetricEvaluationPerSample evaluationPerSample = new MetricEvaluationPerSample(
                     sampleName,
                     similarityMetric,
+                    metricIndex++,
                     postIds,
                     postVersionLists,
                     postGroundTruths,
+                    packedGroundTruths,
                     numberOfRepetitions,
-                    randomizeOrder
+                    randomizeOrder,
+                    timingOnlyRepetitions,
+                    recordComparisonLatencies,
+                    recordPredictedConnections,
+                    timeBudget,
+                    random.nextLong()
             );
             evaluationPerSample.prepareEvaluation();
             metricEvaluationsPerSample.add(evaluationPerSample);
         }
+        EvaluationTrace.end(traceStartTime, "prepare evaluation of sample " + sampleName, EvaluationTrace.CATEGORY_PREPARE);
+    }
+
+    private boolean isSelected(int metricIndex) {
+        if (metricIndex < fromMetricIndex || metricIndex >= toMetricIndex) {
+            return false;
+        }
+        // enumerate the metrics of all samples
+        long index = (long) sampleIndex * similarityMetrics.size() + metricIndex;
+        return shardCount == 1 || index % shardCount == shardIndex;
     }
 
     private void randomizeOrder() {
-        Collections.shuffle(metricEvaluationsPerSample, new Random());
+        Collections.shuffle(metricEvaluationsPerSample, random);
+    }
+
+    /**
+     * Evaluations in the order of the similarity metrics (independent of the randomized evaluation order), used for
+     * the output files. Together with the order of the PostIds in the input file, this makes the output files of a
+     * single run identical to merged partial results. Before the shards were introduced, the rows were written in the
+     * randomized evaluation order and in hash order of the PostIds.
+     */
+    private List<MetricEvaluationPerSample> getMetricEvaluationsInOrder() {
+        List<MetricEvaluationPerSample> metricEvaluationsInOrder = new ArrayList<>(metricEvaluationsPerSample);
+        metricEvaluationsInOrder.sort(Comparator.comparingInt(MetricEvaluationPerSample::getMetricIndex));
+        return metricEvaluationsInOrder;
+    }
+
+    /**
+     * Evaluates the given similarity metric once on this sample (without repetitions or randomized order).
+     * The evaluation is neither stored in this manager nor written to the output files.
+     */
+    MetricEvaluationPerSample evaluateSimilarityMetric(SimilarityMetric similarityMetric) {
+        if (!initialized) {
+            initialize();
+        }
+        return evaluateSimilarityMetric(similarityMetric, postIds);
+    }
+
+    /**
+     * Evaluates the given similarity metric once on a subset of the posts of this sample (see above).
+     */
+    MetricEvaluationPerSample evaluateSimilarityMetric(SimilarityMetric similarityMetric, Set<Integer> postIds) {
+        if (!initialized) {
+            initialize();
+        }
+        if (!this.postIds.containsAll(postIds)) {
+            String msg = "Thread " + threadId + ": PostIds to evaluate are not part of sample " + sampleName + ".";
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
+
+        MetricEvaluationPerSample evaluationPerSample = new MetricEvaluationPerSample(
+                sampleName,
+                similarityMetric,
+                -1,
+                postIds,
+                postVersionLists,
+                postGroundTruths,
+                packedGroundTruths,
+                1,
+                false,
+                false,
+                false,
+                false,
+                null,
+                random.nextLong()
+        );
+        evaluationPerSample.prepareEvaluation();
+        evaluationPerSample.startEvaluation(1);
+        return evaluationPerSample;
     }
 
     @Override
@@ -337,78 +779,959 @@ public class MetricEvaluationManager implements Runnable {
             prepareEvaluation();
         }
 
-        for (int currentRepetition = 1; currentRepetition <= numberOfRepetitions; currentRepetition++) {
-            if (randomizeOrder) {
-                logger.info( "Thread " + threadId + ": Randomizing order of similarity metrics for sample " + sampleName + "...");
-                randomizeOrder();
+        paretoFront = paretoFrontFile == null ? null : paretoFrontFile.getFront(sampleName);
+        restoredEvaluations = new ArrayList<>();
+        if (resultsCacheDir != null) {
+            if (recordComparisonLatencies || recordPredictedConnections) {
+                // restored metrics would be missing in the latencies and the predicted connection store
+                String msg = "Thread " + threadId + ": Results cache cannot be combined with comparison latencies or "
+                        + "predicted connections.";
+                logger.warning(msg);
+                throw new IllegalStateException(msg);
+            }
+            restoreFromResultsCache();
+        }
+        if (writeCheckpoint) {
+            openCheckpoint();
+        }
+        if (recordPredictedConnections) {
+            openPredictedConnectionStore();
+        }
+        for (MetricEvaluationPerSample evaluationPerSample : restoredEvaluations) {
+            publishResults(evaluationPerSample);
+            completeMetricFuture(evaluationPerSample);
+        }
+
+        threadName = "Thread " + threadId + " (" + sampleName + ")";
+        EvaluationMetrics.managerStarted(metricEvaluationsPerSample.size() * postIds.size() * numberOfRepetitions);
+
+        // progress is recorded in the event journal, the log only contains sampled summaries
+        journalSampleId = EventJournal.register(sampleName);
+        EventJournal.record(EventJournal.EventType.MANAGER_STARTED, threadId, journalSampleId, -1,
+                metricEvaluationsPerSample.size(), postIds.size());
+        lastProgressLogTime = System.nanoTime();
+        evaluationTime = 0;
+
+        try {
+            evaluateAndSaveResults();
+        } finally {
+            // the manager is no longer running, even if the evaluation failed
+            EvaluationMetrics.managerFinished();
+        }
+
+        EventJournal.record(EventJournal.EventType.MANAGER_FINISHED, threadId, journalSampleId, -1,
+                metricEvaluationsPerSample.size(), postIds.size());
+        logger.info("Thread " + threadId + ": Finished.");
+    }
+
+    private void evaluateAndSaveResults() {
+        // posts are only evaluated in parallel in post-major order
+        ExecutorService postThreadPool = evaluationOrder == EvaluationOrder.POST_MAJOR && threadCount > 1
+                ? Executors.newFixedThreadPool(threadCount) : null;
+        if (postThreadPool != null) {
+            logger.warning("Thread " + threadId + ": Evaluating post batches with " + threadCount
+                    + " threads, the measured runtimes are not reliable.");
+        }
+        costModel = evaluationOrder == EvaluationOrder.POST_MAJOR && longestFirst && !metricEvaluationsPerSample.isEmpty()
+                ? new CostModel(metricEvaluationsPerSample, postVersionLists) : null;
+        try {
+            if (evaluationOrder == EvaluationOrder.METRIC_MAJOR && paretoFront != null && paretoFront.isStopEnabled()) {
+                if (randomizeOrder) {
+                    EventJournal.record(EventJournal.EventType.ORDER_RANDOMIZED, threadId, journalSampleId, -1, 1, 0);
+                    randomizeOrder();
+                }
+                evaluateMetricMajorUntilStable();
+            } else {
+                for (int currentRepetition = 1; currentRepetition <= numberOfRepetitions; currentRepetition++) {
+                    if (randomizeOrder) {
+                        EventJournal.record(EventJournal.EventType.ORDER_RANDOMIZED, threadId, journalSampleId, -1,
+                                currentRepetition, 0);
+                        randomizeOrder();
+                    }
+
+                    if (evaluationOrder == EvaluationOrder.POST_MAJOR) {
+                        evaluatePostMajor(currentRepetition, postThreadPool);
+                        for (MetricEvaluationPerSample evaluationPerSample : metricEvaluationsPerSample) {
+                            repetitionCompleted(evaluationPerSample, currentRepetition);
+                        }
+                    } else {
+                        evaluateMetricMajor(currentRepetition);
+                    }
+                }
+            }
+        } finally {
+            if (postThreadPool != null) {
+                postThreadPool.shutdown();
+            }
+            closeCheckpoint();
+            closePredictedConnectionStore();
+        }
+
+        // cancelled metrics are not written to the output files, timed out metrics without their timed out posts
+        metricEvaluationsPerSample.removeIf(this::isCancelled);
+        if (timeBudget != null) {
+            List<MetricEvaluationPerSample> timedOutEvaluations = new ArrayList<>();
+            for (MetricEvaluationPerSample evaluationPerSample : getMetricEvaluationsInOrder()) {
+                if (evaluationPerSample.isTimedOut()) {
+                    timedOutEvaluations.add(evaluationPerSample);
+                }
+            }
+            writeTimeoutsToCSV(timedOutEvaluations);
+        }
+        if (costModel != null) {
+            writeCostModelToCSV();
+            costModel = null;
+        }
+
+        logThroughput();
+
+        // output files contain the restored metrics as well
+        metricEvaluationsPerSample.addAll(restoredEvaluations);
+
+        // partial results are cached when they are merged
+        if (resultsCacheDir != null && partialResultsName == null) {
+            writeToResultsCache();
+        }
+
+        logger.info("Thread " + threadId + ": Saving results for sample " + sampleName + "...");
+        if (partialResultsName != null) {
+            writePartialResultsToCSV();
+        } else {
+            writeToCSV();
+        }
+        EventJournal.record(EventJournal.EventType.RESULTS_SAVED, threadId, journalSampleId, -1,
+                metricEvaluationsPerSample.size(), 0);
+        logger.info("Thread " + threadId + ": Results saved.");
+
+        this.finished = true;
+    }
+
+    private void evaluateMetricMajor(int currentRepetition) {
+        int size = metricEvaluationsPerSample.size();
+        for (int i = 0; i < size; i++) {
+            evaluateMetric(i, size, currentRepetition);
+        }
+    }
+
+    /*
+     * Metrics are evaluated in blocks of as many metrics as needed for a stable Pareto front. All repetitions of a block
+     * are evaluated before the next block, the repetitions of the metrics within a block are interleaved as in
+     * evaluateMetricMajor(). The remaining metrics are skipped once the Pareto front of the sample is stable.
+     */
+    private void evaluateMetricMajorUntilStable() {
+        int size = metricEvaluationsPerSample.size();
+        int blockSize = paretoFront.getStableEvaluations();
+        for (int fromIndex = 0; fromIndex < size; fromIndex += blockSize) {
+            int toIndex = Math.min(fromIndex + blockSize, size);
+            for (int currentRepetition = 1; currentRepetition <= numberOfRepetitions; currentRepetition++) {
+                for (int i = fromIndex; i < toIndex; i++) {
+                    evaluateMetric(i, size, currentRepetition);
+                }
+            }
+            if (toIndex < size && paretoFront.isStable()) {
+                List<MetricEvaluationPerSample> skippedEvaluations = metricEvaluationsPerSample.subList(toIndex, size);
+                StringBuilder skippedMetrics = new StringBuilder();
+                for (MetricEvaluationPerSample evaluationPerSample : skippedEvaluations) {
+                    skippedMetrics.append(skippedMetrics.length() == 0 ? "" : ", ").append(evaluationPerSample.getSimilarityMetric());
+                }
+                logger.info("Thread " + threadId + ": Pareto front of sample " + sampleName + " is stable, skipping "
+                        + skippedEvaluations.size() + " of " + size + " metrics: " + skippedMetrics + ".");
+                skippedEvaluations.clear();
+                break;
+            }
+        }
+    }
+
+    private void evaluateMetric(int i, int size, int currentRepetition) {
+        MetricEvaluationPerSample evaluationPerSample = metricEvaluationsPerSample.get(i);
+        checkRunCancelled();
+        if (isCancelled(evaluationPerSample)) {
+            // cancelled metrics are skipped in all remaining repetitions
+            return;
+        }
+        if (currentRepetition <= evaluationPerSample.getRestoredRepetitions()) {
+            // repetition restored from the checkpoint
+            return;
+        }
+        int journalMetricId = evaluationPerSample.getJournalId();
+
+        if (randomizeOrder) {
+            // the order of posts is randomized in MetricEvaluationPerSample.startEvaluation()
+            EventJournal.record(EventJournal.EventType.ORDER_RANDOMIZED, threadId, journalSampleId, journalMetricId,
+                    currentRepetition, 0);
+        }
+        EventJournal.record(EventJournal.EventType.EVALUATION_STARTED, threadId, journalSampleId, journalMetricId,
+                i + 1, currentRepetition);
+
+        SampleEvaluationEvent event = new SampleEvaluationEvent();
+        long busyTime;
+        long waitStartTime = EvaluationTrace.begin();
+        synchronized (MetricEvaluationManager.class) {
+            EvaluationTrace.blocked(waitStartTime, "MetricEvaluationManager.class");
+            long traceStartTime = EvaluationTrace.begin();
+            event.begin();
+            long startTime = System.nanoTime();
+            // the results of each post are published as soon as they are complete
+            evaluationPerSample.startEvaluation(currentRepetition, resultPublisher == null ? null
+                    : evaluationPerPost -> publishPostResults(evaluationPerSample, evaluationPerPost));
+            busyTime = System.nanoTime() - startTime;
+            event.end();
+            EvaluationTrace.end(traceStartTime, "evaluate metric", EvaluationTrace.CATEGORY_EVALUATE,
+                    evaluationPerSample.getSimilarityMetric(), -1, currentRepetition);
+        }
+        evaluationTime += busyTime;
+        EvaluationMetrics.evaluationCompleted(threadName, evaluationPerSample.size(),
+                evaluationPerSample.getPossibleComparisons(), busyTime);
+        EventJournal.record(EventJournal.EventType.EVALUATION_FINISHED, threadId, journalSampleId, journalMetricId,
+                i + 1, (int) TimeUnit.NANOSECONDS.toMillis(busyTime));
+
+        logProgress("evaluation", i + 1, size, currentRepetition);
+        if (event.shouldCommit()) {
+            event.sampleName = sampleName;
+            event.setSimilarityMetric(evaluationPerSample.getSimilarityMetric());
+            event.repetition = currentRepetition;
+            event.postCount = evaluationPerSample.size();
+            event.commit();
+        }
+
+        repetitionCompleted(evaluationPerSample, currentRepetition);
+    }
+
+    /*
+     * Called once a repetition of a metric has been evaluated, cancelled metrics have incomplete results. The results
+     * are complete after the last repetition, those of timed out metrics only for their complete posts, thus they are
+     * neither checkpointed nor stored or added to the Pareto front.
+     */
+    private void repetitionCompleted(MetricEvaluationPerSample evaluationPerSample, int currentRepetition) {
+        if (isCancelled(evaluationPerSample) || currentRepetition <= evaluationPerSample.getRestoredRepetitions()) {
+            return;
+        }
+        if (evaluationPerSample.isTimedOut()) {
+            if (currentRepetition == numberOfRepetitions) {
+                publishSampleResults(evaluationPerSample);
+                completeMetricFuture(evaluationPerSample);
+            }
+            return;
+        }
+        if (currentRepetition == numberOfRepetitions) {
+            // stored before the checkpoint, a completed metric in the checkpoint is always contained in the store
+            storePredictedConnections(evaluationPerSample);
+        }
+        checkpoint(evaluationPerSample, currentRepetition);
+        if (currentRepetition == numberOfRepetitions) {
+            addToParetoFront(evaluationPerSample);
+            // the results of the posts have been published while they were evaluated
+            publishSampleResults(evaluationPerSample);
+            completeMetricFuture(evaluationPerSample);
+        }
+    }
+
+    private void addToParetoFront(MetricEvaluationPerSample evaluationPerSample) {
+        if (paretoFront != null) {
+            paretoFront.add(evaluationPerSample);
+        }
+    }
+
+    private String getSampleFingerprint() {
+        if (sampleFingerprint == null) {
+            long traceStartTime = EvaluationTrace.begin();
+            try {
+                sampleFingerprint = ResultsCache.getSampleFingerprint(postIdPath, postHistoryPath, groundTruthPath);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            EvaluationTrace.end(traceStartTime, "fingerprint sample " + sampleName, EvaluationTrace.CATEGORY_LOAD);
+        }
+        return sampleFingerprint;
+    }
+
+    private void restoreFromResultsCache() {
+        if (getSampleFingerprint() == null) {
+            return;
+        }
+        Path cacheFile = ResultsCache.getCacheFile(resultsCacheDir, sampleName);
+        List<MetricEvaluationPerSample> cachedEvaluations = ResultsCache.restore(
+                cacheFile, sampleFingerprint, getResultsCacheOptions(), getMetricEvaluationsInOrder());
+        for (MetricEvaluationPerSample evaluationPerSample : cachedEvaluations) {
+            addToParetoFront(evaluationPerSample);
+        }
+        restoredEvaluations.addAll(cachedEvaluations);
+        metricEvaluationsPerSample.removeAll(cachedEvaluations);
+
+        logger.info("Thread " + threadId + ": Restored " + cachedEvaluations.size() + " of "
+                + (cachedEvaluations.size() + metricEvaluationsPerSample.size()) + " metrics from results cache "
+                + cacheFile + ".");
+    }
+
+    private void writeToResultsCache() {
+        if (getSampleFingerprint() == null) {
+            return;
+        }
+        long traceStartTime = EvaluationTrace.begin();
+        Path cacheFile = ResultsCache.getCacheFile(resultsCacheDir, sampleName);
+        logger.info("Thread " + threadId + ": Writing results to cache " + cacheFile + " ...");
+        // timed out metrics are evaluated again in the next run
+        List<MetricEvaluationPerSample> completedEvaluations = getMetricEvaluationsInOrder();
+        completedEvaluations.removeIf(MetricEvaluationPerSample::isTimedOut);
+        ResultsCache.write(cacheFile, sampleFingerprint, getResultsCacheOptions(), completedEvaluations);
+        EvaluationTrace.end(traceStartTime, "write results cache of sample " + sampleName, EvaluationTrace.CATEGORY_WRITE);
+    }
+
+    /*
+     * Options that affect the cached results: the runtime is the mean of all repetitions, timing-only repetitions and
+     * instrumented comparisons change the measured runtimes, and so do the evaluation order and the threads evaluating
+     * post batches in parallel (only in post-major order).
+     */
+    private String getResultsCacheOptions() {
+        int postThreadCount = evaluationOrder == EvaluationOrder.POST_MAJOR ? threadCount : 1;
+        return "repetitions=" + numberOfRepetitions + ";timingOnlyRepetitions=" + timingOnlyRepetitions
+                + ";comparisonLatencies=" + recordComparisonLatencies + ";evaluationOrder=" + evaluationOrder
+                + ";postThreads=" + postThreadCount;
+    }
+
+    private Path getCheckpointPath() {
+        return Paths.get(this.outputDirPath.toString(), sampleName + "_checkpoint"
+                + (partialResultsName == null ? "" : "_" + partialResultsName) + ".csv");
+    }
+
+    /*
+     * Restores the completed metrics (if resume is configured) and opens the checkpoint for the metrics completed in
+     * this run. Restored metrics are not evaluated again.
+     */
+    private void openCheckpoint() {
+        Path checkpointPath = getCheckpointPath();
+        try {
+            // create output directory if it does not exist
+            FileUtils.createDirectory(outputDirPath);
+
+            if (resume && Files.exists(checkpointPath)) {
+                restoreCheckpoint(checkpointPath);
+            }
+
+            // rewrite checkpoint with the last restored repetition of each metric only (drops earlier repetitions and
+            // incompletely written metrics)
+            Path temporaryFile = Paths.get(checkpointPath.toString() + ".tmp");
+            try (CSVPrinter csvPrinterCheckpoint = new CSVPrinter(new FileWriter(temporaryFile.toFile()), PartialResults.csvFormatCheckpoint)) {
+                for (MetricEvaluationPerSample evaluationPerSample : restoredEvaluations) {
+                    PartialResults.writeCheckpointToCSV(csvPrinterCheckpoint, evaluationPerSample, similarityMetrics.size(),
+                            numberOfRepetitions, numberOfRepetitions);
+                }
+                for (MetricEvaluationPerSample evaluationPerSample : metricEvaluationsPerSample) {
+                    if (evaluationPerSample.getRestoredRepetitions() > 0) {
+                        PartialResults.writeCheckpointToCSV(csvPrinterCheckpoint, evaluationPerSample, similarityMetrics.size(),
+                                evaluationPerSample.getRestoredRepetitions(), numberOfRepetitions);
+                    }
+                }
+            }
+            Files.move(temporaryFile, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            checkpointPrinter = new CSVPrinter(new FileWriter(checkpointPath.toFile(), true),
+                    PartialResults.csvFormatCheckpoint.withSkipHeaderRecord());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void restoreCheckpoint(Path checkpointPath) {
+        Map<Integer, Map<Integer, Integer>> versionCounts = PartialResults.readCheckpointVersionCounts(
+                checkpointPath, numberOfRepetitions);
+
+        // only repetitions with results for all versions are completed, the last completed repetition is restored
+        Map<Integer, MetricEvaluationPerSample> restoredEvaluationsByMetricIndex = new HashMap<>();
+        Map<Integer, Integer> restoredRepetitions = new HashMap<>();
+        for (MetricEvaluationPerSample evaluationPerSample : metricEvaluationsPerSample) {
+            int metricIndex = evaluationPerSample.getMetricIndex();
+            int lastCompletedRepetition = 0;
+            for (Map.Entry<Integer, Integer> versionCount
+                    : versionCounts.getOrDefault(metricIndex, Collections.emptyMap()).entrySet()) {
+                if (versionCount.getValue() == evaluationPerSample.getResults().getVersionCount()) {
+                    lastCompletedRepetition = Math.max(lastCompletedRepetition, versionCount.getKey());
+                }
+            }
+            if (lastCompletedRepetition > 0) {
+                restoredEvaluationsByMetricIndex.put(metricIndex, evaluationPerSample);
+                restoredRepetitions.put(metricIndex, lastCompletedRepetition);
+            }
+        }
+        PartialResults.readCheckpointFromCSV(checkpointPath, restoredEvaluationsByMetricIndex, restoredRepetitions,
+                similarityMetrics.size());
+
+        // completed metrics are not evaluated again, the others continue after their last completed repetition
+        int restoredRepetitionCount = 0;
+        for (MetricEvaluationPerSample evaluationPerSample : getMetricEvaluationsInOrder()) {
+            int repetitions = restoredRepetitions.getOrDefault(evaluationPerSample.getMetricIndex(), 0);
+            if (repetitions == numberOfRepetitions) {
+                restoredEvaluations.add(evaluationPerSample);
+                addToParetoFront(evaluationPerSample);
+            } else if (repetitions > 0) {
+                evaluationPerSample.restoreRepetitions(repetitions);
+                restoredRepetitionCount += repetitions;
+            }
+        }
+        metricEvaluationsPerSample.removeAll(restoredEvaluations);
+
+        logger.info("Thread " + threadId + ": Restored " + restoredEvaluations.size() + " of "
+                + (restoredEvaluations.size() + metricEvaluationsPerSample.size()) + " metrics and "
+                + restoredRepetitionCount + " repetitions of the remaining metrics from checkpoint "
+                + checkpointPath.toFile().getName() + ".");
+    }
+
+    /*
+     * Appends the results of a metric after the given repetition to the checkpoint, flushed immediately to survive a
+     * crash of the JVM.
+     */
+    private void checkpoint(MetricEvaluationPerSample evaluationPerSample, int currentRepetition) {
+        if (checkpointPrinter == null) {
+            return;
+        }
+        synchronized (checkpointPrinter) {
+            try {
+                PartialResults.writeCheckpointToCSV(checkpointPrinter, evaluationPerSample, similarityMetrics.size(),
+                        currentRepetition, numberOfRepetitions);
+                checkpointPrinter.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void closeCheckpoint() {
+        if (checkpointPrinter == null) {
+            return;
+        }
+        try {
+            checkpointPrinter.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        checkpointPrinter = null;
+    }
+
+    private Path getPredictedConnectionStorePath() {
+        return Paths.get(this.outputDirPath.toString(), sampleName + "_predicted_connections"
+                + (partialResultsName == null ? "" : "_" + partialResultsName) + ".bin");
+    }
+
+    /*
+     * The store keeps the metrics completed before a resumed run, metrics restored from the results cache are not
+     * contained in a new store.
+     */
+    private void openPredictedConnectionStore() {
+        Path storePath = getPredictedConnectionStorePath();
+        try {
+            predictedConnectionStore = new PredictedConnectionStore(storePath, resume);
+        } catch (IOException e) {
+            // otherwise, the connections of the evaluated metrics would silently be missing
+            String msg = "Thread " + threadId + ": Opening predicted connection store " + storePath + " failed: " + e;
+            logger.warning(msg);
+            throw new IllegalStateException(msg, e);
+        }
+    }
+
+    /*
+     * Writes the predicted connections of a completed metric (before the checkpoint, a metric in the checkpoint is
+     * always contained in the store).
+     */
+    private void storePredictedConnections(MetricEvaluationPerSample evaluationPerSample) {
+        if (predictedConnectionStore == null) {
+            return;
+        }
+        try {
+            predictedConnectionStore.write(evaluationPerSample);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void closePredictedConnectionStore() {
+        if (predictedConnectionStore == null) {
+            return;
+        }
+        try {
+            predictedConnectionStore.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        predictedConnectionStore = null;
+    }
+
+    private void evaluatePostMajor(int currentRepetition, ExecutorService postThreadPool) {
+        // metrics are evaluated in the (possibly randomized) order of metricEvaluationsPerSample
+        checkRunCancelled();
+        MetricEvaluationPerSample[] evaluationsPerSample = metricEvaluationsPerSample.stream()
+                .filter(evaluationPerSample -> !isCancelled(evaluationPerSample))
+                .toArray(MetricEvaluationPerSample[]::new);
+        if (evaluationsPerSample.length == 0) {
+            return;
+        }
+
+        int postCount = postIds.size();
+        int[] postOrder = new int[postCount];
+        for (int i = 0; i < postCount; i++) {
+            postOrder[i] = i;
+        }
+        if (costModel != null) {
+            // longest processing time first: the most expensive posts are dispatched to the post threads first
+            postOrder = costModel.getPostOrder(evaluationsPerSample);
+        } else if (randomizeOrder) {
+            EventJournal.record(EventJournal.EventType.ORDER_RANDOMIZED, threadId, journalSampleId, -1,
+                    currentRepetition, 0);
+            for (int i = postCount - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int index = postOrder[i];
+                postOrder[i] = postOrder[j];
+                postOrder[j] = index;
+            }
+        }
+
+        int batchCount = (postCount + postBatchSize - 1) / postBatchSize;
+
+        if (postThreadPool == null) {
+            for (int batch = 0; batch < batchCount; batch++) {
+                checkRunCancelled();
+                long waitStartTime = EvaluationTrace.begin();
+                synchronized (MetricEvaluationManager.class) {
+                    EvaluationTrace.blocked(waitStartTime, "MetricEvaluationManager.class");
+                    long startTime = System.nanoTime();
+                    evaluatePostBatch(evaluationsPerSample, postOrder, batch, currentRepetition, threadName);
+                    evaluationTime += System.nanoTime() - startTime;
+                }
+                logProgress("post batch", batch + 1, batchCount, currentRepetition);
+            }
+            if (costModel != null) {
+                costModel.repetitionFinished(evaluationsPerSample);
+            }
+            return;
+        }
+
+        int[] order = postOrder;
+
+        List<Callable<Void>> tasks = new ArrayList<>(batchCount);
+        for (int batch = 0; batch < batchCount; batch++) {
+            int currentBatch = batch;
+            tasks.add(() -> {
+                evaluatePostBatch(evaluationsPerSample, order, currentBatch, currentRepetition,
+                        threadName + " " + Thread.currentThread().getName());
+                return null;
+            });
+        }
+
+        // other managers wait until all batches of this repetition have been evaluated, the batches of this manager
+        // compete with each other (see withThreadCount())
+        long waitStartTime = EvaluationTrace.begin();
+        synchronized (MetricEvaluationManager.class) {
+            EvaluationTrace.blocked(waitStartTime, "MetricEvaluationManager.class");
+            long startTime = System.nanoTime();
+            try {
+                for (Future<Void> future : postThreadPool.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                String msg = "Thread " + threadId + ": Interrupted while evaluating post batches.";
+                logger.warning(msg);
+                throw new IllegalStateException(msg, e);
+            } catch (ExecutionException e) {
+                String msg = "Thread " + threadId + ": Evaluation of post batch failed: " + e.getCause();
+                logger.warning(msg);
+                throw new IllegalStateException(msg, e.getCause());
+            } finally {
+                evaluationTime += System.nanoTime() - startTime;
+            }
+        }
+        if (costModel != null) {
+            costModel.repetitionFinished(evaluationsPerSample);
+        }
+        logProgress("post batch", batchCount, batchCount, currentRepetition);
+    }
+
+    private void evaluatePostBatch(MetricEvaluationPerSample[] evaluationsPerSample, int[] postOrder, int batch,
+                                   int currentRepetition, String workerName) {
+        int fromPosition = batch * postBatchSize;
+        int toPosition = Math.min(fromPosition + postBatchSize, postOrder.length);
+
+        int possibleComparisons = 0;
+        for (int position = fromPosition; position < toPosition; position++) {
+            int postId = evaluationsPerSample[0].getByPostIndex(postOrder[position]).getPostId();
+            possibleComparisons += postVersionLists.get(postId).getPossibleComparisons();
+        }
+
+        EventJournal.record(EventJournal.EventType.EVALUATION_STARTED, threadId, journalSampleId, -1,
+                batch + 1, currentRepetition);
+        long traceStartTime = EvaluationTrace.begin();
+        long startTime = System.nanoTime();
+
+        for (MetricEvaluationPerSample evaluationPerSample : evaluationsPerSample) {
+            for (int position = fromPosition; position < toPosition; position++) {
+                long postStartTime = System.nanoTime();
+                boolean postCompleted = evaluationPerSample.evaluatePost(postOrder[position], currentRepetition);
+                if (costModel != null) {
+                    costModel.recordRuntime(evaluationPerSample, postOrder[position], System.nanoTime() - postStartTime);
+                }
+                if (postCompleted && resultPublisher != null) {
+                    publishPostResults(evaluationPerSample, evaluationPerSample.getByPostIndex(postOrder[position]));
+                }
+            }
+        }
+
+        long busyTime = System.nanoTime() - startTime;
+        EvaluationTrace.end(traceStartTime, "evaluate post batch", EvaluationTrace.CATEGORY_EVALUATE);
+        EvaluationMetrics.evaluationCompleted(workerName, evaluationsPerSample.length * (toPosition - fromPosition),
+                evaluationsPerSample.length * possibleComparisons, busyTime);
+        EventJournal.record(EventJournal.EventType.EVALUATION_FINISHED, threadId, journalSampleId, -1,
+                batch + 1, (int) TimeUnit.NANOSECONDS.toMillis(busyTime));
+    }
+
+    private void logProgress(String unit, int finished, int size, int currentRepetition) {
+        long now = System.nanoTime();
+        if (now - lastProgressLogTime >= PROGRESS_LOG_INTERVAL || finished == size) {
+            lastProgressLogTime = now;
+            // Locale.ROOT -> force '.' as decimal separator
+            String progress = String.format(Locale.ROOT, "%.2f%%", (((double) finished) / size * 100));
+            logger.info("Thread " + threadId + ": Finished " + unit + " " + finished + " of " + size + " (" + progress + "), "
+                    + "repetition " + currentRepetition + " of " + numberOfRepetitions + ".");
+        }
+        EvaluationProgressListener listener = progressListener;
+        if (listener != null) {
+            listener.progress(this, finished, size, currentRepetition, numberOfRepetitions);
+        }
+    }
+
+    private void logThroughput() {
+        long evaluations = (long) metricEvaluationsPerSample.size() * postIds.size() * numberOfRepetitions;
+        long comparisons = 0;
+        for (MetricEvaluationPerSample evaluationPerSample : metricEvaluationsPerSample) {
+            comparisons += (long) evaluationPerSample.getPossibleComparisons() * numberOfRepetitions;
+        }
+        double seconds = ((double) evaluationTime) / TimeUnit.SECONDS.toNanos(1);
+
+        // Locale.ROOT -> force '.' as decimal separator
+        logger.info(String.format(Locale.ROOT,
+                "Thread %d: Evaluation order %s (post batch size %d, %d thread(s)): %d (metric, post) evaluations in %.1f s "
+                        + "(%.1f evaluations per second, %.1f comparisons per second).",
+                threadId, evaluationOrder, postBatchSize, getPostThreadCount(),
+                evaluations, seconds,
+                seconds > 0 ? evaluations / seconds : 0.0, seconds > 0 ? comparisons / seconds : 0.0));
+    }
+
+    private void writeToCSV() {
+        long traceStartTime = EvaluationTrace.begin();
+        try {
+            // create output directory if it does not exist
+            FileUtils.createDirectory(outputDirPath);
+
+            // output file by version
+            Path outputFilePerVersion = Paths.get(this.outputDirPath.toString(), sampleName + "_per_version.csv");
+            FileUtils.deleteFileIfExists(outputFilePerVersion);
+
+            // output file aggregated by post
+            Path outputFilePerPost = Paths.get(this.outputDirPath.toString(), sampleName + "_per_post.csv");
+            FileUtils.deleteFileIfExists(outputFilePerPost);
+
+            // output file aggregated by sample
+            Path outputFilePerSample = Paths.get(this.outputDirPath.toString(), sampleName + "_per_sample.csv");
+            FileUtils.deleteFileIfExists(outputFilePerSample);
+
+            logger.info("Thread " + threadId + ": Writing metric evaluation results per version to CSV file " + outputFilePerVersion.toFile().getName() + " ...");
+            logger.info("Thread " + threadId + ": Writing metric evaluation results per post to CSV file " + outputFilePerPost.toFile().getName() + " ...");
+            logger.info("Thread " + threadId + ": Writing metric evaluation results per sample to CSV file " + outputFilePerSample.toFile().getName() + " ...");
+            try (CSVPrinter csvPrinterVersion = new CSVPrinter(new FileWriter(outputFilePerVersion.toFile()), csvFormatMetricEvaluationPerVersion);
+                 CSVPrinter csvPrinterPost = new CSVPrinter(new FileWriter(outputFilePerPost.toFile()), csvFormatMetricEvaluationPerPost);
+                 CSVPrinter csvPrinterSample = new CSVPrinter(new FileWriter(outputFilePerSample.toFile()), csvFormatMetricEvaluationPerSample)) {
+
+                // header is automatically written
+
+                // write results per per post and per version (in the order of the metrics and PostIds)
+                List<MetricEvaluationPerSample> metricEvaluationsInOrder = getMetricEvaluationsInOrder();
+                for (MetricEvaluationPerSample evaluationPerSample : metricEvaluationsInOrder) {
+                    ResultsWriteEvent event = new ResultsWriteEvent();
+                    event.begin();
+                    int recordCount = 0;
+                    for (int postIndex = 0; postIndex < evaluationPerSample.size(); postIndex++) {
+                        if (!evaluationPerSample.isPostComplete(postIndex)) {
+                            // timed out or skipped, see writeTimeoutsToCSV()
+                            continue;
+                        }
+                        MetricEvaluationPerPost evaluationPerPost = evaluationPerSample.getByPostIndex(postIndex);
+                        evaluationPerPost.writeToCSV(csvPrinterPost, csvPrinterVersion);
+                        recordCount += 1 + evaluationPerPost.getPostHistoryIds().size();
+                    }
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.sampleName = sampleName;
+                        event.metric = evaluationPerSample.getSimilarityMetric().toString();
+                        event.outputFile = outputFilePerPost.toFile().getName() + ", " + outputFilePerVersion.toFile().getName();
+                        event.postCount = evaluationPerSample.size();
+                        event.recordCount = recordCount;
+                        event.commit();
+                    }
+                }
+
+                // write aggregated results per sample
+                ResultsWriteEvent event = new ResultsWriteEvent();
+                event.begin();
+                for (MetricEvaluationPerSample evaluationPerSample : metricEvaluationsInOrder) {
+                    evaluationPerSample.writeToCSV(csvPrinterSample);
+                }
+                event.end();
+                if (event.shouldCommit()) {
+                    event.sampleName = sampleName;
+                    event.outputFile = outputFilePerSample.toFile().getName();
+                    event.postCount = postIds.size();
+                    event.recordCount = metricEvaluationsPerSample.size();
+                    event.commit();
+                }
+            }
+
+            if (recordComparisonLatencies) {
+                writeComparisonLatenciesToCSV();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        EvaluationTrace.end(traceStartTime, "write results of sample " + sampleName, EvaluationTrace.CATEGORY_WRITE);
+    }
+
+    private void writeTimeoutsToCSV(List<MetricEvaluationPerSample> timedOutEvaluations) {
+        // output file with the (metric, post) evaluations that exceeded the time budget (evaluation time in nanoseconds)
+        Path outputFileTimeouts = Paths.get(this.outputDirPath.toString(), sampleName + "_timeouts"
+                + (partialResultsName == null ? "" : "_" + partialResultsName) + ".csv");
+        try {
+            FileUtils.createDirectory(outputDirPath);
+            FileUtils.deleteFileIfExists(outputFileTimeouts);
+
+            logger.info("Thread " + threadId + ": " + timedOutEvaluations.size() + " metrics timed out, writing timeouts to CSV file "
+                    + outputFileTimeouts.toFile().getName() + " ...");
+            try (CSVPrinter csvPrinterTimeouts = new CSVPrinter(new FileWriter(outputFileTimeouts.toFile()), csvFormatTimeouts)) {
+                for (MetricEvaluationPerSample evaluationPerSample : timedOutEvaluations) {
+                    evaluationPerSample.writeTimeoutsToCSV(csvPrinterTimeouts);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void writeCostModelToCSV() {
+        // output file with the predicted (before the first repetition) and actual runtime (mean of all repetitions) in nanoseconds
+        Path outputFileCostModel = Paths.get(this.outputDirPath.toString(), sampleName + "_cost_model"
+                + (partialResultsName == null ? "" : "_" + partialResultsName) + ".csv");
+        try {
+            FileUtils.createDirectory(outputDirPath);
+            FileUtils.deleteFileIfExists(outputFileCostModel);
+
+            logger.info("Thread " + threadId + ": Writing predicted and actual runtimes to CSV file "
+                    + outputFileCostModel.toFile().getName() + " ...");
+            try (CSVPrinter csvPrinterCostModel = new CSVPrinter(new FileWriter(outputFileCostModel.toFile()), csvFormatCostModel)) {
+                costModel.writeToCSV(csvPrinterCostModel, getMetricEvaluationsInOrder());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void writeComparisonLatenciesToCSV() throws IOException {
+        // output file with latencies of block comparisons (latencies in nanoseconds)
+        Path outputFileLatencies = Paths.get(this.outputDirPath.toString(), sampleName + "_comparison_latencies.csv");
+        FileUtils.deleteFileIfExists(outputFileLatencies);
+
+        logger.info("Thread " + threadId + ": Writing latencies of block comparisons to CSV file " + outputFileLatencies.toFile().getName() + " ...");
+        ResultsWriteEvent event = new ResultsWriteEvent();
+        event.begin();
+        try (CSVPrinter csvPrinterLatencies = new CSVPrinter(new FileWriter(outputFileLatencies.toFile()), csvFormatComparisonLatencies)) {
+            for (MetricEvaluationPerSample evaluationPerSample : metricEvaluationsPerSample) {
+                evaluationPerSample.writeComparisonLatenciesToCSV(csvPrinterLatencies);
+            }
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.sampleName = sampleName;
+            event.outputFile = outputFileLatencies.toFile().getName();
+            event.postCount = postIds.size();
+            event.recordCount = metricEvaluationsPerSample.size();
+            event.commit();
+        }
+    }
+
+    private void writePartialResultsToCSV() {
+        long traceStartTime = EvaluationTrace.begin();
+        try {
+            // create output directory if it does not exist
+            FileUtils.createDirectory(outputDirPath);
+
+            Path outputFilePartialResults = Paths.get(this.outputDirPath.toString(),
+                    sampleName + "_partial_" + partialResultsName + ".csv");
+            // write to temporary file first, a partial file is always complete (work items may be evaluated twice)
+            Path temporaryFile = Paths.get(outputFilePartialResults.toString() + ".tmp");
+            FileUtils.deleteFileIfExists(temporaryFile);
+
+            logger.info("Thread " + threadId + ": Writing partial results to CSV file " + outputFilePartialResults.toFile().getName() + " ...");
+            try (CSVPrinter csvPrinterPartialResults = new CSVPrinter(new FileWriter(temporaryFile.toFile()), PartialResults.csvFormatPartialResults)) {
+                for (MetricEvaluationPerSample evaluationPerSample : getMetricEvaluationsInOrder()) {
+                    PartialResults.writeToCSV(csvPrinterPartialResults, evaluationPerSample, similarityMetrics.size());
+                }
+            }
+            Files.move(temporaryFile, outputFilePartialResults, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        EvaluationTrace.end(traceStartTime, "write partial results of sample " + sampleName, EvaluationTrace.CATEGORY_WRITE);
+    }
+
+    /**
+     * Reads the partial results of all shards of this sample from the given directory (see withShard()) and writes
+     * the output files as if all metrics had been evaluated by this manager.
+     */
+    public void mergePartialResults(Path partialResultsDir) {
+        if (shardCount > 1) {
+            String msg = "Thread " + threadId + ": Partial results cannot be merged by a shard.";
+            logger.warning(msg);
+            throw new IllegalStateException(msg);
+        }
+
+        if (!initialized) {
+            initialize();
+        }
+        fromMetricIndex = 0;
+        toMetricIndex = Integer.MAX_VALUE;
+        prepareEvaluation();
+
+        Map<Integer, MetricEvaluationPerSample> evaluationsByMetricIndex = new HashMap<>();
+        for (MetricEvaluationPerSample evaluationPerSample : metricEvaluationsPerSample) {
+            evaluationsByMetricIndex.put(evaluationPerSample.getMetricIndex(), evaluationPerSample);
+        }
+
+        Map<Integer, Integer> versionsRead = new HashMap<>();
+        String prefix = sampleName + "_partial_";
+        try (Stream<Path> paths = Files.list(partialResultsDir)) {
+            for (Path path : (Iterable<Path>) paths.sorted()::iterator) {
+                String fileName = path.toFile().getName();
+                if (!fileName.startsWith(prefix) || !fileName.endsWith(".csv")) {
+                    continue;
+                }
+                logger.info("Thread " + threadId + ": Reading partial results from CSV file " + fileName + " ...");
+                PartialResults.readFromCSV(path, evaluationsByMetricIndex, similarityMetrics.size())
+                        .forEach((metricIndex, count) -> versionsRead.merge(metricIndex, count, Integer::sum));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // each metric must be contained in exactly one partial result
+        for (MetricEvaluationPerSample evaluationPerSample : metricEvaluationsPerSample) {
+            int versionCount = versionsRead.getOrDefault(evaluationPerSample.getMetricIndex(), 0);
+            if (versionCount != evaluationPerSample.getResults().getVersionCount()) {
+                String msg = "Thread " + threadId + ": Partial results for " + evaluationPerSample + " are missing or "
+                        + "duplicated (" + versionCount + " of " + evaluationPerSample.getResults().getVersionCount() + " versions).";
+                logger.warning(msg);
+                throw new IllegalStateException(msg);
+            }
+        }
+
+        logger.info("Thread " + threadId + ": Saving merged results for sample " + sampleName + "...");
+        writeToCSV();
+        if (resultsCacheDir != null) {
+            writeToResultsCache();
+        }
+        this.finished = true;
+    }
+
+    /**
+     * Computes the results of all metrics from the predicted connections stored in the given directory (see
+     * withPredictedConnections()) against the current ground truth, without evaluating the metrics again, and writes
+     * the output files.
+     */
+    public void rescore(Path predictedConnectionsDir) {
+        if (shardCount > 1) {
+            String msg = "Thread " + threadId + ": Predicted connections cannot be re-scored by a shard.";
+            logger.warning(msg);
+            throw new IllegalStateException(msg);
+        }
+
+        if (!initialized) {
+            initialize();
+        }
+        fromMetricIndex = 0;
+        toMetricIndex = Integer.MAX_VALUE;
+        prepareEvaluation();
+
+        Map<String, MetricEvaluationPerSample> evaluationsByFingerprint = new HashMap<>();
+        for (MetricEvaluationPerSample evaluationPerSample : metricEvaluationsPerSample) {
+            evaluationsByFingerprint.put(ResultsCache.getMetricFingerprint(evaluationPerSample.getSimilarityMetric()),
+                    evaluationPerSample);
+        }
+
+        Set<MetricEvaluationPerSample> rescoredEvaluations = new HashSet<>();
+        String prefix = sampleName + "_predicted_connections";
+        try (Stream<Path> paths = Files.list(predictedConnectionsDir)) {
+            for (Path path : (Iterable<Path>) paths.sorted()::iterator) {
+                String fileName = path.toFile().getName();
+                if (!fileName.startsWith(prefix) || !fileName.endsWith(".bin")) {
+                    continue;
+                }
+                logger.info("Thread " + threadId + ": Re-scoring predicted connections from " + fileName + " ...");
+                rescoredEvaluations.addAll(PredictedConnectionStore.rescore(path, evaluationsByFingerprint));
             }
+        } catch (IOException e) {
+            String msg = "Thread " + threadId + ": Reading predicted connections from " + predictedConnectionsDir
+                    + " failed: " + e;
+            logger.warning(msg);
+            throw new IllegalStateException(msg, e);
+        }
 
-            int size = metricEvaluationsPerSample.size();
-            for (int i = 0; i < size; i++) {
-                MetricEvaluationPerSample evaluationPerSample = metricEvaluationsPerSample.get(i);
-
-                // Locale.ROOT -> force '.' as decimal separator
-                String progress = String.format(Locale.ROOT, "%.2f%%", (((double)(i+1))/size*100));
-                logger.info( "Thread " + threadId + ": Starting evaluation " + (i+1) + " of " + size + " (" + progress + "), "
-                        + "repetition " + currentRepetition + " of " + numberOfRepetitions + "...");
-
-                synchronized (MetricEvaluationManager.class) {
-                     evaluationPerSample.startEvaluation(currentRepetition);
-                }
+        // metrics restored from the results cache or evaluated without withPredictedConnections() are missing
+        for (MetricEvaluationPerSample evaluationPerSample : metricEvaluationsPerSample) {
+            if (!rescoredEvaluations.contains(evaluationPerSample)) {
+                String msg = "Thread " + threadId + ": Predicted connections for " + evaluationPerSample
+                        + " are missing in " + predictedConnectionsDir + ".";
+                logger.warning(msg);
+                throw new IllegalStateException(msg);
             }
         }
 
-        logger.info("Thread " + threadId + ": Saving results for sample " + sampleName + "...");
+        logger.info("Thread " + threadId + ": Saving re-scored results for sample " + sampleName + "...");
         writeToCSV();
-        logger.info("Thread " + threadId + ": Results saved.");
-
+        if (resultsCacheDir != null) {
+            writeToResultsCache();
+        }
         this.finished = true;
-        logger.info("Thread " + threadId + ": Finished.");
     }
 
-    private void writeToCSV() {
-        try {
-            // create output directory if it does not exist
-            FileUtils.createDirectory(outputDirPath);
-
-            // output file by version
-            Path outputFilePerVersion = Paths.get(this.outputDirPath.toString(), sampleName + "_per_version.csv");
-            FileUtils.deleteFileIfExists(outputFilePerVersion);
-
-            // output file aggregated by post
-            Path outputFilePerPost = Paths.get(this.outputDirPath.toString(), sampleName + "_per_post.csv");
-            FileUtils.deleteFileIfExists(outputFilePerPost);
-
-            // output file aggregated by sample
-            Path outputFilePerSample = Paths.get(this.outputDirPath.toString(), sampleName + "_per_sample.csv");
-            FileUtils.deleteFileIfExists(outputFilePerSample);
-
-            logger.info("Thread " + threadId + ": Writing metric evaluation results per version to CSV file " + outputFilePerVersion.toFile().getName() + " ...");
-            logger.info("Thread " + threadId + ": Writing metric evaluation results per post to CSV file " + outputFilePerPost.toFile().getName() + " ...");
-            logger.info("Thread " + threadId + ": Writing metric evaluation results per sample to CSV file " + outputFilePerSample.toFile().getName() + " ...");
-            try (CSVPrinter csvPrinterVersion = new CSVPrinter(new FileWriter(outputFilePerVersion.toFile()), csvFormatMetricEvaluationPerVersion);
-                 CSVPrinter csvPrinterPost = new CSVPrinter(new FileWriter(outputFilePerPost.toFile()), csvFormatMetricEvaluationPerPost);
-                 CSVPrinter csvPrinterSample = new CSVPrinter(new FileWriter(outputFilePerSample.toFile()), csvFormatMetricEvaluationPerSample)) {
-
-                // header is automatically written
-
-                // write results per per post and per version
-                for (MetricEvaluationPerSample evaluationPerSample : metricEvaluationsPerSample) {
-                    for (MetricEvaluationPerPost evaluationPerPost : evaluationPerSample) {
-                        evaluationPerPost.writeToCSV(csvPrinterPost, csvPrinterVersion);
-                    }
-                }
+    /**
+     * Evaluates the metrics with index in [fromMetricIndex, toMetricIndex) and writes their partial results to
+     * <sample>_partial_<name>.csv (see WorkQueue). The manager can evaluate several work items one after another.
+     */
+    public void evaluateWorkItem(int fromMetricIndex, int toMetricIndex, String name) {
+        if (shardCount > 1) {
+            String msg = "Thread " + threadId + ": Work items cannot be evaluated by a shard.";
+            logger.warning(msg);
+            throw new IllegalStateException(msg);
+        }
+        if (fromMetricIndex < 0 || toMetricIndex > similarityMetrics.size() || fromMetricIndex >= toMetricIndex) {
+            String msg = "Thread " + threadId + ": Invalid range of metrics [" + fromMetricIndex + ", " + toMetricIndex
+                    + ") for " + similarityMetrics.size() + " metrics.";
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
 
-                // write aggregated results per sample
-                for (MetricEvaluationPerSample evaluationPerSample : metricEvaluationsPerSample) {
-                    evaluationPerSample.writeToCSV(csvPrinterSample);
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        this.fromMetricIndex = fromMetricIndex;
+        this.toMetricIndex = toMetricIndex;
+        this.partialResultsName = name;
+        try {
+            // prepared again for the new range, the evaluations of the previous work item are released
+            this.evaluationPrepared = false;
+            run();
+        } finally {
+            this.fromMetricIndex = 0;
+            this.toMetricIndex = Integer.MAX_VALUE;
+            this.partialResultsName = null;
         }
     }
 
+    int getSimilarityMetricCount() {
+        return similarityMetrics.size();
+    }
+
     public Map<Integer, PostGroundTruth> getPostGroundTruths() {
         return postGroundTruths;
     }
@@ -421,6 +1744,33 @@ public class MetricEvaluationManager implements Runnable {
         return postVersionLists.keySet();
     }
 
+    List<SimilarityMetric> getSimilarityMetrics() {
+        return similarityMetrics;
+    }
+
+    int getNumberOfRepetitions() {
+        return numberOfRepetitions;
+    }
+
+    EvaluationOrder getEvaluationOrder() {
+        return evaluationOrder;
+    }
+
+    /**
+     * Number of threads evaluating the posts of this sample (posts are only evaluated in parallel in post-major order).
+     */
+    int getPostThreadCount() {
+        return evaluationOrder == EvaluationOrder.POST_MAJOR ? Math.max(threadCount, 1) : 1;
+    }
+
+    boolean isRecordComparisonLatencies() {
+        return recordComparisonLatencies;
+    }
+
+    boolean isRecordPredictedConnections() {
+        return recordPredictedConnections;
+    }
+
     public void addSimilarityMetric(SimilarityMetric metric) {
         similarityMetrics.add(metric);
         evaluationPrepared = false;
@@ -453,6 +1803,237 @@ public class MetricEvaluationManager implements Runnable {
         return sampleName;
     }
 
+    /**
+     * Runs the evaluation of this sample with the given executor, the progress listener may be null. Cancelling the
+     * returned future stops the evaluation before the next metric (or post batch), no output files are written then.
+     * Like the threads running managers, asynchronous runs evaluate one sample at a time to measure reliable runtimes,
+     * but a run waiting for another run does not occupy a thread of its executor. Only the sample is loaded while
+     * other runs are evaluated. Asynchronous runs still wait for managers run by threads in the same JVM.
+     */
+    public CompletableFuture<MetricEvaluationManager> runAsync(Executor executor, EvaluationProgressListener progressListener) {
+        CompletableFuture<MetricEvaluationManager> future = new CompletableFuture<>();
+        Map<Integer, CompletableFuture<MetricEvaluationPerSample>> futures = new HashMap<>();
+        synchronized (this) {
+            // a cancelled run is active until its evaluation stopped (see endAsyncRun())
+            if (runFuture != null) {
+                String msg = "Thread " + threadId + ": Sample " + sampleName + " is already being evaluated.";
+                logger.warning(msg);
+                throw new IllegalStateException(msg);
+            }
+            // created before the run starts, thus futures requested at any time are completed (or cancelled)
+            for (int metricIndex = 0; metricIndex < similarityMetrics.size(); metricIndex++) {
+                if (isSelected(metricIndex)) {
+                    futures.put(metricIndex, new CompletableFuture<>());
+                }
+            }
+            this.runFuture = future;
+            this.progressListener = progressListener;
+            this.metricFutures = futures;
+            this.lastMetricFutures = futures;
+        }
+
+        Runnable evaluation = () -> {
+            try {
+                if (!future.isCancelled()) {
+                    run();
+                    endAsyncRun(future, null);
+                }
+            } catch (RuntimeException e) {
+                endAsyncRun(future, e);
+            } finally {
+                endAsyncRun(future, null);
+                finishAsyncRun();
+            }
+        };
+
+        executor.execute(() -> {
+            try {
+                if (!initialized && !future.isCancelled()) {
+                    initialize();
+                }
+            } catch (RuntimeException e) {
+                endAsyncRun(future, e);
+                return;
+            }
+            startAsyncRun(() -> {
+                try {
+                    executor.execute(evaluation);
+                } catch (RejectedExecutionException e) {
+                    endAsyncRun(future, e);
+                    finishAsyncRun();
+                }
+            });
+        });
+        return future;
+    }
+
+    /*
+     * Resets the state of the asynchronous run before its future is completed, thus later (synchronous or asynchronous)
+     * runs of this manager are not affected by cancelled futures of this run. Metric futures that have not been
+     * completed are failed with the given exception (or cancelled if it is null, e.g., metrics skipped once the Pareto
+     * front was stable). Called again by the evaluation when it is finished, further calls have no effect.
+     */
+    private void endAsyncRun(CompletableFuture<MetricEvaluationManager> future, RuntimeException e) {
+        Map<Integer, CompletableFuture<MetricEvaluationPerSample>> futures;
+        synchronized (this) {
+            if (runFuture != future) {
+                return;
+            }
+            futures = metricFutures;
+            runFuture = null;
+            metricFutures = null;
+            progressListener = null;
+        }
+        for (CompletableFuture<MetricEvaluationPerSample> metricFuture : futures.values()) {
+            if (e == null) {
+                metricFuture.cancel(false);
+            } else {
+                metricFuture.completeExceptionally(e);
+            }
+        }
+        if (e == null) {
+            future.complete(this);
+        } else {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /*
+     * Dispatches the run if no other asynchronous run is active, otherwise the run is dispatched by finishAsyncRun()
+     * of the active run.
+     */
+    private static void startAsyncRun(Runnable dispatch) {
+        synchronized (waitingAsyncRuns) {
+            if (asyncRunActive) {
+                waitingAsyncRuns.add(dispatch);
+                return;
+            }
+            asyncRunActive = true;
+        }
+        dispatch.run();
+    }
+
+    private static void finishAsyncRun() {
+        Runnable dispatch;
+        synchronized (waitingAsyncRuns) {
+            dispatch = waitingAsyncRuns.poll();
+            if (dispatch == null) {
+                asyncRunActive = false;
+                return;
+            }
+        }
+        dispatch.run();
+    }
+
+    /**
+     * Future of the results of the metric with the given index (in the order the metrics were added) on this sample,
+     * completed as soon as all repetitions of the metric have been evaluated (or the results have been restored).
+     * Futures of the current or last asynchronous run are returned, thus the future is also completed if it is
+     * requested after the metric has been evaluated. Metrics that have not been evaluated until the end of the run
+     * (e.g., skipped once the Pareto front was stable) are cancelled, the future is failed if the metric is not
+     * evaluated asynchronously. Cancelling the future cancels the metric: it is skipped in the remaining evaluation
+     * and not written to the output files.
+     */
+    public CompletableFuture<MetricEvaluationPerSample> getMetricResult(int metricIndex) {
+        CompletableFuture<MetricEvaluationPerSample> metricFuture = lastMetricFutures.get(metricIndex);
+        if (metricFuture == null) {
+            String msg = "Thread " + threadId + ": Metric " + metricIndex + " of sample " + sampleName
+                    + " is not evaluated in an asynchronous run.";
+            logger.warning(msg);
+            metricFuture = new CompletableFuture<>();
+            metricFuture.completeExceptionally(new IllegalStateException(msg));
+        }
+        return metricFuture;
+    }
+
+    /**
+     * Future of the results of the metric with the given name and threshold (see above).
+     */
+    public CompletableFuture<MetricEvaluationPerSample> getMetricResult(String metricName, double threshold) {
+        for (int metricIndex = 0; metricIndex < similarityMetrics.size(); metricIndex++) {
+            SimilarityMetric currentMetric = similarityMetrics.get(metricIndex);
+            if (currentMetric.getNameCode().equals(metricName)
+                    && currentMetric.getNameText().equals(metricName)
+                    && currentMetric.getConfig().getCodeSimilarityThreshold() == threshold
+                    && currentMetric.getConfig().getTextSimilarityThreshold() == threshold) {
+                return getMetricResult(metricIndex);
+            }
+        }
+        String msg = "Thread " + threadId + ": Similarity metric " + metricName + " with threshold " + threshold
+                + " not found in sample " + sampleName + ".";
+        logger.warning(msg);
+        CompletableFuture<MetricEvaluationPerSample> metricFuture = new CompletableFuture<>();
+        metricFuture.completeExceptionally(new IllegalArgumentException(msg));
+        return metricFuture;
+    }
+
+    /*
+     * Events of the versions of each post, then of the post, then of the sample (see MetricResultEvent), used for
+     * restored metrics.
+     */
+    private void publishResults(MetricEvaluationPerSample evaluationPerSample) {
+        if (resultPublisher == null) {
+            return;
+        }
+        for (int postIndex = 0; postIndex < evaluationPerSample.size(); postIndex++) {
+            publishPostResults(evaluationPerSample, evaluationPerSample.getByPostIndex(postIndex));
+        }
+        publishSampleResults(evaluationPerSample);
+    }
+
+    /*
+     * Events of the versions of the post, then of the post. Called by the thread that evaluated the post, blocks while
+     * the buffer of a subscriber is full.
+     */
+    private void publishPostResults(MetricEvaluationPerSample evaluationPerSample, MetricEvaluationPerPost evaluationPerPost) {
+        SimilarityMetric similarityMetric = evaluationPerSample.getSimilarityMetric();
+        MetricResultStore results = evaluationPerSample.getResults();
+        List<Integer> postHistoryIds = evaluationPerPost.getPostHistoryIds();
+        for (int i = 0; i < postHistoryIds.size(); i++) {
+            int version = evaluationPerPost.getResultOffset() + i;
+            resultPublisher.submit(new MetricResultEvent(MetricResultEvent.Level.VERSION, sampleName,
+                    similarityMetric, evaluationPerPost.getPostId(), postHistoryIds.get(i),
+                    results.getResult(MetricResultStore.TEXT, version), results.getResult(MetricResultStore.CODE, version)));
+        }
+        resultPublisher.submit(new MetricResultEvent(MetricResultEvent.Level.POST, sampleName,
+                similarityMetric, evaluationPerPost.getPostId(), -1,
+                evaluationPerPost.getResultAggregatedByPostText(), evaluationPerPost.getResultAggregatedByPostCode()));
+    }
+
+    private void publishSampleResults(MetricEvaluationPerSample evaluationPerSample) {
+        if (resultPublisher == null) {
+            return;
+        }
+        resultPublisher.submit(new MetricResultEvent(MetricResultEvent.Level.SAMPLE, sampleName,
+                evaluationPerSample.getSimilarityMetric(), -1, -1,
+                evaluationPerSample.getResultAggregatedBySampleText(), evaluationPerSample.getResultAggregatedBySampleCode()));
+    }
+
+    private void completeMetricFuture(MetricEvaluationPerSample evaluationPerSample) {
+        Map<Integer, CompletableFuture<MetricEvaluationPerSample>> futures = metricFutures;
+        CompletableFuture<MetricEvaluationPerSample> metricFuture = futures == null ? null
+                : futures.get(evaluationPerSample.getMetricIndex());
+        if (metricFuture != null) {
+            metricFuture.complete(evaluationPerSample);
+        }
+    }
+
+    private boolean isCancelled(MetricEvaluationPerSample evaluationPerSample) {
+        Map<Integer, CompletableFuture<MetricEvaluationPerSample>> futures = metricFutures;
+        CompletableFuture<MetricEvaluationPerSample> metricFuture = futures == null ? null
+                : futures.get(evaluationPerSample.getMetricIndex());
+        return metricFuture != null && metricFuture.isCancelled();
+    }
+
+    private void checkRunCancelled() {
+        CompletableFuture<MetricEvaluationManager> future = runFuture;
+        if (future != null && future.isCancelled()) {
+            String msg = "Thread " + threadId + ": Evaluation of sample " + sampleName + " cancelled.";
+            logger.info(msg);
+            throw new CancellationException(msg);
+        }
+    }
+
     public boolean isFinished() {
         return finished;
     }
@@ -463,15 +2044,22 @@ public class MetricEvaluationManager implements Runnable {
      *   * one CSV file with a list of all post ids in the sample
      *   * a directory named "files" with the post version lists as CSV files
      *   * a directory named "completed" with the post ground truths as CSV files
+     * The remaining options (e.g., number of repetitions) are taken from the template manager.
      */
     public static List<MetricEvaluationManager> createManagersFromSampleDirectories(
             Path samplesDir,
             Path outputDir,
             boolean addDefaultMetricsAndThresholds,
-            Set<String> sampleFilter) {
+            Set<String> sampleFilter,
+            MetricEvaluationManager template,
+            boolean emptyOutputDir) {
 
         try {
-            FileUtils.ensureEmptyDirectoryExists(outputDir);
+            if (emptyOutputDir) {
+                FileUtils.ensureEmptyDirectoryExists(outputDir);
+            } else {
+                FileUtils.ensureDirectoryExists(outputDir);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -479,7 +2067,8 @@ public class MetricEvaluationManager implements Runnable {
         logger.info("Creating MetricEvaluationManagers for samples in directory " + samplesDir + "...");
         List<MetricEvaluationManager> managers = new LinkedList<>();
 
-        try (Stream<Path> paths = Files.list(samplesDir)) {
+        // sort samples by name (deterministic order, e.g., for shards)
+        try (Stream<Path> paths = Files.list(samplesDir).sorted()) {
             paths.forEach(
                     path -> {
                         // only consider directories (ignore, e.g., .DS_Store files on macOS)
@@ -492,12 +2081,13 @@ public class MetricEvaluationManager implements Runnable {
                             Path pathToPostHistory = Paths.get(path.toString(), "files");
                             Path pathToGroundTruth = Paths.get(path.toString(), "completed");
 
-                            MetricEvaluationManager manager = MetricEvaluationManager.DEFAULT
+                            MetricEvaluationManager manager = template
                                     .withName(sampleName)
                                     .withInputPaths(pathToPostIdList, pathToPostHistory, pathToGroundTruth)
                                     .withOutputDirPath(outputDir)
                                     .withAllSimilarityMetrics(addDefaultMetricsAndThresholds)
                                     .initialize();
+                            manager.sampleIndex = managers.size();
 
                             managers.add(manager);
                         }
@@ -510,6 +2100,38 @@ public class MetricEvaluationManager implements Runnable {
         return managers;
     }
 
+    public static List<MetricEvaluationManager> createManagersFromSampleDirectories(
+            Path samplesDir,
+            Path outputDir,
+            boolean addDefaultMetricsAndThresholds,
+            Set<String> sampleFilter,
+            MetricEvaluationManager template) {
+
+        return createManagersFromSampleDirectories(
+                samplesDir,
+                outputDir,
+                addDefaultMetricsAndThresholds,
+                sampleFilter,
+                template,
+                true
+        );
+    }
+
+    public static List<MetricEvaluationManager> createManagersFromSampleDirectories(
+            Path samplesDir,
+            Path outputDir,
+            boolean addDefaultMetricsAndThresholds,
+            Set<String> sampleFilter) {
+
+        return createManagersFromSampleDirectories(
+                samplesDir,
+                outputDir,
+                addDefaultMetricsAndThresholds,
+                sampleFilter,
+                MetricEvaluationManager.DEFAULT
+        );
+    }
+
     public static List<MetricEvaluationManager> createManagersFromSampleDirectories(
             Path samplesDir,
             Path outputDir,
@@ -523,29 +2145,53 @@ public class MetricEvaluationManager implements Runnable {
         );
     }
 
+    /**
+     * Aggregates the results of the metrics over all samples (in the order of the metrics of the first sample). Metrics
+     * that have not been evaluated on all samples (e.g., skipped once the Pareto front of a sample was stable or
+     * cancelled) are not aggregated, because their results would only cover some of the samples.
+     */
     public static void aggregateAndWriteSampleResults(List<MetricEvaluationManager> managers, File outputFile) {
+        // evaluated metrics of each sample (the managers share the instances of the similarity metrics)
+        List<Set<SimilarityMetric>> evaluatedMetrics = new ArrayList<>();
+        Set<SimilarityMetric> missingMetrics = new LinkedHashSet<>();
+        for (MetricEvaluationManager manager : managers) {
+            Set<SimilarityMetric> metrics = new HashSet<>();
+            for (MetricEvaluationPerSample evaluation : manager.getMetricEvaluationsInOrder()) {
+                metrics.add(evaluation.getSimilarityMetric());
+                missingMetrics.add(evaluation.getSimilarityMetric());
+            }
+            evaluatedMetrics.add(metrics);
+        }
+
         // aggregate results over all samples
-        Map<SimilarityMetric, MetricResult> aggregatedMetricResultsText = new HashMap<>();
-        Map<SimilarityMetric, MetricResult> aggregatedMetricResultsCode = new HashMap<>();
-        for (int i=0; i<managers.size(); i++) {
-            MetricEvaluationManager manager = managers.get(i);
-            if (i==0) {
-                for (MetricEvaluationPerSample evaluation : manager.metricEvaluationsPerSample) {
-                    MetricResult resultText = evaluation.getResultAggregatedBySampleText();
-                    aggregatedMetricResultsText.put(evaluation.getSimilarityMetric(), resultText);
-
-                    MetricResult resultCode = evaluation.getResultAggregatedBySampleCode();
-                    aggregatedMetricResultsCode.put(evaluation.getSimilarityMetric(), resultCode);
+        // keep order of the metrics of the first sample
+        Map<SimilarityMetric, MetricResult> aggregatedMetricResultsText = new LinkedHashMap<>();
+        Map<SimilarityMetric, MetricResult> aggregatedMetricResultsCode = new LinkedHashMap<>();
+        if (!managers.isEmpty()) {
+            for (MetricEvaluationPerSample evaluation : managers.get(0).getMetricEvaluationsInOrder()) {
+                SimilarityMetric similarityMetric = evaluation.getSimilarityMetric();
+                if (evaluatedMetrics.stream().allMatch(metrics -> metrics.contains(similarityMetric))) {
+                    aggregatedMetricResultsText.put(similarityMetric, new MetricResult(similarityMetric));
+                    aggregatedMetricResultsCode.put(similarityMetric, new MetricResult(similarityMetric));
+                    missingMetrics.remove(similarityMetric);
                 }
-            } else {
-                for (MetricEvaluationPerSample evaluation : manager.metricEvaluationsPerSample) {
-                    MetricResult newResultText = evaluation.getResultAggregatedBySampleText();
-                    MetricResult resultText = aggregatedMetricResultsText.get(newResultText.getSimilarityMetric());
-                    resultText.add(newResultText);
-
-                    MetricResult newResultCode = evaluation.getResultAggregatedBySampleCode();
-                    MetricResult resultCode = aggregatedMetricResultsCode.get(newResultCode.getSimilarityMetric());
-                    resultCode.add(newResultCode);
+            }
+        }
+        if (!missingMetrics.isEmpty()) {
+            StringBuilder missing = new StringBuilder();
+            for (SimilarityMetric similarityMetric : missingMetrics) {
+                missing.append(missing.length() == 0 ? "" : ", ").append(similarityMetric);
+            }
+            logger.warning(missingMetrics.size() + " metrics have not been evaluated on all samples and are not aggregated: "
+                    + missing + ".");
+        }
+        for (MetricEvaluationManager manager : managers) {
+            for (MetricEvaluationPerSample evaluation : manager.getMetricEvaluationsInOrder()) {
+                MetricResult resultText = aggregatedMetricResultsText.get(evaluation.getSimilarityMetric());
+                MetricResult resultCode = aggregatedMetricResultsCode.get(evaluation.getSimilarityMetric());
+                if (resultText != null) {
+                    resultText.add(evaluation.getResultAggregatedBySampleText());
+                    resultCode.add(evaluation.getResultAggregatedBySampleCode());
                 }
             }
         }
@@ -561,6 +2207,9 @@ public class MetricEvaluationManager implements Runnable {
         }
 
         // write aggregated results
+        long traceStartTime = EvaluationTrace.begin();
+        ResultsWriteEvent event = new ResultsWriteEvent();
+        event.begin();
         try (CSVPrinter csvPrinterAggregated = new CSVPrinter(new FileWriter(outputFile), csvFormatMetricEvaluationPerSample)) {
             for (SimilarityMetric similarityMetric : aggregatedMetricResultsText.keySet()) {
                 MetricResult aggregatedResultText = aggregatedMetricResultsText.get(similarityMetric);
@@ -651,10 +2300,21 @@ public class MetricEvaluationManager implements Runnable {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        event.end();
+        EvaluationTrace.end(traceStartTime, "write aggregated results", EvaluationTrace.CATEGORY_WRITE);
+        if (event.shouldCommit()) {
+            event.outputFile = outputFile.getName();
+            event.recordCount = aggregatedMetricResultsText.size();
+            event.commit();
+        }
 
         logger.info("Aggregated results over all samples saved.");
     }
 
+    public static List<SimilarityMetric> getAllSimilarityMetrics() {
+        return Collections.unmodifiableList(allSimilarityMetrics);
+    }
+
     public static SimilarityMetric getSimilarityMetric(String name, double threshold) {
         for (SimilarityMetric metric : allSimilarityMetrics) {
             if (metric.getNameText().equals(name)
@@ -670,9 +2330,9 @@ public class MetricEvaluationManager implements Runnable {
     }
 
     /*
-     * Add metrics selected after evaluation, with additional thresholds and baseline metric (equal).
+     * Read metrics selected after evaluation (selected and backup metrics) and return them with default threshold 0.5.
      */
-    public static void createSelectedSimilarityMetrics(Path selectedMetricsDir) {
+    public static List<SimilarityMetric> readSelectedSimilarityMetrics(Path selectedMetricsDir) {
         try {
             FileUtils.ensureDirectoryExists(selectedMetricsDir);
         } catch (IOException e) {
@@ -681,18 +2341,6 @@ public class MetricEvaluationManager implements Runnable {
 
         Set<String> metricNames = new HashSet<>();
         List<SimilarityMetric> defaultSimilarityMetrics = new LinkedList<>();
-        List<Double> thresholds = Arrays.asList(
-                0.0, 0.01, 0.02, 0.03, 0.04, 0.05, 0.06, 0.07, 0.08, 0.09, 0.1,
-                     0.11, 0.12, 0.13, 0.14, 0.15, 0.16, 0.17, 0.18, 0.19, 0.2,
-                     0.21, 0.22, 0.23, 0.24, 0.25, 0.26, 0.27, 0.28, 0.29, 0.3,
-                     0.31, 0.32, 0.33, 0.34, 0.35, 0.36, 0.37, 0.38, 0.39, 0.4,
-                     0.41, 0.42, 0.43, 0.44, 0.45, 0.46, 0.47, 0.48, 0.49, 0.5,
-                     0.51, 0.52, 0.53, 0.54, 0.55, 0.56, 0.57, 0.58, 0.59, 0.6,
-                     0.61, 0.62, 0.63, 0.64, 0.65, 0.66, 0.67, 0.68, 0.69, 0.7,
-                     0.71, 0.72, 0.73, 0.74, 0.75, 0.76, 0.77, 0.78, 0.79, 0.8,
-                     0.81, 0.82, 0.83, 0.84, 0.85, 0.86, 0.87, 0.88, 0.89, 0.9,
-                     0.91, 0.92, 0.93, 0.94, 0.95, 0.96, 0.97, 0.98, 0.99, 1.0
-        );
 
         Path pathToSelectedMetrics = Paths.get(selectedMetricsDir.toString(), "selected_metrics.csv");
         FileUtils.checkIfFileExists(pathToSelectedMetrics);
@@ -732,6 +2380,27 @@ public class MetricEvaluationManager implements Runnable {
             defaultSimilarityMetrics.add(metric);
         }
 
+        return defaultSimilarityMetrics;
+    }
+
+    /*
+     * Add metrics selected after evaluation, with additional thresholds and baseline metric (equal).
+     */
+    public static void createSelectedSimilarityMetrics(Path selectedMetricsDir) {
+        List<SimilarityMetric> defaultSimilarityMetrics = readSelectedSimilarityMetrics(selectedMetricsDir);
+        List<Double> thresholds = Arrays.asList(
+                0.0, 0.01, 0.02, 0.03, 0.04, 0.05, 0.06, 0.07, 0.08, 0.09, 0.1,
+                     0.11, 0.12, 0.13, 0.14, 0.15, 0.16, 0.17, 0.18, 0.19, 0.2,
+                     0.21, 0.22, 0.23, 0.24, 0.25, 0.26, 0.27, 0.28, 0.29, 0.3,
+                     0.31, 0.32, 0.33, 0.34, 0.35, 0.36, 0.37, 0.38, 0.39, 0.4,
+                     0.41, 0.42, 0.43, 0.44, 0.45, 0.46, 0.47, 0.48, 0.49, 0.5,
+                     0.51, 0.52, 0.53, 0.54, 0.55, 0.56, 0.57, 0.58, 0.59, 0.6,
+                     0.61, 0.62, 0.63, 0.64, 0.65, 0.66, 0.67, 0.68, 0.69, 0.7,
+                     0.71, 0.72, 0.73, 0.74, 0.75, 0.76, 0.77, 0.78, 0.79, 0.8,
+                     0.81, 0.82, 0.83, 0.84, 0.85, 0.86, 0.87, 0.88, 0.89, 0.9,
+                     0.91, 0.92, 0.93, 0.94, 0.95, 0.96, 0.97, 0.98, 0.99, 1.0
+        );
+
         // do not use for loop with += 0.01 --> leads to rounding errors
         for (double threshold : thresholds) {
             // baseline metric
@@ -759,8 +2428,81 @@ public class MetricEvaluationManager implements Runnable {
      * Add combined metrics selected after evaluation, with baseline metric (equal).
      */
     public static void createCombinedSimilarityMetrics() {
+        createCombinedCandidates();
+
+        for (SimilarityMetric metricText : combinedCandidatesText) {
+            for (SimilarityMetric metricTextBackup : combinedCandidatesTextBackup) {
+                for (SimilarityMetric metricCode : combinedCandidatesCode) {
+                    for (SimilarityMetric metricCodeBackup : combinedCandidatesCodeBackup) {
+                        combinedSimilarityMetrics.add(createCombinedSimilarityMetric(
+                                metricText, metricTextBackup, metricCode, metricCodeBackup
+                        ));
+                    }
+                }
+            }
+        }
+
+        logger.info(combinedSimilarityMetrics.size() + " metrics added.");
+    }
+
+    /*
+     * Create a combined metric from the (primary) text and code metrics of the given metrics, backup metrics are optional.
+     */
+    static SimilarityMetric createCombinedSimilarityMetric(SimilarityMetric metricText, SimilarityMetric metricTextBackup,
+                                                           SimilarityMetric metricCode, SimilarityMetric metricCodeBackup) {
+        Config config = Config.METRICS_COMPARISON
+                .withTextSimilarityMetric(metricText.getConfig().getTextSimilarityMetric())
+                .withTextSimilarityThreshold(metricText.getConfig().getTextSimilarityThreshold())
+                .withCodeSimilarityMetric(metricCode.getConfig().getCodeSimilarityMetric())
+                .withCodeSimilarityThreshold(metricCode.getConfig().getCodeSimilarityThreshold());
+        if (metricTextBackup != null) {
+            config = config
+                    .withTextBackupSimilarityMetric(metricTextBackup.getConfig().getTextSimilarityMetric())
+                    .withTextBackupSimilarityThreshold(metricTextBackup.getConfig().getTextSimilarityThreshold());
+        }
+        if (metricCodeBackup != null) {
+            config = config
+                    .withCodeBackupSimilarityMetric(metricCodeBackup.getConfig().getCodeSimilarityMetric())
+                    .withCodeBackupSimilarityThreshold(metricCodeBackup.getConfig().getCodeSimilarityThreshold());
+        }
+
+        return new SimilarityMetric(
+                metricText.getNameText(), metricText.getTypeText(),
+                metricTextBackup == null ? "none" : metricTextBackup.getNameText(),
+                metricTextBackup == null ? SimilarityMetric.MetricType.NONE : metricTextBackup.getTypeText(),
+                metricCode.getNameCode(), metricCode.getTypeCode(),
+                metricCodeBackup == null ? "none" : metricCodeBackup.getNameCode(),
+                metricCodeBackup == null ? SimilarityMetric.MetricType.NONE : metricCodeBackup.getTypeCode(),
+                config
+        );
+    }
+
+    static List<SimilarityMetric> getCombinedCandidatesText() {
+        return Collections.unmodifiableList(combinedCandidatesText);
+    }
+
+    static List<SimilarityMetric> getCombinedCandidatesTextBackup() {
+        return Collections.unmodifiableList(combinedCandidatesTextBackup);
+    }
 
-        List<SimilarityMetric> metricsText = new LinkedList<>();
+    static List<SimilarityMetric> getCombinedCandidatesCode() {
+        return Collections.unmodifiableList(combinedCandidatesCode);
+    }
+
+    static List<SimilarityMetric> getCombinedCandidatesCodeBackup() {
+        return Collections.unmodifiableList(combinedCandidatesCodeBackup);
+    }
+
+    /*
+     * Candidates for the combined metrics (text, text backup, code, code backup), selected after evaluation.
+     */
+    static void createCombinedCandidates() {
+        if (!combinedCandidatesText.isEmpty()) {
+            // already created
+            return;
+        }
+
+        List<SimilarityMetric> metricsText = combinedCandidatesText;
         metricsText.add(
             new SimilarityMetric(
                     "fiveGramDice",
@@ -882,7 +2624,7 @@ public class MetricEvaluationManager implements Runnable {
         );
         logger.info(metricsText.size() + " text metrics added.");
 
-        List<SimilarityMetric> metricsTextBackup = new LinkedList<>();
+        List<SimilarityMetric> metricsTextBackup = combinedCandidatesTextBackup;
         metricsTextBackup.add(
                 new SimilarityMetric(
                         "cosineTokenNormalizedNormalizedTermFrequency",
@@ -906,7 +2648,7 @@ public class MetricEvaluationManager implements Runnable {
         );
         logger.info(metricsTextBackup.size() + " text backup metrics added.");
 
-        List<SimilarityMetric> metricsCode = new LinkedList<>();
+        List<SimilarityMetric> metricsCode = combinedCandidatesCode;
         metricsCode.add(
                 new SimilarityMetric(
                         "tokenDiceNormalized",
@@ -986,7 +2728,7 @@ public class MetricEvaluationManager implements Runnable {
         );
         logger.info(metricsCode.size() + " code metrics added.");
 
-        List<SimilarityMetric> metricsCodeBackup = new LinkedList<>();
+        List<SimilarityMetric> metricsCodeBackup = combinedCandidatesCodeBackup;
         metricsCodeBackup.add(
                 new SimilarityMetric(
                         "tokenDiceNormalized",
@@ -1065,30 +2807,6 @@ public class MetricEvaluationManager implements Runnable {
                         0.09)
         );
         logger.info(metricsCodeBackup.size() + " code backup metrics added.");
-
-        for (SimilarityMetric metricText : metricsText) {
-            for (SimilarityMetric metricTextBackup : metricsTextBackup) {
-                for (SimilarityMetric metricCode : metricsCode) {
-                    for (SimilarityMetric metricCodeBackup : metricsCodeBackup) {
-                        combinedSimilarityMetrics.add(new SimilarityMetric(
-                                metricText.getNameText(), metricText.getTypeText(), metricTextBackup.getNameText(), metricTextBackup.getTypeText(),
-                                metricCode.getNameCode(), metricCode.getTypeCode(), metricCodeBackup.getNameCode(), metricCodeBackup.getTypeCode(),
-                                Config.METRICS_COMPARISON
-                                        .withTextSimilarityMetric(metricText.getConfig().getTextSimilarityMetric())
-                                        .withTextSimilarityThreshold(metricText.getConfig().getTextSimilarityThreshold())
-                                        .withTextBackupSimilarityMetric(metricTextBackup.getConfig().getTextSimilarityMetric())
-                                        .withTextBackupSimilarityThreshold(metricTextBackup.getConfig().getTextSimilarityThreshold())
-                                        .withCodeSimilarityMetric(metricCode.getConfig().getCodeSimilarityMetric())
-                                        .withCodeSimilarityThreshold(metricCode.getConfig().getCodeSimilarityThreshold())
-                                        .withCodeBackupSimilarityMetric(metricCodeBackup.getConfig().getCodeSimilarityMetric())
-                                        .withCodeBackupSimilarityThreshold(metricCodeBackup.getConfig().getCodeSimilarityThreshold())
-                        ));
-                    }
-                }
-            }
-        }
-
-        logger.info(combinedSimilarityMetrics.size() + " metrics added.");
     }
 
     /**
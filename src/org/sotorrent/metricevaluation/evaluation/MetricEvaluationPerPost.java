@@ -1,12 +1,14 @@
 package org.sotorrent.metricevaluation.evaluation;
 
-import com.google.common.base.Stopwatch;
 import org.apache.commons.csv.CSVPrinter;
 import org.sotorrent.posthistoryextractor.Config;
 import org.sotorrent.posthistoryextractor.blocks.CodeBlockVersion;
+import org.sotorrent.posthistoryextractor.blocks.PostBlockVersion;
 import org.sotorrent.posthistoryextractor.blocks.TextBlockVersion;
 import org.sotorrent.posthistoryextractor.gt.PostBlockConnection;
+import org.sotorrent.posthistoryextractor.gt.PostBlockLifeSpanVersion;
 import org.sotorrent.posthistoryextractor.gt.PostGroundTruth;
+import org.sotorrent.posthistoryextractor.version.PostVersion;
 import org.sotorrent.posthistoryextractor.version.PostVersionList;
 import org.sotorrent.util.LogUtils;
 
@@ -30,44 +32,61 @@ public class MetricEvaluationPerPost {
     }
 
     private final SimilarityMetric similarityMetric;
+    private final Config config; // config of the similarity metric, possibly instrumented (see ComparisonLatencies)
 
     final private int postId;
     final private List<Integer> postHistoryIds;
     final private PostVersionList postVersionList;
     final private PostGroundTruth postGroundTruth;
+    final private PackedGroundTruth packedGroundTruth;
 
     private int numberOfRepetitions;
     private int currentRepetition;
-    private Stopwatch stopWatch;
+    private boolean timingOnlyRepetitions; // if true, later repetitions only measure the runtime
+    private long connectionChecksum; // checksum of the connections found in the first (evaluated) repetition
+    private int connectionChecksumRepetition; // repetition in which the checksum was computed, 0 if not computed yet
 
     // the following variable is used to temporarily store the runtime
     private long runtime;
 
-    // text
-    // PostHistoryId -> metric results for text blocks
-    private Map<Integer, MetricResult> resultsText;
-    private MetricResult aggregatedResultText;
+    // buffer for the packed connections of one version, shared by all evaluations running in the same thread
+    private static final ThreadLocal<long[]> predictedConnections = ThreadLocal.withInitial(() -> new long[16]);
 
-    // code
-    // PostHistoryId -> metric results for code blocks
-    private Map<Integer, MetricResult> resultsCode;
+    // metric results for text and code blocks, the versions of this post are stored at
+    // [resultOffset, resultOffset + postHistoryIds.size()), in the order of postHistoryIds
+    private final MetricResultStore results;
+    private final int resultOffset;
+    private MetricResult aggregatedResultText;
     private MetricResult aggregatedResultCode;
 
+    // sorted packed connections predicted in the first repetition, index: type * versions + version index,
+    // null if predicted connections are not recorded (see PredictedConnectionStore)
+    private long[][] recordedConnections;
+
     MetricEvaluationPerPost(SimilarityMetric similarityMetric,
+                            Config config,
                             int postId,
                             PostVersionList postVersionList,
                             PostGroundTruth postGroundTruth,
-                            int numberOfRepetitions) {
+                            PackedGroundTruth packedGroundTruth,
+                            MetricResultStore results,
+                            int resultOffset,
+                            int numberOfRepetitions,
+                            boolean timingOnlyRepetitions,
+                            boolean recordPredictedConnections) {
 
         this.similarityMetric = similarityMetric;
+        this.config = config;
 
         this.postId = postId;
         this.postVersionList = postVersionList;
         postVersionList.normalizeLinks(); // normalize links so that post version list and ground truth are comparable
         this.postGroundTruth = postGroundTruth;
+        this.packedGroundTruth = packedGroundTruth;
         this.postHistoryIds = postVersionList.getPostHistoryIds();
 
-        if (!this.postGroundTruth.getPostHistoryIds().equals(this.postHistoryIds)) {
+        if (!this.postGroundTruth.getPostHistoryIds().equals(this.postHistoryIds)
+                || !this.packedGroundTruth.getPostHistoryIds().equals(this.postHistoryIds)) {
             String msg = "PostHistoryIds in postVersionList and postGroundTruth differ.";
             logger.warning(msg);
             throw new IllegalArgumentException(msg);
@@ -75,23 +94,28 @@ public class MetricEvaluationPerPost {
 
         this.runtime = 0;
 
-        this.resultsText = new HashMap<>();
-        this.resultsCode = new HashMap<>();
+        this.results = results;
+        this.resultOffset = resultOffset;
 
         this.numberOfRepetitions = numberOfRepetitions;
         this.currentRepetition = 0;
-
-        this.stopWatch = Stopwatch.createUnstarted();
+        this.timingOnlyRepetitions = timingOnlyRepetitions;
+        this.connectionChecksum = 0;
+        this.connectionChecksumRepetition = 0;
+        this.recordedConnections = recordPredictedConnections ? new long[2 * postHistoryIds.size()][] : null;
     }
 
     private void reset() {
         this.runtime = 0;
-        this.stopWatch.reset();
     }
 
     void startEvaluation(int currentRepetition) {
         // the post version list is shared by all metric evaluations conducted for the corresponding post
+        long waitStartTime = EvaluationTrace.begin();
         synchronized (postVersionList) {
+            EvaluationTrace.blocked(waitStartTime, "postVersionList");
+            long traceStartTime = EvaluationTrace.begin();
+
             this.currentRepetition++;
 
             if (this.currentRepetition != currentRepetition) {
@@ -103,43 +127,88 @@ public class MetricEvaluationPerPost {
             //logger.info("Evaluating metric " + similarityMetric + " on post " + postId);
 
             // alternate the order in which the post history is processed and evaluated
-            evaluatePostBlockVersions(similarityMetric.getConfig());
+            evaluatePostBlockVersions(config);
+
+            EvaluationTrace.end(traceStartTime, "evaluate post", EvaluationTrace.CATEGORY_EVALUATE,
+                    similarityMetric, postId, currentRepetition);
         }
     }
 
     private void evaluatePostBlockVersions(Config config) {
+        PostEvaluationEvent event = new PostEvaluationEvent();
+        event.begin();
+
         // process version history and measure runtime
-        stopWatch.start();
+        long startTime = System.nanoTime();
+        long processingTime;
         try {
             postVersionList.processVersionHistory(config);
+        } catch (TimeBudget.BudgetExceededException e) {
+            // the post version list is shared by all metrics, discard the partially processed history
+            this.reset();
+            postVersionList.resetPostBlockVersionHistory();
+            throw e;
         } finally {
-            stopWatch.stop();
+            // save runtime value (nanosecond part of the elapsed time, as Duration.getNano() of the former Stopwatch)
+            processingTime = System.nanoTime() - startTime;
+            runtime = processingTime % 1_000_000_000L;
         }
 
-        // save runtime value
-        runtime = stopWatch.elapsed().getNano();
+        long traceStartTime = EvaluationTrace.begin();
+
+        if (timingOnlyRepetitions && connectionChecksumRepetition > 0) {
+            // results have been computed and validated in the first repetition, only check that they did not change
+            long checksum = getConnectionChecksum();
+            if (checksum != connectionChecksum) {
+                String msg = "Connections changed from repetition " + connectionChecksumRepetition + " to "
+                        + currentRepetition + " (post " + postId + ")";
+                logger.warning(msg);
+                throw new IllegalStateException(msg);
+            }
+        } else {
+            // save and validate results (text)
+            setResult(MetricResultStore.TEXT, TextBlockVersion.getPostBlockTypeIdFilter(), packedGroundTruth.getConnectionsText());
+            validateResultsText();
+
+            // save and validate results (code)
+            setResult(MetricResultStore.CODE, CodeBlockVersion.getPostBlockTypeIdFilter(), packedGroundTruth.getConnectionsCode());
+            validateResultsCode();
 
-        // save and validate results (text)
-        setResultAndRuntime(resultsText, TextBlockVersion.getPostBlockTypeIdFilter());
-        validateResultsText();
+            if (timingOnlyRepetitions) {
+                connectionChecksum = getConnectionChecksum();
+                connectionChecksumRepetition = currentRepetition;
+            }
+        }
+        addRuntime();
 
-        // save and validate results (code)
-        setResultAndRuntime(resultsCode, CodeBlockVersion.getPostBlockTypeIdFilter());
-        validateResultsCode();
+        EvaluationTrace.end(traceStartTime, "validate results", EvaluationTrace.CATEGORY_VALIDATE,
+                similarityMetric, postId, currentRepetition);
 
-        // reset flag inputTooShort, stopWatch, and runtime variables
+        // reset flag inputTooShort and runtime variable
         this.reset();
         // reset post block version history
         postVersionList.resetPostBlockVersionHistory();
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.setSimilarityMetric(similarityMetric);
+            event.postId = postId;
+            event.repetition = currentRepetition;
+            event.versionCount = postVersionList.size();
+            event.textBlockVersionCount = postVersionList.getTextBlockVersionCount();
+            event.codeBlockVersionCount = postVersionList.getCodeBlockVersionCount();
+            event.runtime = processingTime;
+            event.commit();
+        }
     }
 
     private void validateResultsText() {
         int textBlockVersionCount = 0;
         int textPossibleComparisons = 0;
 
-        for (int postHistoryId : postHistoryIds) {
-            textBlockVersionCount += resultsText.get(postHistoryId).getPostBlockVersionCount();
-            textPossibleComparisons += resultsText.get(postHistoryId).getPossibleComparisons();
+        for (int i = 0; i < postHistoryIds.size(); i++) {
+            textBlockVersionCount += results.getPostBlockVersionCount(MetricResultStore.TEXT, resultOffset + i);
+            textPossibleComparisons += results.getPossibleComparisons(MetricResultStore.TEXT, resultOffset + i);
         }
 
         if (textBlockVersionCount != postVersionList.getTextBlockVersionCount()) {
@@ -159,9 +228,9 @@ public class MetricEvaluationPerPost {
         int codeBlockVersionCount = 0;
         int codePossibleComparisons = 0;
 
-        for (int postHistoryId : postHistoryIds) {
-            codeBlockVersionCount += resultsCode.get(postHistoryId).getPostBlockVersionCount();
-            codePossibleComparisons += resultsCode.get(postHistoryId).getPossibleComparisons();
+        for (int i = 0; i < postHistoryIds.size(); i++) {
+            codeBlockVersionCount += results.getPostBlockVersionCount(MetricResultStore.CODE, resultOffset + i);
+            codePossibleComparisons += results.getPossibleComparisons(MetricResultStore.CODE, resultOffset + i);
         }
 
         if (codeBlockVersionCount != postVersionList.getCodeBlockVersionCount()) {
@@ -177,94 +246,131 @@ public class MetricEvaluationPerPost {
         }
     }
 
-    private void setResultAndRuntime(Map<Integer, MetricResult> results, Set<Byte> postBlockTypeFilter) {
-        if (currentRepetition == 1) {
-            // set initial values after first run, return runtimeUser
-            for (int postHistoryId : postHistoryIds) {
-                MetricResult result = getResultAndSetRuntime(postHistoryId, new MetricResult(similarityMetric), postBlockTypeFilter);
-                results.put(postHistoryId, result);
-            }
-        } else {
-            // compare result values in later runs
-            for (int postHistoryId : postHistoryIds) {
-                MetricResult resultInMap = results.get(postHistoryId);
-                MetricResult newResult = getResultAndSetRuntime(postHistoryId, resultInMap, postBlockTypeFilter);
-
-                boolean postBlockVersionCountEqual = resultInMap.getPostBlockVersionCount() == newResult.getPostBlockVersionCount();
-                boolean possibleComparisonsEqual = resultInMap.getPossibleComparisons() == newResult.getPossibleComparisons();
-                boolean truePositivesEqual = resultInMap.getTruePositives() == newResult.getTruePositives();
-                boolean falsePositivesEqual = resultInMap.getFalsePositives() == newResult.getFalsePositives();
-                boolean trueNegativesEqual = resultInMap.getTrueNegatives() == newResult.getTrueNegatives();
-                boolean falseNegativesEqual = resultInMap.getFalseNegatives() == newResult.getFalseNegatives();
-                boolean failedPredecessorComparisonsEqual = resultInMap.getFailedPredecessorComparisons() == newResult.getFailedPredecessorComparisons();
-
-                if (!postBlockVersionCountEqual || ! possibleComparisonsEqual
-                        || !truePositivesEqual || !falsePositivesEqual || !trueNegativesEqual || !falseNegativesEqual
-                        || !failedPredecessorComparisonsEqual) {
-                    String msg = "Metric results changed from repetition " + (currentRepetition - 1) + " to " + currentRepetition;
-                    logger.warning(msg);
-                    throw new IllegalStateException(msg);
-                }
+    private void addRuntime() {
+        for (int i = 0; i < postHistoryIds.size(); i++) {
+            results.addRuntime(resultOffset + i, runtime, currentRepetition, numberOfRepetitions);
+        }
+    }
+
+    /*
+     * Order-independent checksum of the connections and failed predecessor comparisons of all versions (text and code),
+     * used instead of recomputing the results in timing-only repetitions.
+     */
+    private long getConnectionChecksum() {
+        Set<Byte> postBlockTypeFilter = PostBlockVersion.getAllPostBlockTypeIdFilters();
+        long checksum = 0;
+        for (int postHistoryId : postHistoryIds) {
+            PostVersion postVersion = postVersionList.getPostVersion(postHistoryId);
+            for (PostBlockConnection connection : postVersion.getConnections(postBlockTypeFilter)) {
+                PostBlockLifeSpanVersion left = connection.getLeft();
+                PostBlockLifeSpanVersion right = connection.getRight();
+                long key = PackedConnections.pack(connection);
+                checksum += mix(mix(key) ^ ((long) left.getPostHistoryId() << 32 | right.getPostHistoryId()));
             }
+            checksum += mix(~((long) postHistoryId << 32 | postVersion.getFailedPredecessorComparisons(postBlockTypeFilter)));
         }
+        return checksum;
     }
 
-    private MetricResult getResultAndSetRuntime(int postHistoryId, MetricResult oldResult, Set<Byte> postBlockTypeFilter) {
-        MetricResult newResult = new MetricResult(similarityMetric);
+    private static long mix(long value) {
+        // finalizer of SplitMix64
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
 
-        // runtime
-        if (currentRepetition < numberOfRepetitions) {
-            // sum up runtime of all repetitions...
-            newResult.setRuntime(runtime + oldResult.getRuntime()); // oldResult.getRuntime() is 0 in first repetition
-        } else {
-            // ... and calculate arithmetic mean of runtime in last repetition
-            newResult.setRuntime(Math.round(((double) runtime + oldResult.getRuntime()) / numberOfRepetitions));
-        }
+    private void setResult(int type, Set<Byte> postBlockTypeFilter, PackedConnections connectionsGT) {
+        for (int i = 0; i < postHistoryIds.size(); i++) {
+            PostVersion postVersion = postVersionList.getPostVersion(postHistoryIds.get(i));
 
-        // post count and post version count are always one for non-aggregated results
-        newResult.setPostCount(1);
-        newResult.setPostVersionCount(1);
+            // post block count
+            int postBlockCount = postVersion.getPostBlocks(postBlockTypeFilter).size();
 
-        // post block count
-        int postBlockCount = postVersionList.getPostVersion(postHistoryId).getPostBlocks(postBlockTypeFilter).size();
-        newResult.setPostBlockVersionCount(postBlockCount);
+            // possible comparisons
+            int possibleComparisons = postVersion.getPossibleComparisons(postBlockTypeFilter);
 
-        // possible comparisons
-        int possibleComparisons = postVersionList.getPostVersion(postHistoryId).getPossibleComparisons(postBlockTypeFilter);
-        newResult.setPossibleComparisons(possibleComparisons);
+            // results
+            int failedPredecessorComparisons = postVersion.getFailedPredecessorComparisons(postBlockTypeFilter);
+            int possibleComparisonsGT = connectionsGT.getPossibleComparisons(i);
+            if (possibleComparisonsGT != possibleComparisons) {
+                String msg = "Invalid result (expected: " + possibleComparisonsGT + "; actual: " + possibleComparisons + ")";
+                logger.warning(msg);
+                throw new IllegalStateException(msg);
+            }
 
-        // results
-        int failedPredecessorComparisons = postVersionList.getPostVersion(postHistoryId).getFailedPredecessorComparisons(postBlockTypeFilter);
-        int possibleComparisonsGT = postGroundTruth.getPossibleComparisons(postHistoryId, postBlockTypeFilter);
-        if (possibleComparisonsGT != newResult.getPossibleComparisons()) {
-            String msg = "Invalid result (expected: " + possibleComparisonsGT + "; actual: " + newResult.getPossibleComparisons() + ")";
-            logger.warning(msg);
-            throw new IllegalStateException(msg);
+            // count confusion matrix with a merge of the sorted packed connections (see PackedConnections)
+            Set<PostBlockConnection> postBlockConnections = postVersion.getConnections(postBlockTypeFilter);
+            long[] buffer = predictedConnections.get();
+            if (buffer.length < postBlockConnections.size()) {
+                buffer = new long[Math.max(postBlockConnections.size(), 2 * buffer.length)];
+                predictedConnections.set(buffer);
+            }
+            int predictedCount = PackedConnections.pack(postBlockConnections, buffer);
+            int[] confusionMatrix = connectionsGT.countConfusionMatrix(i, buffer, predictedCount);
+
+            if (currentRepetition == 1) {
+                // set initial values after first run
+                results.setCounters(type, resultOffset + i, postBlockCount, possibleComparisons,
+                        confusionMatrix[0], confusionMatrix[1], confusionMatrix[2], confusionMatrix[3],
+                        failedPredecessorComparisons);
+            } else if (!results.countersEqual(type, resultOffset + i, postBlockCount, possibleComparisons,
+                    confusionMatrix[0], confusionMatrix[1], confusionMatrix[2], confusionMatrix[3],
+                    failedPredecessorComparisons)) {
+                // compare result values in later runs
+                String msg = "Metric results changed from repetition " + (currentRepetition - 1) + " to " + currentRepetition;
+                logger.warning(msg);
+                throw new IllegalStateException(msg);
+            }
+            if (recordedConnections != null && recordedConnections[type * postHistoryIds.size() + i] == null) {
+                // first evaluated repetition (repetitions restored from a checkpoint are not evaluated)
+                recordedConnections[type * postHistoryIds.size() + i] = Arrays.copyOf(buffer, predictedCount);
+            }
         }
-        Set<PostBlockConnection> postBlockConnections = postVersionList.getPostVersion(postHistoryId).getConnections(postBlockTypeFilter);
-        Set<PostBlockConnection> postBlockConnectionsGT = postGroundTruth.getConnections(postHistoryId, postBlockTypeFilter);
+    }
 
-        int truePositivesCount = PostBlockConnection.getTruePositives(postBlockConnections, postBlockConnectionsGT).size();
-        int falsePositivesCount = PostBlockConnection.getFalsePositives(postBlockConnections, postBlockConnectionsGT).size();
+    /**
+     * Sorted packed connections of a version predicted in the first repetition, null if they have not been recorded.
+     */
+    long[] getRecordedConnections(int type, int versionIndex) {
+        return recordedConnections == null ? null : recordedConnections[type * postHistoryIds.size() + versionIndex];
+    }
+
+    /**
+     * Continues with the repetition after the restored ones (see MetricEvaluationPerSample.restoreRepetitions()). The
+     * first evaluated repetition computes and validates the results against the restored counters.
+     */
+    void restoreRepetitions(int restoredRepetitions) {
+        this.currentRepetition = restoredRepetitions;
+    }
 
-        int possibleConnectionsGT = postGroundTruth.getPossibleConnections(postHistoryId, postBlockTypeFilter);
-        int trueNegativesCount = PostBlockConnection.getTrueNegatives(postBlockConnections, postBlockConnectionsGT, possibleConnectionsGT);
-        int falseNegativesCount = PostBlockConnection.getFalseNegatives(postBlockConnections, postBlockConnectionsGT).size();
+    void clearRecordedConnections() {
+        if (recordedConnections != null) {
+            Arrays.fill(recordedConnections, null);
+        }
+    }
 
-        int allConnectionsCount = truePositivesCount + falsePositivesCount + trueNegativesCount + falseNegativesCount;
-        if (possibleConnectionsGT != allConnectionsCount) {
-            String msg = "Invalid result (expected: " + possibleConnectionsGT + "; actual: " + allConnectionsCount + ")";
+    /**
+     * Sets the results of a version from the predicted connections of an earlier run (see PredictedConnectionStore),
+     * counted against the current ground truth.
+     */
+    void rescore(int versionIndex, int type, int postBlockCount, int possibleComparisons,
+                 int failedPredecessorComparisons, long[] predictedConnections) {
+        PackedConnections connectionsGT = type == MetricResultStore.TEXT
+                ? packedGroundTruth.getConnectionsText() : packedGroundTruth.getConnectionsCode();
+
+        int possibleComparisonsGT = connectionsGT.getPossibleComparisons(versionIndex);
+        if (possibleComparisonsGT != possibleComparisons) {
+            String msg = "Ground truth of post " + postId + " does not match stored predicted connections (possible comparisons expected: "
+                    + possibleComparisonsGT + "; actual: " + possibleComparisons + ")";
             logger.warning(msg);
             throw new IllegalStateException(msg);
         }
 
-        newResult.setTruePositives(truePositivesCount);
-        newResult.setFalsePositives(falsePositivesCount);
-        newResult.setTrueNegatives(trueNegativesCount);
-        newResult.setFalseNegatives(falseNegativesCount);
-        newResult.setFailedPredecessorComparisons(failedPredecessorComparisons);
-
-        return newResult;
+        int[] confusionMatrix = connectionsGT.countConfusionMatrix(versionIndex, predictedConnections, predictedConnections.length);
+        results.setCounters(type, resultOffset + versionIndex, postBlockCount, possibleComparisons,
+                confusionMatrix[0], confusionMatrix[1], confusionMatrix[2], confusionMatrix[3],
+                failedPredecessorComparisons);
+        resetAggregatedResults();
     }
 
     void writeToCSV(CSVPrinter csvPrinterPost, CSVPrinter csvPrinterVersion) throws IOException {
@@ -325,9 +431,10 @@ public class MetricEvaluationPerPost {
         );
 
         // write result per version
-        for (int postHistoryId : postHistoryIds) {
-            MetricResult resultText = resultsText.get(postHistoryId);
-            MetricResult resultCode = resultsCode.get(postHistoryId);
+        for (int i = 0; i < postHistoryIds.size(); i++) {
+            int postHistoryId = postHistoryIds.get(i);
+            MetricResult resultText = results.getResult(MetricResultStore.TEXT, resultOffset + i);
+            MetricResult resultCode = results.getResult(MetricResultStore.CODE, resultOffset + i);
 
             // validate results
             MetricResult.validate(resultText, resultCode);
@@ -380,11 +487,8 @@ public class MetricEvaluationPerPost {
         }
     }
 
-    private MetricResult aggregateResultsPerPost(Collection<MetricResult> results) {
-        MetricResult aggregatedResult = new MetricResult(similarityMetric);
-        for (MetricResult currentResult : results) {
-            aggregatedResult.add(currentResult);
-        }
+    private MetricResult aggregateResultsPerPost(int type) {
+        MetricResult aggregatedResult = results.getResultSum(type, resultOffset, resultOffset + postHistoryIds.size());
         aggregatedResult.setPostCount(1);
         return aggregatedResult;
     }
@@ -392,7 +496,7 @@ public class MetricEvaluationPerPost {
     MetricResult getResultAggregatedByPostText() {
         // aggregate by post
         if (aggregatedResultText == null) {
-            aggregatedResultText = aggregateResultsPerPost(resultsText.values());
+            aggregatedResultText = aggregateResultsPerPost(MetricResultStore.TEXT);
         }
         return aggregatedResultText;
     }
@@ -400,11 +504,20 @@ public class MetricEvaluationPerPost {
     MetricResult getResultAggregatedByPostCode() {
         // aggregate by post
         if (aggregatedResultCode == null) {
-            aggregatedResultCode = aggregateResultsPerPost(resultsCode.values());
+            aggregatedResultCode = aggregateResultsPerPost(MetricResultStore.CODE);
         }
         return aggregatedResultCode;
     }
 
+    void resetAggregatedResults() {
+        aggregatedResultText = null;
+        aggregatedResultCode = null;
+    }
+
+    int getResultOffset() {
+        return resultOffset;
+    }
+
     public List<Integer> getPostHistoryIds() {
         return postHistoryIds;
     }
@@ -418,10 +531,12 @@ public class MetricEvaluationPerPost {
     }
 
     public MetricResult getResultsText(int postHistoryId) {
-        return resultsText.get(postHistoryId);
+        int index = postHistoryIds.indexOf(postHistoryId);
+        return index < 0 ? null : results.getResult(MetricResultStore.TEXT, resultOffset + index);
     }
 
     public MetricResult getResultsCode(int postHistoryId) {
-        return resultsCode.get(postHistoryId);
+        int index = postHistoryIds.indexOf(postHistoryId);
+        return index < 0 ? null : results.getResult(MetricResultStore.CODE, resultOffset + index);
     }
 }
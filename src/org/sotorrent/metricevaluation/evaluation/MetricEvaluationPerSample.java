@@ -1,6 +1,7 @@
 package org.sotorrent.metricevaluation.evaluation;
 
 import org.apache.commons.csv.CSVPrinter;
+import org.sotorrent.posthistoryextractor.Config;
 import org.sotorrent.posthistoryextractor.blocks.CodeBlockVersion;
 import org.sotorrent.posthistoryextractor.blocks.PostBlockVersion;
 import org.sotorrent.posthistoryextractor.blocks.TextBlockVersion;
@@ -10,12 +11,17 @@ import org.sotorrent.util.LogUtils;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
  * Evaluation of one similarity metric using a sample of SO posts.
  */
-public class MetricEvaluationPerSample extends LinkedList<MetricEvaluationPerPost> {
+public class MetricEvaluationPerSample implements Iterable<MetricEvaluationPerPost> {
     private static Logger logger;
 
     static {
@@ -29,31 +35,69 @@ public class MetricEvaluationPerSample extends LinkedList<MetricEvaluationPerPos
 
     private String sampleName;
     private SimilarityMetric similarityMetric;
+    private int metricIndex; // position of the similarity metric in the list of metrics of the sample (-1 if not part of it)
 
     private Set<Integer> postIds;
     private Map<Integer, PostGroundTruth> postGroundTruths; // postId -> PostGroundTruth
     private Map<Integer, PostVersionList> postVersionLists; // postId -> PostVersionList
+    private Map<Integer, PackedGroundTruth> packedGroundTruths; // postId -> PackedGroundTruth
 
     private int numberOfRepetitions;
+    private int restoredRepetitions; // repetitions restored from a checkpoint, they are skipped (see restoreRepetitions())
     private boolean randomizeOrder;
-
+    private Random random; // used to randomize the order of posts
+    private boolean timingOnlyRepetitions;
+    private ComparisonLatencies comparisonLatencies; // null if latencies of block comparisons are not recorded
+    private boolean recordPredictedConnections;
+    private TimeBudget timeBudget; // null -> no time budget
+
+    // time budget: time spent on this metric, timed out posts, and posts skipped afterwards
+    private final AtomicLong budgetTime = new AtomicLong();
+    private final Map<Integer, Timeout> timeouts = new ConcurrentHashMap<>(); // postId -> timeout
+    private final Set<Integer> skippedPostIds = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger skippedPostEvaluations = new AtomicInteger();
+    private volatile boolean remainingPostsSkipped;
+
+    private int possibleComparisons; // possible comparisons of all posts in the sample (text and code)
+    private int journalId; // id of the similarity metric in the event journal
+
+    private MetricEvaluationPerPost[] evaluations; // in the order of postIds
+    private int[] order; // current evaluation order (indices into evaluations)
+    private MetricResultStore results; // results per version of all posts in the sample
     private MetricResult aggregatedResultText;
     private MetricResult aggregatedResultCode;
 
     MetricEvaluationPerSample(String sampleName,
                               SimilarityMetric similarityMetric,
+                              int metricIndex,
                               Set<Integer> postIds,
                               Map<Integer, PostVersionList> postVersionLists,
                               Map<Integer, PostGroundTruth> postGroundTruths,
+                              Map<Integer, PackedGroundTruth> packedGroundTruths,
                               int numberOfRepetitions,
-                              boolean randomizeOrder) {
+                              boolean randomizeOrder,
+                              boolean timingOnlyRepetitions,
+                              boolean recordComparisonLatencies,
+                              boolean recordPredictedConnections,
+                              TimeBudget timeBudget,
+                              long randomSeed) {
         this.sampleName = sampleName;
         this.similarityMetric = similarityMetric;
+        this.metricIndex = metricIndex;
         this.postIds = postIds;
         this.postGroundTruths = postGroundTruths;
         this.postVersionLists = postVersionLists;
+        this.packedGroundTruths = packedGroundTruths;
         this.numberOfRepetitions = numberOfRepetitions;
+        this.restoredRepetitions = 0;
         this.randomizeOrder = randomizeOrder;
+        this.random = new Random(randomSeed);
+        this.timingOnlyRepetitions = timingOnlyRepetitions;
+        this.comparisonLatencies = recordComparisonLatencies ? new ComparisonLatencies(similarityMetric) : null;
+        this.recordPredictedConnections = recordPredictedConnections;
+        this.timeBudget = timeBudget;
+        this.evaluations = new MetricEvaluationPerPost[0];
+        this.order = new int[0];
     }
 
     boolean validate() {
@@ -93,33 +137,169 @@ public class MetricEvaluationPerSample extends LinkedList<MetricEvaluationPerPos
     }
 
     private void randomizeOrder() {
-        Collections.shuffle(this, new Random());
+        // in-place Fisher-Yates shuffle of the indices
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int index = order[i];
+            order[i] = order[j];
+            order[j] = index;
+        }
     }
 
     void prepareEvaluation() {
+        journalId = EventJournal.isEnabled() ? EventJournal.register(similarityMetric.toString()) : -1;
+        possibleComparisons = 0;
+        restoredRepetitions = 0;
+        int versionCount = 0;
+        for (int postId : postIds) {
+            versionCount += postVersionLists.get(postId).size();
+        }
+        results = new MetricResultStore(similarityMetric, versionCount);
+        int resultOffset = 0;
+        evaluations = new MetricEvaluationPerPost[postIds.size()];
+        order = new int[postIds.size()];
+        int evaluationIndex = 0;
+        // the original config is still used for the output files
+        Config config = comparisonLatencies == null ? similarityMetric.getConfig() : comparisonLatencies.instrument(similarityMetric.getConfig());
+        if (timeBudget != null) {
+            config = TimeBudget.instrument(config);
+        }
         for (int postId : postIds) {
-            this.add(
-                    new MetricEvaluationPerPost(
-                            similarityMetric,
-                            postId,
-                            postVersionLists.get(postId),
-                            postGroundTruths.get(postId),
-                            numberOfRepetitions
-                    )
+            possibleComparisons += postVersionLists.get(postId).getPossibleComparisons();
+            order[evaluationIndex] = evaluationIndex;
+            evaluations[evaluationIndex++] = new MetricEvaluationPerPost(
+                    similarityMetric,
+                    config,
+                    postId,
+                    postVersionLists.get(postId),
+                    postGroundTruths.get(postId),
+                    packedGroundTruths.get(postId),
+                    results,
+                    resultOffset,
+                    numberOfRepetitions,
+                    timingOnlyRepetitions,
+                    recordPredictedConnections
             );
+            resultOffset += postVersionLists.get(postId).size();
         }
     }
 
     void startEvaluation(int currentRepetition) {
+        startEvaluation(currentRepetition, null);
+    }
+
+    /**
+     * Evaluates all posts, the consumer (may be null) receives each post as soon as its results are complete.
+     */
+    void startEvaluation(int currentRepetition, Consumer<MetricEvaluationPerPost> postCompleted) {
+        // progress is recorded in the event journal by MetricEvaluationManager.run()
         if (randomizeOrder) {
-            logger.info("Randomizing order of posts in sample " + sampleName + " for metric " + similarityMetric + "...");
             randomizeOrder();
         }
 
-        logger.info("Starting evaluation run " + currentRepetition + " for metric " + similarityMetric + " on sample " + sampleName + "...");
+        for (int index : order) {
+            if (evaluatePost(index, currentRepetition) && postCompleted != null) {
+                postCompleted.accept(evaluations[index]);
+            }
+        }
+    }
+
+    /**
+     * Evaluates the post at the given index of postIds within the time budget (if configured). Timed out posts are
+     * not evaluated again, all remaining posts are skipped if configured or if the metric budget is exhausted.
+     * Returns true if the results of the post are complete, i.e., the post has been evaluated in the last repetition.
+     */
+    boolean evaluatePost(int postIndex, int currentRepetition) {
+        if (currentRepetition <= restoredRepetitions) {
+            return false;
+        }
+        MetricEvaluationPerPost evaluationPerPost = evaluations[postIndex];
+        if (timeBudget == null) {
+            evaluationPerPost.startEvaluation(currentRepetition);
+            return currentRepetition == numberOfRepetitions;
+        }
 
-        for (MetricEvaluationPerPost evaluation : this) {
-            evaluation.startEvaluation(currentRepetition);
+        int postId = evaluationPerPost.getPostId();
+        if (remainingPostsSkipped || timeouts.containsKey(postId)) {
+            if (!timeouts.containsKey(postId)) {
+                skippedPostIds.add(postId);
+            }
+            skippedPostEvaluations.incrementAndGet();
+            return false;
+        }
+
+        long startTime = System.nanoTime();
+        try {
+            timeBudget.evaluate(() -> evaluationPerPost.startEvaluation(currentRepetition), budgetTime.get());
+            return currentRepetition == numberOfRepetitions;
+        } catch (TimeBudget.BudgetExceededException e) {
+            long evaluationTime = System.nanoTime() - startTime;
+            Timeout timeout = new Timeout(currentRepetition, e.getBudget(), evaluationTime,
+                    Math.max(0, evaluationTime - e.getBudgetTime()));
+            timeouts.put(postId, timeout);
+            if (timeBudget.skipsRemainingPosts() || e.getBudget() == TimeBudget.Budget.METRIC) {
+                remainingPostsSkipped = true;
+            }
+            logger.warning("Evaluation of metric " + similarityMetric + " on post " + postId + " in sample " + sampleName
+                    + " aborted after " + TimeUnit.NANOSECONDS.toMillis(evaluationTime) + " ms (" + e.getMessage()
+                    + ", overrun " + TimeUnit.NANOSECONDS.toMillis(timeout.overrun) + " ms)"
+                    + (remainingPostsSkipped ? ", remaining posts are skipped." : "."));
+            return false;
+        } finally {
+            budgetTime.addAndGet(System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * True if the evaluation of at least one post exceeded the time budget, i.e., the results are incomplete.
+     */
+    boolean isTimedOut() {
+        return !timeouts.isEmpty();
+    }
+
+    /**
+     * True if the post at the given index of postIds has been evaluated in all repetitions, i.e., it neither timed out
+     * nor was it skipped afterwards. Only complete posts are written to the output files and aggregated by sample.
+     */
+    boolean isPostComplete(int postIndex) {
+        int postId = evaluations[postIndex].getPostId();
+        return !timeouts.containsKey(postId) && !skippedPostIds.contains(postId);
+    }
+
+    void writeTimeoutsToCSV(CSVPrinter csvPrinterTimeouts) throws IOException {
+        List<Integer> timedOutPostIds = new ArrayList<>(timeouts.keySet());
+        Collections.sort(timedOutPostIds);
+        for (int postId : timedOutPostIds) {
+            Timeout timeout = timeouts.get(postId);
+            // "MetricTypeText", "MetricText", "ThresholdText",
+            // "MetricTypeTextBackup", "MetricTextBackup", "ThresholdTextBackup",
+            // "MetricTypeCode", "MetricCode", "ThresholdCode",
+            // "MetricTypeCodeBackup", "MetricCodeBackup", "ThresholdCodeBackup",
+            // "PostId", "Repetition", "Budget", "EvaluationTime", "Overrun", "SkippedPostEvaluations"
+            csvPrinterTimeouts.printRecord(
+                    similarityMetric.getTypeText(),
+                    similarityMetric.getNameText(),
+                    similarityMetric.getConfig().getTextSimilarityThreshold(),
+
+                    similarityMetric.getBackupTypeText(),
+                    similarityMetric.getBackupNameText(),
+                    similarityMetric.getConfig().getTextBackupSimilarityThreshold(),
+
+                    similarityMetric.getTypeCode(),
+                    similarityMetric.getNameCode(),
+                    similarityMetric.getConfig().getCodeSimilarityThreshold(),
+
+                    similarityMetric.getBackupTypeCode(),
+                    similarityMetric.getBackupNameCode(),
+                    similarityMetric.getConfig().getCodeBackupSimilarityThreshold(),
+
+                    postId,
+                    timeout.repetition,
+                    timeout.budget,
+                    timeout.evaluationTime,
+                    timeout.overrun,
+                    skippedPostEvaluations.get()
+            );
         }
     }
 
@@ -212,36 +392,141 @@ public class MetricEvaluationPerSample extends LinkedList<MetricEvaluationPerPos
         );
     }
 
-    MetricResult getResultAggregatedBySampleText() {
+    void writeComparisonLatenciesToCSV(CSVPrinter csvPrinterLatencies) throws IOException {
+        if (comparisonLatencies != null) {
+            comparisonLatencies.writeToCSV(csvPrinterLatencies);
+        }
+    }
+
+    public MetricResult getResultAggregatedBySampleText() {
         // aggregate by sample
         if (aggregatedResultText == null) {
             aggregatedResultText = new MetricResult(similarityMetric);
-            for (MetricEvaluationPerPost evaluationPerPost : this) {
-                MetricResult resultText = evaluationPerPost.getResultAggregatedByPostText();
-                aggregatedResultText.add(resultText);
+            for (int postIndex = 0; postIndex < evaluations.length; postIndex++) {
+                if (isPostComplete(postIndex)) {
+                    MetricResult resultText = evaluations[postIndex].getResultAggregatedByPostText();
+                    aggregatedResultText.add(resultText);
+                }
             }
         }
         return aggregatedResultText;
     }
 
-    MetricResult getResultAggregatedBySampleCode() {
+    public MetricResult getResultAggregatedBySampleCode() {
         // aggregate by sample
         if (aggregatedResultCode == null) {
             aggregatedResultCode = new MetricResult(similarityMetric);
-            for (MetricEvaluationPerPost evaluationPerPost : this) {
-                MetricResult resultCode = evaluationPerPost.getResultAggregatedByPostCode();
-                aggregatedResultCode.add(resultCode);
+            for (int postIndex = 0; postIndex < evaluations.length; postIndex++) {
+                if (isPostComplete(postIndex)) {
+                    MetricResult resultCode = evaluations[postIndex].getResultAggregatedByPostCode();
+                    aggregatedResultCode.add(resultCode);
+                }
             }
         }
         return aggregatedResultCode;
     }
 
-    SimilarityMetric getSimilarityMetric() {
+    int size() {
+        return evaluations.length;
+    }
+
+    /**
+     * Returns the evaluation at the given position of the current evaluation order.
+     */
+    MetricEvaluationPerPost get(int position) {
+        return evaluations[order[position]];
+    }
+
+    /**
+     * Returns the evaluation of the post at the given index of postIds (the same post for all metrics of a sample).
+     */
+    MetricEvaluationPerPost getByPostIndex(int postIndex) {
+        return evaluations[postIndex];
+    }
+
+    @Override
+    public Iterator<MetricEvaluationPerPost> iterator() {
+        // iterates in the current evaluation order
+        return new Iterator<MetricEvaluationPerPost>() {
+            private int position = 0;
+
+            @Override
+            public boolean hasNext() {
+                return position < order.length;
+            }
+
+            @Override
+            public MetricEvaluationPerPost next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return evaluations[order[position++]];
+            }
+        };
+    }
+
+    public SimilarityMetric getSimilarityMetric() {
         return similarityMetric;
     }
 
+    int getMetricIndex() {
+        return metricIndex;
+    }
+
+    MetricResultStore getResults() {
+        return results;
+    }
+
+    /**
+     * Continues the evaluation after the given number of repetitions, whose results (counters and runtime sums) have been
+     * restored from a checkpoint. The restored repetitions are skipped by startEvaluation() and evaluatePost().
+     */
+    void restoreRepetitions(int restoredRepetitions) {
+        this.restoredRepetitions = restoredRepetitions;
+        for (MetricEvaluationPerPost evaluationPerPost : evaluations) {
+            evaluationPerPost.restoreRepetitions(restoredRepetitions);
+        }
+    }
+
+    int getRestoredRepetitions() {
+        return restoredRepetitions;
+    }
+
+    /**
+     * Discards the aggregated results, e.g., after the results per version have been read from partial results.
+     */
+    void resetAggregatedResults() {
+        aggregatedResultText = null;
+        aggregatedResultCode = null;
+        for (MetricEvaluationPerPost evaluationPerPost : evaluations) {
+            evaluationPerPost.resetAggregatedResults();
+        }
+    }
+
+    int getPossibleComparisons() {
+        return possibleComparisons;
+    }
+
+    int getJournalId() {
+        return journalId;
+    }
+
     @Override
     public String toString() {
         return similarityMetric + " on " + sampleName;
     }
+
+    private static class Timeout {
+        private final int repetition;
+        private final TimeBudget.Budget budget; // budget that was exceeded
+        private final long evaluationTime; // nanoseconds until the evaluation was aborted
+        private final long overrun; // nanoseconds beyond the budget, e.g., spent on a comparison that was not interrupted
+
+        private Timeout(int repetition, TimeBudget.Budget budget, long evaluationTime, long overrun) {
+            this.repetition = repetition;
+            this.budget = budget;
+            this.evaluationTime = evaluationTime;
+            this.overrun = overrun;
+        }
+    }
 }
@@ -0,0 +1,271 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.QuoteMode;
+import org.sotorrent.util.LogUtils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Successive-halving race that prunes weak similarity metrics on random subsets of the posts of all samples before
+ * the full evaluation. In each round, the remaining metrics are evaluated on a subset of posts and a metric is pruned
+ * if it is clearly worse (objective plus margin times its standard error below the objective minus margin times the
+ * standard error of the metric at the survivor cutoff) for text AND code blocks. The subset is doubled in each round
+ * until it contains all posts. Every decision is written to the race trace.
+ */
+public class MetricRace {
+    private enum Decision {SURVIVED, PRUNED}
+
+    private static final double SURVIVOR_FRACTION = 0.5;
+
+    private static Logger logger;
+    private static final CSVFormat csvFormatRaceTrace;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(MetricRace.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // configure CSV format for race trace (per round and metric)
+        csvFormatRaceTrace = CSVFormat.DEFAULT
+                .withHeader("Round", "PostCount", "MetricTypeText", "MetricText", "ThresholdText", "MetricTypeTextBackup", "MetricTextBackup", "ThresholdTextBackup", "MetricTypeCode", "MetricCode", "ThresholdCode", "MetricTypeCodeBackup", "MetricCodeBackup", "ThresholdCodeBackup", "Objective", "ObjectiveText", "StandardErrorText", "CutoffText", "ObjectiveCode", "StandardErrorCode", "CutoffCode", "Decision")
+                .withDelimiter(';')
+                .withQuote('"')
+                .withQuoteMode(QuoteMode.MINIMAL)
+                .withEscape('\\')
+                .withNullString("null");
+    }
+
+    private final List<MetricEvaluationManager> managers;
+    private final ThresholdSearch.Objective objective;
+    private final int initialPostCount;
+    private final double margin; // in multiples of the standard error
+    private final Random random;
+
+    public MetricRace(List<MetricEvaluationManager> managers, ThresholdSearch.Objective objective,
+                      int initialPostCount, double margin, Long randomSeed) {
+        if (objective != ThresholdSearch.Objective.MATTHEWS_CORRELATION && objective != ThresholdSearch.Objective.F_SCORE) {
+            String msg = "Race objective must be " + ThresholdSearch.Objective.MATTHEWS_CORRELATION + " or "
+                    + ThresholdSearch.Objective.F_SCORE + ", but was " + objective;
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        if (initialPostCount < 1) {
+            String msg = "Initial post count of race must be at least 1, but was " + initialPostCount;
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        if (margin < 0.0) {
+            String msg = "Margin of race must not be negative, but was " + margin;
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        this.managers = managers;
+        this.objective = objective;
+        this.initialPostCount = initialPostCount;
+        this.margin = margin;
+        this.random = randomSeed == null ? new Random() : new Random(randomSeed);
+    }
+
+    /**
+     * Races the given metrics, writes the trace to the output file, and returns the surviving metrics
+     * (in the order of the candidates).
+     */
+    public List<SimilarityMetric> raceAndWriteToCSV(List<SimilarityMetric> candidates, File outputFile) {
+        // random order of all posts of all samples, the subset of each round is a prefix of this order
+        List<SamplePost> posts = new ArrayList<>();
+        for (MetricEvaluationManager manager : managers) {
+            List<Integer> postIds = new ArrayList<>(manager.getPostIds());
+            Collections.sort(postIds); // make order reproducible for a given seed
+            for (int postId : postIds) {
+                posts.add(new SamplePost(manager, postId));
+            }
+        }
+        Collections.shuffle(posts, random);
+
+        List<SimilarityMetric> survivors = new ArrayList<>(candidates);
+        int postCount = Math.min(initialPostCount, posts.size());
+        int round = 1;
+
+        try (CSVPrinter csvPrinter = new CSVPrinter(new FileWriter(outputFile), csvFormatRaceTrace)) {
+            while (survivors.size() > 1 && postCount < posts.size()) {
+                logger.info("Race round " + round + ": Evaluating " + survivors.size() + " metrics on "
+                        + postCount + " of " + posts.size() + " posts ...");
+                survivors = evaluateRound(round, survivors, posts.subList(0, postCount), csvPrinter);
+                csvPrinter.flush();
+                postCount = Math.min(2 * postCount, posts.size());
+                round++;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        logger.info("Race finished after " + (round - 1) + " rounds: " + survivors.size() + " of "
+                + candidates.size() + " metrics survived.");
+        return survivors;
+    }
+
+    private List<SimilarityMetric> evaluateRound(int round, List<SimilarityMetric> survivors, List<SamplePost> posts,
+                                                 CSVPrinter csvPrinter) throws IOException {
+        // group posts of the subset by sample
+        Map<MetricEvaluationManager, Set<Integer>> postIdsPerManager = new LinkedHashMap<>();
+        for (SamplePost post : posts) {
+            postIdsPerManager.computeIfAbsent(post.manager, manager -> new LinkedHashSet<>()).add(post.postId);
+        }
+
+        int size = survivors.size();
+        double[][] objectives = new double[2][size];
+        double[][] standardErrors = new double[2][size];
+        for (int i = 0; i < size; i++) {
+            SimilarityMetric similarityMetric = survivors.get(i);
+            MetricResult resultText = new MetricResult(similarityMetric);
+            MetricResult resultCode = new MetricResult(similarityMetric);
+            for (Map.Entry<MetricEvaluationManager, Set<Integer>> entry : postIdsPerManager.entrySet()) {
+                MetricEvaluationPerSample evaluationPerSample = entry.getKey().evaluateSimilarityMetric(similarityMetric, entry.getValue());
+                resultText.add(evaluationPerSample.getResultAggregatedBySampleText());
+                resultCode.add(evaluationPerSample.getResultAggregatedBySampleCode());
+            }
+            objectives[MetricResultStore.TEXT][i] = ThresholdSearch.getObjective(objective, resultText);
+            standardErrors[MetricResultStore.TEXT][i] = getStandardError(resultText);
+            objectives[MetricResultStore.CODE][i] = ThresholdSearch.getObjective(objective, resultCode);
+            standardErrors[MetricResultStore.CODE][i] = getStandardError(resultCode);
+        }
+
+        double cutoffText = getCutoff(objectives[MetricResultStore.TEXT], standardErrors[MetricResultStore.TEXT]);
+        double cutoffCode = getCutoff(objectives[MetricResultStore.CODE], standardErrors[MetricResultStore.CODE]);
+
+        List<SimilarityMetric> nextSurvivors = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            boolean prunedText = isPruned(objectives[MetricResultStore.TEXT][i], standardErrors[MetricResultStore.TEXT][i], cutoffText);
+            boolean prunedCode = isPruned(objectives[MetricResultStore.CODE][i], standardErrors[MetricResultStore.CODE][i], cutoffCode);
+            Decision decision = prunedText && prunedCode ? Decision.PRUNED : Decision.SURVIVED;
+            if (decision == Decision.SURVIVED) {
+                nextSurvivors.add(survivors.get(i));
+            }
+
+            SimilarityMetric similarityMetric = survivors.get(i);
+            // "Round", "PostCount",
+            // "MetricTypeText", "MetricText", "ThresholdText",
+            // "MetricTypeTextBackup", "MetricTextBackup", "ThresholdTextBackup",
+            // "MetricTypeCode", "MetricCode", "ThresholdCode",
+            // "MetricTypeCodeBackup", "MetricCodeBackup", "ThresholdCodeBackup",
+            // "Objective", "ObjectiveText", "StandardErrorText", "CutoffText",
+            // "ObjectiveCode", "StandardErrorCode", "CutoffCode", "Decision"
+            csvPrinter.printRecord(
+                    round,
+                    posts.size(),
+
+                    similarityMetric.getTypeText(),
+                    similarityMetric.getNameText(),
+                    similarityMetric.getConfig().getTextSimilarityThreshold(),
+
+                    similarityMetric.getBackupTypeText(),
+                    similarityMetric.getBackupNameText(),
+                    similarityMetric.getConfig().getTextBackupSimilarityThreshold(),
+
+                    similarityMetric.getTypeCode(),
+                    similarityMetric.getNameCode(),
+                    similarityMetric.getConfig().getCodeSimilarityThreshold(),
+
+                    similarityMetric.getBackupTypeCode(),
+                    similarityMetric.getBackupNameCode(),
+                    similarityMetric.getConfig().getCodeBackupSimilarityThreshold(),
+
+                    objective,
+                    objectives[MetricResultStore.TEXT][i],
+                    standardErrors[MetricResultStore.TEXT][i],
+                    cutoffText,
+                    objectives[MetricResultStore.CODE][i],
+                    standardErrors[MetricResultStore.CODE][i],
+                    cutoffCode,
+                    decision
+            );
+        }
+
+        logger.info("Race round " + round + ": " + (size - nextSurvivors.size()) + " of " + size + " metrics pruned.");
+        return nextSurvivors;
+    }
+
+    /*
+     * A metric is pruned if the upper bound of its objective is below the cutoff. Undefined objectives (NaN, see
+     * ThresholdSearch.getObjective()) are the worst value and always pruned, defined objectives with an infinite
+     * standard error are never pruned.
+     */
+    boolean isPruned(double objective, double standardError, double cutoff) {
+        if (Double.isNaN(objective) || objective == Double.NEGATIVE_INFINITY) {
+            return true;
+        }
+        return getBound(objective, standardError) < cutoff;
+    }
+
+    /*
+     * Lower bound of the metric at the survivor cutoff, i.e., the metric with the lowest objective among the best
+     * SURVIVOR_FRACTION of the metrics.
+     */
+    double getCutoff(double[] objectives, double[] standardErrors) {
+        Integer[] ranking = new Integer[objectives.length];
+        for (int i = 0; i < ranking.length; i++) {
+            ranking[i] = i;
+        }
+        // undefined objectives are ranked last
+        Arrays.sort(ranking, (i, j) -> Double.compare(
+                Double.isNaN(objectives[j]) ? Double.NEGATIVE_INFINITY : objectives[j],
+                Double.isNaN(objectives[i]) ? Double.NEGATIVE_INFINITY : objectives[i]));
+        int cutoffIndex = ranking[Math.max(0, (int) Math.ceil(objectives.length * SURVIVOR_FRACTION) - 1)];
+        return getBound(objectives[cutoffIndex], -standardErrors[cutoffIndex]);
+    }
+
+    private double getBound(double objective, double standardError) {
+        if (margin == 0.0) {
+            // 0 * infinity is NaN
+            return objective;
+        }
+        return objective + margin * standardError;
+    }
+
+    /*
+     * Approximate standard error of the objective, infinite if there are not enough comparisons.
+     */
+    private double getStandardError(MetricResult result) {
+        double truePositives = result.getTruePositives();
+        double falsePositives = result.getFalsePositives();
+        double trueNegatives = result.getTrueNegatives();
+        double falseNegatives = result.getFalseNegatives();
+
+        if (objective == ThresholdSearch.Objective.F_SCORE) {
+            // F-score as proportion of the relevant comparisons (binomial approximation)
+            double relevantComparisons = truePositives + falsePositives + falseNegatives;
+            double fScore = result.getFScore();
+            if (relevantComparisons == 0 || Double.isNaN(fScore)) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return Math.sqrt(fScore * (1 - fScore) / relevantComparisons);
+        }
+
+        // Matthews correlation coefficient is the Pearson correlation of two binary variables
+        double comparisons = truePositives + falsePositives + trueNegatives + falseNegatives;
+        if (comparisons < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double matthewsCorrelation = result.getMatthewsCorrelation();
+        return (1 - matthewsCorrelation * matthewsCorrelation) / Math.sqrt(comparisons - 1);
+    }
+
+    private static class SamplePost {
+        private final MetricEvaluationManager manager;
+        private final int postId;
+
+        private SamplePost(MetricEvaluationManager manager, int postId) {
+            this.manager = manager;
+            this.postId = postId;
+        }
+    }
+}
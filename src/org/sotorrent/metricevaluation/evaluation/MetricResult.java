@@ -44,15 +44,15 @@ public class MetricResult {
         this.runtime = 0;
     }
 
-    SimilarityMetric getSimilarityMetric() {
+    public SimilarityMetric getSimilarityMetric() {
         return similarityMetric;
     }
 
-    int getPostCount() {
+    public int getPostCount() {
         return postCount;
     }
 
-    int getPostVersionCount() {
+    public int getPostVersionCount() {
         return postVersionCount;
     }
 
@@ -60,7 +60,7 @@ public class MetricResult {
         return postBlockVersionCount;
     }
 
-    int getPossibleComparisons() {
+    public int getPossibleComparisons() {
         return possibleComparisons;
     }
 
@@ -84,7 +84,7 @@ public class MetricResult {
         return failedPredecessorComparisons;
     }
 
-    long getRuntime() {
+    public long getRuntime() {
         return runtime;
     }
 
@@ -141,7 +141,7 @@ public class MetricResult {
         runtime += result.getRuntime();
     }
 
-    double getPrecision() {
+    public double getPrecision() {
         return ((double) truePositives) / ((double) truePositives + (double) falsePositives);
     }
 
@@ -150,7 +150,7 @@ public class MetricResult {
         return ((double) trueNegatives) / ((double) trueNegatives + (double) falseNegatives);
     }
 
-    double getRecall() {
+    public double getRecall() {
         return ((double) truePositives) / ((double) truePositives + (double) falseNegatives);
     }
 
@@ -159,21 +159,21 @@ public class MetricResult {
         return ((double) trueNegatives) / ((double) trueNegatives + (double) falsePositives);
     }
 
-    double getMarkedness() {
+    public double getMarkedness() {
         // see Powers11
         // see https://en.wikipedia.org/wiki/Evaluation_of_binary_classifiers
         return getPrecision() + getInversePrecision() - 1;
     }
 
 
-    double getInformedness() {
+    public double getInformedness() {
         // see Powers11
         // see https://en.wikipedia.org/wiki/Youden%27s_J_statistic
         // see https://en.wikipedia.org/wiki/Evaluation_of_binary_classifiers
         return getRecall() + getInverseRecall() - 1;
     }
 
-    double getMatthewsCorrelation() {
+    public double getMatthewsCorrelation() {
         // see Powers11, Matthews75
         // see https://en.wikipedia.org/wiki/Matthews_correlation_coefficient
         // see https://lettier.github.io/posts/2016-08-05-matthews-correlation-coefficient.html
@@ -200,14 +200,14 @@ public class MetricResult {
         return matthewsCorrelationCoefficient;
     }
 
-    double getFScore() {
+    public double getFScore() {
         // see https://en.wikipedia.org/wiki/F1_score
         double precision = getPrecision();
         double recall = getRecall();
         return 2 * (precision * recall) / (precision + recall);
     }
 
-    double getFailureRate() {
+    public double getFailureRate() {
         double failureRate = possibleComparisons == 0 ? 0.0 : ((double) failedPredecessorComparisons) / ((double) possibleComparisons);
 
         if (MathUtils.lessThan(failureRate, 0.0) || MathUtils.greaterThan(failureRate, 1.0)) {
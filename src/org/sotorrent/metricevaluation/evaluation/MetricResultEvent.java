@@ -0,0 +1,64 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+/**
+ * Results of a metric for one version, one post, or one sample, published while the evaluation is running (see
+ * MetricEvaluationManager.withResultPublisher()). For each metric and sample, the events of the versions of a post are
+ * followed by the event of the post, the event of the sample comes last. Timed out and skipped posts are not published,
+ * cancelled metrics have no sample event, the sample event of a timed out metric aggregates its complete posts.
+ */
+public class MetricResultEvent {
+    public enum Level {VERSION, POST, SAMPLE}
+
+    private final Level level;
+    private final String sampleName;
+    private final SimilarityMetric similarityMetric;
+    private final int postId; // -1 for samples
+    private final int postHistoryId; // -1 for posts and samples
+    private final MetricResult resultText;
+    private final MetricResult resultCode;
+
+    MetricResultEvent(Level level, String sampleName, SimilarityMetric similarityMetric, int postId, int postHistoryId,
+                      MetricResult resultText, MetricResult resultCode) {
+        this.level = level;
+        this.sampleName = sampleName;
+        this.similarityMetric = similarityMetric;
+        this.postId = postId;
+        this.postHistoryId = postHistoryId;
+        this.resultText = resultText;
+        this.resultCode = resultCode;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public String getSampleName() {
+        return sampleName;
+    }
+
+    public SimilarityMetric getSimilarityMetric() {
+        return similarityMetric;
+    }
+
+    public int getPostId() {
+        return postId;
+    }
+
+    public int getPostHistoryId() {
+        return postHistoryId;
+    }
+
+    public MetricResult getResultText() {
+        return resultText;
+    }
+
+    public MetricResult getResultCode() {
+        return resultCode;
+    }
+
+    @Override
+    public String toString() {
+        return level + " (" + sampleName + "; " + similarityMetric
+                + (postId < 0 ? "" : "; " + postId) + (postHistoryId < 0 ? "" : "; " + postHistoryId) + ")";
+    }
+}
@@ -0,0 +1,176 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+/**
+ * Compact storage for the per-version results of one similarity metric on one sample.
+ * The counters are kept in primitive arrays indexed by version (text and code blocks), the runtime is the same for
+ * text and code blocks and thus only stored once per version.
+ * Each MetricEvaluationPerPost owns a contiguous range of versions, MetricResult objects are only created on demand.
+ */
+class MetricResultStore {
+    static final int TEXT = 0;
+    static final int CODE = 1;
+
+    private final SimilarityMetric similarityMetric;
+    private final int versionCount;
+
+    // index: type * versionCount + version
+    private final int[] postBlockVersionCount;
+    private final int[] possibleComparisons;
+    private final int[] truePositives;
+    private final int[] falsePositives;
+    private final int[] trueNegatives;
+    private final int[] falseNegatives;
+    private final int[] failedPredecessorComparisons;
+
+    // index: version
+    private final long[] runtime;
+
+    MetricResultStore(SimilarityMetric similarityMetric, int versionCount) {
+        this.similarityMetric = similarityMetric;
+        this.versionCount = versionCount;
+        this.postBlockVersionCount = new int[2 * versionCount];
+        this.possibleComparisons = new int[2 * versionCount];
+        this.truePositives = new int[2 * versionCount];
+        this.falsePositives = new int[2 * versionCount];
+        this.trueNegatives = new int[2 * versionCount];
+        this.falseNegatives = new int[2 * versionCount];
+        this.failedPredecessorComparisons = new int[2 * versionCount];
+        this.runtime = new long[versionCount];
+    }
+
+    private int index(int type, int version) {
+        return type * versionCount + version;
+    }
+
+    void setCounters(int type, int version, int postBlockVersionCount, int possibleComparisons,
+                     int truePositives, int falsePositives, int trueNegatives, int falseNegatives,
+                     int failedPredecessorComparisons) {
+        int i = index(type, version);
+        this.postBlockVersionCount[i] = postBlockVersionCount;
+        this.possibleComparisons[i] = possibleComparisons;
+        this.truePositives[i] = truePositives;
+        this.falsePositives[i] = falsePositives;
+        this.trueNegatives[i] = trueNegatives;
+        this.falseNegatives[i] = falseNegatives;
+        this.failedPredecessorComparisons[i] = failedPredecessorComparisons;
+    }
+
+    boolean countersEqual(int type, int version, int postBlockVersionCount, int possibleComparisons,
+                          int truePositives, int falsePositives, int trueNegatives, int falseNegatives,
+                          int failedPredecessorComparisons) {
+        int i = index(type, version);
+        return this.postBlockVersionCount[i] == postBlockVersionCount
+                && this.possibleComparisons[i] == possibleComparisons
+                && this.truePositives[i] == truePositives
+                && this.falsePositives[i] == falsePositives
+                && this.trueNegatives[i] == trueNegatives
+                && this.falseNegatives[i] == falseNegatives
+                && this.failedPredecessorComparisons[i] == failedPredecessorComparisons;
+    }
+
+    int getVersionCount() {
+        return versionCount;
+    }
+
+    /**
+     * Counters of one version, in the order of the parameters of setCounters().
+     */
+    int[] getCounters(int type, int version) {
+        int i = index(type, version);
+        return new int[] {
+                postBlockVersionCount[i], possibleComparisons[i],
+                truePositives[i], falsePositives[i], trueNegatives[i], falseNegatives[i],
+                failedPredecessorComparisons[i]
+        };
+    }
+
+    void setCounters(int type, int version, int[] counters) {
+        setCounters(type, version, counters[0], counters[1], counters[2], counters[3], counters[4], counters[5], counters[6]);
+    }
+
+    int getPostBlockVersionCount(int type, int version) {
+        return postBlockVersionCount[index(type, version)];
+    }
+
+    int getPossibleComparisons(int type, int version) {
+        return possibleComparisons[index(type, version)];
+    }
+
+    long getRuntime(int version) {
+        return runtime[version];
+    }
+
+    void setRuntime(int version, long runtime) {
+        this.runtime[version] = runtime;
+    }
+
+    /**
+     * Adds the runtime of one repetition, the stored runtime is the arithmetic mean of all repetitions after the last one.
+     */
+    void addRuntime(int version, long runtime, int currentRepetition, int numberOfRepetitions) {
+        if (currentRepetition < numberOfRepetitions) {
+            // sum up runtime of all repetitions...
+            this.runtime[version] += runtime; // runtime in store is 0 in first repetition
+        } else {
+            // ... and calculate arithmetic mean of runtime in last repetition
+            this.runtime[version] = Math.round(((double) runtime + this.runtime[version]) / numberOfRepetitions);
+        }
+    }
+
+    /**
+     * Creates a MetricResult for one version.
+     */
+    MetricResult getResult(int type, int version) {
+        MetricResult result = new MetricResult(similarityMetric);
+        int i = index(type, version);
+        // post count and post version count are always one for non-aggregated results
+        result.setPostCount(1);
+        result.setPostVersionCount(1);
+        result.setPostBlockVersionCount(postBlockVersionCount[i]);
+        result.setPossibleComparisons(possibleComparisons[i]);
+        result.setTruePositives(truePositives[i]);
+        result.setFalsePositives(falsePositives[i]);
+        result.setTrueNegatives(trueNegatives[i]);
+        result.setFalseNegatives(falseNegatives[i]);
+        result.setFailedPredecessorComparisons(failedPredecessorComparisons[i]);
+        result.setRuntime(runtime[version]);
+        return result;
+    }
+
+    /**
+     * Creates a MetricResult with the sum of the given range of versions (same as adding their results).
+     */
+    MetricResult getResultSum(int type, int fromVersion, int toVersion) {
+        MetricResult result = new MetricResult(similarityMetric);
+        int postBlockVersionCountSum = 0;
+        int possibleComparisonsSum = 0;
+        int truePositivesSum = 0;
+        int falsePositivesSum = 0;
+        int trueNegativesSum = 0;
+        int falseNegativesSum = 0;
+        int failedPredecessorComparisonsSum = 0;
+        long runtimeSum = 0;
+        for (int version = fromVersion; version < toVersion; version++) {
+            int i = index(type, version);
+            postBlockVersionCountSum += postBlockVersionCount[i];
+            possibleComparisonsSum += possibleComparisons[i];
+            truePositivesSum += truePositives[i];
+            falsePositivesSum += falsePositives[i];
+            trueNegativesSum += trueNegatives[i];
+            falseNegativesSum += falseNegatives[i];
+            failedPredecessorComparisonsSum += failedPredecessorComparisons[i];
+            runtimeSum += runtime[version];
+        }
+        result.setPostCount(toVersion - fromVersion);
+        result.setPostVersionCount(toVersion - fromVersion);
+        result.setPostBlockVersionCount(postBlockVersionCountSum);
+        result.setPossibleComparisons(possibleComparisonsSum);
+        result.setTruePositives(truePositivesSum);
+        result.setFalsePositives(falsePositivesSum);
+        result.setTrueNegatives(trueNegativesSum);
+        result.setFalseNegatives(falseNegativesSum);
+        result.setFailedPredecessorComparisons(failedPredecessorComparisonsSum);
+        result.setRuntime(runtimeSum);
+        return result;
+    }
+}
@@ -0,0 +1,153 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.sotorrent.posthistoryextractor.gt.PostBlockConnection;
+import org.sotorrent.posthistoryextractor.gt.PostGroundTruth;
+import org.sotorrent.util.LogUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Ground truth connections of one post for one block type filter, packed into sorted long arrays per version.
+ * A connection is packed as (PostBlockTypeId, LocalId of predecessor, LocalId), which identifies it within a version.
+ * Predicted connections are packed the same way, so that the confusion matrix can be counted with a merge instead of
+ * set operations on PostBlockConnection objects.
+ */
+class PackedConnections {
+    private static Logger logger;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(PackedConnections.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static final int LOCAL_ID_BITS = 24;
+    private static final long LOCAL_ID_MASK = (1L << LOCAL_ID_BITS) - 1;
+
+    private final long[][] connections; // version index -> sorted packed connections
+    private final int[] possibleConnections; // version index -> possible connections
+    private final int[] possibleComparisons; // version index -> possible comparisons
+
+    private PackedConnections(int versionCount) {
+        this.connections = new long[versionCount][];
+        this.possibleConnections = new int[versionCount];
+        this.possibleComparisons = new int[versionCount];
+    }
+
+    PackedConnections(long[][] connections, int[] possibleConnections, int[] possibleComparisons) {
+        this.connections = connections;
+        this.possibleConnections = possibleConnections;
+        this.possibleComparisons = possibleComparisons;
+    }
+
+    static PackedConnections fromGroundTruth(PostGroundTruth postGroundTruth, List<Integer> postHistoryIds,
+                                             Set<Byte> postBlockTypeFilter) {
+        PackedConnections packedConnections = new PackedConnections(postHistoryIds.size());
+        for (int i = 0; i < postHistoryIds.size(); i++) {
+            int postHistoryId = postHistoryIds.get(i);
+            Set<PostBlockConnection> connectionsGT = postGroundTruth.getConnections(postHistoryId, postBlockTypeFilter);
+            long[] packed = new long[connectionsGT.size()];
+            pack(connectionsGT, packed);
+            packedConnections.connections[i] = packed;
+            packedConnections.possibleConnections[i] = postGroundTruth.getPossibleConnections(postHistoryId, postBlockTypeFilter);
+            packedConnections.possibleComparisons[i] = postGroundTruth.getPossibleComparisons(postHistoryId, postBlockTypeFilter);
+        }
+        return packedConnections;
+    }
+
+    static long pack(PostBlockConnection connection) {
+        long localIdLeft = connection.getLeft().getLocalId();
+        long localIdRight = connection.getRight().getLocalId();
+        if (localIdLeft < 0 || localIdLeft > LOCAL_ID_MASK || localIdRight < 0 || localIdRight > LOCAL_ID_MASK) {
+            throw new IllegalArgumentException("LocalId out of range for packed connection: " + localIdLeft + ", " + localIdRight);
+        }
+        return ((long) connection.getLeft().getPostBlockTypeId() << (2 * LOCAL_ID_BITS))
+                | (localIdLeft << LOCAL_ID_BITS)
+                | localIdRight;
+    }
+
+    /**
+     * Packs the given connections into the buffer (which must be large enough), sorts them, and returns their count.
+     * Distinct connections must have distinct keys, otherwise they would be counted only once.
+     */
+    static int pack(Set<PostBlockConnection> connections, long[] buffer) {
+        int count = 0;
+        for (PostBlockConnection connection : connections) {
+            buffer[count++] = pack(connection);
+        }
+        Arrays.sort(buffer, 0, count);
+
+        for (int i = 1; i < count; i++) {
+            if (buffer[i - 1] == buffer[i]) {
+                String msg = "Distinct connections have the same packed key: " + buffer[i];
+                logger.warning(msg);
+                throw new IllegalStateException(msg);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Counts true positives, false positives, true negatives, and false negatives (in this order) of the given sorted
+     * predicted connections of a version. True positives are counted with a merge of the sorted connections.
+     */
+    int[] countConfusionMatrix(int versionIndex, long[] predictedConnections, int predictedCount) {
+        long[] connectionsGT = connections[versionIndex];
+        int truePositivesCount = 0;
+        int i = 0;
+        int j = 0;
+        while (i < predictedCount && j < connectionsGT.length) {
+            if (predictedConnections[i] < connectionsGT[j]) {
+                i++;
+            } else if (predictedConnections[i] > connectionsGT[j]) {
+                j++;
+            } else {
+                truePositivesCount++;
+                i++;
+                j++;
+            }
+        }
+
+        // FP and FN are non-negative by construction, the invariants are that neither the ground truth nor the
+        // prediction contains more connections than possible, and that their union does not exceed the possible ones
+        int possibleConnectionsGT = possibleConnections[versionIndex];
+        if (connectionsGT.length > possibleConnectionsGT || predictedCount > possibleConnectionsGT) {
+            String msg = "Invalid connections (possible: " + possibleConnectionsGT + "; ground truth: "
+                    + connectionsGT.length + "; predicted: " + predictedCount + ")";
+            logger.warning(msg);
+            throw new IllegalStateException(msg);
+        }
+
+        int falsePositivesCount = predictedCount - truePositivesCount;
+        int falseNegativesCount = connectionsGT.length - truePositivesCount;
+        // connections that are neither predicted nor in the ground truth
+        int trueNegativesCount = possibleConnectionsGT - (truePositivesCount + falsePositivesCount + falseNegativesCount);
+        if (trueNegativesCount < 0) {
+            String msg = "Invalid result (TP: " + truePositivesCount + "; FP: " + falsePositivesCount
+                    + "; TN: " + trueNegativesCount + "; FN: " + falseNegativesCount + ")";
+            logger.warning(msg);
+            throw new IllegalStateException(msg);
+        }
+
+        return new int[]{truePositivesCount, falsePositivesCount, trueNegativesCount, falseNegativesCount};
+    }
+
+    int getConnectionCount(int versionIndex) {
+        return connections[versionIndex].length;
+    }
+
+    int getPossibleConnections(int versionIndex) {
+        return possibleConnections[versionIndex];
+    }
+
+    int getPossibleComparisons(int versionIndex) {
+        return possibleComparisons[versionIndex];
+    }
+}
@@ -0,0 +1,37 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.sotorrent.posthistoryextractor.blocks.CodeBlockVersion;
+import org.sotorrent.posthistoryextractor.blocks.TextBlockVersion;
+import org.sotorrent.posthistoryextractor.gt.PostGroundTruth;
+
+import java.util.List;
+
+/**
+ * Packed ground truth connections of one post (text and code), computed once per PostGroundTruth and shared by the
+ * evaluations of all metrics. Versions are addressed by their index in the list of PostHistoryIds.
+ */
+class PackedGroundTruth {
+    private final List<Integer> postHistoryIds;
+    private final PackedConnections connectionsText;
+    private final PackedConnections connectionsCode;
+
+    PackedGroundTruth(PostGroundTruth postGroundTruth) {
+        this.postHistoryIds = postGroundTruth.getPostHistoryIds();
+        this.connectionsText = PackedConnections.fromGroundTruth(
+                postGroundTruth, postHistoryIds, TextBlockVersion.getPostBlockTypeIdFilter());
+        this.connectionsCode = PackedConnections.fromGroundTruth(
+                postGroundTruth, postHistoryIds, CodeBlockVersion.getPostBlockTypeIdFilter());
+    }
+
+    List<Integer> getPostHistoryIds() {
+        return postHistoryIds;
+    }
+
+    PackedConnections getConnectionsText() {
+        return connectionsText;
+    }
+
+    PackedConnections getConnectionsCode() {
+        return connectionsCode;
+    }
+}
@@ -0,0 +1,164 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Pareto fronts of accuracy (Matthews correlation and F-score) versus runtime for text and code blocks of one sample,
+ * maintained by its manager while the evaluation runs (runtimes are only comparable within one sample). A point is
+ * added when all repetitions of a metric are finished (see MetricEvaluationManager.run()), and the shared output file
+ * is rewritten whenever a front changes (see ParetoFrontFile).
+ * If configured, the front is considered stable once a number of consecutive metrics did not change it.
+ */
+class ParetoFront {
+    private enum BlockType {TEXT, CODE}
+
+    private static final ThresholdSearch.Objective[] objectives = {
+            ThresholdSearch.Objective.MATTHEWS_CORRELATION, ThresholdSearch.Objective.F_SCORE
+    };
+
+    private final ParetoFrontFile file;
+    private final String sampleName;
+    private final int stableEvaluations; // 0 -> never stable
+    private final List<List<Point>> fronts; // front per (block type, objective)
+    private int unchangedEvaluations; // metrics without change
+
+    ParetoFront(ParetoFrontFile file, String sampleName, int stableEvaluations) {
+        this.file = file;
+        this.sampleName = sampleName;
+        this.stableEvaluations = stableEvaluations;
+        this.fronts = new ArrayList<>();
+        for (int i = 0; i < BlockType.values().length * objectives.length; i++) {
+            fronts.add(new ArrayList<>());
+        }
+        this.unchangedEvaluations = 0;
+    }
+
+    boolean isStopEnabled() {
+        return stableEvaluations > 0;
+    }
+
+    int getStableEvaluations() {
+        return stableEvaluations;
+    }
+
+    /**
+     * Adds the finished evaluation of a metric on the sample.
+     */
+    void add(MetricEvaluationPerSample evaluationPerSample) {
+        add(evaluationPerSample.getSimilarityMetric(), evaluationPerSample.getResultAggregatedBySampleText(),
+                evaluationPerSample.getResultAggregatedBySampleCode());
+    }
+
+    /**
+     * Adds the results of a metric, returns true if a front changed.
+     */
+    boolean add(SimilarityMetric similarityMetric, MetricResult resultText, MetricResult resultCode) {
+        // the output file contains the fronts of all samples
+        synchronized (file) {
+            boolean changed = false;
+            for (BlockType blockType : BlockType.values()) {
+                MetricResult result = blockType == BlockType.TEXT ? resultText : resultCode;
+                for (int i = 0; i < objectives.length; i++) {
+                    Point point = new Point(similarityMetric, ThresholdSearch.getObjective(objectives[i], result),
+                            result.getRuntime());
+                    changed |= add(fronts.get(blockType.ordinal() * objectives.length + i), point);
+                }
+            }
+
+            if (changed) {
+                unchangedEvaluations = 0;
+                file.writeToCSV();
+            } else {
+                unchangedEvaluations++;
+            }
+            return changed;
+        }
+    }
+
+    /*
+     * Adds the point if it is not dominated and removes the points it dominates, returns true if the front changed.
+     */
+    private static boolean add(List<Point> front, Point point) {
+        if (point.value == Double.NEGATIVE_INFINITY) {
+            // undefined objective
+            return false;
+        }
+        for (Point currentPoint : front) {
+            if (currentPoint.value >= point.value && currentPoint.runtime <= point.runtime) {
+                return false;
+            }
+        }
+        front.removeIf(currentPoint -> point.value >= currentPoint.value && point.runtime <= currentPoint.runtime);
+        front.add(point);
+        front.sort(Comparator.comparingLong(currentPoint -> currentPoint.runtime));
+        return true;
+    }
+
+    /**
+     * True if the stop criterion is enabled and the last stableEvaluations metrics did not change the fronts.
+     */
+    boolean isStable() {
+        synchronized (file) {
+            return isStopEnabled() && unchangedEvaluations >= stableEvaluations;
+        }
+    }
+
+    void writeToCSV(CSVPrinter csvPrinter) throws IOException {
+        for (BlockType blockType : BlockType.values()) {
+            for (int i = 0; i < objectives.length; i++) {
+                for (Point point : fronts.get(blockType.ordinal() * objectives.length + i)) {
+                    point.writeToCSV(csvPrinter, sampleName, blockType, objectives[i]);
+                }
+            }
+        }
+    }
+
+    private static class Point {
+        private final SimilarityMetric similarityMetric;
+        private final double value;
+        private final long runtime;
+
+        private Point(SimilarityMetric similarityMetric, double value, long runtime) {
+            this.similarityMetric = similarityMetric;
+            this.value = value;
+            this.runtime = runtime;
+        }
+
+        private void writeToCSV(CSVPrinter csvPrinter, String sampleName, BlockType blockType,
+                                ThresholdSearch.Objective objective) throws IOException {
+            // "Sample", "BlockType", "Objective",
+            // "MetricTypeText", "MetricText", "ThresholdText",
+            // "MetricTypeTextBackup", "MetricTextBackup", "ThresholdTextBackup",
+            // "MetricTypeCode", "MetricCode", "ThresholdCode",
+            // "MetricTypeCodeBackup", "MetricCodeBackup", "ThresholdCodeBackup",
+            // "Value", "Runtime"
+            csvPrinter.printRecord(
+                    sampleName,
+                    blockType,
+                    objective,
+
+                    similarityMetric.getTypeText(),
+                    similarityMetric.getNameText(),
+                    similarityMetric.getConfig().getTextSimilarityThreshold(),
+
+                    similarityMetric.getBackupTypeText(),
+                    similarityMetric.getBackupNameText(),
+                    similarityMetric.getConfig().getTextBackupSimilarityThreshold(),
+
+                    similarityMetric.getTypeCode(),
+                    similarityMetric.getNameCode(),
+                    similarityMetric.getConfig().getCodeSimilarityThreshold(),
+
+                    similarityMetric.getBackupTypeCode(),
+                    similarityMetric.getBackupNameCode(),
+                    similarityMetric.getConfig().getCodeBackupSimilarityThreshold(),
+
+                    value,
+                    runtime
+            );
+        }
+    }
+}
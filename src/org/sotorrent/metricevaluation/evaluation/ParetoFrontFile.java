@@ -0,0 +1,87 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.QuoteMode;
+import org.sotorrent.util.LogUtils;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Output file of the Pareto fronts of all samples (see ParetoFront), shared by the managers of one run (see
+ * MetricEvaluationManager.withParetoFront()). stableEvaluations > 0 enables the stop criterion of the fronts.
+ */
+public class ParetoFrontFile {
+    private static Logger logger;
+    private static final CSVFormat csvFormatParetoFront;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(ParetoFrontFile.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // configure CSV format for Pareto fronts (per sample, block type, objective, and metric)
+        csvFormatParetoFront = CSVFormat.DEFAULT
+                .withHeader("Sample", "BlockType", "Objective", "MetricTypeText", "MetricText", "ThresholdText", "MetricTypeTextBackup", "MetricTextBackup", "ThresholdTextBackup", "MetricTypeCode", "MetricCode", "ThresholdCode", "MetricTypeCodeBackup", "MetricCodeBackup", "ThresholdCodeBackup", "Value", "Runtime")
+                .withDelimiter(';')
+                .withQuote('"')
+                .withQuoteMode(QuoteMode.MINIMAL)
+                .withEscape('\\')
+                .withNullString("null");
+    }
+
+    private final Path outputFile;
+    private final int stableEvaluations;
+    private final Map<String, ParetoFront> fronts; // sample -> fronts
+
+    public ParetoFrontFile(Path outputFile, int stableEvaluations) {
+        if (stableEvaluations < 0) {
+            String msg = "Number of metrics for a stable Pareto front must not be negative, but was " + stableEvaluations;
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        this.outputFile = outputFile;
+        this.stableEvaluations = stableEvaluations;
+        this.fronts = new TreeMap<>();
+    }
+
+    /**
+     * Returns the fronts of the given sample, created on first use.
+     */
+    synchronized ParetoFront getFront(String sampleName) {
+        return fronts.computeIfAbsent(sampleName, name -> new ParetoFront(this, name, stableEvaluations));
+    }
+
+    /*
+     * Called by the fronts (synchronized on this file) whenever a front changed.
+     */
+    synchronized void writeToCSV() {
+        // write to temporary file first, the output file is always complete
+        Path temporaryFile = Paths.get(outputFile.toString() + ".tmp");
+        try (CSVPrinter csvPrinter = new CSVPrinter(new FileWriter(temporaryFile.toFile()), csvFormatParetoFront)) {
+            for (ParetoFront front : fronts.values()) {
+                front.writeToCSV(csvPrinter);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        try {
+            Files.move(temporaryFile, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
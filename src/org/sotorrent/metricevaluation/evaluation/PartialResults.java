@@ -0,0 +1,268 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.csv.QuoteMode;
+import org.sotorrent.util.LogUtils;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Exactly mergeable results of the evaluation of some metrics on a sample: the counters and runtime of each version,
+ * from which all output files can be written as if the metrics had been evaluated in the same process.
+ * The metrics are identified by their index in the list of metrics of the sample (and checked by their name).
+ * Checkpoints use the same columns, prefixed by the repetition after which the results were written (the runtime is the
+ * sum of the completed repetitions before the last one, see MetricResultStore.addRuntime()).
+ */
+class PartialResults {
+    private static Logger logger;
+    static final CSVFormat csvFormatPartialResults;
+    static final CSVFormat csvFormatCheckpoint;
+
+    static final String[] COUNTER_NAMES = {"BlockCount", "PossibleComparisons", "TruePositives",
+            "FalsePositives", "TrueNegatives", "FalseNegatives", "FailedPredecessorComparisons"};
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(PartialResults.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // configure CSV format for partial results (per metric and version)
+        List<String> header = new ArrayList<>(Arrays.asList("MetricIndex", "MetricCount", "Metric", "PostId", "PostHistoryId", "Runtime"));
+        for (String counterName : COUNTER_NAMES) {
+            header.add(counterName + "Text");
+        }
+        for (String counterName : COUNTER_NAMES) {
+            header.add(counterName + "Code");
+        }
+        csvFormatPartialResults = CSVFormat.DEFAULT
+                .withHeader(header.toArray(new String[0]))
+                .withDelimiter(';')
+                .withQuote('"')
+                .withQuoteMode(QuoteMode.MINIMAL)
+                .withEscape('\\')
+                .withNullString("null");
+
+        // configure CSV format for checkpoints (per metric, repetition, and version)
+        header.addAll(0, Arrays.asList("Repetition", "RepetitionCount"));
+        csvFormatCheckpoint = csvFormatPartialResults.withHeader(header.toArray(new String[0]));
+    }
+
+    private PartialResults() {}
+
+    /**
+     * Writes the results per version of the given evaluation (posts in the order of postIds).
+     */
+    static void writeToCSV(CSVPrinter csvPrinter, MetricEvaluationPerSample evaluationPerSample, int metricCount) throws IOException {
+        writeToCSV(csvPrinter, evaluationPerSample, metricCount, 0, 0);
+    }
+
+    /**
+     * Writes the results per version of the given evaluation after the given repetition (see csvFormatCheckpoint).
+     */
+    static void writeCheckpointToCSV(CSVPrinter csvPrinter, MetricEvaluationPerSample evaluationPerSample, int metricCount,
+                                     int repetition, int numberOfRepetitions) throws IOException {
+        writeToCSV(csvPrinter, evaluationPerSample, metricCount, repetition, numberOfRepetitions);
+    }
+
+    private static void writeToCSV(CSVPrinter csvPrinter, MetricEvaluationPerSample evaluationPerSample, int metricCount,
+                                   int repetition, int numberOfRepetitions) throws IOException {
+        MetricResultStore results = evaluationPerSample.getResults();
+        List<Object> record = new ArrayList<>(8 + 2 * COUNTER_NAMES.length);
+        for (int postIndex = 0; postIndex < evaluationPerSample.size(); postIndex++) {
+            MetricEvaluationPerPost evaluationPerPost = evaluationPerSample.getByPostIndex(postIndex);
+            List<Integer> postHistoryIds = evaluationPerPost.getPostHistoryIds();
+            for (int i = 0; i < postHistoryIds.size(); i++) {
+                int version = evaluationPerPost.getResultOffset() + i;
+                record.clear();
+                if (numberOfRepetitions > 0) {
+                    record.add(repetition);
+                    record.add(numberOfRepetitions);
+                }
+                record.add(evaluationPerSample.getMetricIndex());
+                record.add(metricCount);
+                record.add(evaluationPerSample.getSimilarityMetric().toString());
+                record.add(evaluationPerPost.getPostId());
+                record.add(postHistoryIds.get(i));
+                addResults(record, results, version);
+                csvPrinter.printRecord(record);
+            }
+        }
+    }
+
+    /**
+     * Reads partial results into the evaluations with the matching metric index and returns the number of versions
+     * read per metric index. Rows of metrics that are not part of evaluationsByMetricIndex are ignored.
+     */
+    static Map<Integer, Integer> readFromCSV(Path file, Map<Integer, MetricEvaluationPerSample> evaluationsByMetricIndex,
+                                             int metricCount) {
+        return readFromCSV(file, csvFormatPartialResults, evaluationsByMetricIndex, null, metricCount);
+    }
+
+    /**
+     * Reads the results of a checkpoint after the given repetition per metric index into the evaluations with the
+     * matching metric index, see readFromCSV().
+     */
+    static Map<Integer, Integer> readCheckpointFromCSV(Path file, Map<Integer, MetricEvaluationPerSample> evaluationsByMetricIndex,
+                                                       Map<Integer, Integer> repetitionsByMetricIndex, int metricCount) {
+        return readFromCSV(file, csvFormatCheckpoint, evaluationsByMetricIndex, repetitionsByMetricIndex, metricCount);
+    }
+
+    private static Map<Integer, Integer> readFromCSV(Path file, CSVFormat csvFormat,
+                                                     Map<Integer, MetricEvaluationPerSample> evaluationsByMetricIndex,
+                                                     Map<Integer, Integer> repetitionsByMetricIndex, int metricCount) {
+        Map<Integer, Integer> versionsRead = new HashMap<>();
+        Map<Integer, MetricEvaluationPerPost> evaluationsPerPost = new HashMap<>(); // only valid for current metric
+        int currentMetricIndex = -1;
+
+        try (CSVParser csvParser = new CSVParser(new FileReader(file.toFile()), csvFormat.withFirstRecordAsHeader())) {
+            for (CSVRecord record : csvParser) {
+                if (repetitionsByMetricIndex != null && !record.isConsistent()) {
+                    // incompletely written last record of a checkpoint (see readCheckpointVersionCounts())
+                    continue;
+                }
+                int metricIndex = Integer.parseInt(record.get("MetricIndex"));
+                MetricEvaluationPerSample evaluationPerSample = evaluationsByMetricIndex.get(metricIndex);
+                if (evaluationPerSample == null) {
+                    continue;
+                }
+                if (repetitionsByMetricIndex != null
+                        && Integer.parseInt(record.get("Repetition")) != repetitionsByMetricIndex.get(metricIndex)) {
+                    continue;
+                }
+                if (Integer.parseInt(record.get("MetricCount")) != metricCount) {
+                    String msg = "Partial results in " + file + " were computed for " + record.get("MetricCount")
+                            + " metrics, but " + metricCount + " metrics are configured.";
+                    logger.warning(msg);
+                    throw new IllegalArgumentException(msg);
+                }
+                if (!evaluationPerSample.getSimilarityMetric().toString().equals(record.get("Metric"))) {
+                    String msg = "Metric " + record.get("Metric") + " in " + file + " does not match configured metric "
+                            + evaluationPerSample.getSimilarityMetric() + " with index " + metricIndex + ".";
+                    logger.warning(msg);
+                    throw new IllegalArgumentException(msg);
+                }
+
+                if (metricIndex != currentMetricIndex) {
+                    currentMetricIndex = metricIndex;
+                    evaluationsPerPost.clear();
+                    for (int postIndex = 0; postIndex < evaluationPerSample.size(); postIndex++) {
+                        MetricEvaluationPerPost evaluationPerPost = evaluationPerSample.getByPostIndex(postIndex);
+                        evaluationsPerPost.put(evaluationPerPost.getPostId(), evaluationPerPost);
+                    }
+                }
+
+                int postId = Integer.parseInt(record.get("PostId"));
+                int postHistoryId = Integer.parseInt(record.get("PostHistoryId"));
+                MetricEvaluationPerPost evaluationPerPost = evaluationsPerPost.get(postId);
+                int versionIndex = evaluationPerPost == null ? -1 : evaluationPerPost.getPostHistoryIds().indexOf(postHistoryId);
+                if (versionIndex < 0) {
+                    String msg = "PostId " + postId + " / PostHistoryId " + postHistoryId + " in " + file
+                            + " is not part of the sample.";
+                    logger.warning(msg);
+                    throw new IllegalArgumentException(msg);
+                }
+
+                int version = evaluationPerPost.getResultOffset() + versionIndex;
+                readResults(record, evaluationPerSample.getResults(), version);
+                versionsRead.merge(metricIndex, 1, Integer::sum);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        for (int metricIndex : versionsRead.keySet()) {
+            evaluationsByMetricIndex.get(metricIndex).resetAggregatedResults();
+        }
+        return versionsRead;
+    }
+
+    /**
+     * Returns the number of versions per metric index and repetition of a checkpoint, ignoring an incompletely written
+     * last record (e.g., of a checkpoint written by a process that crashed). Throws an IllegalArgumentException if the
+     * checkpoint was written for another number of repetitions (the runtimes could not be continued).
+     */
+    static Map<Integer, Map<Integer, Integer>> readCheckpointVersionCounts(Path file, int numberOfRepetitions) {
+        Map<Integer, Map<Integer, Integer>> versionCounts = new HashMap<>();
+
+        try {
+            // a complete record ends with the record separator
+            boolean lastRecordComplete;
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "r")) {
+                long length = randomAccessFile.length();
+                if (length > 0) {
+                    randomAccessFile.seek(length - 1);
+                }
+                lastRecordComplete = length == 0 || randomAccessFile.read() == '\n';
+            }
+
+            try (CSVParser csvParser = new CSVParser(new FileReader(file.toFile()), csvFormatCheckpoint.withFirstRecordAsHeader())) {
+                Map<Integer, Integer> lastCounts = null;
+                int lastRepetition = 0;
+                for (CSVRecord record : csvParser) {
+                    lastCounts = null;
+                    if (!record.isConsistent()) {
+                        continue;
+                    }
+                    if (Integer.parseInt(record.get("RepetitionCount")) != numberOfRepetitions) {
+                        String msg = "Checkpoint " + file + " was written for " + record.get("RepetitionCount")
+                                + " repetitions, but " + numberOfRepetitions + " repetitions are configured.";
+                        logger.warning(msg);
+                        throw new IllegalArgumentException(msg);
+                    }
+                    int metricIndex = Integer.parseInt(record.get("MetricIndex"));
+                    lastRepetition = Integer.parseInt(record.get("Repetition"));
+                    lastCounts = versionCounts.computeIfAbsent(metricIndex, index -> new HashMap<>());
+                    lastCounts.merge(lastRepetition, 1, Integer::sum);
+                }
+                if (!lastRecordComplete && lastCounts != null) {
+                    lastCounts.merge(lastRepetition, -1, Integer::sum);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return versionCounts;
+    }
+
+    /**
+     * Adds the runtime and the counters (text, then code) of a version to the record (see header).
+     */
+    static void addResults(List<Object> record, MetricResultStore results, int version) {
+        record.add(results.getRuntime(version));
+        for (int counter : results.getCounters(MetricResultStore.TEXT, version)) {
+            record.add(counter);
+        }
+        for (int counter : results.getCounters(MetricResultStore.CODE, version)) {
+            record.add(counter);
+        }
+    }
+
+    /**
+     * Reads the runtime and the counters of a version written by addResults().
+     */
+    static void readResults(CSVRecord record, MetricResultStore results, int version) {
+        results.setRuntime(version, Long.parseLong(record.get("Runtime")));
+        results.setCounters(MetricResultStore.TEXT, version, readCounters(record, "Text"));
+        results.setCounters(MetricResultStore.CODE, version, readCounters(record, "Code"));
+    }
+
+    private static int[] readCounters(CSVRecord record, String suffix) {
+        int[] counters = new int[COUNTER_NAMES.length];
+        for (int i = 0; i < COUNTER_NAMES.length; i++) {
+            counters[i] = Integer.parseInt(record.get(COUNTER_NAMES[i] + suffix));
+        }
+        return counters;
+    }
+}
@@ -0,0 +1,76 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for processing and evaluating the version history of one post with one similarity metric
+ * (see MetricEvaluationPerPost.evaluatePostBlockVersions()).
+ */
+@Name("org.sotorrent.metricevaluation.PostEvaluation")
+@Label("Post Evaluation")
+@Description("Processing and evaluation of the version history of one post with one similarity metric")
+@Category({"SOTorrent", "Metric Evaluation"})
+class PostEvaluationEvent extends Event {
+    @Label("Metric")
+    String metric;
+
+    @Label("Text Metric")
+    String metricText;
+
+    @Label("Text Threshold")
+    double thresholdText;
+
+    @Label("Text Backup Metric")
+    String metricTextBackup;
+
+    @Label("Text Backup Threshold")
+    double thresholdTextBackup;
+
+    @Label("Code Metric")
+    String metricCode;
+
+    @Label("Code Threshold")
+    double thresholdCode;
+
+    @Label("Code Backup Metric")
+    String metricCodeBackup;
+
+    @Label("Code Backup Threshold")
+    double thresholdCodeBackup;
+
+    @Label("PostId")
+    int postId;
+
+    @Label("Repetition")
+    int repetition;
+
+    @Label("Version Count")
+    int versionCount;
+
+    @Label("Text Block Version Count")
+    int textBlockVersionCount;
+
+    @Label("Code Block Version Count")
+    int codeBlockVersionCount;
+
+    @Label("Process Version History Runtime")
+    @Timespan(Timespan.NANOSECONDS)
+    long runtime;
+
+    void setSimilarityMetric(SimilarityMetric similarityMetric) {
+        metric = similarityMetric.toString();
+        metricText = similarityMetric.getNameText();
+        thresholdText = similarityMetric.getConfig().getTextSimilarityThreshold();
+        metricTextBackup = similarityMetric.getBackupNameText();
+        thresholdTextBackup = similarityMetric.getConfig().getTextBackupSimilarityThreshold();
+        metricCode = similarityMetric.getNameCode();
+        thresholdCode = similarityMetric.getConfig().getCodeSimilarityThreshold();
+        metricCodeBackup = similarityMetric.getBackupNameCode();
+        thresholdCodeBackup = similarityMetric.getConfig().getCodeBackupSimilarityThreshold();
+    }
+}
@@ -0,0 +1,312 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.sotorrent.util.LogUtils;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Binary store of the connections predicted by the metrics evaluated on one sample, written when all repetitions of a
+ * metric are completed. For each version, the store contains the runtime, the block counts, the possible and failed
+ * predecessor comparisons, and the sorted packed connections (see PackedConnections) of text and code blocks, which is
+ * all that is needed to compute the results against a revised ground truth (see MetricEvaluationManager.rescore()).
+ * Connections are delta-encoded as variable-length integers. Each metric is one record, a record that was not
+ * completely written (e.g., by a crashed process) is ignored. Other files or corrupt records cause an IOException.
+ */
+class PredictedConnectionStore {
+    private static final int MAGIC = 0x50434f4e; // "PCON"
+    private static final int VERSION = 1;
+    private static final int RECORD_END = 0x454e4452; // "ENDR"
+
+    private static Logger logger;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(PredictedConnectionStore.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private final DataOutputStream output;
+
+    /**
+     * Opens the store for writing, append keeps the complete records of an existing store (e.g., when resuming).
+     * Throws an IOException if the existing store is corrupt.
+     */
+    PredictedConnectionStore(Path file, boolean append) throws IOException {
+        long completeLength = append && Files.exists(file) ? getCompleteLength(file) : 0;
+        if (completeLength > 0) {
+            // drop an incompletely written last record
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(completeLength);
+            }
+            this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile(), true)));
+        } else {
+            this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile(), false)));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.flush();
+        }
+    }
+
+    /**
+     * Writes the recorded connections and results of a completed metric and releases the recorded connections.
+     */
+    synchronized void write(MetricEvaluationPerSample evaluationPerSample) throws IOException {
+        MetricResultStore results = evaluationPerSample.getResults();
+        output.writeInt(evaluationPerSample.getMetricIndex());
+        output.writeUTF(ResultsCache.getMetricFingerprint(evaluationPerSample.getSimilarityMetric()));
+        output.writeUTF(evaluationPerSample.getSimilarityMetric().toString());
+        output.writeInt(evaluationPerSample.size());
+
+        for (int postIndex = 0; postIndex < evaluationPerSample.size(); postIndex++) {
+            MetricEvaluationPerPost evaluationPerPost = evaluationPerSample.getByPostIndex(postIndex);
+            List<Integer> postHistoryIds = evaluationPerPost.getPostHistoryIds();
+            output.writeInt(evaluationPerPost.getPostId());
+            output.writeInt(postHistoryIds.size());
+
+            for (int i = 0; i < postHistoryIds.size(); i++) {
+                int version = evaluationPerPost.getResultOffset() + i;
+                output.writeInt(postHistoryIds.get(i));
+                output.writeLong(results.getRuntime(version));
+
+                for (int type : new int[]{MetricResultStore.TEXT, MetricResultStore.CODE}) {
+                    // same order as MetricResultStore.setCounters()
+                    int[] counters = results.getCounters(type, version);
+                    output.writeInt(counters[0]); // post block version count
+                    output.writeInt(counters[1]); // possible comparisons
+                    output.writeInt(counters[6]); // failed predecessor comparisons
+
+                    long[] connections = evaluationPerPost.getRecordedConnections(type, i);
+                    if (connections == null) {
+                        String msg = "Predicted connections of post " + evaluationPerPost.getPostId()
+                                + " have not been recorded for metric " + evaluationPerSample.getSimilarityMetric() + ".";
+                        logger.warning(msg);
+                        throw new IllegalStateException(msg);
+                    }
+                    writeVarLong(connections.length);
+                    long previous = 0;
+                    for (long connection : connections) {
+                        writeVarLong(connection - previous);
+                        previous = connection;
+                    }
+                }
+            }
+            evaluationPerPost.clearRecordedConnections();
+        }
+
+        output.writeInt(RECORD_END);
+        output.flush();
+    }
+
+    synchronized void close() throws IOException {
+        output.close();
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        // values are never negative (counts and deltas of sorted connections)
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length integer.");
+    }
+
+    /**
+     * Computes the results of the evaluations whose metrics are contained in the store (matched by their fingerprint,
+     * see ResultsCache) against the current ground truth and returns these evaluations.
+     */
+    static Set<MetricEvaluationPerSample> rescore(Path file, Map<String, MetricEvaluationPerSample> evaluationsByFingerprint)
+            throws IOException {
+        Set<MetricEvaluationPerSample> rescoredEvaluations = new HashSet<>();
+        readRecords(file, evaluationsByFingerprint, rescoredEvaluations);
+        return rescoredEvaluations;
+    }
+
+    /*
+     * Length of the header and all complete records.
+     */
+    private static long getCompleteLength(Path file) throws IOException {
+        if (Files.size(file) < 2 * Integer.BYTES) {
+            // header not completely written
+            return 0;
+        }
+        return readRecords(file, Collections.emptyMap(), new HashSet<>());
+    }
+
+    /*
+     * Reads all records (re-scoring the evaluations with matching fingerprints) and returns the length of the header
+     * and all complete records.
+     */
+    private static long readRecords(Path file, Map<String, MetricEvaluationPerSample> evaluationsByFingerprint,
+                                    Set<MetricEvaluationPerSample> rescoredEvaluations) throws IOException {
+        // PostId -> index of post (the same for all evaluations of a sample)
+        Map<Integer, Integer> postIndices = new HashMap<>();
+        if (!evaluationsByFingerprint.isEmpty()) {
+            MetricEvaluationPerSample firstEvaluation = evaluationsByFingerprint.values().iterator().next();
+            for (int postIndex = 0; postIndex < firstEvaluation.size(); postIndex++) {
+                postIndices.put(firstEvaluation.getByPostIndex(postIndex).getPostId(), postIndex);
+            }
+        }
+
+        long completeLength = 0;
+        try (CountingInputStream countingInput = new CountingInputStream(new BufferedInputStream(new FileInputStream(file.toFile())));
+             DataInputStream input = new DataInputStream(countingInput)) {
+            try {
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                    String msg = "File " + file + " is not a predicted connection store (version " + VERSION + ").";
+                    logger.warning(msg);
+                    throw new IOException(msg);
+                }
+            } catch (EOFException e) {
+                String msg = "File " + file + " is too short for a predicted connection store.";
+                logger.warning(msg);
+                throw new IOException(msg, e);
+            }
+            completeLength = countingInput.count;
+
+            while (true) {
+                int firstByte = input.read();
+                if (firstByte == -1) {
+                    break; // end of store
+                }
+                int metricIndex = (firstByte << 24) | (input.readUnsignedByte() << 16)
+                        | (input.readUnsignedByte() << 8) | input.readUnsignedByte();
+                String fingerprint = input.readUTF();
+                String metric = input.readUTF();
+                MetricEvaluationPerSample evaluationPerSample = evaluationsByFingerprint.get(fingerprint);
+                readRecord(input, evaluationPerSample, postIndices, file);
+                if (input.readInt() != RECORD_END) {
+                    String msg = "Record of metric " + metric + " (index " + metricIndex + ") in " + file + " is corrupt.";
+                    logger.warning(msg);
+                    throw new IOException(msg);
+                }
+                if (evaluationPerSample != null) {
+                    rescoredEvaluations.add(evaluationPerSample);
+                }
+                completeLength = countingInput.count;
+            }
+        } catch (EOFException e) {
+            logger.warning("Predicted connection store " + file + " ends with an incomplete record, which is ignored.");
+        }
+        return completeLength;
+    }
+
+    /*
+     * Reads the posts of one record, evaluationPerSample is null if the record is only skipped.
+     */
+    private static void readRecord(DataInputStream input, MetricEvaluationPerSample evaluationPerSample,
+                                   Map<Integer, Integer> postIndices, Path file) throws IOException {
+        int postCount = input.readInt();
+        if (evaluationPerSample != null && postCount != evaluationPerSample.size()) {
+            String msg = "Predicted connections in " + file + " were stored for " + postCount + " posts, but the sample has "
+                    + evaluationPerSample.size() + " posts.";
+            logger.warning(msg);
+            throw new IllegalStateException(msg);
+        }
+
+        for (int post = 0; post < postCount; post++) {
+            int postId = input.readInt();
+            int versionCount = input.readInt();
+            MetricEvaluationPerPost evaluationPerPost = null;
+            if (evaluationPerSample != null) {
+                Integer postIndex = postIndices.get(postId);
+                evaluationPerPost = postIndex == null ? null : evaluationPerSample.getByPostIndex(postIndex);
+                if (evaluationPerPost == null || evaluationPerPost.getPostHistoryIds().size() != versionCount) {
+                    String msg = "Post " + postId + " in " + file + " is not part of the sample or has a different number of versions.";
+                    logger.warning(msg);
+                    throw new IllegalStateException(msg);
+                }
+            }
+
+            for (int i = 0; i < versionCount; i++) {
+                int postHistoryId = input.readInt();
+                long runtime = input.readLong();
+                if (evaluationPerPost != null) {
+                    if (evaluationPerPost.getPostHistoryIds().get(i) != postHistoryId) {
+                        String msg = "PostHistoryId " + postHistoryId + " of post " + postId + " in " + file
+                                + " does not match the sample.";
+                        logger.warning(msg);
+                        throw new IllegalStateException(msg);
+                    }
+                    evaluationPerSample.getResults().setRuntime(evaluationPerPost.getResultOffset() + i, runtime);
+                }
+
+                for (int type : new int[]{MetricResultStore.TEXT, MetricResultStore.CODE}) {
+                    int postBlockCount = input.readInt();
+                    int possibleComparisons = input.readInt();
+                    int failedPredecessorComparisons = input.readInt();
+                    int connectionCount = (int) readVarLong(input);
+                    long[] connections = evaluationPerPost != null ? new long[connectionCount] : null;
+                    long previous = 0;
+                    for (int j = 0; j < connectionCount; j++) {
+                        previous += readVarLong(input);
+                        if (connections != null) {
+                            connections[j] = previous;
+                        }
+                    }
+                    if (evaluationPerPost != null) {
+                        evaluationPerPost.rescore(i, type, postBlockCount, possibleComparisons,
+                                failedPredecessorComparisons, connections);
+                    }
+                }
+            }
+        }
+
+        if (evaluationPerSample != null) {
+            evaluationPerSample.resetAggregatedResults();
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream input) {
+            super(input);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int bytesRead = super.read(buffer, offset, length);
+            if (bytesRead > 0) {
+                count += bytesRead;
+            }
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.QuoteMode;
+import org.sotorrent.util.LogUtils;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.logging.Logger;
+
+/**
+ * Subscriber writing the published results (see MetricEvaluationManager.withResultPublisher()) to a CSV file while
+ * the evaluation is running. Events are requested one at a time, thus a slow file system throttles the evaluation.
+ */
+public class ResultEventFile implements Flow.Subscriber<MetricResultEvent> {
+    private static Logger logger;
+    private static final CSVFormat csvFormatResultEvents;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(ResultEventFile.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // configure CSV format for result events (per version, post, or sample and metric)
+        csvFormatResultEvents = CSVFormat.DEFAULT
+                .withHeader("Level", "Sample", "MetricTypeText", "MetricText", "ThresholdText", "MetricTypeTextBackup", "MetricTextBackup", "ThresholdTextBackup", "MetricTypeCode", "MetricCode", "ThresholdCode", "MetricTypeCodeBackup", "MetricCodeBackup", "ThresholdCodeBackup", "PostId", "PostHistoryId", "Runtime", "TruePositivesText", "TrueNegativesText", "FalsePositivesText", "FalseNegativesText", "TruePositivesCode", "TrueNegativesCode", "FalsePositivesCode", "FalseNegativesCode")
+                .withDelimiter(';')
+                .withQuote('"')
+                .withQuoteMode(QuoteMode.MINIMAL)
+                .withEscape('\\')
+                .withNullString("null");
+    }
+
+    private final CSVPrinter csvPrinter;
+    private final CountDownLatch closed;
+    private Flow.Subscription subscription;
+
+    public ResultEventFile(Path outputFile) throws IOException {
+        this.csvPrinter = new CSVPrinter(new FileWriter(outputFile.toFile()), csvFormatResultEvents);
+        this.closed = new CountDownLatch(1);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(MetricResultEvent event) {
+        SimilarityMetric similarityMetric = event.getSimilarityMetric();
+        MetricResult resultText = event.getResultText();
+        MetricResult resultCode = event.getResultCode();
+        try {
+            csvPrinter.printRecord(
+                    event.getLevel(),
+                    event.getSampleName(),
+
+                    similarityMetric.getTypeText(),
+                    similarityMetric.getNameText(),
+                    similarityMetric.getConfig().getTextSimilarityThreshold(),
+
+                    similarityMetric.getBackupTypeText(),
+                    similarityMetric.getBackupNameText(),
+                    similarityMetric.getConfig().getTextBackupSimilarityThreshold(),
+
+                    similarityMetric.getTypeCode(),
+                    similarityMetric.getNameCode(),
+                    similarityMetric.getConfig().getCodeSimilarityThreshold(),
+
+                    similarityMetric.getBackupTypeCode(),
+                    similarityMetric.getBackupNameCode(),
+                    similarityMetric.getConfig().getCodeBackupSimilarityThreshold(),
+
+                    event.getPostId() < 0 ? null : event.getPostId(),
+                    event.getPostHistoryId() < 0 ? null : event.getPostHistoryId(),
+                    resultText.getRuntime(),
+
+                    resultText.getTruePositives(),
+                    resultText.getTrueNegatives(),
+                    resultText.getFalsePositives(),
+                    resultText.getFalseNegatives(),
+
+                    resultCode.getTruePositives(),
+                    resultCode.getTrueNegatives(),
+                    resultCode.getFalsePositives(),
+                    resultCode.getFalseNegatives()
+            );
+            if (event.getLevel() == MetricResultEvent.Level.SAMPLE) {
+                // results of a metric are visible once they are complete
+                csvPrinter.flush();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            subscription.cancel();
+            close();
+            return;
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        logger.warning("Publishing result events failed: " + throwable);
+        close();
+    }
+
+    @Override
+    public void onComplete() {
+        close();
+    }
+
+    /**
+     * Waits until the publisher has been closed and all events have been written.
+     */
+    public void awaitClose() throws InterruptedException {
+        closed.await();
+    }
+
+    private void close() {
+        try {
+            csvPrinter.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closed.countDown();
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.csv.QuoteMode;
+import org.sotorrent.util.LogUtils;
+
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Cache of the results of (sample, metric) pairs of previous runs, one file per sample in the cache directory.
+ * The results of a metric are keyed by a fingerprint of the metric (names, types, and thresholds of the text, code,
+ * and backup metrics) and of the options that affect its results (e.g., the number of repetitions, the evaluation
+ * order, and the number of post threads, which affect the runtimes), and a fingerprint of the content of the input files of the sample (post ids, post history, and ground
+ * truth). Results are only restored if both fingerprints match, i.e., changed samples are evaluated again.
+ * The fingerprints do not cover the implementation of the metrics, increase VERSION if it changes.
+ * Only counters and runtimes are cached, thus the cache cannot be used if comparison latencies or predicted connections
+ * are recorded (see MetricEvaluationManager.withResultsCache()).
+ */
+class ResultsCache {
+    private static final int VERSION = 2;
+
+    private static Logger logger;
+    private static final CSVFormat csvFormatResultsCache;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(ResultsCache.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // configure CSV format for cached results (per sample, metric, and version)
+        List<String> header = new ArrayList<>(Arrays.asList("SampleFingerprint", "MetricFingerprint", "Metric", "PostId", "PostHistoryId", "Runtime"));
+        for (String counterName : PartialResults.COUNTER_NAMES) {
+            header.add(counterName + "Text");
+        }
+        for (String counterName : PartialResults.COUNTER_NAMES) {
+            header.add(counterName + "Code");
+        }
+        csvFormatResultsCache = CSVFormat.DEFAULT
+                .withHeader(header.toArray(new String[0]))
+                .withDelimiter(';')
+                .withQuote('"')
+                .withQuoteMode(QuoteMode.MINIMAL)
+                .withEscape('\\')
+                .withNullString("null");
+    }
+
+    private ResultsCache() {}
+
+    static Path getCacheFile(Path cacheDir, String sampleName) {
+        return Paths.get(cacheDir.toString(), sampleName + ".csv");
+    }
+
+    /**
+     * Fingerprint of the metric only (names, types, and thresholds), e.g., to identify it in other files.
+     */
+    static String getMetricFingerprint(SimilarityMetric similarityMetric) {
+        return getMetricFingerprint(similarityMetric, "");
+    }
+
+    /**
+     * Fingerprint of the metric and the options of the run that affect its results (see
+     * MetricEvaluationManager.getResultsCacheOptions()).
+     */
+    static String getMetricFingerprint(SimilarityMetric similarityMetric, String options) {
+        String key = VERSION + ";" + options
+                + ";" + similarityMetric.getTypeText() + ";" + similarityMetric.getNameText()
+                + ";" + similarityMetric.getConfig().getTextSimilarityThreshold()
+                + ";" + similarityMetric.getBackupTypeText() + ";" + similarityMetric.getBackupNameText()
+                + ";" + similarityMetric.getConfig().getTextBackupSimilarityThreshold()
+                + ";" + similarityMetric.getTypeCode() + ";" + similarityMetric.getNameCode()
+                + ";" + similarityMetric.getConfig().getCodeSimilarityThreshold()
+                + ";" + similarityMetric.getBackupTypeCode() + ";" + similarityMetric.getBackupNameCode()
+                + ";" + similarityMetric.getConfig().getCodeBackupSimilarityThreshold();
+        MessageDigest digest = createDigest();
+        digest.update(key.getBytes(StandardCharsets.UTF_8));
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Fingerprint of the content of the post id file and of all files in the post history and ground truth directories
+     * (in the order of their names).
+     */
+    static String getSampleFingerprint(Path postIdPath, Path postHistoryPath, Path groundTruthPath) throws IOException {
+        MessageDigest digest = createDigest();
+        digest.update(Integer.toString(VERSION).getBytes(StandardCharsets.UTF_8));
+        updateDigest(digest, postIdPath);
+        for (Path dir : new Path[]{postHistoryPath, groundTruthPath}) {
+            List<Path> files;
+            try (Stream<Path> paths = Files.list(dir)) {
+                files = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                updateDigest(digest, file);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static void updateDigest(MessageDigest digest, Path file) throws IOException {
+        // file names are part of the fingerprint (e.g., renamed post ids)
+        digest.update(file.toFile().getName().getBytes(StandardCharsets.UTF_8));
+        byte[] buffer = new byte[65536];
+        try (InputStream input = Files.newInputStream(file)) {
+            int length;
+            while ((length = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, length);
+            }
+        }
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Restores the results of all evaluations with matching fingerprints and results for all versions, returns the
+     * restored evaluations (in the order of the given evaluations).
+     */
+    static List<MetricEvaluationPerSample> restore(Path cacheFile, String sampleFingerprint, String options,
+                                                   List<MetricEvaluationPerSample> evaluations) {
+        List<MetricEvaluationPerSample> restoredEvaluations = new ArrayList<>();
+        if (evaluations.isEmpty() || !Files.exists(cacheFile)) {
+            return restoredEvaluations;
+        }
+
+        Map<String, MetricEvaluationPerSample> evaluationsByFingerprint = new HashMap<>();
+        for (MetricEvaluationPerSample evaluationPerSample : evaluations) {
+            evaluationsByFingerprint.put(getMetricFingerprint(evaluationPerSample.getSimilarityMetric(), options), evaluationPerSample);
+        }
+
+        // PostId -> index of post (the same for all evaluations of a sample)
+        Map<Integer, Integer> postIndices = new HashMap<>();
+        MetricEvaluationPerSample firstEvaluation = evaluations.get(0);
+        for (int postIndex = 0; postIndex < firstEvaluation.size(); postIndex++) {
+            postIndices.put(firstEvaluation.getByPostIndex(postIndex).getPostId(), postIndex);
+        }
+
+        try {
+            // first pass: only metrics with results for all versions can be restored
+            Map<String, Integer> versionCounts = new HashMap<>();
+            try (CSVParser csvParser = new CSVParser(new FileReader(cacheFile.toFile()), csvFormatResultsCache.withFirstRecordAsHeader())) {
+                for (CSVRecord record : csvParser) {
+                    if (record.get("SampleFingerprint").equals(sampleFingerprint)) {
+                        versionCounts.merge(record.get("MetricFingerprint"), 1, Integer::sum);
+                    }
+                }
+            }
+            evaluationsByFingerprint.entrySet().removeIf(entry -> !Integer.valueOf(
+                    entry.getValue().getResults().getVersionCount()).equals(versionCounts.get(entry.getKey())));
+
+            // second pass: read results
+            if (!evaluationsByFingerprint.isEmpty()) {
+                try (CSVParser csvParser = new CSVParser(new FileReader(cacheFile.toFile()), csvFormatResultsCache.withFirstRecordAsHeader())) {
+                    for (CSVRecord record : csvParser) {
+                        if (!record.get("SampleFingerprint").equals(sampleFingerprint)) {
+                            continue;
+                        }
+                        MetricEvaluationPerSample evaluationPerSample = evaluationsByFingerprint.get(record.get("MetricFingerprint"));
+                        if (evaluationPerSample == null) {
+                            continue;
+                        }
+                        Integer postIndex = postIndices.get(Integer.parseInt(record.get("PostId")));
+                        MetricEvaluationPerPost evaluationPerPost = postIndex == null ? null : evaluationPerSample.getByPostIndex(postIndex);
+                        int versionIndex = evaluationPerPost == null ? -1
+                                : evaluationPerPost.getPostHistoryIds().indexOf(Integer.parseInt(record.get("PostHistoryId")));
+                        if (versionIndex < 0) {
+                            // cannot happen for matching sample fingerprints
+                            String msg = "PostId " + record.get("PostId") + " / PostHistoryId " + record.get("PostHistoryId")
+                                    + " in " + cacheFile + " is not part of the sample.";
+                            logger.warning(msg);
+                            throw new IllegalStateException(msg);
+                        }
+                        PartialResults.readResults(record, evaluationPerSample.getResults(),
+                                evaluationPerPost.getResultOffset() + versionIndex);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return restoredEvaluations;
+        }
+
+        for (MetricEvaluationPerSample evaluationPerSample : evaluations) {
+            if (evaluationsByFingerprint.containsValue(evaluationPerSample)) {
+                evaluationPerSample.resetAggregatedResults();
+                restoredEvaluations.add(evaluationPerSample);
+            }
+        }
+        return restoredEvaluations;
+    }
+
+    /**
+     * Replaces the cached results of the given evaluations. Cached results of other metrics are kept if they have been
+     * computed for the same sample content, results for a different content are removed.
+     */
+    static void write(Path cacheFile, String sampleFingerprint, String options, List<MetricEvaluationPerSample> evaluations) {
+        Set<String> metricFingerprints = new HashSet<>();
+        for (MetricEvaluationPerSample evaluationPerSample : evaluations) {
+            metricFingerprints.add(getMetricFingerprint(evaluationPerSample.getSimilarityMetric(), options));
+        }
+
+        // write to temporary file first, the cache file is always complete
+        Path temporaryFile = Paths.get(cacheFile.toString() + ".tmp");
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            try (CSVPrinter csvPrinter = new CSVPrinter(new FileWriter(temporaryFile.toFile()), csvFormatResultsCache)) {
+                if (Files.exists(cacheFile)) {
+                    try (CSVParser csvParser = new CSVParser(new FileReader(cacheFile.toFile()), csvFormatResultsCache.withFirstRecordAsHeader())) {
+                        for (CSVRecord record : csvParser) {
+                            if (record.get("SampleFingerprint").equals(sampleFingerprint)
+                                    && !metricFingerprints.contains(record.get("MetricFingerprint"))) {
+                                csvPrinter.printRecord(record);
+                            }
+                        }
+                    }
+                }
+
+                List<Object> record = new ArrayList<>(6 + 2 * PartialResults.COUNTER_NAMES.length);
+                for (MetricEvaluationPerSample evaluationPerSample : evaluations) {
+                    String metricFingerprint = getMetricFingerprint(evaluationPerSample.getSimilarityMetric(), options);
+                    MetricResultStore results = evaluationPerSample.getResults();
+                    for (int postIndex = 0; postIndex < evaluationPerSample.size(); postIndex++) {
+                        MetricEvaluationPerPost evaluationPerPost = evaluationPerSample.getByPostIndex(postIndex);
+                        List<Integer> postHistoryIds = evaluationPerPost.getPostHistoryIds();
+                        for (int i = 0; i < postHistoryIds.size(); i++) {
+                            record.clear();
+                            record.add(sampleFingerprint);
+                            record.add(metricFingerprint);
+                            record.add(evaluationPerSample.getSimilarityMetric().toString());
+                            record.add(evaluationPerPost.getPostId());
+                            record.add(postHistoryIds.get(i));
+                            PartialResults.addResults(record, results, evaluationPerPost.getResultOffset() + i);
+                            csvPrinter.printRecord(record);
+                        }
+                    }
+                }
+            }
+            Files.move(temporaryFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for writing evaluation results to CSV files (see the writeToCSV methods).
+ */
+@Name("org.sotorrent.metricevaluation.ResultsWrite")
+@Label("Results Write")
+@Description("Writing of metric evaluation results to CSV files")
+@Category({"SOTorrent", "Metric Evaluation"})
+class ResultsWriteEvent extends Event {
+    @Label("Sample")
+    String sampleName;
+
+    @Label("Metric")
+    String metric;
+
+    @Label("Output File")
+    String outputFile;
+
+    @Label("Post Count")
+    int postCount;
+
+    @Label("Record Count")
+    int recordCount;
+}
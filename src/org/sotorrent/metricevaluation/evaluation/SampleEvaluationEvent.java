@@ -0,0 +1,64 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for one evaluation run of one similarity metric on one sample (see MetricEvaluationManager.run()).
+ */
+@Name("org.sotorrent.metricevaluation.SampleEvaluation")
+@Label("Sample Evaluation")
+@Description("Evaluation run of one similarity metric on all posts of one sample")
+@Category({"SOTorrent", "Metric Evaluation"})
+class SampleEvaluationEvent extends Event {
+    @Label("Sample")
+    String sampleName;
+
+    @Label("Metric")
+    String metric;
+
+    @Label("Text Metric")
+    String metricText;
+
+    @Label("Text Threshold")
+    double thresholdText;
+
+    @Label("Text Backup Metric")
+    String metricTextBackup;
+
+    @Label("Text Backup Threshold")
+    double thresholdTextBackup;
+
+    @Label("Code Metric")
+    String metricCode;
+
+    @Label("Code Threshold")
+    double thresholdCode;
+
+    @Label("Code Backup Metric")
+    String metricCodeBackup;
+
+    @Label("Code Backup Threshold")
+    double thresholdCodeBackup;
+
+    @Label("Repetition")
+    int repetition;
+
+    @Label("Post Count")
+    int postCount;
+
+    void setSimilarityMetric(SimilarityMetric similarityMetric) {
+        metric = similarityMetric.toString();
+        metricText = similarityMetric.getNameText();
+        thresholdText = similarityMetric.getConfig().getTextSimilarityThreshold();
+        metricTextBackup = similarityMetric.getBackupNameText();
+        thresholdTextBackup = similarityMetric.getConfig().getTextBackupSimilarityThreshold();
+        metricCode = similarityMetric.getNameCode();
+        thresholdCode = similarityMetric.getConfig().getCodeSimilarityThreshold();
+        metricCodeBackup = similarityMetric.getBackupNameCode();
+        thresholdCodeBackup = similarityMetric.getConfig().getCodeBackupSimilarityThreshold();
+    }
+}
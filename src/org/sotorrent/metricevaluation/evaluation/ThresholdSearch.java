@@ -0,0 +1,280 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.QuoteMode;
+import org.sotorrent.posthistoryextractor.Config;
+import org.sotorrent.util.LogUtils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Adaptive search for the thresholds of a similarity metric that maximize an objective on all samples.
+ * Instead of evaluating all thresholds of the fixed grid (0.00, 0.01, ..., 1.00), a coarse grid is evaluated first and
+ * then refined around the best coarse threshold using a golden-section search, separately for text and code blocks
+ * (they are evaluated independently, thus one evaluation yields the results for both).
+ * Thresholds are multiples of the requested precision, which must divide 1.0 (e.g., 0.01, 0.02, 0.05, or 0.1), every
+ * evaluated threshold is written to the output file.
+ */
+public class ThresholdSearch {
+    public enum Objective {MATTHEWS_CORRELATION, INFORMEDNESS, MARKEDNESS, F_SCORE}
+
+    private enum Phase {COARSE, REFINE_TEXT, REFINE_CODE, BEST_TEXT, BEST_CODE}
+
+    private static final double COARSE_STEP = 0.1;
+    private static final double INVERSE_GOLDEN_RATIO = (Math.sqrt(5) - 1) / 2;
+
+    private static Logger logger;
+    private static final CSVFormat csvFormatThresholdSearch;
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(ThresholdSearch.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // configure CSV format for evaluated thresholds (per metric and threshold)
+        csvFormatThresholdSearch = CSVFormat.DEFAULT
+                .withHeader("MetricTypeText", "MetricText", "MetricTypeTextBackup", "MetricTextBackup", "MetricTypeCode", "MetricCode", "MetricTypeCodeBackup", "MetricCodeBackup", "Objective", "Phase", "Threshold", "ObjectiveText", "ObjectiveCode", "InformednessText", "MarkednessText", "MatthewsCorrelationText", "FScoreText", "InformednessCode", "MarkednessCode", "MatthewsCorrelationCode", "FScoreCode", "Runtime")
+                .withDelimiter(';')
+                .withQuote('"')
+                .withQuoteMode(QuoteMode.MINIMAL)
+                .withEscape('\\')
+                .withNullString("null");
+    }
+
+    private final List<MetricEvaluationManager> managers;
+    private final Objective objective;
+    private final int scale; // thresholds are multiples of 1/scale
+    private final int coarseStep; // step of the coarse grid in multiples of 1/scale
+
+    // state of the search for the current metric
+    private SimilarityMetric similarityMetric;
+    private CSVPrinter csvPrinter;
+    private Map<Integer, MetricResult[]> evaluatedThresholds; // threshold (multiples of 1/scale) -> results (text, code)
+
+    public ThresholdSearch(List<MetricEvaluationManager> managers, Objective objective, double precision) {
+        if (precision <= 0.0 || precision > COARSE_STEP) {
+            String msg = "Precision of threshold search must be in range (0.0, " + COARSE_STEP + "], but was " + precision;
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        int scale = (int) Math.round(1.0 / precision);
+        if (Math.abs(scale * precision - 1.0) > 1e-9) {
+            String msg = "Precision of threshold search must divide 1.0 (e.g., 0.01 or 0.05), but was " + precision;
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        this.managers = managers;
+        this.objective = objective;
+        this.scale = scale;
+        this.coarseStep = Math.max(1, (int) Math.round(scale * COARSE_STEP));
+    }
+
+    /**
+     * Searches the best thresholds for each of the given metrics and writes all evaluated thresholds to the output file.
+     * Returns the metrics configured with the best text and code thresholds.
+     */
+    public List<SimilarityMetric> searchAndWriteToCSV(List<SimilarityMetric> similarityMetrics, File outputFile) {
+        List<SimilarityMetric> bestSimilarityMetrics = new LinkedList<>();
+
+        try (CSVPrinter csvPrinter = new CSVPrinter(new FileWriter(outputFile), csvFormatThresholdSearch)) {
+            for (SimilarityMetric similarityMetric : similarityMetrics) {
+                bestSimilarityMetrics.add(search(similarityMetric, csvPrinter));
+                csvPrinter.flush();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        logger.info("Threshold search results saved to " + outputFile + ".");
+        return bestSimilarityMetrics;
+    }
+
+    private SimilarityMetric search(SimilarityMetric similarityMetric, CSVPrinter csvPrinter) throws IOException {
+        this.similarityMetric = similarityMetric;
+        this.csvPrinter = csvPrinter;
+        this.evaluatedThresholds = new HashMap<>();
+
+        logger.info("Searching thresholds for metric " + similarityMetric + " (objective " + objective + ") ...");
+
+        // coarse grid, always including 0.0 and 1.0
+        for (int threshold = 0; threshold < scale; threshold += coarseStep) {
+            evaluate(threshold, Phase.COARSE);
+        }
+        evaluate(scale, Phase.COARSE);
+
+        int bestThresholdText = refine(MetricResultStore.TEXT, Phase.REFINE_TEXT);
+        int bestThresholdCode = refine(MetricResultStore.CODE, Phase.REFINE_CODE);
+
+        writeToCSV(Phase.BEST_TEXT, bestThresholdText, evaluatedThresholds.get(bestThresholdText));
+        writeToCSV(Phase.BEST_CODE, bestThresholdCode, evaluatedThresholds.get(bestThresholdCode));
+
+        logger.info("Best thresholds for metric " + similarityMetric + ": " + getThreshold(bestThresholdText) + " (text), "
+                + getThreshold(bestThresholdCode) + " (code); " + evaluatedThresholds.size() + " of "
+                + (scale + 1) + " thresholds evaluated.");
+
+        Config config = similarityMetric.getConfig();
+        return similarityMetric.withConfig(config
+                .withTextSimilarityThreshold(getThreshold(bestThresholdText))
+                .withCodeSimilarityThreshold(getThreshold(bestThresholdCode)));
+    }
+
+    /*
+     * Golden-section search in the neighborhood of the best coarse threshold, assuming that the objective is unimodal
+     * in this neighborhood. Returns the best threshold evaluated so far (ties are resolved using the lower threshold).
+     */
+    private int refine(int type, Phase phase) throws IOException {
+        int bestCoarseThreshold = getBestThreshold(type);
+        int lower = Math.max(0, bestCoarseThreshold - coarseStep);
+        int upper = Math.min(scale, bestCoarseThreshold + coarseStep);
+
+        while (upper - lower > 2) {
+            int innerLower = upper - (int) Math.round((upper - lower) * INVERSE_GOLDEN_RATIO);
+            int innerUpper = lower + (int) Math.round((upper - lower) * INVERSE_GOLDEN_RATIO);
+            if (innerLower >= innerUpper) {
+                innerUpper = innerLower + 1;
+            }
+            if (getObjective(evaluate(innerLower, phase)[type]) >= getObjective(evaluate(innerUpper, phase)[type])) {
+                upper = innerUpper;
+            } else {
+                lower = innerLower;
+            }
+        }
+
+        for (int threshold = lower; threshold <= upper; threshold++) {
+            evaluate(threshold, phase);
+        }
+
+        return getBestThreshold(type);
+    }
+
+    private int getBestThreshold(int type) {
+        int bestThreshold = -1;
+        double bestObjective = Double.NEGATIVE_INFINITY;
+        for (Map.Entry<Integer, MetricResult[]> entry : evaluatedThresholds.entrySet()) {
+            int threshold = entry.getKey();
+            double currentObjective = getObjective(entry.getValue()[type]);
+            if (bestThreshold == -1 || currentObjective > bestObjective
+                    || (currentObjective == bestObjective && threshold < bestThreshold)) {
+                bestThreshold = threshold;
+                bestObjective = currentObjective;
+            }
+        }
+        return bestThreshold;
+    }
+
+    /*
+     * Evaluates the metric with the given threshold (for text and code) on all samples, results are cached.
+     */
+    private MetricResult[] evaluate(int threshold, Phase phase) throws IOException {
+        MetricResult[] results = evaluatedThresholds.get(threshold);
+        if (results != null) {
+            return results;
+        }
+
+        Config config = similarityMetric.getConfig();
+        SimilarityMetric metric = similarityMetric.withConfig(config
+                .withTextSimilarityThreshold(getThreshold(threshold))
+                .withCodeSimilarityThreshold(getThreshold(threshold)));
+
+        results = evaluateOnSamples(metric);
+        evaluatedThresholds.put(threshold, results);
+
+        writeToCSV(phase, threshold, results);
+        return results;
+    }
+
+    /*
+     * Returns the results of the given metric (text, code) aggregated over all samples.
+     */
+    MetricResult[] evaluateOnSamples(SimilarityMetric metric) {
+        MetricResult resultText = new MetricResult(metric);
+        MetricResult resultCode = new MetricResult(metric);
+        for (MetricEvaluationManager manager : managers) {
+            MetricEvaluationPerSample evaluationPerSample = manager.evaluateSimilarityMetric(metric);
+            resultText.add(evaluationPerSample.getResultAggregatedBySampleText());
+            resultCode.add(evaluationPerSample.getResultAggregatedBySampleCode());
+        }
+
+        MetricResult[] results = new MetricResult[2];
+        results[MetricResultStore.TEXT] = resultText;
+        results[MetricResultStore.CODE] = resultCode;
+        return results;
+    }
+
+    private double getThreshold(int threshold) {
+        // do not accumulate steps of the precision --> leads to rounding errors
+        return (double) threshold / scale;
+    }
+
+    private double getObjective(MetricResult result) {
+        return getObjective(objective, result);
+    }
+
+    static double getObjective(Objective objective, MetricResult result) {
+        double value;
+        switch (objective) {
+            case INFORMEDNESS:
+                value = result.getInformedness();
+                break;
+            case MARKEDNESS:
+                value = result.getMarkedness();
+                break;
+            case F_SCORE:
+                value = result.getFScore();
+                break;
+            default:
+                value = result.getMatthewsCorrelation();
+                break;
+        }
+        // undefined values (e.g., no positives) are never the best
+        return Double.isNaN(value) ? Double.NEGATIVE_INFINITY : value;
+    }
+
+    private void writeToCSV(Phase phase, int threshold, MetricResult[] results) throws IOException {
+        MetricResult resultText = results[MetricResultStore.TEXT];
+        MetricResult resultCode = results[MetricResultStore.CODE];
+
+        // "MetricTypeText", "MetricText", "MetricTypeTextBackup", "MetricTextBackup",
+        // "MetricTypeCode", "MetricCode", "MetricTypeCodeBackup", "MetricCodeBackup",
+        // "Objective", "Phase", "Threshold", "ObjectiveText", "ObjectiveCode",
+        // "InformednessText", "MarkednessText", "MatthewsCorrelationText", "FScoreText",
+        // "InformednessCode", "MarkednessCode", "MatthewsCorrelationCode", "FScoreCode", "Runtime"
+        csvPrinter.printRecord(
+                similarityMetric.getTypeText(),
+                similarityMetric.getNameText(),
+                similarityMetric.getBackupTypeText(),
+                similarityMetric.getBackupNameText(),
+
+                similarityMetric.getTypeCode(),
+                similarityMetric.getNameCode(),
+                similarityMetric.getBackupTypeCode(),
+                similarityMetric.getBackupNameCode(),
+
+                objective,
+                phase,
+                getThreshold(threshold),
+                getObjective(resultText),
+                getObjective(resultCode),
+
+                resultText.getInformedness(),
+                resultText.getMarkedness(),
+                resultText.getMatthewsCorrelation(),
+                resultText.getFScore(),
+
+                resultCode.getInformedness(),
+                resultCode.getMarkedness(),
+                resultCode.getMatthewsCorrelation(),
+                resultCode.getFScore(),
+
+                resultText.getRuntime()
+        );
+    }
+}
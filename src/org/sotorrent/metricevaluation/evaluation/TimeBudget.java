@@ -0,0 +1,155 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.sotorrent.posthistoryextractor.Config;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Time budgets for the evaluation of a metric on one post and for all evaluations of a metric on a sample (all posts
+ * and repetitions). A watchdog thread marks the deadline of a running evaluation as expired, the evaluation is then
+ * aborted by the next block comparison (the similarity functions of the metric's config are wrapped, see instrument()).
+ * A single comparison is never interrupted: a pathological comparison runs to completion and may exceed the budget by
+ * far. If the deadline expired during the last comparison of a post, the evaluation is complete but still counts as
+ * timed out. In both cases, the overrun is recorded (see BudgetExceededException.getBudgetTime()).
+ */
+class TimeBudget {
+    private static final ScheduledThreadPoolExecutor watchdog;
+    private static final ThreadLocal<Deadline> currentDeadline = new ThreadLocal<>();
+
+    static {
+        watchdog = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "time budget watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // deadlines of completed evaluations are removed immediately
+        watchdog.setRemoveOnCancelPolicy(true);
+    }
+
+    private final long postBudget; // nanoseconds, 0 -> unlimited
+    private final long metricBudget; // nanoseconds, 0 -> unlimited
+    private final boolean skipRemainingPosts; // if true, the remaining posts of a metric are skipped after a timeout
+
+    TimeBudget(long postBudget, long metricBudget, boolean skipRemainingPosts) {
+        this.postBudget = postBudget;
+        this.metricBudget = metricBudget;
+        this.skipRemainingPosts = skipRemainingPosts;
+    }
+
+    boolean skipsRemainingPosts() {
+        return skipRemainingPosts;
+    }
+
+    boolean isMetricBudgetExhausted(long metricTime) {
+        return metricBudget > 0 && metricTime >= metricBudget;
+    }
+
+    /**
+     * Runs the evaluation of a post within the post budget and the remaining metric budget (metricTime is the time
+     * already spent on the metric).
+     */
+    void evaluate(Runnable evaluation, long metricTime) {
+        if (isMetricBudgetExhausted(metricTime)) {
+            throw new BudgetExceededException(Budget.METRIC, 0);
+        }
+        long budget = postBudget;
+        if (metricBudget > 0) {
+            long remainingMetricBudget = metricBudget - metricTime;
+            budget = budget > 0 ? Math.min(budget, remainingMetricBudget) : remainingMetricBudget;
+        }
+        if (budget <= 0) {
+            evaluation.run();
+            return;
+        }
+
+        Deadline deadline = new Deadline(budget == postBudget ? Budget.POST : Budget.METRIC, budget);
+        ScheduledFuture<?> expiration = watchdog.schedule(() -> {
+            deadline.expired = true;
+        }, budget, TimeUnit.NANOSECONDS);
+        currentDeadline.set(deadline);
+        try {
+            evaluation.run();
+        } finally {
+            currentDeadline.remove();
+            expiration.cancel(false);
+        }
+        if (deadline.expired) {
+            // the deadline expired during the last comparison, which was not interrupted
+            throw new BudgetExceededException(deadline.budget, deadline.budgetTime);
+        }
+    }
+
+    /**
+     * Returns a copy of the given config in which all configured similarity functions check the deadline of the
+     * current thread before each comparison.
+     */
+    static Config instrument(Config config) {
+        Config instrumentedConfig = config
+                .withTextSimilarityMetric(instrument(config.getTextSimilarityMetric()))
+                .withCodeSimilarityMetric(instrument(config.getCodeSimilarityMetric()));
+        // backup metrics are optional
+        if (config.getTextBackupSimilarityMetric() != null) {
+            instrumentedConfig = instrumentedConfig.withTextBackupSimilarityMetric(
+                    instrument(config.getTextBackupSimilarityMetric()));
+        }
+        if (config.getCodeBackupSimilarityMetric() != null) {
+            instrumentedConfig = instrumentedConfig.withCodeBackupSimilarityMetric(
+                    instrument(config.getCodeBackupSimilarityMetric()));
+        }
+        return instrumentedConfig;
+    }
+
+    private static BiFunction<String, String, Double> instrument(BiFunction<String, String, Double> metric) {
+        if (metric == null) {
+            return null;
+        }
+        return (str1, str2) -> {
+            Deadline deadline = currentDeadline.get();
+            if (deadline != null && deadline.expired) {
+                throw new BudgetExceededException(deadline.budget, deadline.budgetTime);
+            }
+            return metric.apply(str1, str2);
+        };
+    }
+
+    enum Budget {POST, METRIC}
+
+    private static class Deadline {
+        private final Budget budget; // budget that limits the evaluation
+        private final long budgetTime; // nanoseconds
+        private volatile boolean expired;
+
+        private Deadline(Budget budget, long budgetTime) {
+            this.budget = budget;
+            this.budgetTime = budgetTime;
+        }
+    }
+
+    static class BudgetExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final Budget budget;
+        private final long budgetTime; // nanoseconds, 0 -> the metric budget was exhausted before the evaluation
+
+        private BudgetExceededException(Budget budget, long budgetTime) {
+            // thrown for every timeout, thus without stack trace
+            super(budget + " time budget exceeded", null, false, false);
+            this.budget = budget;
+            this.budgetTime = budgetTime;
+        }
+
+        Budget getBudget() {
+            return budget;
+        }
+
+        /**
+         * Time available for the evaluation, the overrun is the evaluation time minus this time.
+         */
+        long getBudgetTime() {
+            return budgetTime;
+        }
+    }
+}
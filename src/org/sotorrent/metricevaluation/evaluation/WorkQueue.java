@@ -0,0 +1,449 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.csv.QuoteMode;
+import org.sotorrent.util.LogUtils;
+
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Work queue shared by several processes (e.g., JVMs on one host) that evaluate the same samples and metrics and write
+ * to the same output directory. A work item is a chunk of consecutive metrics of one sample. The queue is stored in the
+ * output directory (work_queue.csv) and is only read and written while holding a file lock (work_queue.lock).
+ * A claimed item is leased to its worker, the lease is renewed while the item is evaluated. If a worker crashes, its
+ * lease expires and the item is claimed by another worker. Each item writes its partial results (see PartialResults).
+ * When all items are done, one worker claims the merge of the partial results into the output files (with a lease as
+ * well). The merge is only marked as done after it succeeded, thus a crashed merge is repeated by another worker or by
+ * a worker started later.
+ */
+public class WorkQueue {
+    private enum Status {PENDING, CLAIMED, DONE, MERGED}
+
+    private static final String QUEUE_FILE_NAME = "work_queue.csv";
+    private static final String LOCK_FILE_NAME = "work_queue.lock";
+
+    private static Logger logger;
+    private static final CSVFormat csvFormatWorkQueue;
+    private static final Object processLock = new Object();
+
+    static {
+        // configure logger
+        try {
+            logger = LogUtils.getClassLogger(WorkQueue.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // configure CSV format for work queue (per work item)
+        csvFormatWorkQueue = CSVFormat.DEFAULT
+                .withHeader("Sample", "Chunk", "FromMetricIndex", "ToMetricIndex", "Status", "Worker", "LeaseExpiry")
+                .withDelimiter(';')
+                .withQuote('"')
+                .withQuoteMode(QuoteMode.MINIMAL)
+                .withEscape('\\')
+                .withNullString("null");
+    }
+
+    private final Path queueFile;
+    private final Path lockFile;
+    private final int chunkSize;
+    private final long leaseMillis;
+    private final String workerId;
+
+    public WorkQueue(Path outputDir, int chunkSize, long leaseMillis) {
+        // process id and host name
+        this(outputDir, chunkSize, leaseMillis, ManagementFactory.getRuntimeMXBean().getName());
+    }
+
+    WorkQueue(Path outputDir, int chunkSize, long leaseMillis, String workerId) {
+        if (chunkSize < 1) {
+            String msg = "Number of metrics per work item must be at least 1, but was " + chunkSize;
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        if (leaseMillis < 1000) {
+            String msg = "Lease of work items must be at least one second, but was " + leaseMillis + " ms";
+            logger.warning(msg);
+            throw new IllegalArgumentException(msg);
+        }
+        this.queueFile = Paths.get(outputDir.toString(), QUEUE_FILE_NAME);
+        this.lockFile = Paths.get(outputDir.toString(), LOCK_FILE_NAME);
+        this.chunkSize = chunkSize;
+        this.leaseMillis = leaseMillis;
+        this.workerId = workerId;
+    }
+
+    /**
+     * Claims and evaluates work items until all items are done. If the partial results have not been merged yet, the
+     * merge is claimed and run by this worker (e.g., MetricEvaluationManager.mergePartialResults() for each sample).
+     * Returns true if this worker merged the partial results.
+     */
+    public boolean process(List<MetricEvaluationManager> managers, Runnable merge) {
+        Map<String, MetricEvaluationManager> managersBySample = new LinkedHashMap<>();
+        Map<String, Integer> metricCounts = new LinkedHashMap<>();
+        for (MetricEvaluationManager manager : managers) {
+            managersBySample.put(manager.getSampleName(), manager);
+            metricCounts.put(manager.getSampleName(), manager.getSimilarityMetricCount());
+        }
+        return process(metricCounts,
+                (sampleName, fromMetricIndex, toMetricIndex, name) ->
+                        managersBySample.get(sampleName).evaluateWorkItem(fromMetricIndex, toMetricIndex, name),
+                merge);
+    }
+
+    boolean process(Map<String, Integer> metricCounts, WorkItemEvaluation evaluation, Runnable merge) {
+        createOrValidate(metricCounts);
+
+        // renew the lease of the current item while it is evaluated
+        ScheduledExecutorService leaseRenewal = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "work queue lease renewal");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        boolean merged = false;
+        int evaluatedItems = 0;
+        try {
+            while (true) {
+                WorkItem workItem = update(this::claim);
+                if (workItem == null) {
+                    Status mergeStatus = update(this::claimMerge);
+                    if (mergeStatus == Status.MERGED) {
+                        break;
+                    }
+                    if (mergeStatus == Status.CLAIMED) {
+                        logger.info("Worker " + workerId + ": All work items done, merging partial results...");
+                        ScheduledFuture<?> renewal = scheduleRenewal(leaseRenewal, null);
+                        try {
+                            merge.run();
+                        } finally {
+                            renewal.cancel(false);
+                        }
+                        update(this::completeMerge);
+                        merged = true;
+                        break;
+                    }
+                    // items or merge claimed by other workers, wait for them to finish or for their leases to expire
+                    try {
+                        Thread.sleep(leaseMillis / 3);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        String msg = "Worker " + workerId + ": Interrupted while waiting for work items.";
+                        logger.warning(msg);
+                        throw new IllegalStateException(msg, e);
+                    }
+                    continue;
+                }
+
+                logger.info("Worker " + workerId + ": Evaluating metrics [" + workItem.fromMetricIndex + ", "
+                        + workItem.toMetricIndex + ") of sample " + workItem.sampleName + "...");
+                ScheduledFuture<?> renewal = scheduleRenewal(leaseRenewal, workItem);
+                try {
+                    evaluation.evaluate(workItem.sampleName, workItem.fromMetricIndex, workItem.toMetricIndex,
+                            "chunk_" + workItem.chunk);
+                } finally {
+                    renewal.cancel(false);
+                }
+                evaluatedItems++;
+
+                update(items -> complete(items, workItem));
+            }
+        } finally {
+            leaseRenewal.shutdownNow();
+        }
+
+        logger.info("Worker " + workerId + ": All work items done and merged, " + evaluatedItems
+                + " evaluated by this worker.");
+        return merged;
+    }
+
+    /*
+     * Renews the lease of the work item (or of the merge if workItem is null) while it is evaluated. Exceptions are
+     * logged, because they would cancel all further renewals of the scheduled task without notice.
+     */
+    private ScheduledFuture<?> scheduleRenewal(ScheduledExecutorService leaseRenewal, WorkItem workItem) {
+        return leaseRenewal.scheduleAtFixedRate(() -> {
+            try {
+                update(items -> renew(items, workItem));
+            } catch (RuntimeException e) {
+                logger.warning("Worker " + workerId + ": Renewing lease failed, retrying in " + (leaseMillis / 3)
+                        + " ms: " + e);
+            }
+        }, leaseMillis / 3, leaseMillis / 3, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Creates the work items if the queue does not exist, otherwise checks that they match the configured metrics.
+     */
+    private void createOrValidate(Map<String, Integer> metricCounts) {
+        List<WorkItem> expectedItems = new ArrayList<>();
+        for (Map.Entry<String, Integer> metricCount : metricCounts.entrySet()) {
+            for (int from = 0, chunk = 0; from < metricCount.getValue(); from += chunkSize, chunk++) {
+                expectedItems.add(new WorkItem(metricCount.getKey(), chunk, from,
+                        Math.min(from + chunkSize, metricCount.getValue())));
+            }
+        }
+
+        update(items -> {
+            if (items.isEmpty()) {
+                logger.info("Worker " + workerId + ": Creating work queue with " + expectedItems.size() + " items...");
+                items.addAll(expectedItems);
+                return null;
+            }
+            if (items.size() != expectedItems.size()) {
+                String msg = "Work queue " + queueFile + " contains " + items.size() + " items, but "
+                        + expectedItems.size() + " items are configured.";
+                logger.warning(msg);
+                throw new IllegalStateException(msg);
+            }
+            for (int i = 0; i < items.size(); i++) {
+                if (!items.get(i).hasSameRange(expectedItems.get(i))) {
+                    String msg = "Work queue " + queueFile + " does not match the configured samples and metrics "
+                            + "(item " + i + ").";
+                    logger.warning(msg);
+                    throw new IllegalStateException(msg);
+                }
+            }
+            if (isMerged(items)) {
+                logger.warning("Worker " + workerId + ": All items of work queue " + queueFile
+                        + " are already done and merged (delete it to start a new run).");
+            } else if (isDone(items)) {
+                logger.info("Worker " + workerId + ": All items of work queue " + queueFile
+                        + " are done, but the partial results have not been merged yet.");
+            }
+            return null;
+        });
+    }
+
+    private WorkItem claim(List<WorkItem> items) {
+        long now = System.currentTimeMillis();
+        for (WorkItem item : items) {
+            boolean expired = item.status == Status.CLAIMED && item.leaseExpiry < now;
+            if (item.status == Status.PENDING || expired) {
+                if (expired) {
+                    logger.info("Worker " + workerId + ": Lease of worker " + item.worker + " on chunk " + item.chunk
+                            + " of sample " + item.sampleName + " expired, reclaiming item.");
+                }
+                item.status = Status.CLAIMED;
+                item.worker = workerId;
+                item.leaseExpiry = now + leaseMillis;
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Returns CLAIMED if this worker claimed the merge, MERGED if the partial results are already merged, and null if
+     * work items are not done yet or the merge is claimed by another worker. The lease of the merge is stored in the
+     * first work item.
+     */
+    private Status claimMerge(List<WorkItem> items) {
+        if (isMerged(items)) {
+            return Status.MERGED;
+        }
+        if (!isDone(items)) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        WorkItem mergeItem = items.get(0);
+        if (mergeItem.leaseExpiry >= now) {
+            return null;
+        }
+        if (mergeItem.leaseExpiry > 0) {
+            logger.info("Worker " + workerId + ": Lease of worker " + mergeItem.worker + " on merge expired, "
+                    + "reclaiming merge.");
+        }
+        mergeItem.worker = workerId;
+        mergeItem.leaseExpiry = now + leaseMillis;
+        return Status.CLAIMED;
+    }
+
+    private Void renew(List<WorkItem> items, WorkItem workItem) {
+        WorkItem item = workItem == null ? items.get(0) : find(items, workItem);
+        Status claimedStatus = workItem == null ? Status.DONE : Status.CLAIMED;
+        if (item.status == claimedStatus && workerId.equals(item.worker)) {
+            item.leaseExpiry = System.currentTimeMillis() + leaseMillis;
+        }
+        return null;
+    }
+
+    private Void complete(List<WorkItem> items, WorkItem workItem) {
+        WorkItem item = find(items, workItem);
+        if (item.status != Status.CLAIMED) {
+            // lease expired and item was evaluated by another worker as well (partial files are replaced atomically)
+            logger.info("Worker " + workerId + ": Chunk " + item.chunk + " of sample " + item.sampleName
+                    + " was already completed by worker " + item.worker + ".");
+            return null;
+        }
+        item.status = Status.DONE;
+        item.worker = workerId;
+        item.leaseExpiry = 0;
+        return null;
+    }
+
+    private Void completeMerge(List<WorkItem> items) {
+        if (!isDone(items)) {
+            // lease expired and merge was completed by another worker as well
+            logger.info("Worker " + workerId + ": Merge was already completed by another worker.");
+            return null;
+        }
+        for (WorkItem item : items) {
+            item.status = Status.MERGED;
+            item.leaseExpiry = 0;
+        }
+        return null;
+    }
+
+    private static boolean isDone(List<WorkItem> items) {
+        for (WorkItem item : items) {
+            if (item.status != Status.DONE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isMerged(List<WorkItem> items) {
+        for (WorkItem item : items) {
+            if (item.status != Status.MERGED) {
+                return false;
+            }
+        }
+        return !items.isEmpty();
+    }
+
+    private static WorkItem find(List<WorkItem> items, WorkItem workItem) {
+        for (WorkItem item : items) {
+            if (item.hasSameRange(workItem)) {
+                return item;
+            }
+        }
+        String msg = "Work item " + workItem.chunk + " of sample " + workItem.sampleName + " not found.";
+        logger.warning(msg);
+        throw new IllegalStateException(msg);
+    }
+
+    /*
+     * Reads the queue, applies the update, and writes the queue while holding the file lock. Threads of one process
+     * are serialized as well, also across instances (file locks are held on behalf of the whole process, a second lock
+     * in the same process would throw an OverlappingFileLockException).
+     */
+    private <T> T update(QueueUpdate<T> queueUpdate) {
+        synchronized (processLock) {
+            return updateLocked(queueUpdate);
+        }
+    }
+
+    private <T> T updateLocked(QueueUpdate<T> queueUpdate) {
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                List<WorkItem> items = read();
+                T result = queueUpdate.apply(items);
+                write(items);
+                return result;
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            String msg = "Worker " + workerId + ": Updating work queue " + queueFile + " failed: " + e;
+            logger.warning(msg);
+            throw new IllegalStateException(msg, e);
+        }
+    }
+
+    private List<WorkItem> read() throws IOException {
+        List<WorkItem> items = new ArrayList<>();
+        if (!Files.exists(queueFile)) {
+            return items;
+        }
+        try (CSVParser csvParser = new CSVParser(new FileReader(queueFile.toFile()), csvFormatWorkQueue.withFirstRecordAsHeader())) {
+            for (CSVRecord record : csvParser) {
+                WorkItem item = new WorkItem(
+                        record.get("Sample"),
+                        Integer.parseInt(record.get("Chunk")),
+                        Integer.parseInt(record.get("FromMetricIndex")),
+                        Integer.parseInt(record.get("ToMetricIndex"))
+                );
+                item.status = Status.valueOf(record.get("Status"));
+                item.worker = record.get("Worker");
+                item.leaseExpiry = Long.parseLong(record.get("LeaseExpiry"));
+                items.add(item);
+            }
+        }
+        return items;
+    }
+
+    private void write(List<WorkItem> items) throws IOException {
+        // write to temporary file first, the queue file is always complete
+        Path temporaryFile = Paths.get(queueFile.toString() + ".tmp");
+        try (CSVPrinter csvPrinter = new CSVPrinter(new FileWriter(temporaryFile.toFile()), csvFormatWorkQueue)) {
+            for (WorkItem item : items) {
+                // "Sample", "Chunk", "FromMetricIndex", "ToMetricIndex", "Status", "Worker", "LeaseExpiry"
+                csvPrinter.printRecord(
+                        item.sampleName,
+                        item.chunk,
+                        item.fromMetricIndex,
+                        item.toMetricIndex,
+                        item.status,
+                        item.worker,
+                        item.leaseExpiry
+                );
+            }
+        }
+        Files.move(temporaryFile, queueFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    interface WorkItemEvaluation {
+        void evaluate(String sampleName, int fromMetricIndex, int toMetricIndex, String name);
+    }
+
+    private interface QueueUpdate<T> {
+        T apply(List<WorkItem> items);
+    }
+
+    private static class WorkItem {
+        private final String sampleName;
+        private final int chunk;
+        private final int fromMetricIndex;
+        private final int toMetricIndex;
+        private Status status;
+        private String worker;
+        private long leaseExpiry; // System.currentTimeMillis()
+
+        private WorkItem(String sampleName, int chunk, int fromMetricIndex, int toMetricIndex) {
+            this.sampleName = sampleName;
+            this.chunk = chunk;
+            this.fromMetricIndex = fromMetricIndex;
+            this.toMetricIndex = toMetricIndex;
+            this.status = Status.PENDING;
+            this.worker = null;
+            this.leaseExpiry = 0;
+        }
+
+        private boolean hasSameRange(WorkItem other) {
+            return sampleName.equals(other.sampleName) && chunk == other.chunk
+                    && fromMetricIndex == other.fromMetricIndex && toMetricIndex == other.toMetricIndex;
+        }
+    }
+}
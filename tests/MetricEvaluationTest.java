@@ -1,7 +1,11 @@
 import com.google.common.collect.Sets;
 import org.sotorrent.metricevaluation.evaluation.MetricEvaluationManager;
 import org.sotorrent.metricevaluation.evaluation.MetricEvaluationPerPost;
+import org.sotorrent.metricevaluation.evaluation.MetricEvaluationPerSample;
 import org.sotorrent.metricevaluation.evaluation.MetricResult;
+import org.sotorrent.metricevaluation.evaluation.MetricResultEvent;
+import org.sotorrent.metricevaluation.evaluation.ParetoFrontFile;
+import org.sotorrent.metricevaluation.evaluation.ResultEventFile;
 import org.sotorrent.metricevaluation.evaluation.SimilarityMetric;
 import org.junit.jupiter.api.Test;
 import org.sotorrent.posthistoryextractor.Config;
@@ -15,19 +19,31 @@ import org.sotorrent.util.LogUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.junit.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class MetricEvaluationTest {
@@ -102,6 +118,700 @@ class MetricEvaluationTest {
         }
     }
 
+    @Test
+    void testTimingOnlyRepetitions() {
+        MetricEvaluationManager manager = MetricEvaluationManager.DEFAULT
+                .withName("TestTimingOnlyRepetitionsReference")
+                .withInputPaths(pathToPostIdList, pathToPostHistory, pathToGroundTruth)
+                .withOutputDirPath(testOutputDir)
+                .withAllSimilarityMetrics(false)
+                .initialize();
+        MetricEvaluationManager timingOnlyManager = MetricEvaluationManager.DEFAULT
+                .withName("TestTimingOnlyRepetitions")
+                .withInputPaths(pathToPostIdList, pathToPostHistory, pathToGroundTruth)
+                .withOutputDirPath(testOutputDir)
+                .withAllSimilarityMetrics(false)
+                .withTimingOnlyRepetitions(true)
+                .initialize();
+
+        for (MetricEvaluationManager currentManager : Arrays.asList(manager, timingOnlyManager)) {
+            currentManager.addSimilarityMetric(MetricEvaluationManager.getSimilarityMetric("fourGramOverlap", 0.6));
+            currentManager.addSimilarityMetric(MetricEvaluationManager.getSimilarityMetric("levenshteinNormalized", 0.3));
+            currentManager.run();
+            assertTrue(currentManager.isFinished()); // assert that execution of manager successfully finished
+        }
+
+        // results of the first repetition are kept, runtimes are the mean of all repetitions
+        assertSameCounters(manager, timingOnlyManager, "fourGramOverlap", 0.6);
+        assertSameCounters(manager, timingOnlyManager, "levenshteinNormalized", 0.3);
+        for (int postId : timingOnlyManager.getPostIds()) {
+            MetricEvaluationPerPost evaluation = timingOnlyManager.getMetricEvaluation(postId, "fourGramOverlap", 0.6);
+            for (int postHistoryId : evaluation.getPostHistoryIds()) {
+                assertTrue(evaluation.getResultsText(postHistoryId).getRuntime() > 0);
+                assertEquals(evaluation.getResultsText(postHistoryId).getRuntime(),
+                        evaluation.getResultsCode(postHistoryId).getRuntime());
+            }
+        }
+    }
+
+    @Test
+    void testTimingOnlyRepetitionsDetectChangedConnections() {
+        MetricEvaluationManager manager = MetricEvaluationManager.DEFAULT
+                .withName("TestTimingOnlyRepetitionsChangedConnections")
+                .withInputPaths(pathToPostIdList, pathToPostHistory, pathToGroundTruth)
+                .withOutputDirPath(testOutputDir)
+                .withAllSimilarityMetrics(false)
+                .withRandomizeOrder(false)
+                .withTimingOnlyRepetitions(true)
+                .initialize();
+
+        // the metric inverts its similarity after the first repetition, thus the connections change
+        AtomicBoolean inverted = new AtomicBoolean(false);
+        manager.addSimilarityMetric(new SimilarityMetric("invertedEqual",
+                (str1, str2) -> inverted.get() ? 1.0 - org.sotorrent.stringsimilarity.equal.Variants.equal(str1, str2)
+                        : org.sotorrent.stringsimilarity.equal.Variants.equal(str1, str2),
+                SimilarityMetric.MetricType.EQUAL, 1.0));
+
+        CompletableFuture<MetricEvaluationManager> future = manager.runAsync(Runnable::run,
+                (currentManager, finished, size, currentRepetition, numberOfRepetitions) -> {
+                    if (currentRepetition == 1 && finished == size) {
+                        inverted.set(true);
+                    }
+                });
+
+        ExecutionException exception = assertThrows(ExecutionException.class, future::get);
+        assertTrue(exception.getCause() instanceof IllegalStateException);
+        assertTrue(exception.getCause().getMessage().startsWith("Connections changed from repetition 1 to 2"));
+        assertFalse(manager.isFinished());
+    }
+
+    /*
+     * Asserts that both managers computed the same counters for all versions of all posts.
+     */
+    private void assertSameCounters(MetricEvaluationManager expectedManager, MetricEvaluationManager actualManager,
+                                    String metricName, double threshold) {
+        assertThat(actualManager.getPostIds(), is(expectedManager.getPostIds()));
+        for (int postId : expectedManager.getPostIds()) {
+            MetricEvaluationPerPost expected = expectedManager.getMetricEvaluation(postId, metricName, threshold);
+            MetricEvaluationPerPost actual = actualManager.getMetricEvaluation(postId, metricName, threshold);
+            assertThat(actual.getPostHistoryIds(), is(expected.getPostHistoryIds()));
+            for (int postHistoryId : expected.getPostHistoryIds()) {
+                assertSameCounters(expected.getResultsText(postHistoryId), actual.getResultsText(postHistoryId));
+                assertSameCounters(expected.getResultsCode(postHistoryId), actual.getResultsCode(postHistoryId));
+            }
+        }
+    }
+
+    private void assertSameCounters(MetricResult expected, MetricResult actual) {
+        assertEquals(expected.getPostBlockVersionCount(), actual.getPostBlockVersionCount());
+        assertEquals(expected.getPossibleComparisons(), actual.getPossibleComparisons());
+        assertEquals(expected.getTruePositives(), actual.getTruePositives());
+        assertEquals(expected.getFalsePositives(), actual.getFalsePositives());
+        assertEquals(expected.getTrueNegatives(), actual.getTrueNegatives());
+        assertEquals(expected.getFalseNegatives(), actual.getFalseNegatives());
+        assertEquals(expected.getFailedPredecessorComparisons(), actual.getFailedPredecessorComparisons());
+    }
+
+    @Test
+    void testParetoFrontStopInterleavesRepetitions() throws IOException {
+        Path paretoFrontFile = Files.createTempFile("pareto_front", ".csv");
+        paretoFrontFile.toFile().deleteOnExit();
+        MetricEvaluationManager manager = MetricEvaluationManager.DEFAULT
+                .withName("TestParetoFrontStop")
+                .withInputPaths(pathToPostIdList, pathToPostHistory, pathToGroundTruth)
+                .withOutputDirPath(testOutputDir)
+                .withAllSimilarityMetrics(false)
+                .withRandomizeOrder(false)
+                .withParetoFront(new ParetoFrontFile(paretoFrontFile, 2))
+                .initialize();
+
+        manager.addSimilarityMetric(MetricEvaluationManager.getSimilarityMetric("fourGramOverlap", 0.6));
+        manager.addSimilarityMetric(MetricEvaluationManager.getSimilarityMetric("levenshteinNormalized", 0.3));
+        manager.addSimilarityMetric(MetricEvaluationManager.getSimilarityMetric("fourGramOverlap", 0.3));
+
+        // (evaluated metrics, repetition) of each progress event
+        List<String> progress = new ArrayList<>();
+        manager.runAsync(Runnable::run, (currentManager, finished, size, currentRepetition, numberOfRepetitions)
+                -> progress.add(finished + "/" + currentRepetition)).join();
+        assertTrue(manager.isFinished());
+
+        // the repetitions of the first block of two metrics are interleaved
+        assertThat(progress.subList(0, 8), is(Arrays.asList("1/1", "2/1", "1/2", "2/2", "1/3", "2/3", "1/4", "2/4")));
+        // the third metric is either evaluated in the second block or skipped
+        assertTrue(progress.size() == 8 || progress.size() == 12);
+        assertTrue(Files.size(paretoFrontFile) > 0);
+    }
+
+    @Test
+    void testAggregationSkipsMetricsMissingInSamples() throws IOException {
+        Path paretoFrontFile = Files.createTempFile("pareto_front", ".csv");
+        paretoFrontFile.toFile().deleteOnExit();
+        Path outputDir = Paths.get(testOutputDir.toString(), "missing_metrics");
+        MetricEvaluationManager template = MetricEvaluationManager.DEFAULT
+                .withInputPaths(pathToPostIdList, pathToPostHistory, pathToGroundTruth)
+                .withOutputDirPath(outputDir)
+                .withAllSimilarityMetrics(false)
+                .withRandomizeOrder(false);
+        // the first sample stops once its Pareto front is stable, the second sample evaluates all metrics
+        MetricEvaluationManager stoppedManager = template.withName("TestMissingMetrics1")
+                .withParetoFront(new ParetoFrontFile(paretoFrontFile, 1)).initialize();
+        MetricEvaluationManager completeManager = template.withName("TestMissingMetrics2").initialize();
+
+        // the second metric is as accurate as the first but slower, thus it does not change the front
+        SimilarityMetric fastMetric = new SimilarityMetric("fast",
+                org.sotorrent.stringsimilarity.equal.Variants::equal, SimilarityMetric.MetricType.EQUAL, 1.0);
+        SimilarityMetric slowMetric = new SimilarityMetric("slow", (str1, str2) -> {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return org.sotorrent.stringsimilarity.equal.Variants.equal(str1, str2);
+        }, SimilarityMetric.MetricType.EQUAL, 1.0);
+        for (MetricEvaluationManager manager : Arrays.asList(stoppedManager, completeManager)) {
+            manager.addSimilarityMetric(fastMetric);
+            manager.addSimilarityMetric(slowMetric);
+            manager.addSimilarityMetric(MetricEvaluationManager.getSimilarityMetric("fourGramOverlap", 0.6));
+            manager.run();
+            assertTrue(manager.isFinished());
+        }
+        List<String> linesStopped = Files.readAllLines(Paths.get(outputDir.toString(), "TestMissingMetrics1_per_sample.csv"));
+        List<String> linesComplete = Files.readAllLines(Paths.get(outputDir.toString(), "TestMissingMetrics2_per_sample.csv"));
+        assertTrue(linesStopped.size() < 1 + 3);
+        assertEquals(1 + 3, linesComplete.size());
+
+        // only the metrics evaluated on both samples are aggregated, independent of the order of the samples
+        for (List<MetricEvaluationManager> managers : Arrays.asList(Arrays.asList(stoppedManager, completeManager),
+                Arrays.asList(completeManager, stoppedManager))) {
+            File outputFileAggregated = Paths.get(outputDir.toString(), "MetricComparison_aggregated.csv").toFile();
+            MetricEvaluationManager.aggregateAndWriteSampleResults(managers, outputFileAggregated);
+            List<String> linesAggregated = Files.readAllLines(outputFileAggregated.toPath());
+            assertEquals(linesStopped.size(), linesAggregated.size());
+            for (int i = 1; i < linesAggregated.size(); i++) {
+                // same metric columns (type, name, and threshold of the text metric) as in the first sample
+                assertEquals(String.join(";", Arrays.asList(linesStopped.get(i).split(";")).subList(0, 3)),
+                        String.join(";", Arrays.asList(linesAggregated.get(i).split(";")).subList(0, 3)));
+            }
+        }
+    }
+
+    @Test
+    void testMetricResultFutures() throws Exception {
+        MetricEvaluationManager template = MetricEvaluationManager.DEFAULT
+                .withInputPaths(pathToPostIdList, pathToPostHistory, pathToGroundTruth)
+                .withOutputDirPath(testOutputDir)
+                .withAllSimilarityMetrics(false);
+        MetricEvaluationManager manager = template.withName("TestMetricResultFutures1").initialize();
+        addShardTestMetrics(manager);
+        MetricEvaluationManager otherManager = template.withName("TestMetricResultFutures2").initialize();
+        addShardTestMetrics(otherManager);
+
+        // the first run waits in its progress listener
+        List<String> progress = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch firstRunStarted = new CountDownLatch(1);
+        CountDownLatch firstRunResumed = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ExecutorService otherExecutor = Executors.newSingleThreadExecutor();
+        CompletableFuture<MetricEvaluationPerSample> firstMetricResult;
+        CompletableFuture<MetricEvaluationPerSample> secondMetricResult;
+        try {
+            CompletableFuture<MetricEvaluationManager> future = manager.runAsync(executor,
+                    (currentManager, finished, size, currentRepetition, numberOfRepetitions) -> {
+                        progress.add("first");
+                        firstRunStarted.countDown();
+                        try {
+                            firstRunResumed.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+            firstMetricResult = manager.getMetricResult(0);
+            secondMetricResult = manager.getMetricResult("levenshteinNormalized", 0.3);
+            assertTrue(firstRunStarted.await(60, TimeUnit.SECONDS));
+
+            // the second run waits for the first run without blocking the thread of its executor
+            CompletableFuture<MetricEvaluationManager> otherFuture = otherManager.runAsync(otherExecutor,
+                    (currentManager, finished, size, currentRepetition, numberOfRepetitions) -> progress.add("second"));
+            assertTrue(otherExecutor.submit(() -> true).get(10, TimeUnit.SECONDS));
+            assertEquals(Collections.singletonList("first"), progress);
+            assertFalse(firstMetricResult.isDone());
+
+            firstRunResumed.countDown();
+            assertTrue(future.get(60, TimeUnit.SECONDS).isFinished());
+            assertTrue(otherFuture.get(60, TimeUnit.SECONDS).isFinished());
+        } finally {
+            firstRunResumed.countDown();
+            executor.shutdown();
+            otherExecutor.shutdown();
+        }
+        // 3 metrics with 4 repetitions each, the runs are not interleaved
+        assertEquals(Collections.nCopies(12, "first"), progress.subList(0, 12));
+        assertEquals(Collections.nCopies(12, "second"), progress.subList(12, progress.size()));
+
+        // futures requested before and after the run are completed
+        assertEquals("fourGramOverlap", firstMetricResult.get().getSimilarityMetric().getNameText());
+        assertEquals(0.6, firstMetricResult.get().getSimilarityMetric().getConfig().getTextSimilarityThreshold(), 1e-9);
+        assertSame(secondMetricResult, manager.getMetricResult(1));
+        assertEquals("levenshteinNormalized", secondMetricResult.get().getSimilarityMetric().getNameText());
+        CompletableFuture<MetricEvaluationPerSample> thirdMetricResult = manager.getMetricResult("fourGramOverlap", 0.3);
+        assertTrue(thirdMetricResult.isDone());
+        assertEquals(0.3, thirdMetricResult.get().getSimilarityMetric().getConfig().getTextSimilarityThreshold(), 1e-9);
+
+        // unknown metrics and synchronous runs fail
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> manager.getMetricResult(3).get());
+        assertTrue(exception.getCause() instanceof IllegalStateException);
+        exception = assertThrows(ExecutionException.class, () -> manager.getMetricResult("fourGramOverlap", 0.5).get());
+        assertTrue(exception.getCause() instanceof IllegalArgumentException);
+        MetricEvaluationManager synchronousManager = template.withName("TestMetricResultFutures3").initialize();
+        addShardTestMetrics(synchronousManager);
+        synchronousManager.run();
+        exception = assertThrows(ExecutionException.class, () -> synchronousManager.getMetricResult(0).get());
+        assertTrue(exception.getCause() instanceof IllegalStateException);
+    }
+
+    @Test
+    void testRunAfterCancelledAsyncRun() throws Exception {
+        Path outputDir = Paths.get(testOutputDir.toString(), "run_after_async_run");
+        Path outputFilePerSample = Paths.get(outputDir.toString(), "TestRunAfterAsyncRun_per_sample.csv");
+        MetricEvaluationManager manager = MetricEvaluationManager.DEFAULT
+                .withName("TestRunAfterAsyncRun")
+                .withInputPaths(pathToPostIdList, pathToPostHistory, pathToGroundTruth)
+                .withOutputDirPath(outputDir)
+                .withAllSimilarityMetrics(false)
+                .withRandomizeOrder(false)
+                .initialize();
+        addShardTestMetrics(manager);
+
+        // the run is cancelled while it waits in its progress listener
+        CountDownLatch runStarted = new CountDownLatch(1);
+        CountDownLatch runResumed = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<MetricEvaluationManager> future = manager.runAsync(executor,
+                    (currentManager, finished, size, currentRepetition, numberOfRepetitions) -> {
+                        runStarted.countDown();
+                        try {
+                            runResumed.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+            assertTrue(runStarted.await(60, TimeUnit.SECONDS));
+            assertTrue(future.cancel(false));
+            runResumed.countDown();
+            // the evaluation has stopped once the executor runs the next task
+            assertTrue(executor.submit(() -> true).get(60, TimeUnit.SECONDS));
+        } finally {
+            runResumed.countDown();
+            executor.shutdown();
+        }
+        assertTrue(manager.getMetricResult(0).isCompletedExceptionally());
+
+        // a synchronous run of the same manager is not cancelled
+        manager.run();
+        assertTrue(manager.isFinished());
+        assertEquals(1 + 3, Files.readAllLines(outputFilePerSample).size());
+
+        // the third metric is cancelled in an asynchronous run, but evaluated in the next synchronous run
+        manager.runAsync(Runnable::run, (currentManager, finished, size, currentRepetition, numberOfRepetitions)
+                -> currentManager.getMetricResult(2).cancel(false)).join();
+        assertTrue(manager.getMetricResult(2).isCancelled());
+        assertEquals(1 + 2, Files.readAllLines(outputFilePerSample).size());
+        manager.run();
+        assertEquals(1 + 3, Files.readAllLines(outputFilePerSample).size());
+    }
+
+    @Test
+    void testResultEventsAreStreamed() throws Exception {
+        Path resultEventsFile = Files.createTempFile("result_events", ".csv");
+        resultEventsFile.toFile().deleteOnExit();
+
+        // the subscribers receive the events in the evaluating thread, one at a time
+        SubmissionPublisher<MetricResultEvent> publisher = new SubmissionPublisher<>(Runnable::run, Flow.defaultBufferSize());
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        publisher.subscribe(new Flow.Subscriber<MetricResultEvent>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(MetricResultEvent event) {
+                events.add(event.getLevel() + " " + event.getSimilarityMetric().getNameText() + " "
+                        + event.getSimilarityMetric().getConfig().getTextSimilarityThreshold() + " " + event.getPostId());
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                events.add("error");
+            }
+
+            @Override
+            public void onComplete() {
+                events.add("complete");
+            }
+        });
+        ResultEventFile resultEventFile = new ResultEventFile(resultEventsFile);
+        publisher.subscribe(resultEventFile);
+
+        MetricEvaluationManager manager = MetricEvaluationManager.DEFAULT
+                .withName("TestResultEvents")
+                .withInputPaths(pathToPostIdList, pathToPostHistory, pathToGroundTruth)
+                .withOutputDirPath(testOutputDir)
+                .withAllSimilarityMetrics(false)
+                .withRandomizeOrder(false)
+                .withResultPublisher(publisher)
+                .initialize();
+        addShardTestMetrics(manager);
+        manager.runAsync(Runnable::run, (currentManager, finished, size, currentRepetition, numberOfRepetitions)
+                -> events.add("progress " + finished + "/" + currentRepetition)).join();
+        publisher.close();
+        resultEventFile.awaitClose();
+        assertEquals("complete", events.get(events.size() - 1));
+
+        int postCount = manager.getPostIds().size();
+        int versionCount = 0;
+        for (PostVersionList postVersionList : manager.getPostVersionLists().values()) {
+            versionCount += postVersionList.size();
+        }
+        assertEquals(3 * versionCount, events.stream().filter(event -> event.startsWith("VERSION")).count());
+        assertEquals(3 * postCount, events.stream().filter(event -> event.startsWith("POST")).count());
+        assertEquals(3, events.stream().filter(event -> event.startsWith("SAMPLE")).count());
+
+        // the posts of the first metric are published while it is evaluated in the last repetition, its sample
+        // before the second metric is evaluated in the last repetition
+        int firstPost = events.indexOf("POST fourGramOverlap 0.6 " + manager.getPostIds().iterator().next());
+        assertTrue(events.indexOf("progress 3/3") < firstPost);
+        assertTrue(firstPost < events.indexOf("progress 1/4"));
+        int firstSample = events.indexOf("SAMPLE fourGramOverlap 0.6 -1");
+        assertTrue(events.indexOf("progress 1/4") < firstSample);
+        assertTrue(firstSample < events.indexOf("progress 2/4"));
+
+        // the events of the versions of a post precede the event of the post
+        for (int i = 0; i < events.size(); i++) {
+            if (events.get(i).startsWith("POST")) {
+                assertEquals(events.get(i).replace("POST", "VERSION"), events.get(i - 1));
+            }
+        }
+
+        // header and one row per event
+        List<String> lines = Files.readAllLines(resultEventsFile);
+        assertEquals(1 + 3 * (versionCount + postCount + 1), lines.size());
+        assertTrue(lines.get(0).startsWith("Level;Sample;"));
+    }
+
+    @Test
+    void testTimedOutPostIsOmitted() throws IOException {
+        Path timeBudgetDir = Paths.get(testOutputDir.toString(), "time_budget");
+        MetricEvaluationManager manager = MetricEvaluationManager.DEFAULT
+                .withName("TestTimeBudget")
+                .withInputPaths(pathToPostIdList, pathToPostHistory, pathToGroundTruth)
+                .withOutputDirPath(timeBudgetDir)
+                .withAllSimilarityMetrics(false)
+                .withRandomizeOrder(false)
+                .withNumberOfRepetitions(1)
+                .withTimeBudget(100, 0, false)
+                .initialize();
+        manager.addSimilarityMetric(new SimilarityMetric("equal",
+                org.sotorrent.stringsimilarity.equal.Variants::equal, SimilarityMetric.MetricType.EQUAL, 1.0));
+        // the first comparison of the second metric is pathological, it is not interrupted
+        AtomicBoolean firstComparison = new AtomicBoolean(true);
+        manager.addSimilarityMetric(new SimilarityMetric("slow", (str1, str2) -> {
+            if (firstComparison.getAndSet(false)) {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return org.sotorrent.stringsimilarity.equal.Variants.equal(str1, str2);
+        }, SimilarityMetric.MetricType.EQUAL, 1.0));
+        manager.run();
+        assertTrue(manager.isFinished());
+        int postCount = manager.getPostIds().size();
+
+        // the timed out metric is still written, without its first post
+        List<String> linesPerPost = Files.readAllLines(Paths.get(timeBudgetDir.toString(), "TestTimeBudget_per_post.csv"));
+        assertEquals(1 + postCount + postCount - 1, linesPerPost.size());
+        List<String> linesPerSample = Files.readAllLines(Paths.get(timeBudgetDir.toString(), "TestTimeBudget_per_sample.csv"));
+        assertEquals(3, linesPerSample.size());
+        int postCountColumn = Arrays.asList(linesPerSample.get(0).split(";", -1)).indexOf("PostCount");
+        assertEquals(String.valueOf(postCount), linesPerSample.get(1).split(";", -1)[postCountColumn]);
+        assertEquals(String.valueOf(postCount - 1), linesPerSample.get(2).split(";", -1)[postCountColumn]);
+
+        // the timeout records the overrun of the pathological comparison
+        List<String> linesTimeouts = Files.readAllLines(Paths.get(timeBudgetDir.toString(), "TestTimeBudget_timeouts.csv"));
+        assertEquals(2, linesTimeouts.size());
+        int overrunColumn = Arrays.asList(linesTimeouts.get(0).split(";", -1)).indexOf("Overrun");
+        long overrun = Long.parseLong(linesTimeouts.get(1).split(";", -1)[overrunColumn]);
+        assertTrue(overrun >= TimeUnit.MILLISECONDS.toNanos(150));
+    }
+
+    @Test
+    void testMergedShardsEqualSingleRun() throws IOException {
+        Path singleRunDir = Paths.get(testOutputDir.toString(), "single_run");
+        Path shardsDir = Paths.get(testOutputDir.toString(), "shards");
+        MetricEvaluationManager template = MetricEvaluationManager.DEFAULT
+                .withName("TestShards")
+                .withInputPaths(pathToPostIdList, pathToPostHistory, pathToGroundTruth)
+                .withAllSimilarityMetrics(false)
+                .withRandomSeed(42L);
+
+        MetricEvaluationManager singleRunManager = template.withOutputDirPath(singleRunDir).initialize();
+        addShardTestMetrics(singleRunManager);
+        singleRunManager.run();
+        assertTrue(singleRunManager.isFinished());
+
+        for (int shardIndex = 0; shardIndex < 2; shardIndex++) {
+            MetricEvaluationManager shardManager = template.withOutputDirPath(shardsDir)
+                    .withShard(shardIndex, 2).initialize();
+            addShardTestMetrics(shardManager);
+            shardManager.run();
+            assertTrue(shardManager.isFinished());
+        }
+        MetricEvaluationManager mergeManager = template.withOutputDirPath(shardsDir).initialize();
+        addShardTestMetrics(mergeManager);
+        mergeManager.mergePartialResults(shardsDir);
+        assertTrue(mergeManager.isFinished());
+
+        // runtimes differ between runs, all other columns and the order of the rows must be equal
+        for (String suffix : Arrays.asList("_per_version.csv", "_per_post.csv", "_per_sample.csv")) {
+            List<String> expected = readWithoutRuntimes(Paths.get(singleRunDir.toString(), "TestShards" + suffix));
+            List<String> actual = readWithoutRuntimes(Paths.get(shardsDir.toString(), "TestShards" + suffix));
+            assertTrue(expected.size() > 1);
+            assertThat(actual, is(expected));
+        }
+    }
+
+    @Test
+    void testResumeFromTruncatedCheckpoint() throws IOException {
+        Path checkpointDir = Paths.get(testOutputDir.toString(), "checkpoint");
+        Path resumedDir = Paths.get(testOutputDir.toString(), "checkpoint_resumed");
+        Files.createDirectories(resumedDir);
+        Path checkpointFile = Paths.get(checkpointDir.toString(), "TestCheckpoint_checkpoint.csv");
+        Path resumedCheckpointFile = Paths.get(resumedDir.toString(), "TestCheckpoint_checkpoint.csv");
+        MetricEvaluationManager template = MetricEvaluationManager.DEFAULT
+                .withName("TestCheckpoint")
+                .withInputPaths(pathToPostIdList, pathToPostHistory, pathToGroundTruth)
+                .withAllSimilarityMetrics(false)
+                .withRandomSeed(42L);
+
+        MetricEvaluationManager manager = template.withOutputDirPath(checkpointDir)
+                .withCheckpoint(true, false).initialize();
+        addShardTestMetrics(manager);
+        manager.run();
+        assertTrue(manager.isFinished());
+
+        // simulate a crash while writing the checkpoint: some repetitions of some metrics are missing, the last
+        // record is incomplete
+        byte[] checkpoint = Files.readAllBytes(checkpointFile);
+        Files.write(resumedCheckpointFile, Arrays.copyOf(checkpoint, checkpoint.length * 3 / 5));
+
+        MetricEvaluationManager resumedManager = template.withOutputDirPath(resumedDir)
+                .withCheckpoint(false, true).initialize();
+        addShardTestMetrics(resumedManager);
+        List<Integer> evaluatedRepetitions = new ArrayList<>();
+        resumedManager.runAsync(Runnable::run, (currentManager, finished, size, currentRepetition, numberOfRepetitions)
+                -> evaluatedRepetitions.add(currentRepetition)).join();
+        assertTrue(resumedManager.isFinished());
+
+        // only the repetitions missing in the checkpoint are evaluated (3 metrics, 4 repetitions)
+        assertFalse(evaluatedRepetitions.isEmpty());
+        assertTrue(evaluatedRepetitions.size() < 3 * 4, evaluatedRepetitions.size() + " evaluated repetitions");
+
+        // the results are the same as without interruption
+        assertSameCounters(manager, resumedManager, "fourGramOverlap", 0.6);
+        assertSameCounters(manager, resumedManager, "levenshteinNormalized", 0.3);
+        assertSameCounters(manager, resumedManager, "fourGramOverlap", 0.3);
+        for (String suffix : Arrays.asList("_per_version.csv", "_per_post.csv", "_per_sample.csv")) {
+            List<String> expected = readWithoutRuntimes(Paths.get(checkpointDir.toString(), "TestCheckpoint" + suffix));
+            List<String> actual = readWithoutRuntimes(Paths.get(resumedDir.toString(), "TestCheckpoint" + suffix));
+            assertThat(actual, is(expected));
+        }
+    }
+
+    @Test
+    void testResultsCacheHitAndChangedOptions() throws IOException {
+        Path cacheDir = Files.createTempDirectory("results_cache");
+        cacheDir.toFile().deleteOnExit();
+        MetricEvaluationManager template = MetricEvaluationManager.DEFAULT
+                .withName("TestResultsCache")
+                .withInputPaths(pathToPostIdList, pathToPostHistory, pathToGroundTruth)
+                .withOutputDirPath(testOutputDir)
+                .withAllSimilarityMetrics(false)
+                .withResultsCache(cacheDir);
+
+        MetricEvaluationManager manager = template.initialize();
+        addShardTestMetrics(manager);
+        assertEquals(3 * 4, countEvaluatedRepetitions(manager));
+
+        // same options: all metrics are restored from the cache
+        MetricEvaluationManager cachedManager = template.initialize();
+        addShardTestMetrics(cachedManager);
+        assertEquals(0, countEvaluatedRepetitions(cachedManager));
+        assertSameCounters(manager, cachedManager, "fourGramOverlap", 0.6);
+        assertSameCounters(manager, cachedManager, "levenshteinNormalized", 0.3);
+        assertSameCounters(manager, cachedManager, "fourGramOverlap", 0.3);
+
+        // changed options: the cached runtimes do not apply, all metrics are evaluated again
+        MetricEvaluationManager changedManager = template.withNumberOfRepetitions(2).initialize();
+        addShardTestMetrics(changedManager);
+        assertEquals(3 * 2, countEvaluatedRepetitions(changedManager));
+        MetricEvaluationManager timingOnlyManager = template.withTimingOnlyRepetitions(true).initialize();
+        addShardTestMetrics(timingOnlyManager);
+        assertEquals(3 * 4, countEvaluatedRepetitions(timingOnlyManager));
+
+        // runtimes measured with parallel post threads are not restored by a run with a single thread
+        MetricEvaluationManager postMajorTemplate = template.withEvaluationOrder(MetricEvaluationManager.EvaluationOrder.POST_MAJOR);
+        MetricEvaluationManager parallelManager = postMajorTemplate.withThreadCount(2).initialize();
+        addShardTestMetrics(parallelManager);
+        assertTrue(countEvaluatedRepetitions(parallelManager) > 0);
+        MetricEvaluationManager postMajorManager = postMajorTemplate.initialize();
+        addShardTestMetrics(postMajorManager);
+        assertTrue(countEvaluatedRepetitions(postMajorManager) > 0);
+        MetricEvaluationManager cachedPostMajorManager = postMajorTemplate.initialize();
+        addShardTestMetrics(cachedPostMajorManager);
+        assertEquals(0, countEvaluatedRepetitions(cachedPostMajorManager));
+
+        // only counters and runtimes are cached
+        MetricEvaluationManager latenciesManager = template.withComparisonLatencies(true).initialize();
+        addShardTestMetrics(latenciesManager);
+        assertThrows(IllegalStateException.class, latenciesManager::run);
+    }
+
+    private static int countEvaluatedRepetitions(MetricEvaluationManager manager) {
+        List<Integer> evaluatedRepetitions = new ArrayList<>();
+        manager.runAsync(Runnable::run, (currentManager, finished, size, currentRepetition, numberOfRepetitions)
+                -> evaluatedRepetitions.add(currentRepetition)).join();
+        assertTrue(manager.isFinished());
+        return evaluatedRepetitions.size();
+    }
+
+    @Test
+    void testRescoreRevisedGroundTruth() throws IOException {
+        Path storeDir = Paths.get(testOutputDir.toString(), "predicted_connections");
+        Path rescoredDir = Paths.get(testOutputDir.toString(), "rescored");
+        MetricEvaluationManager template = MetricEvaluationManager.DEFAULT
+                .withName("TestRescore")
+                .withAllSimilarityMetrics(false)
+                .withRandomSeed(42L);
+        MetricEvaluationManager originalTemplate = template
+                .withInputPaths(pathToPostIdList, pathToPostHistory, pathToGroundTruth);
+
+        MetricEvaluationManager manager = originalTemplate.withOutputDirPath(storeDir)
+                .withPredictedConnections(true).initialize();
+        addShardTestMetrics(manager);
+        manager.run();
+        assertTrue(manager.isFinished());
+
+        // round trip: re-scoring against the same ground truth restores the counters
+        MetricEvaluationManager rescoredManager = originalTemplate.withOutputDirPath(rescoredDir).initialize();
+        addShardTestMetrics(rescoredManager);
+        rescoredManager.rescore(storeDir);
+        assertTrue(rescoredManager.isFinished());
+        assertSameCounters(manager, rescoredManager, "fourGramOverlap", 0.6);
+        assertSameCounters(manager, rescoredManager, "levenshteinNormalized", 0.3);
+        assertSameCounters(manager, rescoredManager, "fourGramOverlap", 0.3);
+
+        // revised ground truth: the first text block of the second version of post 10381975 has no predecessor
+        Path revisedGroundTruth = Files.createTempDirectory("gt_revised");
+        revisedGroundTruth.toFile().deleteOnExit();
+        for (File file : pathToGroundTruth.toFile().listFiles()) {
+            Path revisedFile = Paths.get(revisedGroundTruth.toString(), file.getName());
+            List<String> lines = Files.readAllLines(file.toPath());
+            if (file.getName().equals("completed_10381975.csv")) {
+                assertEquals("10381975;23853687;1;1;null;1;", lines.get(1));
+                assertEquals("10381975;23853971;1;1;1;1;", lines.get(2));
+                lines.set(1, "10381975;23853687;1;1;null;null;");
+                lines.set(2, "10381975;23853971;1;1;null;1;");
+            }
+            Files.write(revisedFile, lines);
+            revisedFile.toFile().deleteOnExit();
+        }
+        MetricEvaluationManager revisedTemplate = template
+                .withInputPaths(pathToPostIdList, pathToPostHistory, revisedGroundTruth);
+
+        MetricEvaluationManager revisedManager = revisedTemplate.withOutputDirPath(rescoredDir).initialize();
+        addShardTestMetrics(revisedManager);
+        revisedManager.run();
+        assertTrue(revisedManager.isFinished());
+
+        MetricEvaluationManager rescoredRevisedManager = revisedTemplate.withOutputDirPath(rescoredDir).initialize();
+        addShardTestMetrics(rescoredRevisedManager);
+        rescoredRevisedManager.rescore(storeDir);
+        assertTrue(rescoredRevisedManager.isFinished());
+
+        // re-scored counts are the counts of evaluating the metrics against the revised ground truth
+        assertSameCounters(revisedManager, rescoredRevisedManager, "fourGramOverlap", 0.6);
+        assertSameCounters(revisedManager, rescoredRevisedManager, "levenshteinNormalized", 0.3);
+        assertSameCounters(revisedManager, rescoredRevisedManager, "fourGramOverlap", 0.3);
+
+        // and differ from the original counts by the removed connection
+        MetricResult original = rescoredManager.getMetricEvaluation(10381975, "fourGramOverlap", 0.6)
+                .getResultsText(23853971);
+        MetricResult revised = rescoredRevisedManager.getMetricEvaluation(10381975, "fourGramOverlap", 0.6)
+                .getResultsText(23853971);
+        assertEquals(original.getTruePositives() + original.getFalseNegatives() - 1,
+                revised.getTruePositives() + revised.getFalseNegatives());
+    }
+
+    private void addShardTestMetrics(MetricEvaluationManager manager) {
+        manager.addSimilarityMetric(MetricEvaluationManager.getSimilarityMetric("fourGramOverlap", 0.6));
+        manager.addSimilarityMetric(MetricEvaluationManager.getSimilarityMetric("levenshteinNormalized", 0.3));
+        manager.addSimilarityMetric(MetricEvaluationManager.getSimilarityMetric("fourGramOverlap", 0.3));
+    }
+
+    private static List<String> readWithoutRuntimes(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        List<String> header = Arrays.asList(lines.get(0).split(";", -1));
+        List<String> result = new ArrayList<>();
+        for (String line : lines) {
+            String[] values = line.split(";", -1);
+            StringBuilder row = new StringBuilder();
+            for (int i = 0; i < values.length; i++) {
+                if (!header.get(i).contains("Runtime")) {
+                    row.append(values[i]).append(';');
+                }
+            }
+            result.add(row.toString());
+        }
+        return result;
+    }
+
+    @Test
+    void testPostMajorEvaluationOrder() {
+        MetricEvaluationManager metricMajorManager = MetricEvaluationManager.DEFAULT
+                .withName("TestMetricMajorEvaluationOrder")
+                .withInputPaths(pathToPostIdList, pathToPostHistory, pathToGroundTruth)
+                .withOutputDirPath(testOutputDir)
+                .withAllSimilarityMetrics(false)
+                .initialize();
+        MetricEvaluationManager postMajorManager = MetricEvaluationManager.DEFAULT
+                .withName("TestPostMajorEvaluationOrder")
+                .withInputPaths(pathToPostIdList, pathToPostHistory, pathToGroundTruth)
+                .withOutputDirPath(testOutputDir)
+                .withAllSimilarityMetrics(false)
+                .withEvaluationOrder(MetricEvaluationManager.EvaluationOrder.POST_MAJOR)
+                .withPostBatchSize(2)
+                .withThreadCount(2)
+                .initialize();
+
+        for (MetricEvaluationManager manager : Arrays.asList(metricMajorManager, postMajorManager)) {
+            manager.addSimilarityMetric(MetricEvaluationManager.getSimilarityMetric("fourGramOverlap", 0.6));
+            manager.addSimilarityMetric(MetricEvaluationManager.getSimilarityMetric("levenshteinNormalized", 0.3));
+            manager.run();
+            assertTrue(manager.isFinished()); // assert that execution of manager successfully finished
+        }
+
+        // results must not depend on the evaluation order
+        assertSameCounters(metricMajorManager, postMajorManager, "fourGramOverlap", 0.6);
+        assertSameCounters(metricMajorManager, postMajorManager, "levenshteinNormalized", 0.3);
+    }
+
     private void validateAnswer3758880(List<Integer> postHistoryIds_3758880, MetricEvaluationPerPost evaluation_a_3758880) {
         /* validate answer 3758880 */
         // first version has never predecessors
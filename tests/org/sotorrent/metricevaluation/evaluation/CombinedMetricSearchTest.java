@@ -0,0 +1,135 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CombinedMetricSearchTest {
+    private static final int POSITIVES = 1000;
+    private static final int NEGATIVES = 9000;
+
+    /*
+     * Synthetic results: each primary metric has random counts, each backup metric turns a random fraction of the
+     * false negatives of the primary metric into true positives (as assumed by the bound of the search).
+     */
+    private static class SyntheticCombinedMetricSearch extends CombinedMetricSearch {
+        private final Random random = new Random(42);
+        private final Map<String, int[]> primaryCounts = new HashMap<>(); // metric -> {TP, FP}
+        private final Map<String, Double> backupFractions = new HashMap<>(); // (metric, backup metric) -> fraction
+        private int evaluationCount = 0;
+
+        SyntheticCombinedMetricSearch(int topK) {
+            super(Collections.emptyList(), ThresholdSearch.Objective.F_SCORE, topK);
+        }
+
+        @Override
+        MetricResult[] evaluateOnSamples(SimilarityMetric similarityMetric) {
+            evaluationCount++;
+            MetricResult[] results = new MetricResult[2];
+            results[MetricResultStore.TEXT] = getResult(similarityMetric, getKey(similarityMetric, MetricResultStore.TEXT));
+            results[MetricResultStore.CODE] = getResult(similarityMetric, getKey(similarityMetric, MetricResultStore.CODE));
+            return results;
+        }
+
+        private MetricResult getResult(SimilarityMetric similarityMetric, String[] key) {
+            int[] counts = primaryCounts.computeIfAbsent(key[0],
+                    metric -> new int[]{random.nextInt(POSITIVES + 1), random.nextInt(NEGATIVES + 1)});
+            int truePositives = counts[0];
+            int falsePositives = counts[1];
+            if (key[1] != null) {
+                double fraction = backupFractions.computeIfAbsent(key[0] + "|" + key[1], pair -> random.nextDouble());
+                truePositives += (int) Math.round(fraction * (POSITIVES - truePositives));
+            }
+            MetricResult result = new MetricResult(similarityMetric);
+            result.setTruePositives(truePositives);
+            result.setFalseNegatives(POSITIVES - truePositives);
+            result.setFalsePositives(falsePositives);
+            result.setTrueNegatives(NEGATIVES - falsePositives);
+            return result;
+        }
+
+        double getObjective(String metric, String backupMetric) {
+            return ThresholdSearch.getObjective(ThresholdSearch.Objective.F_SCORE,
+                    getResult(null, new String[]{metric, backupMetric}));
+        }
+    }
+
+    /*
+     * (primary metric, backup metric or null) of the text or code pair of a combined metric.
+     */
+    private static String[] getKey(SimilarityMetric similarityMetric, int type) {
+        if (type == MetricResultStore.TEXT) {
+            return new String[]{
+                    similarityMetric.getNameText() + ";" + similarityMetric.getConfig().getTextSimilarityThreshold(),
+                    similarityMetric.getBackupTypeText() == SimilarityMetric.MetricType.NONE ? null
+                            : similarityMetric.getBackupNameText() + ";" + similarityMetric.getConfig().getTextBackupSimilarityThreshold()
+            };
+        }
+        return new String[]{
+                similarityMetric.getNameCode() + ";" + similarityMetric.getConfig().getCodeSimilarityThreshold(),
+                similarityMetric.getBackupTypeCode() == SimilarityMetric.MetricType.NONE ? null
+                        : similarityMetric.getBackupNameCode() + ";" + similarityMetric.getConfig().getCodeBackupSimilarityThreshold()
+        };
+    }
+
+    private static String getKey(SimilarityMetric similarityMetric, boolean text) {
+        return getKey(similarityMetric, text ? MetricResultStore.TEXT : MetricResultStore.CODE)[0];
+    }
+
+    @Test
+    void testBranchAndBoundEqualsExhaustiveSearch() throws IOException {
+        for (int topK : new int[]{1, 3, 10}) {
+            File outputFile = Files.createTempFile("combined_search", ".csv").toFile();
+            outputFile.deleteOnExit();
+
+            SyntheticCombinedMetricSearch search = new SyntheticCombinedMetricSearch(topK);
+            List<SimilarityMetric> bestMetrics = search.searchAndWriteToCSV(outputFile);
+
+            List<String> expectedText = getExhaustiveTopK(search, MetricEvaluationManager.getCombinedCandidatesText(),
+                    MetricEvaluationManager.getCombinedCandidatesTextBackup(), true, topK);
+            List<String> expectedCode = getExhaustiveTopK(search, MetricEvaluationManager.getCombinedCandidatesCode(),
+                    MetricEvaluationManager.getCombinedCandidatesCodeBackup(), false, topK);
+
+            List<String> actualText = new ArrayList<>();
+            List<String> actualCode = new ArrayList<>();
+            for (SimilarityMetric bestMetric : bestMetrics) {
+                actualText.add(String.join("|", Objects.toString(getKey(bestMetric, MetricResultStore.TEXT)[0]),
+                        Objects.toString(getKey(bestMetric, MetricResultStore.TEXT)[1])));
+                actualCode.add(String.join("|", Objects.toString(getKey(bestMetric, MetricResultStore.CODE)[0]),
+                        Objects.toString(getKey(bestMetric, MetricResultStore.CODE)[1])));
+            }
+            assertEquals(expectedText, actualText);
+            assertEquals(expectedCode, actualCode);
+
+            int exhaustiveEvaluations = Math.max(
+                    MetricEvaluationManager.getCombinedCandidatesText().size() * (1 + MetricEvaluationManager.getCombinedCandidatesTextBackup().size()),
+                    MetricEvaluationManager.getCombinedCandidatesCode().size() * (1 + MetricEvaluationManager.getCombinedCandidatesCodeBackup().size()));
+            assertTrue(search.evaluationCount < exhaustiveEvaluations, search.evaluationCount + " of " + exhaustiveEvaluations + " evaluations");
+        }
+    }
+
+    /*
+     * k best (primary metric, backup metric) pairs of all pairs and primary metrics without backup metric.
+     */
+    private static List<String> getExhaustiveTopK(SyntheticCombinedMetricSearch search, List<SimilarityMetric> metrics,
+                                                  List<SimilarityMetric> backupMetrics, boolean text, int topK) {
+        Map<String, Double> objectives = new HashMap<>();
+        for (SimilarityMetric metric : metrics) {
+            String primary = getKey(metric, text);
+            objectives.put(primary + "|null", search.getObjective(primary, null));
+            for (SimilarityMetric backupMetric : backupMetrics) {
+                String backup = getKey(backupMetric, text);
+                objectives.put(primary + "|" + backup, search.getObjective(primary, backup));
+            }
+        }
+        List<String> pairs = new ArrayList<>(objectives.keySet());
+        pairs.sort(Comparator.comparingDouble((String pair) -> objectives.get(pair)).reversed());
+        return pairs.subList(0, Math.min(topK, pairs.size()));
+    }
+}
@@ -0,0 +1,79 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class CostModelTest {
+    // text linear, text quadratic, code linear, code quadratic
+    private static final double[][] POST_FEATURES = {
+            {100, 100, 0, 0},
+            {10, 1000, 0, 0},
+            {50, 500, 0, 0}
+    };
+    private static final int[] POST_IDS = {1, 2, 3};
+
+    private static SimilarityMetric getMetric(String name, SimilarityMetric.MetricType type, double threshold) {
+        return new SimilarityMetric(name, (str1, str2) -> 1.0, type, threshold);
+    }
+
+    private static MetricEvaluationPerSample getEvaluation(SimilarityMetric similarityMetric, int metricIndex) {
+        return new MetricEvaluationPerSample("sample", similarityMetric, metricIndex, Collections.emptySet(),
+                Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(),
+                1, false, false, false, false, null, 0L);
+    }
+
+    /*
+     * Observes runtimes proportional to the feature of each post, i.e., the fitted runtime per feature unit.
+     */
+    private static void observe(SimilarityMetric similarityMetric, double runtimePerFeatureUnit) {
+        for (double[] postFeatures : POST_FEATURES) {
+            CostModel.observe(similarityMetric, postFeatures,
+                    Math.round(runtimePerFeatureUnit * CostModel.getFeature(similarityMetric, postFeatures)));
+        }
+    }
+
+    @Test
+    void testFamilyByMetricName() {
+        SimilarityMetric metric1 = getMetric("costModelFamily1", SimilarityMetric.MetricType.EQUAL, 0.3);
+        SimilarityMetric metric1OtherThreshold = getMetric("costModelFamily1", SimilarityMetric.MetricType.EQUAL, 0.6);
+        SimilarityMetric metric2 = getMetric("costModelFamily2", SimilarityMetric.MetricType.EQUAL, 0.3);
+        assertEquals(CostModel.getFamily(metric1), CostModel.getFamily(metric1OtherThreshold));
+        assertNotEquals(CostModel.getFamily(metric1), CostModel.getFamily(metric2));
+
+        // metrics of the same type have their own runtime per feature unit, thresholds share it
+        observe(metric1, 2);
+        observe(metric2, 50);
+        assertEquals(2 * 100, CostModel.predict(metric1OtherThreshold, POST_FEATURES[0]), 0.001);
+        assertEquals(50 * 100, CostModel.predict(metric2, POST_FEATURES[0]), 0.001);
+    }
+
+    @Test
+    void testLongestProcessingTimeFirst() {
+        // edit-based metrics depend on the quadratic feature, the others on the linear feature
+        SimilarityMetric editMetric = getMetric("costModelEdit", SimilarityMetric.MetricType.EDIT, 0.3);
+        SimilarityMetric equalMetric = getMetric("costModelEqual", SimilarityMetric.MetricType.EQUAL, 0.3);
+        List<MetricEvaluationPerSample> evaluations = Arrays.asList(getEvaluation(editMetric, 0), getEvaluation(equalMetric, 1));
+        MetricEvaluationPerSample[] evaluationsArray = evaluations.toArray(new MetricEvaluationPerSample[0]);
+
+        // predicted costs: 100 * 100 + 100, 100 * 1000 + 10, 100 * 500 + 50
+        observe(editMetric, 100);
+        observe(equalMetric, 1);
+        assertArrayEquals(new int[]{1, 2, 0}, new CostModel(POST_IDS, POST_FEATURES, evaluations).getPostOrder(evaluationsArray));
+
+        // predicted costs: 100 + 1000 * 100, 1000 + 1000 * 10, 500 + 1000 * 50
+        SimilarityMetric cheapEditMetric = getMetric("costModelCheapEdit", SimilarityMetric.MetricType.EDIT, 0.3);
+        SimilarityMetric expensiveEqualMetric = getMetric("costModelExpensiveEqual", SimilarityMetric.MetricType.EQUAL, 0.3);
+        evaluations = Arrays.asList(getEvaluation(cheapEditMetric, 0), getEvaluation(expensiveEqualMetric, 1));
+        evaluationsArray = evaluations.toArray(new MetricEvaluationPerSample[0]);
+        observe(cheapEditMetric, 1);
+        observe(expensiveEqualMetric, 1000);
+        assertArrayEquals(new int[]{0, 2, 1}, new CostModel(POST_IDS, POST_FEATURES, evaluations).getPostOrder(evaluationsArray));
+    }
+}
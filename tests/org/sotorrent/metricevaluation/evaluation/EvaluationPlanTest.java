@@ -0,0 +1,35 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EvaluationPlanTest {
+
+    @Test
+    void testMemoryEstimate() {
+        // 10 blocks with 1000 characters
+        assertEquals(10 * 256 + 1000 * 2, EvaluationPlan.estimateSampleMemory(10, 1000));
+
+        // 3 metrics, 5 posts, 20 versions, 10 blocks
+        long resultMemory = 3 * (5 * 128 + 20 * 64);
+        assertEquals(resultMemory, EvaluationPlan.estimateResultMemory(3, 5, 20, 10, false, 0));
+        assertEquals(resultMemory + 3 * ComparisonLatencies.getEstimatedFootprint(),
+                EvaluationPlan.estimateResultMemory(3, 5, 20, 10, true, 0));
+        // predicted connections of one metric (metric-major) or all metrics (post-major)
+        assertEquals(resultMemory + (10 * 8 + 20 * 32),
+                EvaluationPlan.estimateResultMemory(3, 5, 20, 10, false, 1));
+        assertEquals(resultMemory + 3 * (10 * 8 + 20 * 32),
+                EvaluationPlan.estimateResultMemory(3, 5, 20, 10, false, 3));
+    }
+
+    @Test
+    void testPeakMemoryIncludesResultsOfAllSamples() {
+        // the results of all samples are kept until the end of the run
+        assertEquals(100 + 10 + 200 + 20 + 300 + 30, EvaluationPlan.estimatePeakMemory(Arrays.asList(
+                new long[] {100, 10}, new long[] {200, 20}, new long[] {300, 30})));
+        assertEquals(0, EvaluationPlan.estimatePeakMemory(Arrays.asList()));
+    }
+}
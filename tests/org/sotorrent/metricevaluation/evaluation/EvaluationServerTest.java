@@ -0,0 +1,77 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EvaluationServerTest {
+
+    @Test
+    void testParseSpec() {
+        Map<String, String> expected = new HashMap<>();
+        expected.put("metric", "levenshtein");
+        expected.put("threshold", "0.5");
+        assertEquals(expected, EvaluationServer.parseSpec("{\"metric\": \"levenshtein\", \"threshold\": 0.5}"));
+        assertEquals(expected, EvaluationServer.parseSpec(" {\n\t\"threshold\":0.5,\"metric\":\"levenshtein\" } "));
+        assertEquals(Collections.emptyMap(), EvaluationServer.parseSpec("{}"));
+
+        // null values are ignored, escapes are decoded, numbers follow the JSON grammar
+        Map<String, String> spec = EvaluationServer.parseSpec(
+                "{\"text\": \"a\\\"b\\\\c\\/\\u0041\", \"code\": null, \"textThreshold\": -1.5e+2, \"codeThreshold\": 0}");
+        assertEquals("a\"b\\c/A", spec.get("text"));
+        assertNull(spec.get("code"));
+        assertEquals("-1.5e+2", spec.get("textThreshold"));
+        assertEquals("0", spec.get("codeThreshold"));
+    }
+
+    @Test
+    void testParseMalformedSpec() {
+        String[] malformedSpecs = {
+                "", "[]", "{", "{\"a\":1,}", "{\"metric\":\"x\",}", "{,}", "{\"metric\":\"x\" \"threshold\":1}",
+                "{\"metric\" \"x\"}", "{\"metric\":}", "{metric:\"x\"}", "{'metric':'x'}",
+                "{\"metric\":\"x\"} {}", "{\"metric\":\"x\"}}", "{\"unknown\":1}",
+                "{\"metric\":\"x\",\"metric\":\"y\"}", "{\"metric\":{\"a\":1}}", "{\"metric\":[1]}",
+                "{\"metric\":true}", "{\"threshold\":01}", "{\"threshold\":1.}", "{\"threshold\":.5}",
+                "{\"threshold\":+1}", "{\"threshold\":1e}", "{\"threshold\":0x1}", "{\"threshold\":1-2}",
+                "{\"metric\":\"x}", "{\"metric\":\"\\x\"}", "{\"metric\":\"\\u00g1\"}", "{\"metric\":\"a\nb\"}",
+                "{\"metric\":nul}"
+        };
+        for (String malformedSpec : malformedSpecs) {
+            assertThrows(IllegalArgumentException.class, () -> EvaluationServer.parseSpec(malformedSpec), malformedSpec);
+        }
+    }
+
+    @Test
+    void testCreateSimilarityMetric() {
+        EvaluationServer server = new EvaluationServer(Collections.emptyList());
+        String name = MetricEvaluationManager.getAllSimilarityMetrics().get(0).getNameText();
+
+        SimilarityMetric metric = server.createSimilarityMetric(
+                EvaluationServer.parseSpec("{\"metric\": \"" + name + "\", \"threshold\": 0.3, \"codeThreshold\": 0.7}"));
+        assertEquals(name, metric.getNameText());
+        assertEquals(name, metric.getNameCode());
+        assertEquals(0.3, metric.getConfig().getTextSimilarityThreshold(), 1e-9);
+        assertEquals(0.7, metric.getConfig().getCodeSimilarityThreshold(), 1e-9);
+        assertEquals(SimilarityMetric.MetricType.NONE, metric.getBackupTypeText());
+
+        // missing threshold, threshold out of range, unknown name, missing code metric
+        String[] invalidSpecs = {
+                "{\"metric\": \"" + name + "\"}",
+                "{\"metric\": \"" + name + "\", \"threshold\": 1.5}",
+                "{\"metric\": \"" + name + "\", \"threshold\": -0.1}",
+                "{\"metric\": \"unknown\", \"threshold\": 0.5}",
+                "{\"text\": \"" + name + "\", \"threshold\": 0.5}",
+                "{\"metric\": \"" + name + "\", \"threshold\": 0.5, \"textBackup\": \"" + name + "\"}"
+        };
+        for (String invalidSpec : invalidSpecs) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> server.createSimilarityMetric(EvaluationServer.parseSpec(invalidSpec)), invalidSpec);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventJournalTest {
+
+    @Test
+    void testRoundTrip() throws IOException {
+        Path journalFile = Files.createTempFile("event_journal", ".bin");
+        try {
+            EventJournal.open(journalFile);
+            int sample = EventJournal.register("sample1");
+            int metric = EventJournal.register("levenshtein (0.5)");
+            assertEquals(sample, EventJournal.register("sample1"));
+
+            EventJournal.record(EventJournal.EventType.MANAGER_STARTED, 1, sample, -1, 2, 3);
+            EventJournal.record(EventJournal.EventType.EVALUATION_STARTED, 1, sample, metric, 1, 1);
+            EventJournal.record(EventJournal.EventType.EVALUATION_FINISHED, 1, sample, metric, 1, 42);
+            EventJournal.record(EventJournal.EventType.MANAGER_FINISHED, 1, sample, -1, 2, 3);
+            EventJournal.close();
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            EventJournalReader.read(journalFile, new PrintStream(output, true, StandardCharsets.UTF_8));
+            String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+
+            assertEquals(6, lines.length);
+            assertTrue(lines[0].startsWith("# journal started at "));
+            assertEquals("Time;Type;Thread;Sample;Metric;Value1;Value2", lines[1]);
+            assertTrue(lines[2].endsWith(";MANAGER_STARTED;1;sample1;;2;3"));
+            assertTrue(lines[3].endsWith(";EVALUATION_STARTED;1;sample1;levenshtein (0.5);1;1"));
+            assertTrue(lines[4].endsWith(";EVALUATION_FINISHED;1;sample1;levenshtein (0.5);1;42"));
+            assertTrue(lines[5].endsWith(";MANAGER_FINISHED;1;sample1;;2;3"));
+        } finally {
+            EventJournal.close();
+            Files.deleteIfExists(journalFile);
+        }
+    }
+
+    @Test
+    void testInvalidJournal() throws IOException {
+        Path journalFile = Files.createTempFile("event_journal", ".bin");
+        try {
+            Files.write(journalFile, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+            assertThrows(IOException.class,
+                    () -> EventJournalReader.read(journalFile, new PrintStream(new ByteArrayOutputStream())));
+        } finally {
+            Files.deleteIfExists(journalFile);
+        }
+    }
+}
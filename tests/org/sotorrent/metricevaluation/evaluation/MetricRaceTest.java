@@ -0,0 +1,67 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricRaceTest {
+    private static final double UNDEFINED = Double.NEGATIVE_INFINITY; // see ThresholdSearch.getObjective()
+    private static final double INFINITE = Double.POSITIVE_INFINITY;
+
+    @Test
+    void testPruning() {
+        MetricRace race = new MetricRace(Collections.emptyList(), ThresholdSearch.Objective.F_SCORE, 1, 1.0, 0L);
+        double[] objectives = {0.9, 0.8, 0.3, 0.78, UNDEFINED, Double.NaN};
+        double[] standardErrors = {0.01, 0.01, 0.01, 0.01, INFINITE, INFINITE};
+
+        // cutoff is the lower bound of the third best metric
+        double cutoff = race.getCutoff(objectives, standardErrors);
+        assertEquals(0.77, cutoff, 1e-9);
+
+        assertFalse(race.isPruned(objectives[0], standardErrors[0], cutoff));
+        assertFalse(race.isPruned(objectives[1], standardErrors[1], cutoff));
+        assertTrue(race.isPruned(objectives[2], standardErrors[2], cutoff));
+        // within the margin
+        assertFalse(race.isPruned(objectives[3], standardErrors[3], cutoff));
+        // undefined objectives are the worst value, even with an infinite standard error
+        assertTrue(race.isPruned(objectives[4], standardErrors[4], cutoff));
+        assertTrue(race.isPruned(objectives[5], standardErrors[5], cutoff));
+        // defined objectives with infinite standard error are never pruned
+        assertFalse(race.isPruned(0.1, INFINITE, cutoff));
+    }
+
+    @Test
+    void testPruningWithoutMargin() {
+        MetricRace race = new MetricRace(Collections.emptyList(), ThresholdSearch.Objective.MATTHEWS_CORRELATION, 1, 0.0, 0L);
+        double[] objectives = {0.5, 0.4, UNDEFINED, 0.1};
+        double[] standardErrors = {INFINITE, 0.01, INFINITE, INFINITE};
+
+        double cutoff = race.getCutoff(objectives, standardErrors);
+        assertEquals(0.4, cutoff, 1e-9);
+
+        // without margin, the standard error is ignored
+        assertFalse(race.isPruned(objectives[0], standardErrors[0], cutoff));
+        assertFalse(race.isPruned(objectives[1], standardErrors[1], cutoff));
+        assertTrue(race.isPruned(objectives[2], standardErrors[2], cutoff));
+        assertTrue(race.isPruned(objectives[3], standardErrors[3], cutoff));
+    }
+
+    @Test
+    void testPruningMostlyUndefined() {
+        MetricRace race = new MetricRace(Collections.emptyList(), ThresholdSearch.Objective.F_SCORE, 1, 1.0, 0L);
+        double[] objectives = {0.2, UNDEFINED, Double.NaN, UNDEFINED};
+        double[] standardErrors = {0.1, INFINITE, INFINITE, INFINITE};
+
+        // the metric at the cutoff is undefined, thus only undefined metrics are pruned
+        double cutoff = race.getCutoff(objectives, standardErrors);
+        assertEquals(Double.NEGATIVE_INFINITY, cutoff);
+        assertFalse(race.isPruned(objectives[0], standardErrors[0], cutoff));
+        assertTrue(race.isPruned(objectives[1], standardErrors[1], cutoff));
+        assertTrue(race.isPruned(objectives[2], standardErrors[2], cutoff));
+        assertTrue(race.isPruned(objectives[3], standardErrors[3], cutoff));
+    }
+}
@@ -0,0 +1,42 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MetricResultStoreTest {
+
+    @Test
+    void testRuntimeAggregation() {
+        MetricResultStore results = new MetricResultStore(null, 2);
+
+        // runtimes are summed up until the last repetition, which stores the arithmetic mean
+        long[] runtimesVersion0 = {10, 20, 30, 41};
+        long[] runtimesVersion1 = {7, 7, 7, 7};
+        for (int repetition = 1; repetition <= 4; repetition++) {
+            results.addRuntime(0, runtimesVersion0[repetition - 1], repetition, 4);
+            results.addRuntime(1, runtimesVersion1[repetition - 1], repetition, 4);
+            if (repetition < 4) {
+                assertEquals(0, results.getRuntime(0) - sum(runtimesVersion0, repetition));
+            }
+        }
+        assertEquals(25, results.getRuntime(0)); // round(101 / 4)
+        assertEquals(7, results.getRuntime(1));
+        assertEquals(32, results.getResultSum(MetricResultStore.TEXT, 0, 2).getRuntime());
+    }
+
+    @Test
+    void testRuntimeSingleRepetition() {
+        MetricResultStore results = new MetricResultStore(null, 1);
+        results.addRuntime(0, 123, 1, 1);
+        assertEquals(123, results.getRuntime(0));
+    }
+
+    private static long sum(long[] values, int count) {
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+}
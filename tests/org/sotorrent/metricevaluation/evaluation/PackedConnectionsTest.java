@@ -0,0 +1,93 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PackedConnectionsTest {
+
+    @Test
+    void testConfusionMatrixEqualsSetOperations() {
+        Random random = new Random(42);
+        for (int run = 0; run < 1000; run++) {
+            int keyRange = 1 + random.nextInt(50);
+            Set<Long> connectionsGT = randomConnections(random, keyRange);
+            Set<Long> connections = randomConnections(random, keyRange);
+            int possibleConnections = keyRange + random.nextInt(10);
+
+            PackedConnections packedConnections = new PackedConnections(
+                    new long[][]{toSortedArray(connectionsGT)}, new int[]{possibleConnections}, new int[]{0});
+            long[] predicted = toSortedArray(connections);
+
+            assertArrayEquals(countWithSets(connections, connectionsGT, possibleConnections),
+                    packedConnections.countConfusionMatrix(0, predicted, predicted.length));
+        }
+    }
+
+    @Test
+    void testPredictedPrefixOfBuffer() {
+        // only the first predictedCount elements of the reused buffer are predicted connections
+        PackedConnections packedConnections = new PackedConnections(
+                new long[][]{{1, 3, 5}}, new int[]{10}, new int[]{0});
+        long[] buffer = {3, 4, 5, 1, 1};
+        assertArrayEquals(new int[]{1, 1, 6, 2}, packedConnections.countConfusionMatrix(0, buffer, 2));
+    }
+
+    @Test
+    void testInconsistentPossibleConnections() {
+        // TP + FP + FN exceeds the possible connections of the ground truth
+        PackedConnections packedConnections = new PackedConnections(
+                new long[][]{{1, 2}}, new int[]{2}, new int[]{0});
+        long[] predicted = {3};
+        assertThrows(IllegalStateException.class, () -> packedConnections.countConfusionMatrix(0, predicted, 1));
+    }
+
+    @Test
+    void testMoreConnectionsThanPossible() {
+        // ground truth with more connections than possible
+        PackedConnections packedConnectionsGT = new PackedConnections(
+                new long[][]{{1, 2, 3}}, new int[]{2}, new int[]{0});
+        assertThrows(IllegalStateException.class,
+                () -> packedConnectionsGT.countConfusionMatrix(0, new long[]{1}, 1));
+
+        // prediction with more connections than possible
+        PackedConnections packedConnections = new PackedConnections(
+                new long[][]{{1}}, new int[]{2}, new int[]{0});
+        assertThrows(IllegalStateException.class,
+                () -> packedConnections.countConfusionMatrix(0, new long[]{1, 2, 3}, 3));
+    }
+
+    /*
+     * Set-based implementation used before the connections were packed.
+     */
+    private static int[] countWithSets(Set<Long> connections, Set<Long> connectionsGT, int possibleConnections) {
+        Set<Long> truePositives = new HashSet<>(connections);
+        truePositives.retainAll(connectionsGT);
+        Set<Long> falsePositives = new HashSet<>(connections);
+        falsePositives.removeAll(connectionsGT);
+        Set<Long> falseNegatives = new HashSet<>(connectionsGT);
+        falseNegatives.removeAll(connections);
+        Set<Long> union = new HashSet<>(connections);
+        union.addAll(connectionsGT);
+        int trueNegatives = possibleConnections - union.size();
+        return new int[]{truePositives.size(), falsePositives.size(), trueNegatives, falseNegatives.size()};
+    }
+
+    private static Set<Long> randomConnections(Random random, int keyRange) {
+        Set<Long> connections = new HashSet<>();
+        int count = random.nextInt(keyRange + 1);
+        for (int i = 0; i < count; i++) {
+            connections.add((long) random.nextInt(keyRange));
+        }
+        return connections;
+    }
+
+    private static long[] toSortedArray(Set<Long> connections) {
+        long[] array = connections.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(array);
+        return array;
+    }
+}
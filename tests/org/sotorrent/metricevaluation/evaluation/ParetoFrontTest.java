@@ -0,0 +1,87 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParetoFrontTest {
+
+    private static MetricResult getResult(SimilarityMetric similarityMetric, int truePositives, long runtime) {
+        MetricResult result = new MetricResult(similarityMetric);
+        result.setTruePositives(truePositives);
+        result.setFalseNegatives(100 - truePositives);
+        result.setFalsePositives(10);
+        result.setTrueNegatives(890);
+        result.setRuntime(runtime);
+        return result;
+    }
+
+    @Test
+    void testStableFront() throws IOException {
+        Path outputFile = Files.createTempFile("pareto_front", ".csv");
+        outputFile.toFile().deleteOnExit();
+        ParetoFrontFile paretoFrontFile = new ParetoFrontFile(outputFile, 2);
+        ParetoFront front = paretoFrontFile.getFront("sample");
+        SimilarityMetric metric = new SimilarityMetric("equal", (str1, str2) -> 1.0, SimilarityMetric.MetricType.EQUAL, 0.5);
+
+        assertTrue(front.isStopEnabled());
+        assertFalse(front.isStable());
+        assertTrue(front.add(metric, getResult(metric, 50, 100), getResult(metric, 50, 100)));
+        // faster and more accurate
+        assertTrue(front.add(metric, getResult(metric, 60, 90), getResult(metric, 40, 200)));
+        // dominated
+        assertFalse(front.add(metric, getResult(metric, 40, 100), getResult(metric, 30, 200)));
+        assertFalse(front.isStable());
+        assertFalse(front.add(metric, getResult(metric, 60, 90), getResult(metric, 50, 100)));
+        assertTrue(front.isStable());
+
+        // slower but more accurate, the front changes again
+        assertTrue(front.add(metric, getResult(metric, 70, 500), getResult(metric, 50, 100)));
+        assertFalse(front.isStable());
+
+        // header and the points of both objectives: text (60, 90) and (70, 500), code (50, 100)
+        List<String> lines = Files.readAllLines(outputFile);
+        assertEquals(1 + 2 * 2 + 2, lines.size());
+    }
+
+    @Test
+    void testFrontsPerSample() throws IOException {
+        Path outputFile = Files.createTempFile("pareto_front", ".csv");
+        outputFile.toFile().deleteOnExit();
+        ParetoFrontFile paretoFrontFile = new ParetoFrontFile(outputFile, 1);
+        ParetoFront front1 = paretoFrontFile.getFront("sample1");
+        ParetoFront front2 = paretoFrontFile.getFront("sample2");
+        assertSame(front1, paretoFrontFile.getFront("sample1"));
+        SimilarityMetric metric = new SimilarityMetric("equal", (str1, str2) -> 1.0, SimilarityMetric.MetricType.EQUAL, 0.5);
+
+        assertTrue(front1.add(metric, getResult(metric, 50, 100), getResult(metric, 50, 100)));
+        assertFalse(front1.add(metric, getResult(metric, 50, 100), getResult(metric, 50, 100)));
+        assertTrue(front1.isStable());
+
+        // runtimes of different samples are not compared
+        assertFalse(front2.isStable());
+        assertTrue(front2.add(metric, getResult(metric, 10, 1000), getResult(metric, 10, 1000)));
+        assertFalse(front2.isStable());
+
+        // the output file contains the fronts of both samples
+        List<String> lines = Files.readAllLines(outputFile);
+        assertEquals(1 + 4 + 4, lines.size());
+        assertTrue(lines.get(1).startsWith("sample1;"));
+        assertTrue(lines.get(lines.size() - 1).startsWith("sample2;"));
+
+        // stop criterion disabled
+        ParetoFront front = new ParetoFrontFile(outputFile, 0).getFront("sample");
+        assertFalse(front.isStopEnabled());
+        front.add(metric, getResult(metric, 50, 100), getResult(metric, 50, 100));
+        front.add(metric, getResult(metric, 50, 100), getResult(metric, 50, 100));
+        assertFalse(front.isStable());
+    }
+}
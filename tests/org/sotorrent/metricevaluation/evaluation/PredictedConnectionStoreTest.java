@@ -0,0 +1,47 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PredictedConnectionStoreTest {
+
+    @Test
+    void testCorruptMagicNumber() throws IOException {
+        Path file = Files.createTempFile("predicted_connections", ".bin");
+        file.toFile().deleteOnExit();
+        Files.write(file, new byte[]{'P', 'C', 'O', 'X', 0, 0, 0, 1});
+
+        assertThrows(IOException.class, () -> PredictedConnectionStore.rescore(file, Collections.emptyMap()));
+        // an existing store is not overwritten when appending
+        assertThrows(IOException.class, () -> new PredictedConnectionStore(file, true));
+    }
+
+    @Test
+    void testEmptyStore() throws IOException {
+        Path file = Files.createTempFile("predicted_connections", ".bin");
+        file.toFile().deleteOnExit();
+
+        // header only
+        new PredictedConnectionStore(file, false).close();
+        assertEquals(2 * Integer.BYTES, Files.size(file));
+        assertTrue(PredictedConnectionStore.rescore(file, Collections.emptyMap()).isEmpty());
+
+        // incompletely written header (crash right after creating the file) is written again when appending
+        Files.write(file, new byte[]{'P', 'C'});
+        new PredictedConnectionStore(file, true).close();
+        try (DataInputStream input = new DataInputStream(Files.newInputStream(file))) {
+            assertEquals(0x50434f4e, input.readInt());
+        }
+        assertThrows(IOException.class, () -> PredictedConnectionStore.rescore(
+                Files.write(file, new byte[]{'P', 'C'}), Collections.emptyMap()));
+    }
+}
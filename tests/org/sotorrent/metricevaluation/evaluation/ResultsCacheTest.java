@@ -0,0 +1,24 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class ResultsCacheTest {
+
+    @Test
+    void testMetricFingerprint() {
+        SimilarityMetric metric = new SimilarityMetric("equal", (str1, str2) -> 1.0, SimilarityMetric.MetricType.EQUAL, 0.5);
+        SimilarityMetric otherThreshold = new SimilarityMetric("equal", (str1, str2) -> 1.0, SimilarityMetric.MetricType.EQUAL, 0.6);
+
+        // full SHA-256 hash (hex digits)
+        String fingerprint = ResultsCache.getMetricFingerprint(metric, "repetitions=4");
+        assertEquals(64, fingerprint.length());
+        assertEquals(fingerprint, ResultsCache.getMetricFingerprint(metric, "repetitions=4"));
+
+        // options and thresholds are part of the fingerprint
+        assertNotEquals(fingerprint, ResultsCache.getMetricFingerprint(metric, "repetitions=2"));
+        assertNotEquals(fingerprint, ResultsCache.getMetricFingerprint(otherThreshold, "repetitions=4"));
+    }
+}
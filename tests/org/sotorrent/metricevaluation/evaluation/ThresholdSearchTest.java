@@ -0,0 +1,94 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ThresholdSearchTest {
+
+    /*
+     * Informedness of the synthetic results is unimodal in the threshold, with its maximum at the given threshold.
+     */
+    private static class UnimodalThresholdSearch extends ThresholdSearch {
+        private final double bestThresholdText;
+        private final double bestThresholdCode;
+        private int evaluationCount;
+
+        UnimodalThresholdSearch(double precision, double bestThresholdText, double bestThresholdCode) {
+            super(Collections.emptyList(), Objective.INFORMEDNESS, precision);
+            this.bestThresholdText = bestThresholdText;
+            this.bestThresholdCode = bestThresholdCode;
+            this.evaluationCount = 0;
+        }
+
+        @Override
+        MetricResult[] evaluateOnSamples(SimilarityMetric metric) {
+            evaluationCount++;
+            MetricResult[] results = new MetricResult[2];
+            results[MetricResultStore.TEXT] = getResult(metric, metric.getConfig().getTextSimilarityThreshold(), bestThresholdText);
+            results[MetricResultStore.CODE] = getResult(metric, metric.getConfig().getCodeSimilarityThreshold(), bestThresholdCode);
+            return results;
+        }
+
+        private static MetricResult getResult(SimilarityMetric metric, double threshold, double bestThreshold) {
+            // no false positives, thus informedness is the recall
+            int truePositives = 1000 - (int) Math.round(1000 * Math.abs(threshold - bestThreshold));
+            MetricResult result = new MetricResult(metric);
+            result.setTruePositives(truePositives);
+            result.setFalseNegatives(1000 - truePositives);
+            result.setTrueNegatives(1000);
+            result.setFalsePositives(0);
+            return result;
+        }
+    }
+
+    @Test
+    void testConvergence() throws IOException {
+        File outputFile = Files.createTempFile("threshold_search", ".csv").toFile();
+        outputFile.deleteOnExit();
+        SimilarityMetric metric = new SimilarityMetric("equal", (str1, str2) -> 1.0, SimilarityMetric.MetricType.EQUAL, 0.5);
+
+        UnimodalThresholdSearch search = new UnimodalThresholdSearch(0.01, 0.37, 0.82);
+        List<SimilarityMetric> bestMetrics = search.searchAndWriteToCSV(Collections.singletonList(metric), outputFile);
+
+        assertEquals(1, bestMetrics.size());
+        assertEquals(0.37, bestMetrics.get(0).getConfig().getTextSimilarityThreshold(), 1e-9);
+        assertEquals(0.82, bestMetrics.get(0).getConfig().getCodeSimilarityThreshold(), 1e-9);
+        // fewer evaluations than the fixed grid
+        assertTrue(search.evaluationCount < 101, "evaluated " + search.evaluationCount + " thresholds");
+
+        // header, evaluated thresholds, and the best text and code thresholds
+        assertEquals(1 + search.evaluationCount + 2, Files.readAllLines(outputFile.toPath()).size());
+    }
+
+    @Test
+    void testConvergenceAtBoundary() throws IOException {
+        File outputFile = Files.createTempFile("threshold_search", ".csv").toFile();
+        outputFile.deleteOnExit();
+        SimilarityMetric metric = new SimilarityMetric("equal", (str1, str2) -> 1.0, SimilarityMetric.MetricType.EQUAL, 0.5);
+
+        UnimodalThresholdSearch search = new UnimodalThresholdSearch(0.05, 0.0, 1.0);
+        List<SimilarityMetric> bestMetrics = search.searchAndWriteToCSV(Collections.singletonList(metric), outputFile);
+
+        assertEquals(0.0, bestMetrics.get(0).getConfig().getTextSimilarityThreshold(), 1e-9);
+        assertEquals(1.0, bestMetrics.get(0).getConfig().getCodeSimilarityThreshold(), 1e-9);
+    }
+
+    @Test
+    void testInvalidPrecision() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ThresholdSearch(Collections.emptyList(), ThresholdSearch.Objective.F_SCORE, 0.03));
+        assertThrows(IllegalArgumentException.class,
+                () -> new ThresholdSearch(Collections.emptyList(), ThresholdSearch.Objective.F_SCORE, 0.2));
+        assertThrows(IllegalArgumentException.class,
+                () -> new ThresholdSearch(Collections.emptyList(), ThresholdSearch.Objective.F_SCORE, 0.0));
+    }
+}
@@ -0,0 +1,104 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.junit.jupiter.api.Test;
+import org.sotorrent.posthistoryextractor.Config;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimeBudgetTest {
+    private static final long BUDGET = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static BiFunction<String, String, Double> getSlowMetric(long millis) {
+        return (str1, str2) -> {
+            sleep(millis);
+            return 1.0;
+        };
+    }
+
+    private static Config getInstrumentedConfig(long millis) {
+        return TimeBudget.instrument(Config.DEFAULT
+                .withTextSimilarityMetric(getSlowMetric(millis))
+                .withCodeSimilarityMetric(getSlowMetric(millis)));
+    }
+
+    @Test
+    void testPostBudget() {
+        TimeBudget timeBudget = new TimeBudget(BUDGET, 0, false);
+        Config config = getInstrumentedConfig(20);
+        AtomicInteger comparisons = new AtomicInteger();
+
+        // aborted at the first comparison after the deadline
+        TimeBudget.BudgetExceededException e = assertThrows(TimeBudget.BudgetExceededException.class,
+                () -> timeBudget.evaluate(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        config.getTextSimilarityMetric().apply("a", "b");
+                        comparisons.incrementAndGet();
+                    }
+                }, 0));
+        assertEquals(TimeBudget.Budget.POST, e.getBudget());
+        assertEquals(BUDGET, e.getBudgetTime());
+        assertTrue(comparisons.get() < 100);
+
+        // within the budget
+        timeBudget.evaluate(() -> config.getCodeSimilarityMetric().apply("a", "b"), 0);
+    }
+
+    @Test
+    void testPathologicalComparison() {
+        TimeBudget timeBudget = new TimeBudget(BUDGET, 0, false);
+        Config config = getInstrumentedConfig(300);
+        AtomicInteger comparisons = new AtomicInteger();
+
+        // a single comparison is not interrupted, the evaluation is complete but exceeded the budget
+        long startTime = System.nanoTime();
+        TimeBudget.BudgetExceededException e = assertThrows(TimeBudget.BudgetExceededException.class,
+                () -> timeBudget.evaluate(() -> {
+                    config.getTextSimilarityMetric().apply("a", "b");
+                    comparisons.incrementAndGet();
+                }, 0));
+        long evaluationTime = System.nanoTime() - startTime;
+        assertEquals(1, comparisons.get());
+        assertEquals(TimeBudget.Budget.POST, e.getBudget());
+        // overrun of at least the 200 ms beyond the budget
+        assertTrue(evaluationTime - e.getBudgetTime() >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    void testMetricBudget() {
+        TimeBudget timeBudget = new TimeBudget(0, 2 * BUDGET, false);
+        Config config = getInstrumentedConfig(20);
+        AtomicInteger comparisons = new AtomicInteger();
+
+        // exhausted before the evaluation starts
+        assertTrue(timeBudget.isMetricBudgetExhausted(2 * BUDGET));
+        TimeBudget.BudgetExceededException e = assertThrows(TimeBudget.BudgetExceededException.class,
+                () -> timeBudget.evaluate(comparisons::incrementAndGet, 2 * BUDGET));
+        assertEquals(TimeBudget.Budget.METRIC, e.getBudget());
+        assertEquals(0, e.getBudgetTime());
+        assertEquals(0, comparisons.get());
+
+        // the remaining metric budget limits the evaluation
+        e = assertThrows(TimeBudget.BudgetExceededException.class,
+                () -> timeBudget.evaluate(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        config.getTextSimilarityMetric().apply("a", "b");
+                    }
+                }, BUDGET));
+        assertEquals(TimeBudget.Budget.METRIC, e.getBudget());
+        assertEquals(BUDGET, e.getBudgetTime());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
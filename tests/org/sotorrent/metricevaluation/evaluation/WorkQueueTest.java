@@ -0,0 +1,149 @@
+package org.sotorrent.metricevaluation.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkQueueTest {
+    private static final long LEASE_MILLIS = 1000;
+
+    private static Map<String, Integer> getMetricCounts() {
+        Map<String, Integer> metricCounts = new LinkedHashMap<>();
+        metricCounts.put("sample1", 5);
+        metricCounts.put("sample2", 3);
+        return metricCounts;
+    }
+
+    private static Path createOutputDir() throws IOException {
+        Path outputDir = Files.createTempDirectory("work_queue");
+        outputDir.toFile().deleteOnExit();
+        return outputDir;
+    }
+
+    @Test
+    void testClaimingAndMerging() throws Exception {
+        Path outputDir = createOutputDir();
+        List<String> evaluatedItems = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger mergeCount = new AtomicInteger();
+
+        // two workers process the queue concurrently
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<Future<Boolean>> merged = new ArrayList<>();
+        for (String workerId : new String[]{"worker1", "worker2"}) {
+            WorkQueue workQueue = new WorkQueue(outputDir, 2, LEASE_MILLIS, workerId);
+            merged.add(executor.submit(() -> workQueue.process(getMetricCounts(),
+                    (sampleName, fromMetricIndex, toMetricIndex, name) -> {
+                        evaluatedItems.add(sampleName + "[" + fromMetricIndex + ", " + toMetricIndex + ") " + name);
+                        sleep(50);
+                    },
+                    mergeCount::incrementAndGet)));
+        }
+        executor.shutdown();
+        int mergingWorkers = (merged.get(0).get() ? 1 : 0) + (merged.get(1).get() ? 1 : 0);
+
+        // each item is claimed exactly once, the partial results are merged exactly once
+        Collections.sort(evaluatedItems);
+        assertEquals(Arrays.asList(
+                "sample1[0, 2) chunk_0", "sample1[2, 4) chunk_1", "sample1[4, 5) chunk_2",
+                "sample2[0, 2) chunk_0", "sample2[2, 3) chunk_1"), evaluatedItems);
+        assertEquals(1, mergingWorkers);
+        assertEquals(1, mergeCount.get());
+
+        // a worker started later finds all items done and merged
+        assertFalse(new WorkQueue(outputDir, 2, LEASE_MILLIS, "worker3").process(getMetricCounts(),
+                (sampleName, fromMetricIndex, toMetricIndex, name) -> evaluatedItems.add(name),
+                mergeCount::incrementAndGet));
+        assertEquals(5, evaluatedItems.size());
+        assertEquals(1, mergeCount.get());
+
+        // the queue does not match other metrics
+        assertThrows(IllegalStateException.class, () -> new WorkQueue(outputDir, 3, LEASE_MILLIS, "worker3")
+                .process(getMetricCounts(), (sampleName, fromMetricIndex, toMetricIndex, name) -> {}, () -> {}));
+    }
+
+    @Test
+    void testLeaseExpiry() throws IOException {
+        Path outputDir = createOutputDir();
+
+        // the first worker crashes while evaluating its first item, the item remains claimed
+        assertThrows(IllegalStateException.class, () -> new WorkQueue(outputDir, 2, LEASE_MILLIS, "worker1")
+                .process(getMetricCounts(), (sampleName, fromMetricIndex, toMetricIndex, name) -> {
+                    throw new IllegalStateException("crash");
+                }, () -> {}));
+
+        // the second worker evaluates the other items and reclaims the item after the lease expired
+        List<String> evaluatedItems = new ArrayList<>();
+        AtomicInteger mergeCount = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        assertTrue(new WorkQueue(outputDir, 2, LEASE_MILLIS, "worker2").process(getMetricCounts(),
+                (sampleName, fromMetricIndex, toMetricIndex, name) -> evaluatedItems.add(sampleName + " " + name),
+                mergeCount::incrementAndGet));
+        assertEquals(5, evaluatedItems.size());
+        assertEquals("sample1 chunk_0", evaluatedItems.get(evaluatedItems.size() - 1));
+        assertTrue(System.currentTimeMillis() - start >= LEASE_MILLIS / 2);
+        assertEquals(1, mergeCount.get());
+    }
+
+    @Test
+    void testLeaseRenewal() throws Exception {
+        Path outputDir = createOutputDir();
+        Map<String, Integer> metricCounts = Collections.singletonMap("sample", 1);
+        List<String> evaluatedItems = Collections.synchronizedList(new ArrayList<>());
+
+        // the evaluation takes longer than the lease, which is renewed by the first worker
+        CountDownLatch claimed = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Boolean> merged = executor.submit(() -> new WorkQueue(outputDir, 1, LEASE_MILLIS, "worker1")
+                .process(metricCounts, (sampleName, fromMetricIndex, toMetricIndex, name) -> {
+                    claimed.countDown();
+                    sleep(3 * LEASE_MILLIS);
+                    evaluatedItems.add("worker1");
+                }, () -> {}));
+        executor.shutdown();
+        claimed.await();
+
+        boolean mergedByWorker2 = new WorkQueue(outputDir, 1, LEASE_MILLIS, "worker2").process(metricCounts,
+                (sampleName, fromMetricIndex, toMetricIndex, name) -> evaluatedItems.add("worker2"), () -> {});
+        // either worker may claim the merge after the item is done
+        assertTrue(merged.get() ^ mergedByWorker2);
+        assertEquals(Collections.singletonList("worker1"), evaluatedItems);
+    }
+
+    @Test
+    void testMergeAfterCrash() throws IOException {
+        Path outputDir = createOutputDir();
+
+        // all items are done, but the worker crashes while merging
+        assertThrows(IllegalStateException.class, () -> new WorkQueue(outputDir, 2, LEASE_MILLIS, "worker1")
+                .process(getMetricCounts(), (sampleName, fromMetricIndex, toMetricIndex, name) -> {}, () -> {
+                    throw new IllegalStateException("crash");
+                }));
+
+        // a worker started later repeats the merge after the lease expired, without evaluating any item
+        AtomicInteger evaluationCount = new AtomicInteger();
+        AtomicInteger mergeCount = new AtomicInteger();
+        assertTrue(new WorkQueue(outputDir, 2, LEASE_MILLIS, "worker2").process(getMetricCounts(),
+                (sampleName, fromMetricIndex, toMetricIndex, name) -> evaluationCount.incrementAndGet(),
+                mergeCount::incrementAndGet));
+        assertEquals(0, evaluationCount.get());
+        assertEquals(1, mergeCount.get());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}